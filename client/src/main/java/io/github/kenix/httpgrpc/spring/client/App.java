@@ -24,6 +24,18 @@ class App {
     return new RestTemplateSettings();
   }
 
+  @Bean
+  @ConfigurationProperties(prefix = "app.load")
+  LoadSettings loadSettings() {
+    return new LoadSettings();
+  }
+
+  @Bean
+  @ConfigurationProperties(prefix = "app.replay")
+  ReplaySettings replaySettings() {
+    return new ReplaySettings();
+  }
+
   @Bean
   public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder,
       RestTemplateSettings settings) {
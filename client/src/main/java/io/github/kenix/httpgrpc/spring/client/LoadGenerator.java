@@ -0,0 +1,242 @@
+package io.github.kenix.httpgrpc.spring.client;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Open-loop load generator: requests are started at a fixed arrival rate, regardless of how long
+ * previous ones take. Latency is measured from the intended start time of each request rather than
+ * from the time it actually got sent, which corrects for coordinated omission: a stalled server
+ * delays the schedule and that delay is accounted to the requests that should have been sent
+ * meanwhile. Service time, measured from the actual send, is reported alongside.
+ *
+ * @author zzhao
+ */
+@Slf4j
+@Profile("load")
+@Component
+@RequiredArgsConstructor
+public class LoadGenerator implements ApplicationRunner {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double MICROS_PER_MS = 1000.0;
+  private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final LoadSettings settings;
+
+  @Override
+  public void run(ApplicationArguments args) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), r -> {
+          final Thread thread = new Thread(r, "load-client");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      final HttpClient client = HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofMillis(this.settings.getRequestTimeoutMs()))
+          .executor(executor)
+          .build();
+      final Map<Scenario, Stats> stats = new EnumMap<>(Scenario.class);
+      final List<Scenario> schedule = schedule(stats);
+
+      log.info("<run> {} warming up for {}s at {} rps", this.settings.getLabel(),
+          this.settings.getWarmupSeconds(), this.settings.getRate());
+      drive(client, schedule, stats, this.settings.getWarmupSeconds());
+      stats.values().forEach(Stats::reset);
+
+      log.info("<run> {} measuring for {}s at {} rps", this.settings.getLabel(),
+          this.settings.getDurationSeconds(), this.settings.getRate());
+      drive(client, schedule, stats, this.settings.getDurationSeconds());
+      report(stats);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Builds a cyclic schedule of scenarios following their weights, with a shuffled order.
+   */
+  private List<Scenario> schedule(Map<Scenario, Stats> stats) {
+    final Duration timeout = Duration.ofMillis(this.settings.getRequestTimeoutMs());
+    final List<Scenario> schedule = new ArrayList<>();
+    this.settings.getWeights().forEach((scenario, weight) -> {
+      for (int i = 0; i < weight; i++) {
+        schedule.add(scenario);
+      }
+      if (weight > 0) {
+        stats.put(scenario, new Stats(scenario.request(this.settings.getBaseUrl(), timeout)));
+      }
+    });
+    if (schedule.isEmpty()) {
+      throw new IllegalArgumentException("no scenario in the mix");
+    }
+    Collections.shuffle(schedule, ThreadLocalRandom.current());
+
+    return schedule;
+  }
+
+  private void drive(HttpClient client, List<Scenario> schedule, Map<Scenario, Stats> stats,
+      int seconds) throws InterruptedException {
+    final int maxInFlight = this.settings.getMaxInFlight();
+    final Semaphore inFlight = new Semaphore(maxInFlight);
+    final double intervalNanos = (double) TimeUnit.SECONDS.toNanos(1) / this.settings.getRate();
+    final long count = (long) seconds * this.settings.getRate();
+    final long start = System.nanoTime();
+
+    for (long i = 0; i < count; i++) {
+      final long intended = start + (long) (i * intervalNanos);
+      waitUntil(intended);
+      inFlight.acquire();
+
+      final Stats scenarioStats = stats.get(schedule.get((int) (i % schedule.size())));
+      final long sent = System.nanoTime();
+      client.sendAsync(scenarioStats.request, BodyHandlers.discarding())
+          .whenComplete((resp, t) -> {
+            final long done = System.nanoTime();
+            inFlight.release();
+            scenarioStats.record(done - intended, done - sent, t == null
+                && resp.statusCode() == 200);
+          });
+    }
+
+    // drain before measuring the next phase
+    if (!inFlight.tryAcquire(maxInFlight, this.settings.getRequestTimeoutMs() * 2L,
+        TimeUnit.MILLISECONDS)) {
+      log.warn("<drive> requests still in flight");
+    }
+  }
+
+  private static void waitUntil(long deadline) {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_THRESHOLD_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  private void report(Map<Scenario, Stats> stats) throws IOException {
+    final String label = this.settings.getLabel();
+    final String header = String.format("%-8s %-10s %8s %6s %9s %9s %9s %9s %11s", "label",
+        "scenario", "count", "errors", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)",
+        "svc-p99(ms)");
+    final StringBuilder sb = new StringBuilder(header).append('\n');
+    final StringBuilder csv = new StringBuilder();
+    final List<String> violations = new ArrayList<>();
+    for (final Map.Entry<Scenario, Stats> entry : stats.entrySet()) {
+      final Histogram responseTime = entry.getValue().responseTime.getIntervalHistogram();
+      final Histogram serviceTime = entry.getValue().serviceTime.getIntervalHistogram();
+      final long errors = entry.getValue().errors.sum();
+      final double p50 = responseTime.getValueAtPercentile(50) / MICROS_PER_MS;
+      final double p99 = responseTime.getValueAtPercentile(99) / MICROS_PER_MS;
+      final double p999 = responseTime.getValueAtPercentile(99.9) / MICROS_PER_MS;
+      final double max = responseTime.getMaxValue() / MICROS_PER_MS;
+      final double svcP99 = serviceTime.getValueAtPercentile(99) / MICROS_PER_MS;
+      sb.append(String.format("%-8s %-10s %8d %6d %9.3f %9.3f %9.3f %9.3f %11.3f", label,
+          entry.getKey(), responseTime.getTotalCount(), errors, p50, p99, p999, max, svcP99))
+          .append('\n');
+      csv.append(String.format("%s,%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", label, entry.getKey(),
+          responseTime.getTotalCount(), errors, p50, p99, p999, max, svcP99));
+
+      if (this.settings.getMaxP99Ms() > 0 && (p99 > this.settings.getMaxP99Ms() || errors > 0)) {
+        violations.add(entry.getKey() + " p99 " + p99 + "ms, " + errors + " errors");
+      }
+      writeDistribution(label + "-" + entry.getKey() + ".hgrm", responseTime);
+    }
+    log.info("<report> corrected for coordinated omission\n{}", sb);
+    writeSummary(csv.toString());
+
+    if (!violations.isEmpty()) {
+      throw new IllegalStateException("latency gate of p99 " + this.settings.getMaxP99Ms()
+          + "ms failed: " + violations);
+    }
+  }
+
+  private void writeDistribution(String fileName, Histogram histogram) throws IOException {
+    if (!StringUtils.hasText(this.settings.getReportDir())) {
+      return;
+    }
+    final Path dir = Files.createDirectories(Paths.get(this.settings.getReportDir()));
+    try (PrintStream out = new PrintStream(Files.newOutputStream(dir.resolve(fileName)), false,
+        StandardCharsets.UTF_8.name())) {
+      histogram.outputPercentileDistribution(out, MICROS_PER_MS);
+    }
+  }
+
+  private void writeSummary(String csv) throws IOException {
+    if (!StringUtils.hasText(this.settings.getReportDir())) {
+      return;
+    }
+    final Path file = Files.createDirectories(Paths.get(this.settings.getReportDir()))
+        .resolve("summary.csv");
+    final boolean exists = Files.exists(file);
+    try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      if (!exists) {
+        writer.write("label,scenario,count,errors,p50_ms,p99_ms,p999_ms,max_ms,service_p99_ms\n");
+      }
+      writer.write(csv);
+    }
+  }
+
+  /**
+   * Latencies in microseconds and errors of one scenario.
+   */
+  @RequiredArgsConstructor
+  private static final class Stats {
+
+    private final HttpRequest request;
+    private final Recorder responseTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder errors = new LongAdder();
+
+    void record(long responseNanos, long serviceNanos, boolean ok) {
+      this.responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(responseNanos));
+      this.serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+      if (!ok) {
+        this.errors.increment();
+      }
+    }
+
+    void reset() {
+      this.responseTime.reset();
+      this.serviceTime.reset();
+      this.errors.reset();
+    }
+  }
+}
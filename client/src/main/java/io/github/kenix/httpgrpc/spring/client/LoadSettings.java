@@ -0,0 +1,67 @@
+package io.github.kenix.httpgrpc.spring.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings of {@link LoadGenerator}.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class LoadSettings {
+
+  private String baseUrl = "http://localhost:8080";
+
+  /**
+   * Label of the run in reports, e.g. the profile of the app under test.
+   */
+  private String label = "direct";
+
+  /**
+   * Arrival rate of requests per second, independent of response times.
+   */
+  private int rate = 200;
+
+  private int warmupSeconds = 10;
+
+  private int durationSeconds = 60;
+
+  /**
+   * Maximum number of requests in flight, beyond which the schedule falls behind. Latencies are
+   * still measured from the intended start times.
+   */
+  private int maxInFlight = 1024;
+
+  private int requestTimeoutMs = 3000;
+
+  /**
+   * Relative weights of the scenarios in the request mix.
+   */
+  private Map<Scenario, Integer> mix = new EnumMap<>(Scenario.class);
+
+  /**
+   * Directory to write percentile distributions and a CSV summary to, none if empty.
+   */
+  private String reportDir = "";
+
+  /**
+   * Fails the run if p99 of any scenario exceeds this in milliseconds or errors occur, no gate if
+   * 0.
+   */
+  private double maxP99Ms;
+
+  /**
+   * Gets the weights of all scenarios, defaulting to equal ones if none configured.
+   */
+  Map<Scenario, Integer> getWeights() {
+    final Map<Scenario, Integer> weights = new EnumMap<>(Scenario.class);
+    for (final Scenario scenario : Scenario.values()) {
+      weights.put(scenario, this.mix.isEmpty() ? 1 : this.mix.getOrDefault(scenario, 0));
+    }
+    return weights;
+  }
+}
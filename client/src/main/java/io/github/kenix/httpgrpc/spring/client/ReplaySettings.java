@@ -0,0 +1,46 @@
+package io.github.kenix.httpgrpc.spring.client;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings of {@link TrafficReplayer}.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class ReplaySettings {
+
+  private String baseUrl = "http://localhost:8080";
+
+  /**
+   * Label of the run in reports, e.g. the profile of the app under test.
+   */
+  private String label = "direct";
+
+  /**
+   * Directory of files of recorded requests, <code>http-grpc.capture-dir</code> of the recording
+   * app.
+   */
+  private String captureDir = "captures";
+
+  /**
+   * Pace relative to the recorded one, e.g. 2 for twice as fast, as fast as
+   * {@link #maxInFlight} allows if 0.
+   */
+  private double speed = 1;
+
+  /**
+   * Maximum number of requests in flight, beyond which the schedule falls behind. Latencies are
+   * still measured from the intended start times.
+   */
+  private int maxInFlight = 1024;
+
+  private int requestTimeoutMs = 3000;
+
+  /**
+   * Directory to append a CSV summary to, none if empty.
+   */
+  private String reportDir = "";
+}
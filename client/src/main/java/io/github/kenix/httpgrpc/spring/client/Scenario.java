@@ -0,0 +1,76 @@
+package io.github.kenix.httpgrpc.spring.client;
+
+import io.github.kenix.grpc.greeter.api.GreeterProto.HelloRequestFrom;
+import io.github.kenix.grpc.greeter.api.GreeterProto.Planet;
+import io.github.kenix.grpc.greeter.api.GreeterProto.SubFrom;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.time.Duration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+/**
+ * Requests against the greeter routes of module <b>example</b>, covering GET and POST with JSON and
+ * protobuf.
+ *
+ * @author zzhao
+ */
+enum Scenario {
+
+  GET_JSON {
+    @Override
+    HttpRequest.Builder builder(String baseUrl) {
+      return HttpRequest.newBuilder(URI.create(baseUrl + GET_PATH))
+          .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+          .GET();
+    }
+  },
+
+  GET_PROTO {
+    @Override
+    HttpRequest.Builder builder(String baseUrl) {
+      return HttpRequest.newBuilder(URI.create(baseUrl + GET_PATH))
+          .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+          .GET();
+    }
+  },
+
+  POST_JSON {
+    @Override
+    HttpRequest.Builder builder(String baseUrl) {
+      return HttpRequest.newBuilder(URI.create(baseUrl + POST_PATH))
+          .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+          .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+          .POST(BodyPublishers.ofString("{\"name\":\"foo\",\"from\":\"Zurich\","
+              + "\"sub\":{\"fromField\":666,\"planet\":\"Mars\"}}"));
+    }
+  },
+
+  POST_PROTO {
+    @Override
+    HttpRequest.Builder builder(String baseUrl) {
+      final HelloRequestFrom payload = HelloRequestFrom.newBuilder()
+          .setName("foo")
+          .setFrom("Zurich")
+          .setSub(SubFrom.newBuilder().setFromField(666).setPlanet(Planet.Mars))
+          .build();
+      return HttpRequest.newBuilder(URI.create(baseUrl + POST_PATH))
+          .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+          .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+          .POST(BodyPublishers.ofByteArray(payload.toByteArray()));
+    }
+  };
+
+  private static final String GET_PATH = "/v1/greeter/foo?planet=Mars&sub.subfield=bar";
+  private static final String POST_PATH = "/v1/greeter";
+
+  abstract HttpRequest.Builder builder(String baseUrl);
+
+  /**
+   * Creates the request of this scenario, immutable and reused for all calls.
+   */
+  HttpRequest request(String baseUrl, Duration timeout) {
+    return builder(baseUrl).timeout(timeout).build();
+  }
+}
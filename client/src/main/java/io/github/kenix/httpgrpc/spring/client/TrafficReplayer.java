@@ -0,0 +1,257 @@
+package io.github.kenix.httpgrpc.spring.client;
+
+import com.google.protobuf.CodedInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Replays requests recorded by the transcoder with <code>http-grpc.capture-sample-rate</code> set,
+ * reading the memory-mapped capture files in order and sending each request at its recorded time
+ * scaled by the configured speed. Like {@link LoadGenerator}, latency is measured from the intended
+ * start time of each request, and reported per route.
+ * <p>
+ * Request bodies are recorded as bound protobuf messages and replayed as such, with content type
+ * <code>application/octet-stream</code>.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+@Profile("replay")
+@Component
+@RequiredArgsConstructor
+public class TrafficReplayer implements ApplicationRunner {
+
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double MICROS_PER_MS = 1000.0;
+  private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  // not to be set on java.net.http requests
+  private static final Set<String> RESTRICTED_HEADERS = Stream.of(
+      "connection", "content-length", "expect", "host", "upgrade", "content-type")
+      .collect(Collectors.toSet());
+
+  private final ReplaySettings settings;
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+  private long firstMicros = -1;
+  private long startNanos;
+
+  @Override
+  public void run(ApplicationArguments args) throws Exception {
+    final List<Path> files;
+    try (Stream<Path> list = Files.list(Paths.get(this.settings.getCaptureDir()))) {
+      files = list
+          .filter(p -> p.getFileName().toString().endsWith(".bin"))
+          .sorted() // names in recording order
+          .collect(Collectors.toList());
+    }
+    if (files.isEmpty()) {
+      throw new IllegalArgumentException("no capture files in " + this.settings.getCaptureDir());
+    }
+
+    final ExecutorService executor = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), r -> {
+          final Thread thread = new Thread(r, "replay-client");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      final HttpClient client = HttpClient.newBuilder()
+          .version(HttpClient.Version.HTTP_1_1)
+          .connectTimeout(Duration.ofMillis(this.settings.getRequestTimeoutMs()))
+          .executor(executor)
+          .build();
+      final Semaphore inFlight = new Semaphore(this.settings.getMaxInFlight());
+      log.info("<run> {} replaying {} files at speed {}", this.settings.getLabel(), files.size(),
+          this.settings.getSpeed());
+      for (final Path file : files) {
+        replay(client, inFlight, file);
+      }
+      if (!inFlight.tryAcquire(this.settings.getMaxInFlight(),
+          this.settings.getRequestTimeoutMs() * 2L, TimeUnit.MILLISECONDS)) {
+        log.warn("<run> requests still in flight");
+      }
+      report();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void replay(HttpClient client, Semaphore inFlight, Path file)
+      throws IOException, InterruptedException {
+    final MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    }
+    final CodedInputStream in = CodedInputStream.newInstance(buffer);
+    final Duration timeout = Duration.ofMillis(this.settings.getRequestTimeoutMs());
+    int count = 0;
+    while (!in.isAtEnd()) {
+      final int length = in.readRawVarint32();
+      if (length == 0) { // end of records, zero-filled
+        break;
+      }
+      final int limit = in.pushLimit(length);
+      final long micros = in.readUInt64();
+      final String route = in.readString();
+      final String method = in.readString();
+      final HttpRequest.Builder builder = HttpRequest.newBuilder(
+          URI.create(this.settings.getBaseUrl() + in.readString()))
+          .timeout(timeout);
+      final int headerCount = in.readUInt32();
+      for (int i = 0; i < headerCount; i++) {
+        final String name = in.readString();
+        final String value = in.readString();
+        if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+          builder.header(name, value);
+        }
+      }
+      final byte[] body = in.readByteArray();
+      in.popLimit(limit);
+
+      final HttpRequest request = body.length == 0 && !isWithBody(method)
+          ? builder.method(method, BodyPublishers.noBody()).build()
+          : builder.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+              .method(method, BodyPublishers.ofByteArray(body)).build();
+      send(client, inFlight, route, request, intendedNanos(micros));
+      count++;
+    }
+    log.info("<replay> {} requests of {}", count, file.getFileName());
+  }
+
+  private static boolean isWithBody(String method) {
+    return "POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method);
+  }
+
+  /**
+   * Maps the recorded time to the intended send time, at the configured speed, now if 0.
+   */
+  private long intendedNanos(long micros) {
+    if (this.firstMicros < 0) {
+      this.firstMicros = micros;
+      this.startNanos = System.nanoTime();
+    }
+    if (this.settings.getSpeed() <= 0) {
+      return System.nanoTime();
+    }
+    return this.startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(micros - this.firstMicros)
+        / this.settings.getSpeed());
+  }
+
+  private void send(HttpClient client, Semaphore inFlight, String route, HttpRequest request,
+      long intended) throws InterruptedException {
+    waitUntil(intended);
+    inFlight.acquire();
+    final Stats routeStats = this.stats.computeIfAbsent(route, k -> new Stats());
+    final long sent = System.nanoTime();
+    client.sendAsync(request, BodyHandlers.discarding())
+        .whenComplete((resp, t) -> {
+          final long done = System.nanoTime();
+          inFlight.release();
+          routeStats.record(done - intended, done - sent, t == null && resp.statusCode() < 500);
+        });
+  }
+
+  private static void waitUntil(long deadline) {
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      if (remaining > SPIN_THRESHOLD_NANOS) {
+        LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+      } else {
+        Thread.onSpinWait();
+      }
+    }
+  }
+
+  private void report() throws IOException {
+    final String label = this.settings.getLabel();
+    final StringBuilder sb = new StringBuilder(String.format(
+        "%-8s %-40s %8s %6s %9s %9s %9s %9s %11s%n", "label", "route", "count", "errors",
+        "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)", "svc-p99(ms)"));
+    final StringBuilder csv = new StringBuilder();
+    for (final Map.Entry<String, Stats> entry : new TreeMap<>(this.stats).entrySet()) {
+      final Histogram responseTime = entry.getValue().responseTime.getIntervalHistogram();
+      final Histogram serviceTime = entry.getValue().serviceTime.getIntervalHistogram();
+      final long errors = entry.getValue().errors.sum();
+      final double p50 = responseTime.getValueAtPercentile(50) / MICROS_PER_MS;
+      final double p99 = responseTime.getValueAtPercentile(99) / MICROS_PER_MS;
+      final double p999 = responseTime.getValueAtPercentile(99.9) / MICROS_PER_MS;
+      final double max = responseTime.getMaxValue() / MICROS_PER_MS;
+      final double svcP99 = serviceTime.getValueAtPercentile(99) / MICROS_PER_MS;
+      sb.append(String.format("%-8s %-40s %8d %6d %9.3f %9.3f %9.3f %9.3f %11.3f%n", label,
+          entry.getKey(), responseTime.getTotalCount(), errors, p50, p99, p999, max, svcP99));
+      csv.append(String.format("%s,\"%s\",%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f%n", label,
+          entry.getKey(), responseTime.getTotalCount(), errors, p50, p99, p999, max, svcP99));
+    }
+    log.info("<report> corrected for coordinated omission, server errors counted\n{}", sb);
+
+    if (!StringUtils.hasText(this.settings.getReportDir())) {
+      return;
+    }
+    final Path file = Files.createDirectories(Paths.get(this.settings.getReportDir()))
+        .resolve("replay-summary.csv");
+    final boolean exists = Files.exists(file);
+    try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      if (!exists) {
+        writer.write("label,route,count,errors,p50_ms,p99_ms,p999_ms,max_ms,service_p99_ms\n");
+      }
+      writer.write(csv.toString());
+    }
+  }
+
+  /**
+   * Latencies in microseconds and errors of one route.
+   */
+  private static final class Stats {
+
+    private final Recorder responseTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder serviceTime = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder errors = new LongAdder();
+
+    void record(long responseNanos, long serviceNanos, boolean ok) {
+      this.responseTime.recordValue(TimeUnit.NANOSECONDS.toMicros(responseNanos));
+      this.serviceTime.recordValue(TimeUnit.NANOSECONDS.toMicros(serviceNanos));
+      if (!ok) {
+        this.errors.increment();
+      }
+    }
+  }
+}
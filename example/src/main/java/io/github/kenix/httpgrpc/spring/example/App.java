@@ -6,6 +6,7 @@ import io.envoyproxy.pgv.grpc.ValidatingServerInterceptor;
 import io.github.kenix.grpc.greeter.api.GreeterProto;
 import io.github.kenix.httpgrpc.spring.GrpcServerDescriptor;
 import io.github.kenix.httpgrpc.spring.HttpGrpcMapper;
+import io.github.kenix.httpgrpc.spring.HttpGrpcSettings;
 import io.github.kenix.httpgrpc.spring.ServerMethodDefinitionInterceptor;
 import io.grpc.ServerMethodDefinition;
 import java.util.Collections;
@@ -16,6 +17,7 @@ import net.devh.boot.grpc.server.service.GrpcService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
 
@@ -59,6 +61,12 @@ class App {
     return new HttpGrpcMapper();
   }
 
+  @Bean
+  @ConfigurationProperties("http-grpc")
+  HttpGrpcSettings httpGrpcSettings() {
+    return new HttpGrpcSettings();
+  }
+
   @Bean
   GrpcServerDescriptor grpcServerDescriptor(@Value("${grpc.server.port}") int port) {
     return new GrpcServerDescriptor() {
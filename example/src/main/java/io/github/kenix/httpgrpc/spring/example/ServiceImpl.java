@@ -3,6 +3,7 @@
  */
 package io.github.kenix.httpgrpc.spring.example;
 
+import com.google.api.HttpBody;
 import io.github.kenix.grpc.greeter.api.GreeterGrpc.GreeterImplBase;
 import io.github.kenix.grpc.greeter.api.GreeterProto.HelloReply;
 import io.github.kenix.grpc.greeter.api.GreeterProto.HelloRequest;
@@ -68,4 +69,32 @@ public class ServiceImpl extends GreeterImplBase {
     }
 
   }
+
+  @Override
+  public void echo(HttpBody req, StreamObserver<HttpBody> respOb) {
+    respOb.onNext(req);
+    respOb.onCompleted();
+  }
+
+  @Override
+  public StreamObserver<HelloRequest> chat(StreamObserver<HelloReply> respOb) {
+    return new StreamObserver<HelloRequest>() {
+      @Override
+      public void onNext(HelloRequest req) {
+        respOb.onNext(HelloReply.newBuilder()
+            .setMessage("hello, " + req.getName())
+            .build());
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        log.debug("<chat> cancelled", t);
+      }
+
+      @Override
+      public void onCompleted() {
+        respOb.onCompleted();
+      }
+    };
+  }
 }
@@ -0,0 +1,24 @@
+package io.github.kenix.httpgrpc.spring.example
+
+import org.springframework.boot.test.context.ConfigFileApplicationContextInitializer
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+
+/**
+ * Transcodes with dynamic messages built from descriptors only, routed to the local gRPC port.
+ * Request validation is left to the gRPC server then.
+ *
+ * @author zzhao
+ */
+@ContextConfiguration(initializers = ConfigFileApplicationContextInitializer)
+@SpringBootTest(classes = AppLocalRouting,
+    properties = ['grpc.server.port=55335', 'example.descriptor-only=true'])
+@ActiveProfiles(['test', 'local'])
+class DescriptorOnlySpec extends HttpGrpcSpec {
+
+  @Override
+  boolean isEdgeValidated() {
+    false
+  }
+}
@@ -36,6 +36,13 @@ abstract class HttpGrpcSpec extends Specification {
     this.mockMvc = MockMvcBuilders.webAppContextSetup(wac).build()
   }
 
+  /**
+   * Tells whether requests are validated by the transcoder, otherwise by the gRPC server.
+   */
+  boolean isEdgeValidated() {
+    true
+  }
+
   def 'get /v1/greeter/{name} unsupported media type'() {
     when: 'xml'
     def result = this.mockMvc.perform(
@@ -115,6 +122,38 @@ abstract class HttpGrpcSpec extends Specification {
     }
   }
 
+  @Unroll
+  def 'get /v1/greeter/foo?fields=#fields'() {
+    when: 'json'
+    def result = this.mockMvc.perform(
+        get("/v1/greeter/foo?fields=$fields")
+            .accept(MediaType.APPLICATION_JSON)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == status.value()
+    status != HttpStatus.OK || this.objectMapper.readTree(result.response.contentAsString)
+        .fieldNames().toList() == ['message']
+
+    when: 'proto'
+    result = this.mockMvc.perform(
+        get('/v1/greeter/foo')
+            .header('X-Goog-FieldMask', fields)
+            .accept(MediaType.APPLICATION_OCTET_STREAM)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == status.value()
+    status != HttpStatus.OK || GreeterProto.HelloReply.parseFrom(
+        result.response.contentAsByteArray).message.startsWith('hello, foo')
+
+    where:
+    fields          | status
+    'message'       | HttpStatus.OK
+    'message.sub'   | HttpStatus.BAD_REQUEST
+    'noSuchField'   | HttpStatus.BAD_REQUEST
+  }
+
   def 'post /v1/greeter not acceptable content type'() {
     when: 'xml'
     def result = this.mockMvc.perform(
@@ -151,6 +190,21 @@ abstract class HttpGrpcSpec extends Specification {
     result.response.status == HttpStatus.BAD_REQUEST.value()
   }
 
+  def 'post /v1/greeter invalid request'() {
+    when: 'rejected before the call if validated by the transcoder'
+    def result = this.mockMvc.perform(
+        post("/v1/greeter")
+            .accept(MediaType.APPLICATION_JSON)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content('{"name":"1foo","sub":{"planet":"Mars"}}')
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.BAD_REQUEST.value()
+    result.response.contentAsString.contains(
+        edgeValidated ? 'request validation failed' : 'HelloRequest.name')
+  }
+
   def 'post /v1/greeter'() {
     def path = '/v1/greeter'
     def payload = '{"name":"foo","sub":{"planet":"Mars"}}'
@@ -193,6 +247,44 @@ abstract class HttpGrpcSpec extends Specification {
     parts.every { reply.message.contains(it) }
   }
 
+  def 'post /v1/greeter protobuf in and out'() {
+    given:
+    def payload = GreeterProto.HelloRequestFrom.newBuilder()
+        .setName('foo')
+        .setFrom('Zurich')
+        .build()
+
+    when:
+    def result = this.mockMvc.perform(
+        post('/v1/greeter')
+            .accept(MediaType.APPLICATION_OCTET_STREAM)
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .content(payload.toByteArray())
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.OK.value()
+
+    when:
+    def reply = GreeterProto.HelloReply.parseFrom(result.response.contentAsByteArray)
+    then:
+    ['hello, foo', 'Zurich'].every { reply.message.contains(it) }
+  }
+
+  def 'post /v1/greeter/{name} malformed protobuf'() {
+    when:
+    def result = this.mockMvc.perform(
+        post('/v1/greeter/foo')
+            .accept(MediaType.APPLICATION_JSON)
+            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+            .content([0x0a, 0x05, 0x61] as byte[])
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.BAD_REQUEST.value()
+    result.response.contentAsString.contains('malformed protobuf request body')
+  }
+
   def 'post /v1/greeter/{name}'() {
     given:
     def path = '/v1/greeter/foo'
@@ -236,6 +328,94 @@ abstract class HttpGrpcSpec extends Specification {
     parts.every { reply.message.contains(it) }
   }
 
+  def 'post /v1/greeter/{name}/{from} payload too large'() {
+    when:
+    def result = this.mockMvc.perform(
+        post('/v1/greeter/foo/Zurich')
+            .accept(MediaType.APPLICATION_JSON)
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"planet\":\"Mars\",\"fromField\":${'6' * 256}}")
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.PAYLOAD_TOO_LARGE.value()
+
+    when:
+    def builder = com.google.rpc.Status.newBuilder()
+    JsonFormat.parser().merge(result.response.contentAsString, builder)
+    then:
+    builder.code == io.grpc.Status.Code.RESOURCE_EXHAUSTED.value()
+  }
+
+  def 'post /v1/echo raw body'() {
+    given:
+    def payload = (0..255).collect { it as byte } as byte[]
+
+    when:
+    def result = this.mockMvc.perform(
+        post('/v1/echo')
+            .contentType(MediaType.IMAGE_PNG)
+            .content(payload)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.OK.value()
+    result.response.contentType == MediaType.IMAGE_PNG_VALUE
+    result.response.contentAsByteArray == payload
+  }
+
+  def 'post /v1/echo rate limited'() {
+    given:
+    def apiKey = UUID.randomUUID().toString()
+    def request = {
+      this.mockMvc.perform(
+          post('/v1/echo')
+              .header('X-Api-Key', apiKey)
+              .contentType(MediaType.TEXT_PLAIN)
+              .content('hi')
+      ).andReturn()
+    }
+
+    when:
+    def results = (1..3).collect { request() }
+    then:
+    results[0..1].every { it.response.status == HttpStatus.OK.value() }
+    results[2].response.status == HttpStatus.TOO_MANY_REQUESTS.value()
+    results[2].response.getHeader('Retry-After') as int > 0
+  }
+
+  def 'post /v1/echo idempotency key'() {
+    given:
+    def key = UUID.randomUUID().toString()
+    def request = { String caller, String content ->
+      this.mockMvc.perform(
+          post('/v1/echo')
+              .header('X-Api-Key', UUID.randomUUID().toString())
+              .header('X-Caller', caller)
+              .header('Idempotency-Key', key)
+              .contentType(MediaType.TEXT_PLAIN)
+              .content(content)
+      ).andReturn()
+    }
+
+    when:
+    def first = request('a', 'hi')
+    def retried = request('a', 'hi')
+    def reused = request('a', 'hi again')
+    def other = request('b', 'hi again')
+    then:
+    first.response.status == HttpStatus.OK.value()
+    first.response.getHeader('Idempotent-Replayed') == null
+    retried.response.status == HttpStatus.OK.value()
+    retried.response.getHeader('Idempotent-Replayed') == 'true'
+    retried.response.contentAsString == 'hi'
+    reused.response.status == HttpStatus.UNPROCESSABLE_ENTITY.value()
+    reused.response.getHeader('Idempotent-Replayed') == null
+    other.response.status == HttpStatus.OK.value()
+    other.response.getHeader('Idempotent-Replayed') == null
+    other.response.contentAsString == 'hi again'
+  }
+
   def 'post /v1/greeter/{name}/{from}'() {
     given:
     def path = '/v1/greeter/foo/Zurich'
@@ -278,4 +458,73 @@ abstract class HttpGrpcSpec extends Specification {
     then:
     parts.every { reply.message.contains(it) }
   }
+
+  def 'get /v1/pages/{name} composite'() {
+    when: 'json'
+    def result = this.mockMvc.perform(
+        get('/v1/pages/foo?from=bar')
+            .accept(MediaType.APPLICATION_JSON)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.OK.value()
+
+    when:
+    def json = this.objectMapper.readTree(result.response.contentAsString)
+    then:
+    json.get('greeting').get('message').asText().contains('hello, foo')
+    json.get('greetingFrom').get('message').asText().contains('from: bar')
+    !json.has('errors')
+  }
+
+  def 'get /v1/pages/{name} composite with failed part'() {
+    when: 'greeting rejected by validation, greetingFrom called'
+    def result = this.mockMvc.perform(
+        get('/v1/pages/1foo')
+            .accept(MediaType.APPLICATION_JSON)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.OK.value()
+
+    when:
+    def json = this.objectMapper.readTree(result.response.contentAsString)
+    then:
+    !json.has('greeting')
+    json.get('greetingFrom').get('message').asText().contains('1foo')
+    json.get('errors').size() == 1
+    json.get('errors').get(0).get('part').asText() == 'greeting'
+    json.get('errors').get(0).get('status').get('code').asInt() == 3
+  }
+
+  def 'get /v1/pages/{name} composite not acceptable'() {
+    when:
+    def result = this.mockMvc.perform(
+        get('/v1/pages/foo')
+            .accept(MediaType.TEXT_PLAIN)
+    ).andReturn()
+    then:
+    noExceptionThrown()
+    result.response.status == HttpStatus.UNSUPPORTED_MEDIA_TYPE.value()
+  }
+
+  def 'get /v1/pages/{name} composite rate limited'() {
+    given:
+    def apiKey = UUID.randomUUID().toString()
+    def request = {
+      this.mockMvc.perform(
+          get('/v1/pages/foo')
+              .header('X-Api-Key', apiKey)
+              .accept(MediaType.APPLICATION_JSON)
+      ).andReturn()
+    }
+
+    when:
+    def results = (1..6).collect { request() }
+    then:
+    results[0..4].every { it.response.status == HttpStatus.OK.value() }
+    results[5].response.status == HttpStatus.TOO_MANY_REQUESTS.value()
+    results[5].response.getHeader('Retry-After') as int > 0
+    results[5].response.contentType == MediaType.APPLICATION_JSON_VALUE
+  }
 }
@@ -0,0 +1,130 @@
+package io.github.kenix.httpgrpc.spring.example
+
+import com.google.protobuf.util.JsonFormat
+import io.github.kenix.grpc.greeter.api.GreeterProto.HelloReply
+import io.github.kenix.grpc.greeter.api.GreeterProto.HelloRequest
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import org.springframework.boot.test.context.ConfigFileApplicationContextInitializer
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.web.server.LocalServerPort
+import org.springframework.test.context.ActiveProfiles
+import org.springframework.test.context.ContextConfiguration
+import org.springframework.web.socket.BinaryMessage
+import org.springframework.web.socket.CloseStatus
+import org.springframework.web.socket.TextMessage
+import org.springframework.web.socket.WebSocketMessage
+import org.springframework.web.socket.WebSocketSession
+import org.springframework.web.socket.client.standard.StandardWebSocketClient
+import org.springframework.web.socket.handler.AbstractWebSocketHandler
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+@ContextConfiguration(initializers = ConfigFileApplicationContextInitializer)
+@SpringBootTest(classes = App, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = ['grpc.server.port=55335'])
+@ActiveProfiles(['test'])
+class WebSocketSpec extends Specification {
+
+  @LocalServerPort
+  int port
+
+  def frames = new LinkedBlockingQueue<WebSocketMessage<?>>()
+  def closed = new CompletableFuture<CloseStatus>()
+
+  def 'chats in JSON until half-closed'() {
+    given:
+    def session = connect('')
+
+    when:
+    session.sendMessage(new TextMessage('{"name":"foo"}'))
+    session.sendMessage(new TextMessage('{"name":"bar"}'))
+
+    then:
+    reply() == 'hello, foo'
+    reply() == 'hello, bar'
+
+    when:
+    session.sendMessage(new TextMessage(''))
+
+    then:
+    closed.get(5, TimeUnit.SECONDS) == CloseStatus.NORMAL
+    frames.empty
+  }
+
+  def 'chats in protobuf'() {
+    given:
+    def session = connect('?format=protobuf')
+
+    when:
+    session.sendMessage(new BinaryMessage(
+        HelloRequest.newBuilder().setName('foo').build().toByteArray()))
+    def frame = frames.poll(5, TimeUnit.SECONDS)
+
+    then:
+    frame instanceof BinaryMessage
+    HelloReply.parseFrom(((BinaryMessage) frame).payload).message == 'hello, foo'
+
+    when:
+    session.sendMessage(new TextMessage(''))
+
+    then:
+    closed.get(5, TimeUnit.SECONDS) == CloseStatus.NORMAL
+  }
+
+  def 'closes with the gRPC status of a failed call'() {
+    given:
+    def session = connect('')
+
+    when: 'name invalid'
+    session.sendMessage(new TextMessage('{"name":"1x"}'))
+    def status = closed.get(5, TimeUnit.SECONDS)
+
+    then: '4000 + INVALID_ARGUMENT'
+    status.code == 4003
+    frames.empty
+  }
+
+  def 'closes on malformed frames'() {
+    given:
+    def session = connect('')
+
+    when:
+    session.sendMessage(new TextMessage('{"name":'))
+
+    then:
+    closed.get(5, TimeUnit.SECONDS).code == CloseStatus.BAD_DATA.code
+  }
+
+  private String reply() {
+    def frame = frames.poll(5, TimeUnit.SECONDS)
+    assert frame instanceof TextMessage
+    def builder = HelloReply.newBuilder()
+    JsonFormat.parser().merge(((TextMessage) frame).payload, builder)
+    builder.message
+  }
+
+  private WebSocketSession connect(String query) {
+    def handler = new AbstractWebSocketHandler() {
+      @Override
+      protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+        frames << message
+      }
+
+      @Override
+      protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        frames << message
+      }
+
+      @Override
+      void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        closed.complete(status)
+      }
+    }
+    new StandardWebSocketClient().doHandshake(handler,
+        "ws://localhost:$port/ws/greet.Greeter/Chat$query".toString()).get(5, TimeUnit.SECONDS)
+  }
+}
@@ -6,6 +6,7 @@ import io.envoyproxy.pgv.grpc.ValidatingServerInterceptor;
 import io.github.kenix.grpc.greeter.api.GreeterProto;
 import io.github.kenix.httpgrpc.spring.GrpcServerDescriptor;
 import io.github.kenix.httpgrpc.spring.HttpGrpcMapper;
+import io.github.kenix.httpgrpc.spring.HttpGrpcSettings;
 import io.grpc.ServerMethodDefinition;
 import java.util.Collections;
 import java.util.List;
@@ -14,10 +15,14 @@ import net.devh.boot.grpc.server.service.GrpcService;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Profile;
 
 /**
+ * Routing transcoded calls to the local gRPC port, with message classes or, if property
+ * <code>example.descriptor-only</code> is set, dynamic messages built from descriptors.
+ *
  * @author zzhao
  */
 @Profile({"!intercept"})
@@ -46,7 +51,14 @@ class AppLocalRouting {
   }
 
   @Bean
-  GrpcServerDescriptor grpcServerDescriptor(@Value("${grpc.server.port}") int port) {
+  @ConfigurationProperties("http-grpc")
+  HttpGrpcSettings httpGrpcSettings() {
+    return new HttpGrpcSettings();
+  }
+
+  @Bean
+  GrpcServerDescriptor grpcServerDescriptor(@Value("${grpc.server.port}") int port,
+      @Value("${example.descriptor-only:false}") boolean descriptorOnly) {
     return new GrpcServerDescriptor() {
       @Override
       public List<FileDescriptor> getFileDescriptors() {
@@ -58,6 +70,11 @@ class AppLocalRouting {
         return Collections.emptyList();
       }
 
+      @Override
+      public boolean isDescriptorOnly() {
+        return descriptorOnly;
+      }
+
       @Override
       public int getPort() {
         return port;
@@ -0,0 +1,76 @@
+package io.github.kenix.httpgrpc.spring.jfr;
+
+import io.github.kenix.httpgrpc.spring.TranscodeRecord;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Fields shared by the events of transcoded requests.
+ *
+ * @author zzhao
+ */
+@Category("HTTP gRPC")
+@StackTrace(false)
+abstract class AbstractTranscodeEvent extends Event {
+
+  @Label("Route")
+  String route;
+
+  @Label("gRPC Method")
+  String method;
+
+  @Label("Strategy")
+  String strategy;
+
+  @Label("Request Content Type")
+  String requestContentType;
+
+  @Label("Response Content Type")
+  String responseContentType;
+
+  @Label("Request Size")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Size")
+  @DataAmount
+  long responseBytes;
+
+  @Label("Status")
+  int status;
+
+  @Label("Bind Duration")
+  @Timespan
+  long bindDuration;
+
+  @Label("Call Duration")
+  @Timespan
+  long callDuration;
+
+  @Label("Write Duration")
+  @Timespan
+  long writeDuration;
+
+  @Label("Total Duration")
+  @Timespan
+  long totalDuration;
+
+  void set(TranscodeRecord record) {
+    this.route = record.getRoute();
+    this.method = record.getMethod();
+    this.strategy = record.getStrategy();
+    this.requestContentType = record.getRequestContentType();
+    this.responseContentType = record.getResponseContentType();
+    this.requestBytes = record.getRequestBytes();
+    this.responseBytes = record.getResponseBytes();
+    this.status = record.getStatus();
+    this.bindDuration = record.getBindNanos();
+    this.callDuration = record.getCallNanos();
+    this.writeDuration = record.getWriteNanos();
+    this.totalDuration = record.getTotalNanos();
+  }
+}
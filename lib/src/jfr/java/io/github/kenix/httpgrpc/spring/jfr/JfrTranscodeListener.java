@@ -0,0 +1,53 @@
+package io.github.kenix.httpgrpc.spring.jfr;
+
+import io.github.kenix.httpgrpc.spring.TranscodeListener;
+import io.github.kenix.httpgrpc.spring.TranscodeRecord;
+import jdk.jfr.EventType;
+
+/**
+ * Emits JDK Flight Recorder events of transcoded requests: {@link TranscodeEvent} for each, {@link
+ * SlowTranscodeEvent} in addition for those above a threshold. Requests are only recorded while a
+ * recording with either event enabled is running, e.g.
+ * <code>-XX:StartFlightRecording:settings=profile</code> together with a <code>.jfc</code>
+ * enabling <code>io.github.kenix.httpgrpc.*</code>.
+ *
+ * @author zzhao
+ */
+public class JfrTranscodeListener implements TranscodeListener {
+
+  private static final EventType TRANSCODE = EventType.getEventType(TranscodeEvent.class);
+  private static final EventType SLOW_TRANSCODE = EventType.getEventType(SlowTranscodeEvent.class);
+
+  private final long slowThresholdNanos;
+
+  /**
+   * Creates a listener.
+   *
+   * @param slowThresholdNanos duration above which a request is considered slow
+   */
+  public JfrTranscodeListener(long slowThresholdNanos) {
+    this.slowThresholdNanos = slowThresholdNanos;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return TRANSCODE.isEnabled() || SLOW_TRANSCODE.isEnabled();
+  }
+
+  @Override
+  public void onTranscoded(TranscodeRecord record) {
+    final TranscodeEvent event = new TranscodeEvent();
+    if (event.shouldCommit()) {
+      event.set(record);
+      event.commit();
+    }
+
+    if (record.getTotalNanos() > this.slowThresholdNanos) {
+      final SlowTranscodeEvent slow = new SlowTranscodeEvent();
+      if (slow.shouldCommit()) {
+        slow.set(record);
+        slow.commit();
+      }
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package io.github.kenix.httpgrpc.spring.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Event of a transcoded request taking longer than the configured threshold.
+ *
+ * @author zzhao
+ */
+@Name("io.github.kenix.httpgrpc.SlowTranscode")
+@Label("Slow Transcode")
+@Description("HTTP request transcoded into a gRPC call above the slow threshold")
+class SlowTranscodeEvent extends AbstractTranscodeEvent {
+}
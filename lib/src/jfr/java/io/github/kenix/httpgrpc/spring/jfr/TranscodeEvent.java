@@ -0,0 +1,16 @@
+package io.github.kenix.httpgrpc.spring.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Event of each transcoded request.
+ *
+ * @author zzhao
+ */
+@Name("io.github.kenix.httpgrpc.Transcode")
+@Label("Transcode")
+@Description("HTTP request transcoded into a gRPC call")
+class TranscodeEvent extends AbstractTranscodeEvent {
+}
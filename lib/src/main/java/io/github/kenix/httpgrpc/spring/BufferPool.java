@@ -0,0 +1,145 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A pool of byte arrays in size classes of powers of two, from 1 KiB up to a maximum. Larger
+ * arrays are allocated on demand and not pooled. Each size class keeps a bounded number of arrays,
+ * excess ones are left to the garbage collector.
+ *
+ * @author zzhao
+ */
+public final class BufferPool {
+
+  private static final int MIN_CLASS_SHIFT = 10;
+  // largest array length supported by common VMs
+  static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+
+  private final List<Queue<byte[]>> classes;
+
+  /**
+   * Creates a pool of buffers.
+   *
+   * @param maxPooledSize size of the largest pooled buffers, rounded up to a power of two
+   * @param buffersPerClass maximum number of pooled buffers per size class
+   */
+  public BufferPool(int maxPooledSize, int buffersPerClass) {
+    final int classCount = classIndex(maxPooledSize) + 1;
+    this.classes = new ArrayList<>(classCount);
+    for (int i = 0; i < classCount; i++) {
+      this.classes.add(new ArrayBlockingQueue<>(buffersPerClass));
+    }
+  }
+
+  private static int classIndex(int size) {
+    return size <= 1 << MIN_CLASS_SHIFT
+        ? 0
+        : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - MIN_CLASS_SHIFT;
+  }
+
+  /**
+   * Acquires a buffer of at least the given capacity, to be released after use.
+   *
+   * @param minCapacity minimum capacity in bytes
+   * @return a pooled buffer, or a new one if none available
+   */
+  public byte[] acquire(int minCapacity) {
+    final int index = classIndex(minCapacity);
+    if (index >= this.classes.size()) {
+      return new byte[minCapacity];
+    }
+    final byte[] buf = this.classes.get(index).poll();
+    return buf != null ? buf : new byte[1 << (index + MIN_CLASS_SHIFT)];
+  }
+
+  /**
+   * Releases the given buffer back to the pool. The caller must not use it afterwards.
+   *
+   * @param buf buffer acquired from this pool
+   */
+  public void release(byte[] buf) {
+    final int index = classIndex(buf.length);
+    if (index < this.classes.size() && buf.length == 1 << (index + MIN_CLASS_SHIFT)) {
+      this.classes.get(index).offer(buf);
+    }
+  }
+
+  /**
+   * Gets the number of buffers currently pooled.
+   */
+  int getPooledCount() {
+    int count = 0;
+    for (final Queue<byte[]> queue : this.classes) {
+      count += queue.size();
+    }
+    return count;
+  }
+
+  /**
+   * Reads the given stream fully into a pooled buffer.
+   *
+   * @param in stream to be read, not closed
+   * @param lengthHint expected length in bytes, negative if unknown
+   * @param maxLength maximum length in bytes
+   * @return the content read, its buffer to be released, or null if exceeding the given maximum
+   * @throws IOException when the stream cannot be read
+   */
+  public Content read(InputStream in, long lengthHint, int maxLength) throws IOException {
+    if (lengthHint > maxLength) {
+      return null;
+    }
+
+    byte[] buf = acquire(lengthHint > 0 ? (int) lengthHint : 1 << MIN_CLASS_SHIFT);
+    int length = 0;
+    try {
+      while (true) {
+        if (length == buf.length) {
+          if (length >= maxLength || length >= MAX_CAPACITY) { // no more, unless at the end
+            if (in.read() < 0) {
+              break;
+            }
+            release(buf);
+            return null;
+          }
+          final byte[] larger =
+              acquire((int) Math.min(Math.min(maxLength, (long) length << 1), MAX_CAPACITY));
+          System.arraycopy(buf, 0, larger, 0, length);
+          release(buf);
+          buf = larger;
+        }
+        final int n = in.read(buf, length, (int) Math.min(buf.length, maxLength + 1L) - length);
+        if (n < 0) {
+          break;
+        }
+        length += n;
+        if (length > maxLength) {
+          release(buf);
+          return null;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      release(buf);
+      throw e;
+    }
+
+    return new Content(buf, length);
+  }
+
+  /**
+   * Content held in a pooled buffer.
+   */
+  @Getter
+  @RequiredArgsConstructor
+  public static final class Content {
+
+    private final byte[] buffer;
+    private final int length;
+  }
+}
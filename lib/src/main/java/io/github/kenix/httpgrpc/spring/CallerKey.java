@@ -0,0 +1,63 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.security.Principal;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Extracts the key of the caller of a request: <code>ip</code> for the client address,
+ * <code>principal</code> for the name of the authenticated user, <code>header:NAME</code> for a
+ * request header, e.g. an API key, or <code>field:NAME</code> for a request field bound from a path
+ * variable or query parameter. Requests without it get an empty key.
+ *
+ * @author zzhao
+ */
+final class CallerKey {
+
+  static final String NONE = "";
+  private static final String KEY_IP = "ip";
+  private static final String KEY_PRINCIPAL = "principal";
+  private static final String KEY_HEADER = "header:";
+  private static final String KEY_FIELD = "field:";
+
+  private final String spec;
+
+  /**
+   * Creates the extractor of the given key.
+   *
+   * @throws IllegalArgumentException if the key is none of the supported ones
+   */
+  CallerKey(String spec) {
+    if (!KEY_IP.equals(spec) && !KEY_PRINCIPAL.equals(spec)
+        && (spec == null || !spec.startsWith(KEY_HEADER) && !spec.startsWith(KEY_FIELD))) {
+      throw new IllegalArgumentException("invalid caller key " + spec);
+    }
+    this.spec = spec;
+  }
+
+  /**
+   * Gets the key of the caller of the given request.
+   *
+   * @return the key, empty if none
+   */
+  String of(HttpServletRequest req) {
+    final String value;
+    if (KEY_IP.equals(this.spec)) {
+      value = req.getRemoteAddr();
+    } else if (KEY_PRINCIPAL.equals(this.spec)) {
+      final Principal principal = req.getUserPrincipal();
+      value = principal == null ? null : principal.getName();
+    } else if (this.spec.startsWith(KEY_HEADER)) {
+      value = req.getHeader(this.spec.substring(KEY_HEADER.length()));
+    } else {
+      final String name = this.spec.substring(KEY_FIELD.length());
+      @SuppressWarnings("unchecked")
+      final Map<String, Object> pathVars = (Map<String, Object>) req.getAttribute(
+          HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+      final Object pathVar = pathVars == null ? null : pathVars.get(name);
+      value = pathVar != null ? pathVar.toString() : req.getParameter(name);
+    }
+    return value == null ? NONE : value;
+  }
+}
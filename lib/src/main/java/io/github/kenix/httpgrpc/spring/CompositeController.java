@@ -0,0 +1,447 @@
+package io.github.kenix.httpgrpc.spring;
+
+import static io.github.kenix.httpgrpc.spring.TranscoderController.CONTENT_TYPE_JSON;
+import static io.github.kenix.httpgrpc.spring.TranscoderController.CONTENT_TYPE_PROTOBUF;
+import static io.github.kenix.httpgrpc.spring.TranscoderController.rateLimited;
+import static io.github.kenix.httpgrpc.spring.TranscoderController.shed;
+import static io.github.kenix.httpgrpc.spring.TranscoderController.wireError;
+import static io.github.kenix.httpgrpc.spring.Util.grpcStatus;
+import static io.github.kenix.httpgrpc.spring.Util.protoStatus;
+import static io.github.kenix.httpgrpc.spring.Util.setFields;
+
+import com.google.common.io.CountingOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageLite;
+import io.github.kenix.httpgrpc.spring.MemoryBudget.Reservation;
+import io.github.kenix.httpgrpc.spring.codec.JsonCodec;
+import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategy;
+import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyDirect;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.Setter;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.util.StringUtils;
+import org.springframework.web.HttpRequestHandler;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Handles a {@link CompositeRoute}: binds the request of each part from path variables and query
+ * parameters, calls all parts concurrently through their server call strategies within one
+ * deadline, and responds with one message having a field per part set to its reply.
+ * <p>
+ * Parts fail in isolation: a part failing to bind, validate or call, or not replying in time, is
+ * left unset and listed in field <code>errors</code> with its <code>google.rpc.Status</code>, the
+ * response is 200 nevertheless. The response type is built once per route as a dynamic message
+ * depending on the reply types of the parts.
+ * </p>
+ * <p>
+ * Requests pass the same edge controls as transcoded ones: the rate limit of the route, the memory
+ * budget, reserving the expected response size per part, and call slots of the tenant per part;
+ * they are recorded and captured alike.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+class CompositeController implements HttpRequestHandler {
+
+  static final String FIELD_ERRORS = "errors";
+  private static final String PACKAGE = "httpgrpc.composite";
+  private static final String PART_ERROR = "PartError";
+  private static final String FIELD_PART = "part";
+  private static final String FIELD_STATUS = "status";
+
+  private final String route;
+  private final List<Part> parts;
+  private final Executor executor;
+  private final JsonCodec jsonCodec;
+  private final long timeoutMs;
+  private final Descriptor responseType;
+  private final List<FieldDescriptor> partFields = new ArrayList<>();
+  private final FieldDescriptor errorsField;
+  private final FieldDescriptor errorPartField;
+  private final FieldDescriptor errorStatusField;
+  // full names of the methods of all parts, recorded as method
+  private final String methods;
+
+  @Setter
+  private RateLimiter rateLimiter;
+
+  @Setter
+  private MemoryBudget memoryBudget;
+
+  @Setter
+  private long memoryBudgetWaitMs;
+
+  // reserved in the memory budget per part
+  @Setter
+  private int expectedResponseBytes;
+
+  @Setter
+  private TenantScheduler tenantScheduler;
+
+  @Setter
+  private TrafficRecorder trafficRecorder;
+
+  @Setter
+  private TranscodeListener transcodeListener;
+
+  CompositeController(String route, int index, List<Part> parts, Executor executor,
+      JsonCodec jsonCodec, long timeoutMs) {
+    this.route = route;
+    this.parts = parts;
+    this.executor = executor;
+    this.jsonCodec = jsonCodec;
+    this.timeoutMs = timeoutMs;
+    this.responseType = buildResponseType(route, index, parts);
+    parts.forEach(part -> this.partFields.add(this.responseType.findFieldByName(part.getName())));
+    this.errorsField = this.responseType.findFieldByName(FIELD_ERRORS);
+    this.errorPartField = this.errorsField.getMessageType().findFieldByName(FIELD_PART);
+    this.errorStatusField = this.errorsField.getMessageType().findFieldByName(FIELD_STATUS);
+    this.methods = parts.stream().map(Part::getMethod).collect(Collectors.joining(","));
+  }
+
+  /**
+   * Builds the response type of the given parts: a message field per part typed by its reply,
+   * followed by a repeated <code>PartError</code> field of failed parts.
+   */
+  private static Descriptor buildResponseType(String route, int index, List<Part> parts) {
+    final String name = "Composite" + index;
+    final DescriptorProto.Builder type = DescriptorProto.newBuilder().setName(name);
+    final Map<String, FileDescriptor> dependencies = new LinkedHashMap<>();
+    int number = 1;
+    for (final Part part : parts) {
+      final Descriptor replyType = part.getReplyType();
+      type.addField(field(part.getName(), number++, FieldDescriptorProto.Type.TYPE_MESSAGE,
+          "." + replyType.getFullName()));
+      dependencies.putIfAbsent(replyType.getFile().getName(), replyType.getFile());
+    }
+
+    final FileDescriptor statusFile = com.google.rpc.Status.getDescriptor().getFile();
+    dependencies.putIfAbsent(statusFile.getName(), statusFile);
+    type.addNestedType(DescriptorProto.newBuilder()
+        .setName(PART_ERROR)
+        .addField(field(FIELD_PART, 1, FieldDescriptorProto.Type.TYPE_STRING, null))
+        .addField(field(FIELD_STATUS, 2, FieldDescriptorProto.Type.TYPE_MESSAGE,
+            "." + com.google.rpc.Status.getDescriptor().getFullName())));
+    type.addField(field(FIELD_ERRORS, number, FieldDescriptorProto.Type.TYPE_MESSAGE,
+        "." + PACKAGE + "." + name + "." + PART_ERROR).toBuilder()
+        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED));
+
+    final FileDescriptorProto file = FileDescriptorProto.newBuilder()
+        .setName("http-grpc/composite" + index + ".proto")
+        .setPackage(PACKAGE)
+        .setSyntax("proto3")
+        .addAllDependency(dependencies.keySet())
+        .addMessageType(type)
+        .build();
+    try {
+      return FileDescriptor.buildFrom(file, dependencies.values().toArray(new FileDescriptor[0]))
+          .findMessageTypeByName(name);
+    } catch (DescriptorValidationException e) {
+      throw new IllegalArgumentException("invalid composite route " + route, e);
+    }
+  }
+
+  private static FieldDescriptorProto field(String name, int number,
+      FieldDescriptorProto.Type type, String typeName) {
+    final FieldDescriptorProto.Builder field = FieldDescriptorProto.newBuilder()
+        .setName(name)
+        .setNumber(number)
+        .setType(type)
+        .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL);
+    if (typeName != null) {
+      field.setTypeName(typeName);
+    }
+    return field.build();
+  }
+
+  /**
+   * Handles a request of the composite route.
+   *
+   * @param req HTTP request
+   * @param resp HTTP response
+   * @throws IOException when writing the response fails
+   */
+  @Override
+  public void handleRequest(@NonNull HttpServletRequest req, @NonNull HttpServletResponse resp)
+      throws IOException {
+    final String responseContentType = getResponseContentType(req);
+    if (responseContentType == null) {
+      wireError(TranscoderError.UNSUPPORTED_MEDIA_TYPE, null, resp);
+      return;
+    }
+
+    if (this.rateLimiter != null) {
+      final long waitNanos = this.rateLimiter.acquire(req);
+      if (waitNanos > 0) {
+        rateLimited(waitNanos, responseContentType, resp);
+        return;
+      }
+    }
+
+    if (this.memoryBudget == null) {
+      handleAdmitted(req, resp, responseContentType);
+      return;
+    }
+
+    // no request body, the replies of all parts are held until written
+    final Reservation reservation = this.memoryBudget.reserve(0,
+        (long) this.expectedResponseBytes * this.parts.size(), this.memoryBudgetWaitMs);
+    if (reservation == null) {
+      shed(responseContentType, resp);
+      return;
+    }
+    try {
+      handleAdmitted(req, resp, responseContentType);
+    } finally {
+      reservation.release();
+    }
+  }
+
+  private void handleAdmitted(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType) throws IOException {
+    final TranscodeRecord record = startRecord(req, responseContentType);
+    if (this.trafficRecorder != null && this.trafficRecorder.sample()) {
+      this.trafficRecorder.record(this.route, req, (MessageLite) null);
+    }
+
+    @SuppressWarnings("unchecked")
+    final Map<String, Object> pathVars = (Map<String, Object>) req.getAttribute(
+        HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+    final Map<String, Object> vars = pathVars == null ? Collections.emptyMap() : pathVars;
+    final Map<String, String[]> paramMap = req.getParameterMap();
+    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeoutMs);
+    final List<CompletableFuture<Message>> bound = new ArrayList<>(this.parts.size());
+    this.parts.forEach(part -> bound.add(bind(part, vars, paramMap)));
+    record.bound();
+
+    final List<CompletableFuture<Message>> calls = new ArrayList<>(this.parts.size());
+    for (int i = 0; i < this.parts.size(); i++) {
+      final CompletableFuture<Message> message = bound.get(i);
+      calls.add(message.isCompletedExceptionally()
+          ? message
+          : call(req, this.parts.get(i), message.join(), i == this.parts.size() - 1));
+    }
+
+    final DynamicMessage.Builder response = DynamicMessage.newBuilder(this.responseType);
+    for (int i = 0; i < calls.size(); i++) {
+      final CompletableFuture<Message> call = calls.get(i);
+      try {
+        final long remaining = Math.max(0, deadline - System.nanoTime());
+        response.setField(this.partFields.get(i),
+            toReplyField(i, call.get(remaining, TimeUnit.NANOSECONDS)));
+      } catch (TimeoutException e) {
+        call.cancel(false);
+        addError(response, i, null, Status.DEADLINE_EXCEEDED.withDescription(
+            "no reply within " + this.timeoutMs + "ms"));
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause() instanceof CompletionException
+            && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+        addError(response, i, cause, grpcStatus(cause));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        calls.forEach(c -> c.cancel(false));
+        throw new TranscoderException(Status.CANCELLED.withDescription("interrupted"));
+      }
+    }
+    record.called();
+
+    resp.setStatus(HttpStatus.OK.value());
+    resp.setContentType(responseContentType);
+    final DynamicMessage message = response.build();
+    final OutputStream out = record == TranscodeRecord.NONE
+        ? resp.getOutputStream()
+        : new CountingOutputStream(resp.getOutputStream());
+    if (CONTENT_TYPE_JSON.equals(responseContentType)) {
+      resp.setCharacterEncoding(TranscoderController.CHARSET);
+      this.jsonCodec.write(message, out);
+    } else {
+      message.writeTo(out);
+    }
+    out.flush();
+    endRecord(record, out instanceof CountingOutputStream
+        ? ((CountingOutputStream) out).getCount()
+        : -1);
+  }
+
+  /**
+   * Binds and validates the request message of the given part, failing the returned future on
+   * errors.
+   */
+  private static CompletableFuture<Message> bind(Part part, Map<String, Object> pathVars,
+      Map<String, String[]> paramMap) {
+    final Message message;
+    try {
+      final Message.Builder builder = part.getReqPrototype().newBuilderForType();
+      setFields(builder, builder.getDescriptorForType().getFields(), pathVars, paramMap);
+      message = builder.build();
+    } catch (StatusRuntimeException e) {
+      return failed(e);
+    } catch (RuntimeException e) { // e.g. a malformed number
+      return failed(new TranscoderException(
+          Status.INVALID_ARGUMENT.withDescription(e.getMessage())));
+    }
+    if (part.getValidator() != null && !part.getValidator().test(message)) {
+      return failed(TranscoderError.INVALID_REQUEST.toException());
+    }
+    return CompletableFuture.completedFuture(message);
+  }
+
+  /**
+   * Calls the given part once granted a call slot by the tenant scheduler if any, failing the
+   * returned future on errors.
+   *
+   * @param last whether it is the last part, never handed over to the executor
+   */
+  private CompletableFuture<Message> call(HttpServletRequest req, Part part, Message message,
+      boolean last) {
+    try {
+      return this.tenantScheduler == null
+          ? dispatch(part, message, last)
+          : this.tenantScheduler.callAsync(part.getTenantClassifier().classify(req, message),
+              () -> dispatch(part, message, last));
+    } catch (RuntimeException e) { // called in this thread
+      return failed(e);
+    }
+  }
+
+  /**
+   * Makes the call of the given part. Direct calls run the gRPC method in the calling thread, so
+   * all but the last are handed over to the executor to run in parallel, failed if it rejects
+   * them; routed calls are asynchronous already.
+   */
+  private CompletableFuture<Message> dispatch(Part part, Message message, boolean last) {
+    final ServerCallStrategy serverCall = part.getServerCall();
+    if (last || !(serverCall instanceof ServerCallStrategyDirect)) {
+      return serverCall.callAsync(message);
+    }
+    try {
+      return CompletableFuture.supplyAsync(() -> serverCall.callAsync(message), this.executor)
+          .thenCompose(Function.identity());
+    } catch (RejectedExecutionException e) {
+      return failed(new TranscoderException(
+          Status.RESOURCE_EXHAUSTED.withDescription("too many composite calls in progress")));
+    }
+  }
+
+  private static CompletableFuture<Message> failed(Throwable t) {
+    final CompletableFuture<Message> future = new CompletableFuture<>();
+    future.completeExceptionally(t);
+    return future;
+  }
+
+  /**
+   * Starts recording the request if a listener is enabled, {@link TranscodeRecord#NONE}
+   * otherwise.
+   */
+  private TranscodeRecord startRecord(HttpServletRequest req, String responseContentType) {
+    if (this.transcodeListener == null || !this.transcodeListener.isEnabled()) {
+      return TranscodeRecord.NONE;
+    }
+
+    final TranscodeRecord record = new TranscodeRecord(this.route, this.methods,
+        getClass().getSimpleName());
+    record.setResponseContentType(responseContentType);
+    record.setRequestBytes(req.getContentLengthLong());
+    return record;
+  }
+
+  private void endRecord(TranscodeRecord record, long responseBytes) {
+    if (record == TranscodeRecord.NONE) {
+      return;
+    }
+
+    record.written();
+    record.setStatus(HttpStatus.OK.value());
+    record.setResponseBytes(responseBytes);
+    this.transcodeListener.onTranscoded(record);
+  }
+
+  /**
+   * Converts the reply of the given part to the type of its field, only needed if the reply is of
+   * a generated class while the route was built from descriptors only, or vice versa.
+   */
+  @SneakyThrows
+  private Message toReplyField(int index, Message reply) {
+    final Descriptor fieldType = this.partFields.get(index).getMessageType();
+    return reply.getDescriptorForType() == fieldType
+        ? reply
+        : DynamicMessage.parseFrom(fieldType, reply.toByteString());
+  }
+
+  private void addError(DynamicMessage.Builder response, int index, Throwable t, Status status) {
+    final String name = this.parts.get(index).getName();
+    log.debug("<addError> {} part {} failed: {}", this.route, name, status);
+    final com.google.rpc.Status protoStatus =
+        t == null ? protoStatus(status) : protoStatus(t, status);
+    response.addRepeatedField(this.errorsField,
+        DynamicMessage.newBuilder(this.errorsField.getMessageType())
+            .setField(this.errorPartField, name)
+            .setField(this.errorStatusField, protoStatus)
+            .build());
+  }
+
+  private static String getResponseContentType(HttpServletRequest req) {
+    final String accept = req.getHeader(HttpHeaders.ACCEPT);
+    if (StringUtils.hasText(accept)) {
+      if (accept.contains(CONTENT_TYPE_PROTOBUF)) {
+        return CONTENT_TYPE_PROTOBUF;
+      } else if (accept.contains(CONTENT_TYPE_JSON)) {
+        return CONTENT_TYPE_JSON;
+      } else {
+        return "*/*".equals(accept) ? CONTENT_TYPE_JSON : null;
+      }
+    }
+
+    return CONTENT_TYPE_JSON;
+  }
+
+  /**
+   * A part of a composite route: a gRPC method with its request prototype, validator if any,
+   * server call strategy and classifier of tenants if call slots are scheduled.
+   */
+  @Value
+  static class Part {
+
+    String name;
+    String method;
+    Message reqPrototype;
+    Descriptor replyType;
+    Predicate<Message> validator;
+    ServerCallStrategy serverCall;
+    TenantClassifier tenantClassifier;
+  }
+}
@@ -0,0 +1,30 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * A GET route fanning out to several unary gRPC methods in parallel and merging their replies into
+ * one response, see {@link HttpGrpcSettings#getCompositeRoutes()}.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class CompositeRoute {
+
+  /**
+   * Path template of the route, e.g. <code>/v1/pages/{name}</code>. Path variables and query
+   * parameters are bound to the request fields of the same name of every part.
+   */
+  private String path;
+
+  /**
+   * Parts by name, in response field order, each a full gRPC method name, e.g.
+   * <code>greeting: greet.Greeter.SayHello</code>. Names are the fields of the response holding
+   * the replies, <code>errors</code> is reserved for failed parts.
+   */
+  private Map<String, String> parts = new LinkedHashMap<>();
+}
@@ -0,0 +1,96 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.Descriptors.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Watches a descriptor set file and reloads routes of {@link HttpGrpcMapper} whenever it changes.
+ * <p>
+ * File descriptors found unchanged in {@link GrpcServerDescriptor#getFileDescriptors()} are reused,
+ * so that generated message classes keep matching their descriptors.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+public class DescriptorSetWatcher implements InitializingBean, DisposableBean {
+
+  private final HttpGrpcMapper mapper;
+  private final GrpcServerDescriptor grpcServerDesc;
+  private final Path descriptorSet;
+  private final Duration interval;
+  private final ScheduledExecutorService executor;
+
+  private FileTime lastModified;
+
+  /**
+   * Constructs the watcher using given parameters.
+   *
+   * @param mapper mapper to be reloaded
+   * @param grpcServerDesc descriptor of the gRPC server
+   * @param descriptorSet the descriptor set file to be watched
+   * @param interval polling interval
+   */
+  public DescriptorSetWatcher(HttpGrpcMapper mapper, GrpcServerDescriptor grpcServerDesc,
+      Path descriptorSet, Duration interval) {
+    this.mapper = mapper;
+    this.grpcServerDesc = grpcServerDesc;
+    this.descriptorSet = descriptorSet;
+    this.interval = interval;
+    this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      final Thread thread = new Thread(r, "descriptor-set-watcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  @Override
+  public void afterPropertiesSet() throws Exception {
+    this.lastModified = getLastModified();
+    this.executor.scheduleWithFixedDelay(this::check, this.interval.toMillis(),
+        this.interval.toMillis(), TimeUnit.MILLISECONDS);
+    log.info("<afterPropertiesSet> watching {}", this.descriptorSet);
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    this.executor.shutdownNow();
+  }
+
+  private void check() {
+    try {
+      final FileTime modified = getLastModified();
+      if (modified == null || modified.equals(this.lastModified)) {
+        return;
+      }
+
+      final List<FileDescriptor> fileDescriptors;
+      try (InputStream in = Files.newInputStream(this.descriptorSet)) {
+        fileDescriptors = DescriptorSets.load(in, this.grpcServerDesc.getFileDescriptors());
+      }
+      log.info("<check> reloading {}", this.descriptorSet);
+      this.mapper.reload(fileDescriptors);
+      this.lastModified = modified;
+    } catch (Exception e) { // keep watching, the file might be still being written
+      log.error("<check> failed reloading {}", this.descriptorSet, e);
+    }
+  }
+
+  private FileTime getLastModified() throws IOException {
+    return Files.exists(this.descriptorSet)
+        ? Files.getLastModifiedTime(this.descriptorSet)
+        : null;
+  }
+}
@@ -0,0 +1,112 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.api.AnnotationsProto;
+import com.google.api.HttpProto;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.ExtensionRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads {@link FileDescriptor}s from serialized {@link FileDescriptorSet}s, e.g. as produced by
+ * <code>protoc --include_imports --descriptor_set_out</code>.
+ *
+ * @author zzhao
+ */
+public final class DescriptorSets {
+
+  private static final ExtensionRegistry EXTENSION_REGISTRY = ExtensionRegistry.newInstance();
+
+  static {
+    AnnotationsProto.registerAllExtensions(EXTENSION_REGISTRY);
+  }
+
+  private DescriptorSets() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Loads file descriptors from the given stream of a serialized {@link FileDescriptorSet}.
+   *
+   * @param in stream of the descriptor set
+   * @param known already built file descriptors, e.g. generated ones, reused if unchanged
+   * @return all file descriptors of the set
+   * @throws IOException when the descriptor set cannot be read
+   * @throws DescriptorValidationException when the descriptor set is invalid or incomplete
+   * @throws IllegalArgumentException when the descriptor set is empty, has files without name or no
+   *     services at all, e.g. read while being written
+   */
+  public static List<FileDescriptor> load(InputStream in, List<FileDescriptor> known)
+      throws IOException, DescriptorValidationException {
+    final FileDescriptorSet descriptorSet = FileDescriptorSet.parseFrom(in, EXTENSION_REGISTRY);
+    if (descriptorSet.getFileCount() == 0) {
+      throw new IllegalArgumentException("empty descriptor set");
+    }
+    if (descriptorSet.getFileList().stream().anyMatch(fdp -> fdp.getName().isEmpty())) {
+      throw new IllegalArgumentException("file without name in descriptor set");
+    }
+
+    final Map<String, FileDescriptor> built = new HashMap<>();
+    final List<FileDescriptor> reusable = new ArrayList<>(known);
+    reusable.addAll(Arrays.asList(AnnotationsProto.getDescriptor(), HttpProto.getDescriptor(),
+        DescriptorProtos.getDescriptor()));
+    final Map<String, FileDescriptor> knownByName = new HashMap<>();
+    reusable.forEach(fd -> collect(fd, knownByName));
+
+    final Map<String, FileDescriptorProto> protos = new HashMap<>();
+    descriptorSet.getFileList().forEach(fdp -> protos.put(fdp.getName(), fdp));
+
+    final List<FileDescriptor> result = new ArrayList<>(protos.size());
+    for (final FileDescriptorProto fdp : descriptorSet.getFileList()) {
+      result.add(build(fdp.getName(), protos, knownByName, built));
+    }
+    if (result.stream().allMatch(fd -> fd.getServices().isEmpty())) {
+      throw new IllegalArgumentException("no services in descriptor set");
+    }
+
+    return result;
+  }
+
+  private static void collect(FileDescriptor fd, Map<String, FileDescriptor> byName) {
+    if (byName.putIfAbsent(fd.getName(), fd) == null) {
+      fd.getDependencies().forEach(dep -> collect(dep, byName));
+    }
+  }
+
+  private static FileDescriptor build(String name, Map<String, FileDescriptorProto> protos,
+      Map<String, FileDescriptor> known, Map<String, FileDescriptor> built)
+      throws DescriptorValidationException {
+    final FileDescriptor done = built.get(name);
+    if (done != null) {
+      return done;
+    }
+
+    final FileDescriptorProto proto = protos.get(name);
+    final FileDescriptor knownDesc = known.get(name);
+    if (proto == null || (knownDesc != null && knownDesc.toProto().equals(proto))) {
+      if (knownDesc == null) {
+        throw new IllegalArgumentException("missing dependency " + name);
+      }
+      built.put(name, knownDesc);
+      return knownDesc;
+    }
+
+    final FileDescriptor[] deps = new FileDescriptor[proto.getDependencyCount()];
+    for (int i = 0; i < deps.length; i++) {
+      deps[i] = build(proto.getDependency(i), protos, known, built);
+    }
+    final FileDescriptor fileDesc = FileDescriptor.buildFrom(proto, deps);
+    built.put(name, fileDesc);
+
+    return fileDesc;
+  }
+}
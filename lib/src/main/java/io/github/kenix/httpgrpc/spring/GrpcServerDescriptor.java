@@ -26,6 +26,7 @@ import java.util.List;
  *   <li>mandatory: {@link #getFileDescriptors()}</li>
  *   <li>either {@link #getServerMethodDefinitions()}</li>
  *   <li>or {@link #getPort()} w/o {@link ServerMethodDefinitionInterceptor}</li>
+ *   <li>or {@link #getPort()} with {@link #isDescriptorOnly()}</li>
  * </ul>
  *
  * @author zzhao
@@ -48,6 +49,17 @@ public interface GrpcServerDescriptor {
     return Collections.emptyList();
   }
 
+  /**
+   * Tells whether to transcode using {@link com.google.protobuf.DynamicMessage}s built from
+   * {@link #getFileDescriptors()} only, no generated message classes needed on the classpath. Calls
+   * are then always routed to the gRPC port.
+   *
+   * @return true if generated message classes are not to be used
+   */
+  default boolean isDescriptorOnly() {
+    return false;
+  }
+
   /**
    * Gets gRPC server port.
    *
@@ -0,0 +1,110 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.api.HttpBody;
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import java.io.EOFException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.SneakyThrows;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.util.StringUtils;
+
+/**
+ * Reads and writes raw HTTP bodies of <code>google.api.HttpBody</code> messages, bytes in field
+ * <code>data</code> and their content type in field <code>content_type</code>, neither parsed nor
+ * encoded. Works by field numbers, also for dynamic messages.
+ *
+ * @author zzhao
+ */
+final class HttpBodies {
+
+  private static final String HTTP_BODY = HttpBody.getDescriptor().getFullName();
+
+  private HttpBodies() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Tells whether the given message type is <code>google.api.HttpBody</code>.
+   */
+  static boolean isHttpBody(Descriptor type) {
+    return type != null && HTTP_BODY.equals(type.getFullName());
+  }
+
+  /**
+   * Reads the request body in chunks growing with the bytes actually received, never allocated
+   * upfront for the declared content length.
+   *
+   * @throws TranscoderException with {@link TranscoderError#PAYLOAD_TOO_LARGE} if larger than the
+   *     given maximum, with {@link TranscoderError#INCOMPLETE_BODY} if shorter than the declared
+   *     content length
+   */
+  @SneakyThrows
+  static ByteString read(HttpServletRequest req, int maxBytes) {
+    final long contentLength = req.getContentLengthLong();
+    if (contentLength > maxBytes) {
+      throw TranscoderError.PAYLOAD_TOO_LARGE.toException();
+    }
+
+    final ByteString data;
+    try {
+      data = ByteString.readFrom(ByteStreams.limit(req.getInputStream(), maxBytes + 1L));
+    } catch (EOFException e) { // connection closed early
+      throw TranscoderError.INCOMPLETE_BODY.toException();
+    }
+    if (data.size() > maxBytes) {
+      throw TranscoderError.PAYLOAD_TOO_LARGE.toException();
+    }
+    if (data.size() < contentLength) {
+      throw TranscoderError.INCOMPLETE_BODY.toException();
+    }
+    return data;
+  }
+
+  /**
+   * Sets content type and data of the given <code>HttpBody</code> builder.
+   */
+  static void set(Message.Builder builder, String contentType, ByteString data) {
+    final Descriptor type = builder.getDescriptorForType();
+    if (StringUtils.hasText(contentType)) {
+      builder.setField(type.findFieldByNumber(HttpBody.CONTENT_TYPE_FIELD_NUMBER), contentType);
+    }
+    builder.setField(type.findFieldByNumber(HttpBody.DATA_FIELD_NUMBER), data);
+  }
+
+  /**
+   * Encodes data of the given <code>HttpBody</code> as response with its content type, default
+   * <code>application/octet-stream</code>, without copying.
+   */
+  static TranscoderController.Encoded encode(MessageOrBuilder httpBody) {
+    final Descriptor type = httpBody.getDescriptorForType();
+    final String contentType = (String) httpBody.getField(
+        type.findFieldByNumber(HttpBody.CONTENT_TYPE_FIELD_NUMBER));
+    return new TranscoderController.Encoded(HttpStatus.OK, StringUtils.hasText(contentType)
+        ? contentType
+        : MediaType.APPLICATION_OCTET_STREAM_VALUE,
+        (ByteString) httpBody.getField(type.findFieldByNumber(HttpBody.DATA_FIELD_NUMBER)));
+  }
+
+  /**
+   * Writes data of the given <code>HttpBody</code> as response with its content type, default
+   * <code>application/octet-stream</code>.
+   *
+   * @return number of bytes written
+   */
+  @SneakyThrows
+  static long write(MessageOrBuilder httpBody, HttpServletResponse resp) {
+    final TranscoderController.Encoded encoded = encode(httpBody);
+    resp.setStatus(encoded.getStatus().value());
+    resp.setContentType(encoded.getContentType());
+    resp.setContentLength(encoded.getBody().size());
+    encoded.getBody().writeTo(resp.getOutputStream());
+    resp.getOutputStream().flush();
+    return encoded.getBody().size();
+  }
+}
@@ -1,21 +1,44 @@
 package io.github.kenix.httpgrpc.spring;
 
 import static io.github.kenix.httpgrpc.spring.Util.HTTP_METHODS_WITH_BODY;
-import static io.github.kenix.httpgrpc.spring.Util.getUrl;
+import static io.github.kenix.httpgrpc.spring.Util.getPrototype;
 
-import com.google.api.HttpRule;
-import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.DescriptorProtos.MethodOptions.IdempotencyLevel;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FileDescriptor;
 import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Message;
+import io.github.kenix.httpgrpc.spring.RouteIndex.Route;
+import io.github.kenix.httpgrpc.spring.codec.JsonCodec;
+import io.github.kenix.httpgrpc.spring.codec.JsonFormatCodec;
+import io.github.kenix.httpgrpc.spring.strategy.BackendRing;
+import io.github.kenix.httpgrpc.spring.strategy.RetryBudget;
 import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategy;
 import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
@@ -26,9 +49,12 @@ import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpMethod;
 import org.springframework.lang.NonNull;
+import org.springframework.util.ClassUtils;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.context.WebApplicationContext;
 import org.springframework.web.servlet.mvc.method.RequestMappingInfo;
 import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
 
@@ -42,21 +68,69 @@ import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandl
 @RequiredArgsConstructor
 public class HttpGrpcMapper implements ApplicationContextAware, DisposableBean {
 
-  private static final Class<TranscoderController> CONTROLLER_CLASS = TranscoderController.class;
-  private static final String CONTROLLER_METHOD = "handleRequest";
   private static final Method MTD = Optional.ofNullable(ReflectionUtils.findMethod(
-      CONTROLLER_CLASS, CONTROLLER_METHOD, HttpServletRequest.class, HttpServletResponse.class)
+      RouteHandler.class, "handleRequest", HttpServletRequest.class, HttpServletResponse.class)
   ).orElseThrow(() -> new IllegalStateException("cannot find "));
+  private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+  private static final String JFR_LISTENER_CLASS =
+      "io.github.kenix.httpgrpc.spring.jfr.JfrTranscodeListener";
+  private static final String METER_REGISTRY_CLASS =
+      "io.micrometer.core.instrument.MeterRegistry";
+  private static final String VALIDATOR_INDEX_CLASS = "io.envoyproxy.pgv.ValidatorIndex";
+  private static final String WEB_SOCKET_CLASS = "org.springframework.web.socket.WebSocketHandler";
 
   private ApplicationContext appCtx;
 
+  private RequestMappingHandlerMapping mapping;
+
+  private GrpcServerDescriptor grpcServerDesc;
+
   private ServerCallStrategyResolver serverCallStrategyResolver;
 
+  private JsonCodec jsonCodec;
+
+  private HttpGrpcSettings settings;
+
+  private BufferPool bufferPool;
+
+  private TranscodeListener transcodeListener;
+
+  private IdempotencyStore idempotencyStore;
+
+  private CallerKey idempotencyCaller;
+
+  private MemoryBudget memoryBudget;
+
+  private TrafficRecorder trafficRecorder;
+
+  // a pgv ValidatorIndex if edge validation enabled, not typed as pgv is optional
+  private Object validatorIndex;
+
+  private TenantScheduler tenantScheduler;
+
+  // runs all but one part of composite requests
+  private ExecutorService compositeExecutor;
+
+  // shared by routes with the same limit, kept across reloads
+  private final Map<RateLimit, RateLimiter> rateLimiters = new IdentityHashMap<>();
+
+  // replaced as a whole on each (re)load
+  private volatile Map<String, Registration> registrations = Collections.emptyMap();
+
+  // mapped handlers by route key, kept while the route exists
+  private final Map<String, RouteHandler> routeHandlers = new HashMap<>();
+
   @Override
   public void destroy() throws Exception {
     if (this.serverCallStrategyResolver != null) {
       this.serverCallStrategyResolver.done();
     }
+    if (this.trafficRecorder != null) {
+      this.trafficRecorder.close();
+    }
+    if (this.compositeExecutor != null) {
+      this.compositeExecutor.shutdownNow();
+    }
   }
 
   private <T> T getBean(Class<T> type) {
@@ -68,6 +142,11 @@ public class HttpGrpcMapper implements ApplicationContextAware, DisposableBean {
     }
   }
 
+  private <T> T getBean(Class<T> type, Supplier<T> defaultSupplier) {
+    final T bean = getBean(type);
+    return bean == null ? defaultSupplier.get() : bean;
+  }
+
   /**
    * Configures {@link RequestMappingHandlerMapping}.
    *
@@ -76,85 +155,540 @@ public class HttpGrpcMapper implements ApplicationContextAware, DisposableBean {
    */
   @EventListener
   public void map(ContextRefreshedEvent evt) throws Exception {
-    final RequestMappingHandlerMapping mapping = // mandatory
+    this.mapping = // mandatory
         this.appCtx.getBean(RequestMappingHandlerMapping.class);
 
     // mandatory
-    final GrpcServerDescriptor grpcServerDesc = this.appCtx.getBean(GrpcServerDescriptor.class);
-    final List<FileDescriptor> fileDescriptors = grpcServerDesc.getFileDescriptors();
+    this.grpcServerDesc = this.appCtx.getBean(GrpcServerDescriptor.class);
+    final List<FileDescriptor> fileDescriptors = this.grpcServerDesc.getFileDescriptors();
     if (CollectionUtils.isEmpty(fileDescriptors)) {
       log.info("<map> no file descriptors found, no transcoder setup");
       return;
     }
 
-    this.serverCallStrategyResolver = new ServerCallStrategyResolver(
-        grpcServerDesc, getBean(ServerMethodDefinitionInterceptor.class));
-
-    fileDescriptors.forEach(fileDesc -> {
-      final FileOptions fileOptions = fileDesc.getOptions();
-      fileDesc.getServices()
-          .forEach(serviceDesc -> serviceDesc.getMethods().forEach(methodDesc -> {
-            final Class<? extends Message> reqClass =
-                getClass(fileOptions, methodDesc.getInputType().getName());
-            final Class<? extends Message> respClass =
-                getClass(fileOptions, methodDesc.getOutputType().getName());
-            methodDesc.getOptions().getAllFields().values()
-                .stream()
-                .filter(f -> f instanceof HttpRule)
-                .map(f -> (HttpRule) f)
-                .forEach(httpRule -> {
-                  processHttpRule(httpRule, reqClass, respClass, methodDesc, mapping);
-                  httpRule.getAdditionalBindingsList().forEach(hr ->
-                      processHttpRule(hr, reqClass, respClass, methodDesc, mapping));
-                });
-          }));
+    register(fileDescriptors);
+  }
+
+  /**
+   * Rebuilds the routes from the given file descriptors and swaps them with the registered ones.
+   * <p>
+   * Mappings of new routes are registered first, then handlers of changed routes are swapped in
+   * place, finally mappings of removed routes are unregistered. Unchanged routes keep their
+   * controllers, changed ones stay mapped throughout. Requests in flight finish on the controllers
+   * they were dispatched to. If registering a mapping fails, those registered by this reload are
+   * unregistered again and the previous routes stay in effect.
+   * </p>
+   *
+   * @param fileDescriptors file descriptors of the gRPC services to be transcoded
+   */
+  public void reload(List<FileDescriptor> fileDescriptors) {
+    if (this.mapping == null) {
+      throw new IllegalStateException("cannot reload before mapping");
+    }
+    register(fileDescriptors);
+  }
+
+  private synchronized void register(List<FileDescriptor> fileDescriptors) {
+    if (this.serverCallStrategyResolver == null) {
+      this.serverCallStrategyResolver = new ServerCallStrategyResolver(
+          this.grpcServerDesc, getBean(ServerMethodDefinitionInterceptor.class));
+      this.jsonCodec = getBean(JsonCodec.class, JsonFormatCodec::new);
+      this.settings = getBean(HttpGrpcSettings.class, HttpGrpcSettings::new);
+      this.bufferPool = new BufferPool(this.settings.getMaxPooledBufferBytes(),
+          this.settings.getBufferPoolSizePerClass());
+      this.transcodeListener = getBean(TranscodeListener.class, this::createJfrListener);
+      this.idempotencyStore = getBean(IdempotencyStore.class, () ->
+          this.settings.isIdempotencyEnabled()
+              ? new LocalIdempotencyStore(this.settings.getIdempotencyMaxEntries(),
+                  this.settings.getIdempotencyTtlSeconds())
+              : null);
+      this.idempotencyCaller = this.idempotencyStore == null
+          ? null
+          : new CallerKey(this.settings.getIdempotencyCallerKey());
+      this.serverCallStrategyResolver.setRetryBudget(new RetryBudget(
+          this.settings.getRetryBudgetMaxTokens(), this.settings.getRetryBudgetRatio()));
+      this.memoryBudget = createMemoryBudget();
+      this.trafficRecorder = createTrafficRecorder();
+      this.validatorIndex = createValidatorIndex();
+      this.tenantScheduler = createTenantScheduler();
+      this.compositeExecutor = createCompositeExecutor();
+      if (!this.settings.getBackends().isEmpty()) {
+        this.serverCallStrategyResolver.setBackendRing(new BackendRing(
+            this.settings.getBackends(), this.settings.getBackendLoadFactor()));
+      }
+    }
+
+    final Map<String, MethodDescriptor> methods = new HashMap<>();
+    fileDescriptors.forEach(fileDesc -> fileDesc.getServices()
+        .forEach(serviceDesc -> serviceDesc.getMethods()
+            .forEach(methodDesc -> methods.put(methodDesc.getFullName(), methodDesc))));
+
+    final boolean descriptorOnly = this.grpcServerDesc.isDescriptorOnly();
+    final Map<String, Message> prototypes = new HashMap<>();
+    final Map<String, Registration> current = this.registrations;
+    final Map<String, Registration> next = new LinkedHashMap<>();
+    final List<Route> routes = RouteIndex.resolve(fileDescriptors,
+        this.grpcServerDesc.getFileDescriptors(), this.appCtx.getClassLoader());
+    final Set<String> getMethods = new HashSet<>();
+    routes.forEach(route -> {
+      if (route.getHttpMethod() == HttpMethod.GET) {
+        getMethods.add(route.getMethodName());
+      }
+    });
+    routes.forEach(route -> {
+      final MethodDescriptor methodDesc = methods.get(route.getMethodName());
+      if (methodDesc == null) { // index can cover more services than the gRPC server provides
+        return;
+      }
+
+      final String key = route.getKey();
+      final Registration registered = getRegistered(current, next, route, methodDesc);
+      if (registered != null) {
+        next.put(key, registered);
+      } else {
+        createRegistration(route,
+            prototypeOf(prototypes, descriptorOnly ? null : route.getReqClassName(),
+                methodDesc.getInputType()),
+            prototypeOf(prototypes, descriptorOnly ? null : route.getRespClassName(),
+                methodDesc.getOutputType()),
+            methodDesc, isIdempotent(methodDesc, getMethods)).ifPresent(reg -> next.put(key, reg));
+      }
+    });
+    if (isWebSocketEnabled()) {
+      methods.values().stream().filter(MethodDescriptor::isClientStreaming).forEach(methodDesc -> {
+        final Route route = toWebSocketRoute(methodDesc);
+        final Registration registered = getRegistered(current, next, route, methodDesc);
+        next.put(route.getKey(), registered != null
+            ? registered
+            : createWebSocketRegistration(route,
+                prototypeOf(prototypes, descriptorOnly ? null : route.getReqClassName(),
+                    methodDesc.getInputType()),
+                prototypeOf(prototypes, descriptorOnly ? null : route.getRespClassName(),
+                    methodDesc.getOutputType()),
+                methodDesc));
+      });
+    }
+    final List<CompositeRoute> compositeRoutes = this.settings.getCompositeRoutes();
+    for (int i = 0; i < compositeRoutes.size(); i++) { // rebuilt on each reload
+      final CompositeRoute composite = compositeRoutes.get(i);
+      final Route route = new Route(HttpMethod.GET, composite.getPath(), "", "",
+          String.join(",", composite.getParts().values()), "", "");
+      if (next.containsKey(route.getKey())) {
+        throw new IllegalStateException("ambiguous route " + route.getKey());
+      }
+      createCompositeRegistration(route, i, composite, methods, prototypes, descriptorOnly)
+          .ifPresent(reg -> next.put(route.getKey(), reg));
+    }
+
+    if (this.settings.getWarmUpIterations() > 0) {
+      warmUp(next.entrySet().stream()
+          .filter(e -> current.get(e.getKey()) != e.getValue())
+          .map(e -> e.getValue().getHandler())
+          .filter(handler -> handler instanceof TranscoderController)
+          .map(handler -> (TranscoderController) handler)
+          .collect(Collectors.toList()));
+    }
+
+    swap(current, next);
+    this.registrations = Collections.unmodifiableMap(next);
+  }
+
+  /**
+   * Swaps the given current registrations with the next ones route by route, so that no route is
+   * unmapped while being replaced, rolling back newly registered mappings on failure.
+   */
+  private void swap(Map<String, Registration> current, Map<String, Registration> next) {
+    final List<String> added = new ArrayList<>();
+    try {
+      for (final Map.Entry<String, Registration> entry : next.entrySet()) {
+        if (!current.containsKey(entry.getKey())) {
+          final Registration reg = entry.getValue();
+          final RouteHandler routeHandler = new RouteHandler(reg.getHandler());
+          log.info("<map> {}", reg.getMappingInfo());
+          this.mapping.registerMapping(reg.getMappingInfo(), routeHandler, MTD);
+          this.routeHandlers.put(entry.getKey(), routeHandler);
+          added.add(entry.getKey());
+        }
+      }
+    } catch (RuntimeException e) {
+      log.error("<swap> failed, rolling back {} new routes", added.size(), e);
+      added.forEach(key -> {
+        this.mapping.unregisterMapping(next.get(key).getMappingInfo());
+        this.routeHandlers.remove(key);
+      });
+      throw e;
+    }
+
+    next.forEach((key, reg) -> {
+      final Registration previous = current.get(key);
+      if (previous != null && previous != reg) {
+        log.info("<swap> {}", reg.getMappingInfo());
+        this.routeHandlers.get(key).setHandler(reg.getHandler());
+      }
+    });
+    current.forEach((key, reg) -> {
+      if (!next.containsKey(key)) {
+        log.info("<swap> unmap {}", reg.getMappingInfo());
+        this.mapping.unregisterMapping(reg.getMappingInfo());
+        this.routeHandlers.remove(key);
+      }
+    });
+  }
+
+  /**
+   * Warms up the given new controllers before they get mapped. Running within the context refresh
+   * at startup, it delays readiness until done.
+   */
+  private void warmUp(List<TranscoderController> controllers) {
+    final long start = System.nanoTime();
+    final int iterations = this.settings.getWarmUpIterations();
+    controllers.forEach(controller -> {
+      try {
+        controller.warmUp(iterations, this.settings.isWarmUpCalls());
+      } catch (Exception e) {
+        log.warn("<warmUp> failed for {}", controller.getRoute(), e);
+      }
+    });
+    log.info("<warmUp> {} routes with {} iterations in {}ms", controllers.size(), iterations,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+  }
+
+  /**
+   * Gets the registration of the given route if still valid for the given method.
+   */
+  private static Registration getRegistered(Map<String, Registration> current,
+      Map<String, Registration> next, Route route, MethodDescriptor methodDesc) {
+    final String key = route.getKey();
+    if (next.containsKey(key)) {
+      throw new IllegalStateException("ambiguous route " + key);
+    }
+    final Registration registered = current.get(key);
+    return registered != null && registered.isSameAs(route, methodDesc) ? registered : null;
+  }
+
+  /**
+   * Gets the prototype of the given message type, cached by full name during one (re)load. Types
+   * of reloaded files differing from their generated ones get dynamic prototypes, so that messages
+   * always match the descriptors they are registered with.
+   *
+   * @param className name of the generated class, null if descriptor only
+   */
+  private static Message prototypeOf(Map<String, Message> prototypes, String className,
+      Descriptor desc) {
+    return prototypes.computeIfAbsent(desc.getFullName(), name -> {
+      final Message prototype = getPrototype(className, desc);
+      if (prototype.getDescriptorForType() == desc) {
+        return prototype;
+      }
+      log.debug("<prototypeOf> {} changed since generated, transcoded dynamically", name);
+      return DynamicMessage.getDefaultInstance(desc);
     });
   }
 
-  private void processHttpRule(HttpRule httpRule, Class<? extends Message> reqClass,
-      Class<? extends Message> respClass, MethodDescriptor methodDesc,
-      RequestMappingHandlerMapping mapping) {
-    final Optional<ServerCallStrategy> callStrategy =
-        this.serverCallStrategyResolver.lookup(methodDesc, reqClass, respClass);
+  /**
+   * Tells whether the given method is idempotent: mapped to GET or marked so.
+   */
+  private static boolean isIdempotent(MethodDescriptor methodDesc, Set<String> getMethods) {
+    final IdempotencyLevel level = methodDesc.getOptions().getIdempotencyLevel();
+    return getMethods.contains(methodDesc.getFullName())
+        || level == IdempotencyLevel.IDEMPOTENT || level == IdempotencyLevel.NO_SIDE_EFFECTS;
+  }
+
+  private Optional<Registration> createRegistration(Route route, Message reqPrototype,
+      Message respPrototype, MethodDescriptor methodDesc, boolean idempotent) {
+    final Optional<ServerCallStrategy> callStrategy = this.serverCallStrategyResolver.lookup(
+        methodDesc, reqPrototype, respPrototype,
+        this.settings.getCallPolicy(methodDesc.getFullName(), idempotent),
+        this.settings.getAffinityKeys().get(methodDesc.getFullName()));
     if (!callStrategy.isPresent()) {
-      log.warn("<processHttpRule> no server call strategy found for {}", methodDesc.getFullName());
-      return;
+      log.warn("<createRegistration> no server call strategy found for {}",
+          methodDesc.getFullName());
+      return Optional.empty();
     }
 
-    final HttpMethod httpMethod = HttpMethod.valueOf(httpRule.getPatternCase().name());
+    final HttpMethod httpMethod = route.getHttpMethod();
     final TranscoderController controller =
-        createController(httpMethod, reqClass, methodDesc, callStrategy.get());
+        createController(httpMethod, reqPrototype, methodDesc, callStrategy.get());
+    if (!controller.setResponseBody(route.getResponseBody())) {
+      log.warn("<createRegistration> skip {}, response body {} no singular message field of {}",
+          route.getKey(), route.getResponseBody(), methodDesc.getOutputType().getFullName());
+      return Optional.empty();
+    }
 
+    controller.setRoute(route.getKey());
+    controller.setRespPrototype(respPrototype);
+    final RateLimit rateLimit =
+        this.settings.getRateLimit(route.getKey(), methodDesc.getFullName());
+    if (rateLimit != null) {
+      controller.setRateLimiter(this.rateLimiters.computeIfAbsent(rateLimit, RateLimiter::new));
+    }
+    controller.setMemoryBudget(this.memoryBudget);
+    controller.setTrafficRecorder(this.trafficRecorder);
+    if (this.validatorIndex != null) {
+      controller.setRequestValidator(
+          PgvValidators.validatorFor(this.validatorIndex, reqPrototype));
+    }
+    controller.setMemoryBudgetWaitMs(this.settings.getMemoryBudgetWaitMs());
+    if (this.tenantScheduler != null) {
+      controller.setTenantScheduler(this.tenantScheduler);
+      controller.setTenantClassifier(
+          new TenantClassifier(this.settings.getTenantKey(), methodDesc.getInputType()));
+      controller.setCallSlotWaitMs(this.settings.getCallSlotWaitMs());
+    }
+    controller.setExpectedResponseBytes(this.settings.getExpectedResponseBytes());
+    controller.setNonBlockingTimeoutMs(
+        this.settings.isNonBlockingIo() ? this.settings.getNonBlockingTimeoutMs() : 0);
     if (HTTP_METHODS_WITH_BODY.contains(httpMethod)) {
-      controller.setBody(httpRule.getBody());
+      controller.setBody(route.getBody());
+      controller.setMaxBodyBytes(this.settings.getMaxRequestBodyBytes(route.getKey()));
+      controller.setIdempotencyStore(this.idempotencyStore);
+      controller.setIdempotencyWaitMs(this.settings.getIdempotencyWaitMs());
+      controller.setIdempotencyCaller(this.idempotencyCaller);
     }
     final RequestMappingInfo mappingInfo =
-        RequestMappingInfo.paths(getUrl(httpRule, httpMethod))
+        RequestMappingInfo.paths(route.getPath())
             .methods(RequestMethod.valueOf(httpMethod.name()))
             .build();
-    log.info("<map> {}", mappingInfo.toString());
-    mapping.registerMapping(mappingInfo, controller, MTD);
+    return Optional.of(new Registration(route, methodDesc, mappingInfo, controller));
+  }
+
+  private boolean isWebSocketEnabled() {
+    if (!StringUtils.hasText(this.settings.getWebSocketPath())) {
+      return false;
+    }
+    if (!ClassUtils.isPresent(WEB_SOCKET_CLASS, this.appCtx.getClassLoader())) {
+      log.warn("<isWebSocketEnabled> spring-websocket not found, no WebSocket endpoints");
+      return false;
+    }
+    return true;
+  }
+
+  private Route toWebSocketRoute(MethodDescriptor methodDesc) {
+    return new Route(HttpMethod.GET,
+        this.settings.getWebSocketPath() + "/" + methodDesc.getService().getFullName() + "/"
+            + methodDesc.getName(), "", "", methodDesc.getFullName(),
+        RouteIndex.getClassName(methodDesc.getInputType()),
+        RouteIndex.getClassName(methodDesc.getOutputType()));
+  }
+
+  /**
+   * Creates the registration of a WebSocket endpoint of a streaming method, only called if
+   * spring-websocket is present.
+   */
+  private Registration createWebSocketRegistration(Route route, Message reqPrototype,
+      Message respPrototype, MethodDescriptor methodDesc) {
+    final ServletContext servletContext = this.appCtx instanceof WebApplicationContext
+        ? ((WebApplicationContext) this.appCtx).getServletContext()
+        : null;
+    final Object handler = new WebSocketTranscoder(
+        this.serverCallStrategyResolver.getStreamingChannel(),
+        this.serverCallStrategyResolver.createCallMethodDescriptor(methodDesc, reqPrototype,
+            respPrototype),
+        reqPrototype, this.jsonCodec, this.settings, servletContext);
+    final RequestMappingInfo mappingInfo = RequestMappingInfo.paths(route.getPath())
+        .methods(RequestMethod.GET)
+        .build();
+    return new Registration(route, methodDesc, mappingInfo, handler);
+  }
+
+  /**
+   * Creates the registration of a composite route, with a part per unary method, none if any of
+   * its methods is not found or cannot be called.
+   */
+  private Optional<Registration> createCompositeRegistration(Route route, int index,
+      CompositeRoute composite, Map<String, MethodDescriptor> methods,
+      Map<String, Message> prototypes, boolean descriptorOnly) {
+    final List<CompositeController.Part> parts = new ArrayList<>();
+    for (final Map.Entry<String, String> entry : composite.getParts().entrySet()) {
+      final MethodDescriptor methodDesc = methods.get(entry.getValue());
+      if (methodDesc == null || methodDesc.isClientStreaming() || methodDesc.isServerStreaming()) {
+        log.warn("<createCompositeRegistration> no unary method {} for {}", entry.getValue(),
+            route.getKey());
+        return Optional.empty();
+      }
+
+      final Message reqPrototype = prototypeOf(prototypes,
+          descriptorOnly ? null : RouteIndex.getClassName(methodDesc.getInputType()),
+          methodDesc.getInputType());
+      final Message respPrototype = prototypeOf(prototypes,
+          descriptorOnly ? null : RouteIndex.getClassName(methodDesc.getOutputType()),
+          methodDesc.getOutputType());
+      final Optional<ServerCallStrategy> callStrategy = this.serverCallStrategyResolver.lookup(
+          methodDesc, reqPrototype, respPrototype,
+          this.settings.getCallPolicy(methodDesc.getFullName(),
+              isIdempotent(methodDesc, Collections.emptySet())),
+          this.settings.getAffinityKeys().get(methodDesc.getFullName()));
+      if (!callStrategy.isPresent()) {
+        log.warn("<createCompositeRegistration> no server call strategy found for {}",
+            methodDesc.getFullName());
+        return Optional.empty();
+      }
+      parts.add(new CompositeController.Part(entry.getKey(), methodDesc.getFullName(),
+          reqPrototype, respPrototype.getDescriptorForType(),
+          this.validatorIndex == null
+              ? null
+              : PgvValidators.validatorFor(this.validatorIndex, reqPrototype),
+          callStrategy.get(),
+          this.tenantScheduler == null
+              ? null
+              : new TenantClassifier(this.settings.getTenantKey(), methodDesc.getInputType())));
+    }
+    if (parts.isEmpty()) {
+      log.warn("<createCompositeRegistration> no parts for {}", route.getKey());
+      return Optional.empty();
+    }
+
+    final CompositeController handler = new CompositeController(route.getKey(), index, parts,
+        this.compositeExecutor, this.jsonCodec, this.settings.getCompositeTimeoutMs());
+    final RateLimit rateLimit = this.settings.getRateLimit(route.getKey(), null);
+    if (rateLimit != null) {
+      handler.setRateLimiter(this.rateLimiters.computeIfAbsent(rateLimit, RateLimiter::new));
+    }
+    handler.setMemoryBudget(this.memoryBudget);
+    handler.setMemoryBudgetWaitMs(this.settings.getMemoryBudgetWaitMs());
+    handler.setExpectedResponseBytes(this.settings.getExpectedResponseBytes());
+    handler.setTenantScheduler(this.tenantScheduler);
+    handler.setTrafficRecorder(this.trafficRecorder);
+    handler.setTranscodeListener(this.transcodeListener);
+    final RequestMappingInfo mappingInfo = RequestMappingInfo.paths(route.getPath())
+        .methods(RequestMethod.GET)
+        .build();
+    return Optional.of(new Registration(route, null, mappingInfo, handler));
   }
 
   private TranscoderController createController(HttpMethod httpMethod,
-      Class<? extends Message> reqClass, MethodDescriptor methodDesc,
-      ServerCallStrategy callStrategy) {
+      Message reqPrototype, MethodDescriptor methodDesc, ServerCallStrategy callStrategy) {
     final TranscoderController controller =
-        new TranscoderController(httpMethod, reqClass, methodDesc, callStrategy);
+        new TranscoderController(httpMethod, reqPrototype, methodDesc, callStrategy);
     controller.setSupportedMethods(httpMethod.name());
+    controller.setJsonCodec(this.jsonCodec);
+    controller.setBufferPool(this.bufferPool);
+    controller.setTranscodeListener(this.transcodeListener);
     return controller;
   }
 
+  /**
+   * Creates the memory budget if enabled, with metrics if Micrometer is present.
+   */
+  private MemoryBudget createMemoryBudget() {
+    if (this.settings.getMemoryBudgetBytes() <= 0) {
+      return null;
+    }
+
+    log.info("<createMemoryBudget> {} bytes", this.settings.getMemoryBudgetBytes());
+    final MemoryBudget budget = new MemoryBudget(this.settings.getMemoryBudgetBytes());
+    if (ClassUtils.isPresent(METER_REGISTRY_CLASS, this.appCtx.getClassLoader())) {
+      MemoryBudgetMetrics.bind(budget, this.appCtx);
+    }
+    return budget;
+  }
+
+  /**
+   * Creates the scheduler of call slots across tenants if enabled, with metrics if Micrometer is
+   * present.
+   */
+  private TenantScheduler createTenantScheduler() {
+    if (this.settings.getCallSlots() <= 0) {
+      return null;
+    }
+
+    log.info("<createTenantScheduler> {} call slots, tenants by {}, weights {}",
+        this.settings.getCallSlots(), this.settings.getTenantKey(),
+        this.settings.getTenantWeights());
+    final TenantScheduler scheduler = new TenantScheduler(this.settings.getCallSlots(),
+        this.settings.getTenantMaxQueued(), this.settings.getTenantWeights());
+    if (ClassUtils.isPresent(METER_REGISTRY_CLASS, this.appCtx.getClassLoader())) {
+      TenantSchedulerMetrics.bind(scheduler, this.settings.getTenantWeights().keySet(),
+          this.appCtx);
+    }
+    return scheduler;
+  }
+
+  /**
+   * Creates the executor of direct calls of composite route parts if any composite route is
+   * configured, bounded in threads and queued calls, rejecting further ones.
+   */
+  private ExecutorService createCompositeExecutor() {
+    if (this.settings.getCompositeRoutes().isEmpty()) {
+      return null;
+    }
+
+    final int threads = this.settings.getCompositeThreads();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+        60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(this.settings.getCompositeMaxQueued()),
+        r -> {
+          final Thread thread = new Thread(r, "http-grpc-composite");
+          thread.setDaemon(true);
+          return thread;
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates the recorder of sampled requests if enabled.
+   */
   @SneakyThrows
-  @SuppressWarnings("unchecked")
-  private Class<? extends Message> getClass(FileOptions fileOptions, String typeName) {
-    final String javaPackage = fileOptions.getJavaPackage();
-    final String outerClassname = fileOptions.getJavaOuterClassname();
-    final String typeClassName = fileOptions.getJavaMultipleFiles()
-        ? typeName
-        : outerClassname + "$" + typeName;
-
-    return (Class<? extends Message>) Class.forName(javaPackage + "." + typeClassName);
+  private TrafficRecorder createTrafficRecorder() {
+    if (this.settings.getCaptureSampleRate() <= 0) {
+      return null;
+    }
+    return new TrafficRecorder(this.settings.getCaptureSampleRate(),
+        Paths.get(this.settings.getCaptureDir()), this.settings.getCaptureFileBytes(),
+        this.settings.getCaptureMaxFiles(), this.settings.getCaptureHeaders());
+  }
+
+  /**
+   * Creates the index of request validators if edge validation enabled and pgv present.
+   */
+  private Object createValidatorIndex() {
+    if (!this.settings.isEdgeValidation()) {
+      return null;
+    }
+    if (!ClassUtils.isPresent(VALIDATOR_INDEX_CLASS, this.appCtx.getClassLoader())) {
+      log.warn("<createValidatorIndex> pgv-java-stub not found, no edge validation");
+      return null;
+    }
+    return PgvValidators.createIndex(this.appCtx);
+  }
+
+  /**
+   * Creates the listener emitting JFR events if enabled, compiled separately for Java 11.
+   */
+  @SneakyThrows
+  private TranscodeListener createJfrListener() {
+    if (!this.settings.isJfrEnabled()) {
+      return null;
+    }
+    final ClassLoader classLoader = this.appCtx.getClassLoader();
+    if (!ClassUtils.isPresent(JFR_EVENT_CLASS, classLoader)) {
+      log.warn("<createJfrListener> JFR not available, Java 11 or later required");
+      return null;
+    }
+
+    log.info("<createJfrListener> slow transcode threshold {}ms",
+        this.settings.getSlowTranscodeThresholdMs());
+    return (TranscodeListener) ClassUtils.forName(JFR_LISTENER_CLASS, classLoader)
+        .getConstructor(long.class)
+        .newInstance(TimeUnit.MILLISECONDS.toNanos(this.settings.getSlowTranscodeThresholdMs()));
+  }
+
+  /**
+   * A registered route with its mapping and handler, a controller, WebSocket endpoint or composite
+   * controller, the latter without method.
+   */
+  @Value
+  private static class Registration {
+
+    Route route;
+    MethodDescriptor methodDesc;
+    RequestMappingInfo mappingInfo;
+    Object handler;
+
+    boolean isSameAs(Route route, MethodDescriptor methodDesc) {
+      return this.route.equals(route) && this.methodDesc != null && (this.methodDesc == methodDesc
+          || this.methodDesc.getFile().toProto().equals(methodDesc.getFile().toProto()));
+    }
   }
 
   @Override
@@ -0,0 +1,310 @@
+package io.github.kenix.httpgrpc.spring;
+
+import io.github.kenix.httpgrpc.spring.strategy.CallPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings of the HTTP transcoding, picked up by {@link HttpGrpcMapper} if provided as a bean, e.g.
+ * bound from configuration properties.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class HttpGrpcSettings {
+
+  /**
+   * Key of the default {@link CallPolicy} in {@link #callPolicies}.
+   */
+  public static final String DEFAULT_CALL_POLICY = "*";
+
+  /**
+   * Key of the default {@link RateLimit} in {@link #rateLimits}.
+   */
+  public static final String DEFAULT_RATE_LIMIT = "*";
+
+  /**
+   * Maximum size of request bodies in bytes, larger ones are rejected with 413.
+   */
+  private int maxRequestBodyBytes = 4 * 1024 * 1024;
+
+  /**
+   * Maximum sizes of request bodies in bytes per route, keyed by HTTP method and path template,
+   * e.g. <code>POST /v1/greeter</code>, overriding {@link #maxRequestBodyBytes}.
+   */
+  private Map<String, Integer> routeMaxRequestBodyBytes = new HashMap<>();
+
+  /**
+   * Size of the largest pooled buffers for reading request bodies, larger ones are allocated on
+   * demand.
+   */
+  private int maxPooledBufferBytes = 256 * 1024;
+
+  /**
+   * Maximum number of pooled buffers per size class.
+   */
+  private int bufferPoolSizePerClass = 64;
+
+  /**
+   * Emits JDK Flight Recorder events of transcoded requests, on Java 11 or later, unless a
+   * {@link TranscodeListener} bean is provided. Events are only recorded while a recording with
+   * them enabled is running.
+   */
+  private boolean jfrEnabled;
+
+  /**
+   * Duration of transcoded requests in milliseconds above which a slow transcode event is emitted
+   * in addition.
+   */
+  private long slowTranscodeThresholdMs = 500;
+
+  /**
+   * Policies of hedging and retrying calls in routing mode keyed by full gRPC method name, e.g.
+   * <code>greeter.Greeter.SayHello</code>, or {@link #DEFAULT_CALL_POLICY} for all others. Only
+   * applied to idempotent methods: mapped to GET or with idempotency level <code>IDEMPOTENT</code>
+   * or <code>NO_SIDE_EFFECTS</code>.
+   */
+  private Map<String, CallPolicy> callPolicies = new HashMap<>();
+
+  /**
+   * Tokens added to the retry budget per successful hedged or retried call, i.e. the ratio of extra
+   * attempts allowed in the long run.
+   */
+  private double retryBudgetRatio = 0.1;
+
+  /**
+   * Maximum tokens of the retry budget, i.e. extra attempts allowed in a burst.
+   */
+  private int retryBudgetMaxTokens = 10;
+
+  /**
+   * Path prefix of WebSocket endpoints of client and bidirectional streaming methods, e.g.
+   * <code>/ws</code> for <code>/ws/greet.Greeter/Chat</code>, none if not set. Requires
+   * <code>spring-websocket</code>.
+   */
+  private String webSocketPath;
+
+  /**
+   * Maximum time in milliseconds to send a WebSocket message, after which the session is closed.
+   */
+  private int webSocketSendTimeLimitMs = 10000;
+
+  /**
+   * Maximum bytes of received WebSocket messages queued while the gRPC call is not ready, after
+   * which the session is closed.
+   */
+  private int webSocketSendBufferBytes = 512 * 1024;
+
+  /**
+   * Number of warm-up iterations per route run with synthesized requests before routes get
+   * mapped, 0 for no warm-up. At startup, readiness stays <code>REFUSING_TRAFFIC</code> until done.
+   */
+  private int warmUpIterations;
+
+  /**
+   * Also calls the gRPC methods while warming up, only to be enabled if all mapped methods are
+   * safe to call with synthesized requests.
+   */
+  private boolean warmUpCalls;
+
+  /**
+   * Reads request bodies and writes response bodies with non-blocking servlet I/O, calling the
+   * gRPC method once the request body is complete, where the servlet supports async requests.
+   */
+  private boolean nonBlockingIo;
+
+  /**
+   * Timeout in milliseconds of requests handled with non-blocking I/O, after which 504 is
+   * answered if the response has not been started yet.
+   */
+  private long nonBlockingTimeoutMs = 30000;
+
+  /**
+   * Rate limits per client key keyed by route, e.g. <code>POST /v1/greeter</code>, or full gRPC
+   * method name, shared by all its routes, or {@link #DEFAULT_RATE_LIMIT} for all others. Exceeding
+   * requests are rejected with 429 and <code>Retry-After</code>.
+   */
+  private Map<String, RateLimit> rateLimits = new HashMap<>();
+
+  /**
+   * Stores responses of POST, PUT and PATCH requests with an <code>Idempotency-Key</code> header in
+   * a {@link LocalIdempotencyStore} unless an {@link IdempotencyStore} bean is defined, so that
+   * retries replay them.
+   */
+  private boolean idempotencyEnabled;
+
+  /**
+   * Maximum number of responses kept in the local idempotency store.
+   */
+  private long idempotencyMaxEntries = 10000;
+
+  /**
+   * Time to live in seconds of responses in the local idempotency store.
+   */
+  private long idempotencyTtlSeconds = 3600;
+
+  /**
+   * Maximum time in milliseconds a request waits for one with the same idempotency key in
+   * progress, after which 409 is answered.
+   */
+  private long idempotencyWaitMs = 10000;
+
+  /**
+   * Caller an idempotency key is scoped to, so that callers cannot replay responses of others:
+   * <code>principal</code> for the authenticated user, <code>ip</code> for the client address,
+   * <code>header:NAME</code> for a request header, e.g. an API key, or <code>field:NAME</code> for
+   * a request field bound from a path variable or query parameter. Requests without it share one
+   * scope.
+   */
+  private String idempotencyCallerKey = "principal";
+
+  /**
+   * gRPC targets of backends, e.g. <code>greeter-0.greeter:9898</code>, to route unary calls to
+   * instead of the local gRPC server, none if empty.
+   */
+  private List<String> backends = new ArrayList<>();
+
+  /**
+   * Affinity keys of methods routed to {@link #backends} keyed by full gRPC method name, a path to
+   * a scalar, string, bytes or enum field in the request message, e.g. <code>user.id</code>.
+   * Requests with the same key are routed to the same backend as long as it is not overloaded, see
+   * {@link #backendLoadFactor}.
+   */
+  private Map<String, String> affinityKeys = new HashMap<>();
+
+  /**
+   * Maximum in-flight calls of a backend relative to the average, beyond which requests spill over
+   * to the next backend for their affinity key.
+   */
+  private double backendLoadFactor = 1.25;
+
+  /**
+   * Bytes of request bodies and expected responses of requests in flight on this node, 0 for no
+   * limit. Requests exceeding it wait up to {@link #memoryBudgetWaitMs}, then get 503.
+   */
+  private long memoryBudgetBytes;
+
+  /**
+   * Maximum time in milliseconds a request waits for memory budget to be released, suspended
+   * without holding a thread with {@link #nonBlockingIo}, 0 to shed it right away.
+   */
+  private long memoryBudgetWaitMs = 50;
+
+  /**
+   * Bytes of the response expected per request, reserved in the memory budget in addition to the
+   * request body.
+   */
+  private int expectedResponseBytes = 64 * 1024;
+
+  /**
+   * Concurrent gRPC calls on this node, 0 for no limit. While all are in use, requests queue per
+   * tenant, see {@link #tenantKey}, and get call slots in weighted fair order.
+   */
+  private int callSlots;
+
+  /**
+   * Tenant key of requests: <code>header:NAME</code> for a request header or
+   * <code>field:PATH</code> for a field of the bound request message. Requests without the key
+   * belong to one tenant.
+   */
+  private String tenantKey = "header:X-Tenant-Id";
+
+  /**
+   * Weights of tenants keyed by tenant, 1 for others. A tenant of weight 2 gets twice the call
+   * slots of one of weight 1 under contention.
+   */
+  private Map<String, Double> tenantWeights = new HashMap<>();
+
+  /**
+   * Requests queued per tenant while no call slot is free, further ones get 429.
+   */
+  private int tenantMaxQueued = 100;
+
+  /**
+   * Maximum time in milliseconds a request waits for a call slot, then gets 503. Requests handled
+   * with non-blocking I/O wait up to {@link #nonBlockingTimeoutMs}.
+   */
+  private long callSlotWaitMs = 1000;
+
+  /**
+   * Ratio of requests recorded for replay, e.g. 0.01 for 1%, none if 0. Recorded off the request
+   * threads to rotating memory-mapped files in {@link #captureDir}.
+   */
+  private double captureSampleRate;
+
+  /**
+   * Directory of recorded requests.
+   */
+  private String captureDir = "captures";
+
+  /**
+   * Size of each file of recorded requests, rotated when full.
+   */
+  private int captureFileBytes = 64 * 1024 * 1024;
+
+  /**
+   * Maximum number of files of recorded requests kept, the oldest ones deleted.
+   */
+  private int captureMaxFiles = 16;
+
+  /**
+   * Request headers recorded along.
+   */
+  private List<String> captureHeaders = new ArrayList<>(Collections.singletonList("Accept"));
+
+  /**
+   * Whether to validate bound request messages with their protoc-gen-validate rules before calling
+   * the gRPC service, rejecting violations with 400. Requires pgv-java-stub, validators are taken
+   * from a <code>ValidatorIndex</code> bean if any.
+   */
+  private boolean edgeValidation;
+
+  /**
+   * Composite GET routes, each calling several unary gRPC methods in parallel and responding with
+   * their replies merged into one message, failed parts listed in field <code>errors</code>.
+   */
+  private List<CompositeRoute> compositeRoutes = new ArrayList<>();
+
+  /**
+   * Deadline in milliseconds shared by the parts of a composite route, parts not replying in time
+   * are reported with <code>DEADLINE_EXCEEDED</code>.
+   */
+  private long compositeTimeoutMs = 2000;
+
+  /**
+   * Threads running direct calls of composite route parts in parallel, routed calls need none.
+   */
+  private int compositeThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Direct calls of composite route parts queued while all threads are busy, further ones fail
+   * with <code>RESOURCE_EXHAUSTED</code>.
+   */
+  private int compositeMaxQueued = 256;
+
+  int getMaxRequestBodyBytes(String route) {
+    return this.routeMaxRequestBodyBytes.getOrDefault(route, this.maxRequestBodyBytes);
+  }
+
+  CallPolicy getCallPolicy(String method, boolean idempotent) {
+    if (!idempotent) {
+      return null;
+    }
+    final CallPolicy policy = this.callPolicies.get(method);
+    return policy == null ? this.callPolicies.get(DEFAULT_CALL_POLICY) : policy;
+  }
+
+  RateLimit getRateLimit(String route, String method) {
+    RateLimit limit = this.rateLimits.get(route);
+    if (limit == null) {
+      limit = this.rateLimits.get(method);
+    }
+    return limit == null ? this.rateLimits.get(DEFAULT_RATE_LIMIT) : limit;
+  }
+}
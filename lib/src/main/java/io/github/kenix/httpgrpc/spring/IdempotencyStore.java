@@ -0,0 +1,56 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.util.concurrent.CompletableFuture;
+import lombok.Value;
+
+/**
+ * Stores responses of requests with an <code>Idempotency-Key</code> header, so that retries of a
+ * request replay the response of its first execution instead of calling the gRPC method again.
+ * <p>
+ * The first caller of {@link #claim(String)} for a key executes the request and then either
+ * {@link #complete(String, StoredResponse) completes} or {@link #abort(String) aborts} it. Others
+ * get a future of the stored response, completed exceptionally if aborted, in which case they claim
+ * again.
+ * </p>
+ *
+ * @author zzhao
+ */
+public interface IdempotencyStore {
+
+  /**
+   * Claims execution of the request with the given key.
+   *
+   * @param key idempotency key scoped by route and caller
+   * @return null if claimed, otherwise future of the response of the claiming request
+   */
+  CompletableFuture<StoredResponse> claim(String key);
+
+  /**
+   * Stores the response of the claimed request with the given key.
+   *
+   * @param key idempotency key scoped by route and caller
+   * @param response response to be replayed
+   */
+  void complete(String key, StoredResponse response);
+
+  /**
+   * Releases the claim of the request with the given key without a response to be replayed, e.g.
+   * after a transient failure.
+   *
+   * @param key idempotency key scoped by route and caller
+   */
+  void abort(String key);
+
+  /**
+   * A stored response.
+   */
+  @Value
+  class StoredResponse {
+
+    int status;
+    String contentType;
+    byte[] body;
+    // digest of the request the response is of, to reject reuse of its key with another request
+    byte[] requestHash;
+  }
+}
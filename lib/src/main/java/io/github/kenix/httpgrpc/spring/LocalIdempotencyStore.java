@@ -0,0 +1,53 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link IdempotencyStore} in local memory, bounded in size, entries expiring after a time to
+ * live counted from the last write.
+ *
+ * @author zzhao
+ */
+public class LocalIdempotencyStore implements IdempotencyStore {
+
+  private final Cache<String, CompletableFuture<StoredResponse>> responses;
+
+  /**
+   * Creates an empty store.
+   *
+   * @param maxEntries maximum number of stored and in-flight responses
+   * @param ttlSeconds time to live of entries in seconds
+   */
+  public LocalIdempotencyStore(long maxEntries, long ttlSeconds) {
+    this.responses = CacheBuilder.newBuilder()
+        .maximumSize(maxEntries)
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+
+  @Override
+  public CompletableFuture<StoredResponse> claim(String key) {
+    return this.responses.asMap().putIfAbsent(key, new CompletableFuture<>());
+  }
+
+  @Override
+  public void complete(String key, StoredResponse response) {
+    final CompletableFuture<StoredResponse> pending = this.responses.getIfPresent(key);
+    final CompletableFuture<StoredResponse> done = CompletableFuture.completedFuture(response);
+    this.responses.put(key, done); // time to live from completion
+    if (pending != null) {
+      pending.complete(response);
+    }
+  }
+
+  @Override
+  public void abort(String key) {
+    final CompletableFuture<StoredResponse> pending = this.responses.asMap().remove(key);
+    if (pending != null) {
+      pending.completeExceptionally(new IllegalStateException("aborted " + key));
+    }
+  }
+}
@@ -0,0 +1,252 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import lombok.Getter;
+
+/**
+ * A node-wide budget of bytes held by requests in flight: request bodies and expected responses.
+ * Requests reserve before being processed; while the budget is exhausted they are queued in
+ * arrival order until reservations are released, and are shed if not granted in time.
+ * <p>
+ * The fast path is a single compare-and-set while nobody is queued. Queued reservations are futures
+ * granted by releasing threads, so that non-blocking requests are suspended instead of holding a
+ * thread. A request larger than the whole budget is admitted while nothing else is reserved, so
+ * that it is not starved.
+ * </p>
+ *
+ * @author zzhao
+ */
+final class MemoryBudget {
+
+  @Getter
+  private final long limitBytes;
+  private final AtomicLong reserved = new AtomicLong();
+  private final AtomicInteger waiting = new AtomicInteger();
+  // guarded by itself
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+  private final LongAdder queued = new LongAdder();
+  private final LongAdder shed = new LongAdder();
+
+  MemoryBudget(long limitBytes) {
+    this.limitBytes = limitBytes;
+  }
+
+  /**
+   * Reserves bytes of a request body, 0 if of unknown length, and of its expected response,
+   * waiting up to the given time if exhausted.
+   *
+   * @return reservation, null if shed
+   */
+  Reservation reserve(long bodyBytes, long responseBytes, long waitMs) {
+    final CompletableFuture<Reservation> future = reserveAsync(bodyBytes, responseBytes);
+    if (future.isDone()) {
+      return future.join();
+    }
+
+    try {
+      return future.get(waitMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | InterruptedException | ExecutionException e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      return shed(future);
+    }
+  }
+
+  /**
+   * Reserves bytes of a request body, 0 if of unknown length, and of its expected response, queued
+   * if exhausted. Queued reservations not granted in time are to be {@link #shed(CompletableFuture)
+   * shed}.
+   *
+   * @return future of the reservation, completed unless queued
+   */
+  CompletableFuture<Reservation> reserveAsync(long bodyBytes, long responseBytes) {
+    final long bytes = bodyBytes + responseBytes;
+    if (this.waiting.get() == 0 && tryReserve(bytes)) {
+      return CompletableFuture.completedFuture(new Reservation(bytes, bodyBytes));
+    }
+
+    this.queued.increment();
+    final Waiter waiter = new Waiter(bytes, bodyBytes);
+    synchronized (this.waiters) {
+      this.waiters.add(waiter);
+      this.waiting.incrementAndGet();
+    }
+    grant(); // released meanwhile
+    return waiter.future;
+  }
+
+  /**
+   * Sheds the given queued reservation unless granted meanwhile.
+   *
+   * @return the reservation if granted, null if shed
+   */
+  Reservation shed(CompletableFuture<Reservation> future) {
+    if (!future.cancel(false)) {
+      return future.join();
+    }
+    this.shed.increment();
+    grant(); // the ones behind may fit
+    return null;
+  }
+
+  private boolean tryReserve(long bytes) {
+    while (true) {
+      final long current = this.reserved.get();
+      if (current > 0 && current + bytes > this.limitBytes) {
+        return false;
+      }
+      if (this.reserved.compareAndSet(current, current + bytes)) {
+        return true;
+      }
+    }
+  }
+
+  private void release(long bytes) {
+    this.reserved.addAndGet(-bytes);
+    if (this.waiting.get() > 0) {
+      grant();
+    }
+  }
+
+  /**
+   * Grants queued reservations in arrival order as long as they fit, completing them outside the
+   * lock as requests are resumed in their callbacks.
+   */
+  private void grant() {
+    final List<Waiter> granted = new ArrayList<>();
+    synchronized (this.waiters) {
+      Waiter head;
+      while ((head = this.waiters.peek()) != null) {
+        if (!head.future.isCancelled()) {
+          if (!tryReserve(head.bytes)) {
+            break;
+          }
+          granted.add(head);
+        }
+        this.waiters.poll();
+        this.waiting.decrementAndGet();
+      }
+    }
+    for (final Waiter waiter : granted) {
+      if (!waiter.future.complete(new Reservation(waiter.bytes, waiter.bodyBytes))) {
+        release(waiter.bytes); // shed meanwhile
+      }
+    }
+  }
+
+  /**
+   * Gets bytes currently reserved.
+   */
+  long getReservedBytes() {
+    return this.reserved.get();
+  }
+
+  /**
+   * Gets the number of reservations that had to wait so far.
+   */
+  long getQueuedCount() {
+    return this.queued.sum();
+  }
+
+  /**
+   * Gets the number of reservations shed so far.
+   */
+  long getShedCount() {
+    return this.shed.sum();
+  }
+
+  /**
+   * Bytes reserved by one request, released once when done, also as listener of async requests.
+   */
+  final class Reservation implements AsyncListener {
+
+    private final long bodyBytes;
+    private long bytes;
+    private boolean done;
+
+    private Reservation(long bytes, long bodyBytes) {
+      this.bytes = bytes;
+      this.bodyBytes = bodyBytes;
+    }
+
+    /**
+     * Grows the reservation without waiting if the request body read is larger than reserved, e.g.
+     * of unknown length, unless that exceeds the budget with others reserved, then the request is
+     * to be shed.
+     *
+     * @return false if to be shed
+     */
+    synchronized boolean bodyRead(long length) {
+      final long extraBytes = length - this.bodyBytes;
+      if (extraBytes <= 0 || this.done) {
+        return true;
+      }
+      while (true) {
+        final long current = reserved.get();
+        if (current > this.bytes && current + extraBytes > limitBytes) {
+          shed.increment();
+          return false;
+        }
+        if (reserved.compareAndSet(current, current + extraBytes)) {
+          this.bytes += extraBytes;
+          return true;
+        }
+      }
+    }
+
+    synchronized void release() {
+      if (!this.done) {
+        this.done = true;
+        MemoryBudget.this.release(this.bytes);
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      release();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      // completed afterwards
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      // completed afterwards
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // nothing to do
+    }
+  }
+
+  /**
+   * A queued reservation.
+   */
+  private static final class Waiter {
+
+    private final long bytes;
+    private final long bodyBytes;
+    private final CompletableFuture<Reservation> future = new CompletableFuture<>();
+
+    private Waiter(long bytes, long bodyBytes) {
+      this.bytes = bytes;
+      this.bodyBytes = bodyBytes;
+    }
+  }
+}
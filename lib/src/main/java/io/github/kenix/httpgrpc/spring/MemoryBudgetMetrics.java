@@ -0,0 +1,48 @@
+package io.github.kenix.httpgrpc.spring;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Micrometer metrics of a {@link MemoryBudget}, only loaded if Micrometer is present.
+ *
+ * @author zzhao
+ */
+@RequiredArgsConstructor
+final class MemoryBudgetMetrics implements MeterBinder {
+
+  private static final String BYTES = "bytes";
+
+  private final MemoryBudget budget;
+
+  /**
+   * Binds metrics of the given budget to the meter registry of the given context if any.
+   */
+  static void bind(MemoryBudget budget, ApplicationContext appCtx) {
+    appCtx.getBeanProvider(MeterRegistry.class)
+        .ifAvailable(new MemoryBudgetMetrics(budget)::bindTo);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("http.grpc.memory.reserved", this.budget, MemoryBudget::getReservedBytes)
+        .description("Bytes reserved by requests in flight")
+        .baseUnit(BYTES)
+        .register(registry);
+    Gauge.builder("http.grpc.memory.limit", this.budget, MemoryBudget::getLimitBytes)
+        .description("Bytes of the memory budget")
+        .baseUnit(BYTES)
+        .register(registry);
+    FunctionCounter.builder("http.grpc.memory.queued", this.budget,
+        MemoryBudget::getQueuedCount)
+        .description("Requests waited for the memory budget")
+        .register(registry);
+    FunctionCounter.builder("http.grpc.memory.shed", this.budget, MemoryBudget::getShedCount)
+        .description("Requests shed for lack of memory budget")
+        .register(registry);
+  }
+}
@@ -0,0 +1,293 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.ByteString;
+import io.github.kenix.httpgrpc.spring.BufferPool.Content;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+
+/**
+ * A request handled asynchronously with non-blocking servlet I/O: the request body is read through
+ * a {@link ReadListener} into a pooled buffer and the response body written through a
+ * {@link WriteListener}, each only as far as the socket allows, so that no container thread waits
+ * for the client. Exactly one of the write callback and the timeout callback runs, and the request
+ * body buffer is released on timeout while still being read.
+ *
+ * @author zzhao
+ */
+@Slf4j
+final class NonBlockingExchange implements AsyncListener {
+
+  private static final int WRITE_CHUNK_BYTES = 16 * 1024;
+
+  private final AsyncContext asyncContext;
+  private final HttpServletResponse resp;
+  private final Runnable onTimedOut;
+  // claimed by whoever writes the response, the timeout or the exchange
+  private final AtomicBoolean responding = new AtomicBoolean();
+  // claimed by whichever callback ends the exchange, the write or the timeout one
+  private final AtomicBoolean ended = new AtomicBoolean();
+  private volatile Future<?> pending;
+  private volatile BodyReader reader;
+
+  /**
+   * Starts an asynchronous exchange.
+   *
+   * @param timeoutMs timeout in milliseconds
+   * @param onTimedOut called if the exchange times out before the response has been written
+   */
+  NonBlockingExchange(HttpServletRequest req, HttpServletResponse resp, long timeoutMs,
+      Runnable onTimedOut) {
+    this.asyncContext = req.startAsync(req, resp);
+    this.asyncContext.setTimeout(timeoutMs);
+    this.asyncContext.addListener(this);
+    this.resp = resp;
+    this.onTimedOut = onTimedOut;
+  }
+
+  /**
+   * Sets the pending call to be cancelled on timeout or error.
+   */
+  void setPending(Future<?> pending) {
+    this.pending = pending;
+  }
+
+  /**
+   * Reads the request body into a pooled buffer, passing it or the failure to the given callback,
+   * which is called by a container thread once all data has been read.
+   *
+   * @throws IOException when the request body cannot be read
+   */
+  void read(HttpServletRequest req, BufferPool bufferPool, int maxLength,
+      BiConsumer<Content, Throwable> callback) throws IOException {
+    final ServletInputStream in = req.getInputStream();
+    this.reader = new BodyReader(in, bufferPool, req.getContentLengthLong(), maxLength, callback);
+    in.setReadListener(this.reader);
+  }
+
+  /**
+   * Writes the response, completing the exchange once the whole body has been written.
+   *
+   * @param status HTTP status
+   * @param contentType content type of the body
+   * @param body body to be written
+   * @param onWritten called after the body has been written, unless timed out
+   */
+  void write(HttpStatus status, String contentType, ByteString body, Runnable onWritten) {
+    if (!this.responding.compareAndSet(false, true)) {
+      return; // timed out
+    }
+
+    try {
+      this.resp.setStatus(status.value());
+      this.resp.setContentType(contentType);
+      this.resp.setContentLength(body.size());
+      final ServletOutputStream out = this.resp.getOutputStream();
+      out.setWriteListener(new BodyWriter(out, body, onWritten));
+    } catch (IOException | RuntimeException e) {
+      log.debug("<write> cannot write response", e);
+      this.asyncContext.complete();
+      end(onWritten);
+    }
+  }
+
+  @Override
+  public void onTimeout(AsyncEvent event) {
+    // claimed before cancelling, which writes the error response of the cancelled call otherwise
+    final boolean timedOut = this.responding.compareAndSet(false, true);
+    cancelPending();
+    if (timedOut && !this.resp.isCommitted()) {
+      this.resp.setStatus(HttpStatus.GATEWAY_TIMEOUT.value());
+    }
+    final BodyReader bodyReader = this.reader;
+    if (bodyReader != null) {
+      bodyReader.abort();
+    }
+    end(this.onTimedOut);
+    this.asyncContext.complete(); // also aborts a slow write
+  }
+
+  @Override
+  public void onError(AsyncEvent event) {
+    cancelPending();
+  }
+
+  @Override
+  public void onComplete(AsyncEvent event) {
+    // nothing to do
+  }
+
+  @Override
+  public void onStartAsync(AsyncEvent event) {
+    // nothing to do
+  }
+
+  private void end(Runnable callback) {
+    if (this.ended.compareAndSet(false, true)) {
+      callback.run();
+    }
+  }
+
+  private void cancelPending() {
+    final Future<?> future = this.pending;
+    if (future != null) {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Reads the request body as far as available whenever notified.
+   */
+  private final class BodyReader implements ReadListener {
+
+    private final ServletInputStream in;
+    private final BufferPool bufferPool;
+    private final int maxLength;
+    private final BiConsumer<Content, Throwable> callback;
+    // guarded by this
+    private byte[] buf;
+    private int length;
+    private boolean done; // buffer passed on or released
+
+    BodyReader(ServletInputStream in, BufferPool bufferPool, long lengthHint, int maxLength,
+        BiConsumer<Content, Throwable> callback) {
+      this.in = in;
+      this.bufferPool = bufferPool;
+      this.maxLength = maxLength;
+      this.callback = callback;
+      this.buf = bufferPool.acquire(lengthHint > 0 ? (int) lengthHint : 0);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+      final boolean tooLarge;
+      synchronized (this) {
+        tooLarge = readAvailable();
+      }
+      if (tooLarge) {
+        fail(TranscoderError.PAYLOAD_TOO_LARGE.toException());
+      }
+    }
+
+    /**
+     * Reads as far as available, returns true if exceeding the maximum.
+     */
+    private boolean readAvailable() throws IOException {
+      while (!this.done && this.in.isReady() && !this.in.isFinished()) {
+        if (this.length == this.buf.length) {
+          if (this.length >= BufferPool.MAX_CAPACITY) {
+            return true;
+          }
+          // one byte beyond the maximum detects exceeding it
+          final byte[] larger = this.bufferPool.acquire((int) Math.min(
+              Math.min((long) this.length << 1, this.maxLength + 1L), BufferPool.MAX_CAPACITY));
+          System.arraycopy(this.buf, 0, larger, 0, this.length);
+          this.bufferPool.release(this.buf);
+          this.buf = larger;
+        }
+        final int n = this.in.read(this.buf, this.length, this.buf.length - this.length);
+        if (n < 0) {
+          break;
+        }
+        this.length += n;
+        if (this.length > this.maxLength) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void onAllDataRead() {
+      final Content content;
+      synchronized (this) {
+        if (this.done) {
+          return;
+        }
+        this.done = true;
+        content = new Content(this.buf, this.length);
+      }
+      this.callback.accept(content, null);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      fail(t);
+    }
+
+    private void fail(Throwable t) {
+      if (abort()) {
+        this.callback.accept(null, t);
+      }
+    }
+
+    /**
+     * Releases the buffer unless passed on already.
+     *
+     * @return true if released
+     */
+    synchronized boolean abort() {
+      if (this.done) {
+        return false;
+      }
+      this.done = true;
+      this.bufferPool.release(this.buf);
+      return true;
+    }
+  }
+
+  /**
+   * Writes the response body as far as the socket allows whenever notified.
+   */
+  private final class BodyWriter implements WriteListener {
+
+    private final ServletOutputStream out;
+    private final ByteString body;
+    private final Runnable onWritten;
+    // a chunk per write, as a rope of several pieces would be written by several writes, each
+    // but the first while possibly not ready
+    private final byte[] chunk;
+    private int position;
+
+    BodyWriter(ServletOutputStream out, ByteString body, Runnable onWritten) {
+      this.out = out;
+      this.body = body;
+      this.onWritten = onWritten;
+      this.chunk = new byte[Math.min(body.size(), WRITE_CHUNK_BYTES)];
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      while (this.out.isReady()) {
+        if (this.position >= this.body.size()) {
+          asyncContext.complete();
+          end(this.onWritten);
+          return;
+        }
+        final int length = Math.min(this.body.size() - this.position, this.chunk.length);
+        this.body.copyTo(this.chunk, this.position, 0, length);
+        this.out.write(this.chunk, 0, length);
+        this.position += length;
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      log.debug("<onError> cannot write response", t);
+      asyncContext.complete();
+      end(this.onWritten);
+    }
+  }
+}
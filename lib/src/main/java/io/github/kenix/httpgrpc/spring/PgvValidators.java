@@ -0,0 +1,45 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Message;
+import io.envoyproxy.pgv.ReflectiveValidatorIndex;
+import io.envoyproxy.pgv.Validator;
+import io.envoyproxy.pgv.ValidatorIndex;
+import java.util.function.Predicate;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Resolves protoc-gen-validate validators of request messages, only loaded if pgv is present.
+ *
+ * @author zzhao
+ */
+final class PgvValidators {
+
+  private PgvValidators() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Gets the validator index of the given context if any, or a reflective one.
+   */
+  static Object createIndex(ApplicationContext appCtx) {
+    return appCtx.getBeanProvider(ValidatorIndex.class)
+        .getIfAvailable(ReflectiveValidatorIndex::new);
+  }
+
+  /**
+   * Resolves the validator of messages of the given prototype with the given index, created by
+   * {@link #createIndex(ApplicationContext)}.
+   *
+   * @return validator, null if messages of the prototype have no rules or are dynamic
+   */
+  @SuppressWarnings("unchecked")
+  static Predicate<Message> validatorFor(Object index, Message prototype) {
+    if (prototype instanceof DynamicMessage) {
+      return null;
+    }
+    final Validator<Message> validator =
+        ((ValidatorIndex) index).validatorFor((Class<Message>) prototype.getClass());
+    return validator == null || validator == Validator.ALWAYS_VALID ? null : validator::isValid;
+  }
+}
@@ -0,0 +1,39 @@
+package io.github.kenix.httpgrpc.spring;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Quota of requests of a route or gRPC method per client key, see
+ * {@link HttpGrpcSettings#getRateLimits()}.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class RateLimit {
+
+  /**
+   * Sustained requests per second per key.
+   */
+  private double permitsPerSecond = 10;
+
+  /**
+   * Requests per key allowed at once after being idle.
+   */
+  private int burst = 20;
+
+  /**
+   * Client key of requests: <code>ip</code> for the client address, <code>principal</code> for the
+   * authenticated user, <code>header:NAME</code> for a request header, e.g. an API key, or
+   * <code>field:NAME</code> for a request field bound from a path variable or query parameter.
+   * Requests without the key share one bucket.
+   */
+  private String key = "ip";
+
+  /**
+   * Maximum number of keys tracked at once, beyond which new keys share the bucket of requests
+   * without key until idle keys are swept.
+   */
+  private int maxKeys = 100_000;
+}
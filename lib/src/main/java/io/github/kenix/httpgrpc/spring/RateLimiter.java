@@ -0,0 +1,107 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Limits the rate of requests per client key with the generic cell rate algorithm, equivalent to a
+ * token bucket but keeping a single timestamp per key: the theoretical arrival time of the next
+ * request, advanced by compare-and-set without locks. Keys live in a {@link ConcurrentHashMap}
+ * and those idle long enough to have a full bucket again are swept periodically in bounded
+ * batches, so that many keys neither contend nor leak memory, nor does a single request pay for
+ * sweeping all of them. Beyond the maximum number of keys, new keys share the bucket of requests
+ * without key until swept.
+ *
+ * @author zzhao
+ */
+final class RateLimiter {
+
+  private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final int SWEEP_BATCH = 1024;
+
+  private final long intervalNanos;
+  private final long toleranceNanos;
+  private final CallerKey callerKey;
+  private final int maxKeys;
+  private final Map<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep = new AtomicLong(System.nanoTime() + SWEEP_INTERVAL_NANOS);
+  // handed over between sweeping threads by the compare-and-set of nextSweep
+  private Iterator<AtomicLong> sweeping;
+
+  RateLimiter(RateLimit limit) {
+    if (limit.getPermitsPerSecond() <= 0 || limit.getBurst() < 1) {
+      throw new IllegalArgumentException("invalid rate limit");
+    }
+    this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / limit.getPermitsPerSecond());
+    this.toleranceNanos = this.intervalNanos * (limit.getBurst() - 1);
+    this.callerKey = new CallerKey(limit.getKey());
+    this.maxKeys = limit.getMaxKeys();
+  }
+
+  /**
+   * Acquires a permit for the given request.
+   *
+   * @return 0 if permitted, otherwise nanoseconds until the next request of its key is permitted
+   */
+  long acquire(HttpServletRequest req) {
+    final long now = System.nanoTime();
+    sweepIfDue(now);
+
+    final String reqKey = this.callerKey.of(req);
+    AtomicLong arrival = this.arrivals.get(reqKey);
+    if (arrival == null) {
+      arrival = this.arrivals.computeIfAbsent(
+          this.arrivals.size() < this.maxKeys ? reqKey : CallerKey.NONE, k -> new AtomicLong(now));
+    }
+    while (true) {
+      final long tat = arrival.get();
+      final long base = tat - now > 0 ? tat : now;
+      final long wait = base - this.toleranceNanos - now;
+      if (wait > 0) {
+        return wait;
+      }
+      if (arrival.compareAndSet(tat, base + this.intervalNanos)) {
+        return 0;
+      }
+    }
+  }
+
+  /**
+   * Gets the number of keys currently tracked.
+   */
+  int getKeyCount() {
+    return this.arrivals.size();
+  }
+
+  /**
+   * Removes keys whose next request would be permitted with a full burst anyway, one batch by one
+   * request thread at a time: once per interval, continued by subsequent requests until all keys
+   * have been visited. A request of a key racing with its removal may go uncounted.
+   */
+  private void sweepIfDue(long now) {
+    final long due = this.nextSweep.get();
+    // claimed an interval ahead while sweeping, so that no other thread sweeps concurrently
+    if (now - due < 0 || !this.nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+      return;
+    }
+
+    if (this.sweeping == null) {
+      this.sweeping = this.arrivals.values().iterator();
+    }
+    for (int i = 0; i < SWEEP_BATCH && this.sweeping.hasNext(); i++) {
+      if (this.sweeping.next().get() - now <= 0) {
+        this.sweeping.remove();
+      }
+    }
+    if (this.sweeping.hasNext()) {
+      this.nextSweep.set(now); // next request continues
+    } else {
+      this.sweeping = null;
+      this.nextSweep.set(now + SWEEP_INTERVAL_NANOS); // publishes the reset
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package io.github.kenix.httpgrpc.spring;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.HttpRequestHandler;
+import org.springframework.web.servlet.mvc.Controller;
+
+/**
+ * The handler mapped for a route key, HTTP method and path template, delegating to the current
+ * handler of the route: a {@link Controller} or an {@link HttpRequestHandler}. The mapping stays
+ * registered as long as the route exists, reloads swap its handler by a volatile write, so that
+ * requests never miss a changed route. Requests in flight finish on the handler they were
+ * dispatched to.
+ *
+ * @author zzhao
+ */
+final class RouteHandler {
+
+  private volatile Object handler;
+
+  RouteHandler(Object handler) {
+    setHandler(handler);
+  }
+
+  Object getHandler() {
+    return this.handler;
+  }
+
+  void setHandler(Object handler) {
+    if (!(handler instanceof Controller) && !(handler instanceof HttpRequestHandler)) {
+      throw new IllegalArgumentException("unsupported handler " + handler);
+    }
+    this.handler = handler;
+  }
+
+  /**
+   * Handles a request with the current handler, mapped as handler method.
+   *
+   * @param req HTTP request
+   * @param resp HTTP response
+   * @throws Exception when the handler fails
+   */
+  public void handleRequest(HttpServletRequest req, HttpServletResponse resp) throws Exception {
+    final Object current = this.handler;
+    if (current instanceof Controller) {
+      ((Controller) current).handleRequest(req, resp);
+    } else {
+      ((HttpRequestHandler) current).handleRequest(req, resp);
+    }
+  }
+}
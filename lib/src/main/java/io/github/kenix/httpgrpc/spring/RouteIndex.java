@@ -0,0 +1,293 @@
+package io.github.kenix.httpgrpc.spring;
+
+import static io.github.kenix.httpgrpc.spring.Util.HTTP_METHODS_WITH_BODY;
+import static io.github.kenix.httpgrpc.spring.Util.getUrl;
+
+import com.google.api.HttpRule;
+import com.google.protobuf.DescriptorProtos.FileOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.Descriptors.MethodDescriptor;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Index of HTTP routes of gRPC methods, either scanned from {@link FileDescriptor}s at runtime or
+ * precomputed at build time and loaded from {@link #LOCATION} on the classpath.
+ * <p>
+ * Precomputing is done by running {@link #main(String[])} against the compiled API classes,
+ * refer to module <b>api</b> for an example.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+public final class RouteIndex {
+
+  /**
+   * Classpath location of precomputed route indexes.
+   */
+  public static final String LOCATION = "META-INF/http-grpc/routes.idx";
+
+  private static final String HEADER = "# http-grpc route index v1";
+  private static final String FILE = "F";
+  private static final String ROUTE = "R";
+  private static final String SEPARATOR = "\t";
+
+  private RouteIndex() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Generates a route index file.
+   *
+   * @param args output file followed by names of classes holding {@link FileDescriptor}s, e.g.
+   *     outer classes generated by protoc
+   * @throws IOException when the index file cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      throw new IllegalArgumentException("usage: <output file> <descriptor class>...");
+    }
+
+    final List<FileDescriptor> fileDescriptors = new ArrayList<>(args.length - 1);
+    for (int i = 1; i < args.length; i++) {
+      fileDescriptors.add(getFileDescriptor(args[i]));
+    }
+
+    final Path output = Paths.get(args[0]);
+    if (output.getParent() != null) {
+      Files.createDirectories(output.getParent());
+    }
+    try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      write(fileDescriptors, scan(fileDescriptors), writer);
+    }
+  }
+
+  /**
+   * Resolves routes for the given file descriptors, preferring precomputed indexes found on the
+   * classpath and scanning only those file descriptors not covered by any of them.
+   */
+  static List<Route> resolve(List<FileDescriptor> fileDescriptors, ClassLoader classLoader) {
+    return resolve(fileDescriptors, fileDescriptors, classLoader);
+  }
+
+  /**
+   * Resolves routes for the given file descriptors, taking those of indexable ones from
+   * precomputed indexes found on the classpath and scanning all others. Indexes are built from
+   * generated file descriptors, so only those are indexable: a reloaded file differing from its
+   * generated one is scanned for its current HTTP rules.
+   *
+   * @param indexable file descriptors covered by indexes if any, compared by identity
+   */
+  static List<Route> resolve(List<FileDescriptor> fileDescriptors,
+      Collection<FileDescriptor> indexable, ClassLoader classLoader) {
+    final Set<String> indexedFiles = new HashSet<>();
+    final List<Route> indexedRoutes = new ArrayList<>();
+    load(classLoader, indexedFiles, indexedRoutes);
+
+    final Set<FileDescriptor> generated = Collections.newSetFromMap(new IdentityHashMap<>());
+    generated.addAll(indexable);
+    final Set<String> indexedMethods = new HashSet<>();
+    final List<FileDescriptor> toScan = new ArrayList<>();
+    fileDescriptors.forEach(fd -> {
+      if (indexedFiles.contains(fd.getName()) && generated.contains(fd)) {
+        fd.getServices().forEach(serviceDesc -> serviceDesc.getMethods()
+            .forEach(methodDesc -> indexedMethods.add(methodDesc.getFullName())));
+      } else {
+        toScan.add(fd);
+      }
+    });
+    final List<Route> routes = new ArrayList<>();
+    indexedRoutes.forEach(route -> {
+      if (indexedMethods.contains(route.getMethodName())) {
+        routes.add(route);
+      }
+    });
+    if (!indexedFiles.isEmpty()) {
+      log.info("<resolve> {} routes from index, scanning {} file descriptors",
+          routes.size(), toScan.size());
+    }
+    routes.addAll(scan(toScan));
+
+    return routes;
+  }
+
+  /**
+   * Scans {@link HttpRule}s of all methods found in the given file descriptors.
+   */
+  static List<Route> scan(List<FileDescriptor> fileDescriptors) {
+    final List<Route> routes = new ArrayList<>();
+    fileDescriptors.forEach(fileDesc -> fileDesc.getServices()
+        .forEach(serviceDesc -> serviceDesc.getMethods().forEach(methodDesc -> {
+          final String reqClassName = getClassName(methodDesc.getInputType());
+          final String respClassName = getClassName(methodDesc.getOutputType());
+          methodDesc.getOptions().getAllFields().values()
+              .stream()
+              .filter(f -> f instanceof HttpRule)
+              .map(f -> (HttpRule) f)
+              .forEach(httpRule -> {
+                routes.add(toRoute(httpRule, methodDesc, reqClassName, respClassName));
+                httpRule.getAdditionalBindingsList().forEach(hr ->
+                    routes.add(toRoute(hr, methodDesc, reqClassName, respClassName)));
+              });
+        })));
+
+    return routes;
+  }
+
+  private static Route toRoute(HttpRule httpRule, MethodDescriptor methodDesc,
+      String reqClassName, String respClassName) {
+    final HttpMethod httpMethod = HttpMethod.valueOf(httpRule.getPatternCase().name());
+    return new Route(httpMethod, getUrl(httpRule, httpMethod),
+        HTTP_METHODS_WITH_BODY.contains(httpMethod) ? httpRule.getBody() : "",
+        httpRule.getResponseBody(), methodDesc.getFullName(), reqClassName, respClassName);
+  }
+
+  /**
+   * Gets the binary name of the generated class of the given message type following protoc
+   * conventions, nested types included, e.g. <code>com.example.Outer$Request$Sub</code>.
+   */
+  static String getClassName(Descriptor desc) {
+    final FileDescriptor fileDesc = desc.getFile();
+    final FileOptions fileOptions = fileDesc.getOptions();
+    String className = desc.getName();
+    for (Descriptor parent = desc.getContainingType(); parent != null;
+        parent = parent.getContainingType()) {
+      className = parent.getName() + "$" + className;
+    }
+    if (!fileOptions.getJavaMultipleFiles()) {
+      className = getOuterClassName(fileDesc) + "$" + className;
+    }
+
+    final String javaPackage = fileOptions.hasJavaPackage()
+        ? fileOptions.getJavaPackage()
+        : fileDesc.getPackage();
+    return javaPackage.isEmpty() ? className : javaPackage + "." + className;
+  }
+
+  /**
+   * Gets the simple name of the outer class of the given file: <code>java_outer_classname</code>
+   * if set, otherwise the camel-cased file name, suffixed with <code>OuterClass</code> if it
+   * clashes with a top-level type.
+   */
+  private static String getOuterClassName(FileDescriptor fileDesc) {
+    final FileOptions fileOptions = fileDesc.getOptions();
+    if (fileOptions.hasJavaOuterClassname()) {
+      return fileOptions.getJavaOuterClassname();
+    }
+
+    final String fileName = fileDesc.getName();
+    final String baseName = fileName.substring(fileName.lastIndexOf('/') + 1)
+        .replaceFirst("\\.proto$", "");
+    final StringBuilder sb = new StringBuilder(baseName.length());
+    boolean capitalizeNext = true;
+    for (final char c : baseName.toCharArray()) {
+      if (c >= 'a' && c <= 'z') {
+        sb.append(capitalizeNext ? Character.toUpperCase(c) : c);
+        capitalizeNext = false;
+      } else if (c >= 'A' && c <= 'Z') {
+        sb.append(c);
+        capitalizeNext = false;
+      } else if (c >= '0' && c <= '9') {
+        sb.append(c);
+        capitalizeNext = true;
+      } else {
+        capitalizeNext = true;
+      }
+    }
+
+    final String outerClassName = sb.toString();
+    final boolean clashes =
+        fileDesc.getMessageTypes().stream().anyMatch(d -> d.getName().equals(outerClassName))
+            || fileDesc.getEnumTypes().stream().anyMatch(d -> d.getName().equals(outerClassName))
+            || fileDesc.getServices().stream().anyMatch(d -> d.getName().equals(outerClassName));
+    return clashes ? outerClassName + "OuterClass" : outerClassName;
+  }
+
+  @SneakyThrows
+  private static void load(ClassLoader classLoader, Set<String> files, List<Route> routes) {
+    final Enumeration<URL> resources = classLoader.getResources(LOCATION);
+    while (resources.hasMoreElements()) {
+      final URL url = resources.nextElement();
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          final String[] parts = line.split(SEPARATOR, -1);
+          if (FILE.equals(parts[0]) && parts.length == 2) {
+            files.add(parts[1]);
+          } else if (ROUTE.equals(parts[0]) && (parts.length == 7 || parts.length == 8)) {
+            // response body appended later, absent in older indexes
+            routes.add(new Route(HttpMethod.valueOf(parts[1]), parts[2], parts[3],
+                parts.length == 8 ? parts[7] : "", parts[4], parts[5], parts[6]));
+          }
+        }
+      }
+      log.info("<load> route index {}", url);
+    }
+  }
+
+  static void write(List<FileDescriptor> fileDescriptors, List<Route> routes,
+      Writer writer) throws IOException {
+    writer.write(HEADER);
+    writer.write('\n');
+    for (final FileDescriptor fd : fileDescriptors) {
+      writer.write(String.join(SEPARATOR, FILE, fd.getName()));
+      writer.write('\n');
+    }
+    for (final Route route : routes) {
+      writer.write(String.join(SEPARATOR, ROUTE, route.getHttpMethod().name(), route.getPath(),
+          route.getBody(), route.getMethodName(), route.getReqClassName(),
+          route.getRespClassName(), route.getResponseBody()));
+      writer.write('\n');
+    }
+  }
+
+  @SneakyThrows
+  private static FileDescriptor getFileDescriptor(String className) {
+    return (FileDescriptor) Class.forName(className).getMethod("getDescriptor").invoke(null);
+  }
+
+  /**
+   * An HTTP route of a gRPC method.
+   */
+  @Value
+  static class Route {
+
+    HttpMethod httpMethod;
+    String path;
+    String body;
+    String responseBody;
+    String methodName;
+    String reqClassName;
+    String respClassName;
+
+    /**
+     * Gets the key identifying this route, HTTP method and path template, e.g.
+     * <code>POST /v1/greeter</code>.
+     */
+    String getKey() {
+      return this.httpMethod + " " + this.path;
+    }
+  }
+}
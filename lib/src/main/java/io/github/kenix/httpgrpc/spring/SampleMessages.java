@@ -0,0 +1,112 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.Any;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthesizes sample messages from descriptors with every field set to a representative value, for
+ * warming up binding and serialization code paths.
+ *
+ * @author zzhao
+ */
+final class SampleMessages {
+
+  private static final int MAX_DEPTH = 3; // recursive types
+  private static final String SAMPLE = "warmup";
+  private static final String ANY = Any.getDescriptor().getFullName();
+
+  private SampleMessages() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Creates a sample of the type of the given prototype, repeated fields with one element, message
+   * fields up to a limited depth, <code>google.protobuf.Any</code> fields unset.
+   */
+  static Message create(Message prototype) {
+    return create(prototype.newBuilderForType(), 0);
+  }
+
+  private static Message create(Message.Builder builder, int depth) {
+    for (final FieldDescriptor field : builder.getDescriptorForType().getFields()) {
+      final Object value = sampleValue(builder, field, depth);
+      if (value == null) {
+        continue;
+      }
+      if (field.isRepeated()) {
+        builder.addRepeatedField(field, value);
+      } else {
+        builder.setField(field, value);
+      }
+    }
+
+    return builder.build();
+  }
+
+  private static Object sampleValue(Message.Builder builder, FieldDescriptor field, int depth) {
+    switch (field.getJavaType()) {
+      case INT:
+        return 1;
+      case LONG:
+        return 1L;
+      case FLOAT:
+        return 1f;
+      case DOUBLE:
+        return 1d;
+      case BOOLEAN:
+        return true;
+      case STRING:
+        return SAMPLE;
+      case BYTE_STRING:
+        return ByteString.copyFromUtf8(SAMPLE);
+      case ENUM:
+        return sampleEnumValue(field.getEnumType());
+      case MESSAGE:
+        return depth >= MAX_DEPTH || ANY.equals(field.getMessageType().getFullName())
+            ? null
+            : create(builder.newBuilderForField(field), depth + 1);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Gets the first non-default value of the given enum type, if any.
+   */
+  private static EnumValueDescriptor sampleEnumValue(EnumDescriptor enumType) {
+    final List<EnumValueDescriptor> values = enumType.getValues();
+    return values.size() > 1 ? values.get(1) : values.get(0);
+  }
+
+  /**
+   * Gets string and enum fields of the given sample as query parameters, keyed by field path.
+   */
+  static Map<String, String[]> toParams(Message sample) {
+    final Map<String, String[]> params = new HashMap<>();
+    collectParams(sample, "", params);
+    return params;
+  }
+
+  private static void collectParams(Message message, String namePath,
+      Map<String, String[]> params) {
+    message.getAllFields().forEach((field, value) -> {
+      final String name = namePath.isEmpty() ? field.getName() : namePath + "." + field.getName();
+      final Object single = field.isRepeated() ? ((List<?>) value).get(0) : value;
+      if (field.getJavaType() == JavaType.STRING) {
+        params.put(name, new String[]{(String) single});
+      } else if (field.getJavaType() == JavaType.ENUM) {
+        params.put(name, new String[]{((EnumValueDescriptor) single).getName()});
+      } else if (field.getJavaType() == JavaType.MESSAGE && !field.isRepeated()) {
+        collectParams((Message) single, name, params);
+      }
+    });
+  }
+}
@@ -1,12 +1,21 @@
 package io.github.kenix.httpgrpc.spring;
 
+import com.google.common.io.ByteStreams;
 import com.google.protobuf.Descriptors;
+import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.ServiceDescriptor;
 import com.google.protobuf.Message;
-import com.google.protobuf.Message.Builder;
+import com.google.protobuf.Parser;
+import io.github.kenix.httpgrpc.spring.strategy.BackendRing;
+import io.github.kenix.httpgrpc.spring.strategy.CallPolicy;
+import io.github.kenix.httpgrpc.spring.strategy.DirectChannel;
+import io.github.kenix.httpgrpc.spring.strategy.RetryBudget;
 import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategy;
+import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyAffinity;
 import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyDirect;
+import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyHedging;
 import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyLocalRouting;
+import io.grpc.Channel;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.MethodDescriptor;
@@ -21,13 +30,17 @@ import io.grpc.health.v1.HealthGrpc;
 import io.grpc.health.v1.HealthGrpc.HealthBlockingStub;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import lombok.Setter;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.util.CollectionUtils;
@@ -48,8 +61,37 @@ public class ServerCallStrategyResolver {
 
   private static final Pattern P = Pattern.compile("/");
 
+  private static final Marshaller<byte[]> BYTES_MARSHALLER = new Marshaller<byte[]>() {
+    @Override
+    public InputStream stream(byte[] value) {
+      return new ByteArrayInputStream(value);
+    }
+
+    @SneakyThrows
+    @Override
+    public byte[] parse(InputStream stream) {
+      return ByteStreams.toByteArray(stream);
+    }
+  };
+
+  private final int port;
   private ManagedChannel managedChannel;
+  private ManagedChannel streamingChannel;
+  private Channel directChannel;
   private Map<String, ServerMethodDefinition<?, ?>> serviceMethods;
+  private ScheduledExecutorService hedgeScheduler;
+
+  /**
+   * Retry budget shared by all hedged and retried calls.
+   */
+  @Setter
+  private RetryBudget retryBudget = new RetryBudget(10, 0.1);
+
+  /**
+   * Backends to route unary calls to instead of the local gRPC server, none if null.
+   */
+  @Setter
+  private BackendRing backendRing;
 
   /**
    * Constructs the resolver using given parameters.
@@ -60,8 +102,11 @@ public class ServerCallStrategyResolver {
   @SneakyThrows
   public ServerCallStrategyResolver(GrpcServerDescriptor grpcServerDesc,
       ServerMethodDefinitionInterceptor defsInterceptor) {
-    // prefer injected ServerMethodDefinition
-    List<ServerMethodDefinition<?, ?>> defs = grpcServerDesc.getServerMethodDefinitions();
+    this.port = grpcServerDesc.getPort();
+    // prefer injected ServerMethodDefinition, unusable without generated classes
+    List<ServerMethodDefinition<?, ?>> defs = grpcServerDesc.isDescriptorOnly()
+        ? Collections.emptyList()
+        : grpcServerDesc.getServerMethodDefinitions();
     if (!CollectionUtils.isEmpty(defs)) {
       this.serviceMethods = defs
           .stream()
@@ -81,16 +126,19 @@ public class ServerCallStrategyResolver {
     log.info("<ServerCallStrategyResolver> {}", services);
 
     // try ServerMethodDefinitionInterceptor
-    if (defsInterceptor != null) {
-      // call health service and trigger interceptor
+    if (defsInterceptor != null && !grpcServerDesc.isDescriptorOnly()) {
+      // call health service and trigger interceptor, the first call suffices
       final HealthBlockingStub healthStub = HealthGrpc.newBlockingStub(this.managedChannel);
-      services.forEach(s -> {
+      for (final String s : services) {
         final HealthCheckResponse check =
             healthStub.check(HealthCheckRequest.newBuilder().setService(s).build());
         if (check.getStatus() != ServingStatus.SERVING) {
           log.warn("<ServerCallStrategyResolver> {} not ready", s);
         }
-      });
+        if (defsInterceptor.getServiceDefinitions() != null) {
+          break;
+        }
+      }
 
       final List<ServerServiceDefinition> defsFound = defsInterceptor.getServiceDefinitions();
       if (!CollectionUtils.isEmpty(defsFound)) {
@@ -119,30 +167,111 @@ public class ServerCallStrategyResolver {
    * Looks up a {@link ServerCallStrategy} for given parameters.
    */
   Optional<ServerCallStrategy> lookup(Descriptors.MethodDescriptor desc,
-      Class<? extends Message> reqClass,
-      Class<? extends Message> respClass) {
-    if (!CollectionUtils.isEmpty(this.serviceMethods)) {
+      Message reqPrototype, Message respPrototype) {
+    return lookup(desc, reqPrototype, respPrototype, null);
+  }
+
+  /**
+   * Looks up a {@link ServerCallStrategy} for given parameters, hedging and retrying routed calls
+   * following the given policy if any.
+   */
+  Optional<ServerCallStrategy> lookup(Descriptors.MethodDescriptor desc,
+      Message reqPrototype, Message respPrototype, CallPolicy policy) {
+    return lookup(desc, reqPrototype, respPrototype, policy, null);
+  }
+
+  /**
+   * Looks up a {@link ServerCallStrategy} for given parameters, routing unary calls to backends by
+   * the given affinity key path if backends are set, otherwise to the local gRPC server, in both
+   * cases hedging and retrying routed calls following the given policy if any.
+   */
+  Optional<ServerCallStrategy> lookup(Descriptors.MethodDescriptor desc,
+      Message reqPrototype, Message respPrototype, CallPolicy policy, String affinityKey) {
+    final boolean unary = !desc.isClientStreaming() && !desc.isServerStreaming();
+    final ServerCallStrategy routing;
+    if (this.backendRing != null && unary) {
+      routing = new ServerCallStrategyAffinity(this.backendRing,
+          createCallMethodDescriptor(desc, reqPrototype, respPrototype),
+          resolveKeyPath(desc, affinityKey));
+    } else if (!CollectionUtils.isEmpty(this.serviceMethods)) {
       final ServerMethodDefinition<?, ?> mtdDef = this.serviceMethods.get(desc.getFullName());
       return mtdDef == null ? Optional.empty() : Optional.of(new ServerCallStrategyDirect(mtdDef));
+    } else {
+      final MethodDescriptor<Message, Message> callMethodDesc =
+          createCallMethodDescriptor(desc, reqPrototype, respPrototype);
+      routing = new ServerCallStrategyLocalRouting(this.managedChannel, callMethodDesc,
+          callMethodDesc.toBuilder(BYTES_MARSHALLER, BYTES_MARSHALLER).build());
     }
+    if (policy == null || policy.getMaxAttempts() < 2 || !unary) {
+      return Optional.of(routing);
+    }
+
+    log.info("<lookup> hedging/retrying {} with at most {} attempts", desc.getFullName(),
+        policy.getMaxAttempts());
+    return Optional.of(
+        new ServerCallStrategyHedging(routing, policy, this.retryBudget, getHedgeScheduler()));
+  }
+
+  private static List<FieldDescriptor> resolveKeyPath(Descriptors.MethodDescriptor desc,
+      String affinityKey) {
+    try {
+      final List<FieldDescriptor> keyPath =
+          ServerCallStrategyAffinity.resolveKeyPath(desc.getInputType(), affinityKey);
+      if (!keyPath.isEmpty()) {
+        log.info("<lookup> routing {} by affinity key {}", desc.getFullName(), affinityKey);
+      }
+      return keyPath;
+    } catch (IllegalArgumentException e) {
+      log.warn("<lookup> invalid affinity key {} of {}: {}", affinityKey, desc.getFullName(),
+          e.getMessage());
+      return Collections.emptyList();
+    }
+  }
 
-    return Optional.of(new ServerCallStrategyLocalRouting(
-        this.managedChannel, createCallMethodDescriptor(desc, reqClass, respClass)));
+  private synchronized ScheduledExecutorService getHedgeScheduler() {
+    if (this.hedgeScheduler == null) {
+      this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "http-grpc-hedge");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    return this.hedgeScheduler;
   }
 
-  private MethodDescriptor<Message, Message> createCallMethodDescriptor(
-      Descriptors.MethodDescriptor desc, Class<? extends Message> reqClass,
-      Class<? extends Message> respClass) {
+  /**
+   * Gets a channel for streaming calls: making direct server calls if server method definitions
+   * are available, otherwise to the local gRPC server port.
+   */
+  synchronized Channel getStreamingChannel() {
+    if (this.managedChannel != null) {
+      return this.managedChannel;
+    }
+    if (!CollectionUtils.isEmpty(this.serviceMethods)) {
+      if (this.directChannel == null) {
+        this.directChannel = new DirectChannel(this.serviceMethods.values());
+      }
+      return this.directChannel;
+    }
+    if (this.streamingChannel == null) {
+      this.streamingChannel =
+          ManagedChannelBuilder.forAddress("localhost", this.port).usePlaintext().build();
+    }
+    return this.streamingChannel;
+  }
+
+  MethodDescriptor<Message, Message> createCallMethodDescriptor(
+      Descriptors.MethodDescriptor desc, Message reqPrototype, Message respPrototype) {
     return MethodDescriptor.<Message, Message>newBuilder()
         .setFullMethodName(desc.getService().getFullName() + "/" + desc.getName())
         .setType(determineType(desc))
-        .setRequestMarshaller(createMarshaller(reqClass))
-        .setResponseMarshaller(createMarshaller(respClass))
+        .setRequestMarshaller(createMarshaller(reqPrototype))
+        .setResponseMarshaller(createMarshaller(respPrototype))
         .build();
   }
 
-  private Marshaller<Message> createMarshaller(Class<? extends Message> clazz) {
-    final Builder builder = Util.getBuilder(clazz);
+  private Marshaller<Message> createMarshaller(Message prototype) {
+    final Parser<? extends Message> parser = prototype.getParserForType();
     return new Marshaller<Message>() {
       @Override
       public InputStream stream(Message value) {
@@ -152,7 +281,7 @@ public class ServerCallStrategyResolver {
       @SneakyThrows
       @Override
       public Message parse(InputStream stream) {
-        return builder.mergeFrom(stream).build();
+        return parser.parseFrom(stream);
       }
     };
   }
@@ -171,9 +300,24 @@ public class ServerCallStrategyResolver {
   }
 
   /**
-   * Shutdown internal {@link ManagedChannel} if found active.
+   * Shutdown internal {@link ManagedChannel} if found active, the channel of streaming calls,
+   * backend channels and the scheduler of hedged calls.
    */
   void done() {
+    synchronized (this) {
+      if (this.backendRing != null) {
+        this.backendRing.shutdown();
+        this.backendRing = null;
+      }
+      if (this.hedgeScheduler != null) {
+        this.hedgeScheduler.shutdownNow();
+        this.hedgeScheduler = null;
+      }
+      if (this.streamingChannel != null) {
+        this.streamingChannel.shutdownNow();
+        this.streamingChannel = null;
+      }
+    }
     if (this.managedChannel != null) {
       try {
         if (!this.managedChannel.shutdown().awaitTermination(10, TimeUnit.SECONDS)) {
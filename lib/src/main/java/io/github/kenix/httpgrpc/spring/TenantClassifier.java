@@ -0,0 +1,90 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyAffinity;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Classifies requests of one route by tenant for {@link TenantScheduler}, with the key
+ * <code>header:NAME</code> for a request header or <code>field:PATH</code> for a field of the
+ * bound request message, e.g. <code>field:account.id</code>, resolved once. Requests without the
+ * key belong to the tenant <code>""</code>.
+ *
+ * @author zzhao
+ */
+@Slf4j
+final class TenantClassifier {
+
+  private static final String KEY_HEADER = "header:";
+  private static final String KEY_FIELD = "field:";
+
+  private final String header;
+  private final List<FieldDescriptor> fieldPath;
+
+  TenantClassifier(String key, Descriptor requestType) {
+    if (key.startsWith(KEY_HEADER)) {
+      this.header = key.substring(KEY_HEADER.length());
+      this.fieldPath = Collections.emptyList();
+    } else if (key.startsWith(KEY_FIELD)) {
+      this.header = null;
+      this.fieldPath = resolve(requestType, key.substring(KEY_FIELD.length()));
+    } else {
+      throw new IllegalArgumentException("invalid tenant key " + key);
+    }
+  }
+
+  private static List<FieldDescriptor> resolve(Descriptor requestType, String path) {
+    try {
+      return ServerCallStrategyAffinity.resolveKeyPath(requestType, path);
+    } catch (IllegalArgumentException e) {
+      log.warn("<TenantClassifier> no tenant key {} in {}: {}", path, requestType.getFullName(),
+          e.getMessage());
+      return Collections.emptyList();
+    }
+  }
+
+  /**
+   * Tells whether requests are classified by a field of the bound request message.
+   */
+  boolean isFieldKey() {
+    return this.header == null;
+  }
+
+  /**
+   * Gets the tenant of the given request.
+   *
+   * @param req HTTP request
+   * @param message bound request message, null if not bound
+   * @return tenant key, empty if none
+   */
+  String classify(HttpServletRequest req, Message message) {
+    if (this.header != null) {
+      final String value = req.getHeader(this.header);
+      return value == null ? "" : value;
+    }
+    if (message == null || this.fieldPath.isEmpty()) {
+      return "";
+    }
+
+    Message current = message;
+    for (final FieldDescriptor field : this.fieldPath) {
+      if (!current.hasField(field)) {
+        return "";
+      }
+      final Object value = current.getField(field);
+      if (!(value instanceof Message)) {
+        return value instanceof EnumValueDescriptor
+            ? ((EnumValueDescriptor) value).getName()
+            : String.valueOf(value);
+      }
+      current = (Message) value;
+    }
+    return "";
+  }
+}
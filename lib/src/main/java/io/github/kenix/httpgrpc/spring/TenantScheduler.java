@@ -0,0 +1,311 @@
+package io.github.kenix.httpgrpc.spring;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Grants a fixed number of concurrent call slots to requests of tenants in deficit round robin
+ * order. While slots are free, requests are granted right away; otherwise they queue per tenant,
+ * and each released slot is passed on to the next one: tenants with requests queued take turns,
+ * each getting its weight added to its deficit once per round and as many slots as its deficit
+ * covers. Under contention tenants share the slots in proportion to their weights, and a tenant
+ * alone gets all of them.
+ * <p>
+ * Each tenant queues a bounded number of requests, further ones are shed. Granted requests continue
+ * in the releasing thread, unless it is granting already, so that calls completed in the calling
+ * thread do not recurse.
+ * </p>
+ *
+ * @author zzhao
+ */
+final class TenantScheduler {
+
+  private static final double DEFAULT_WEIGHT = 1;
+
+  @Getter
+  private final int slots;
+  private final int maxQueued;
+  private final Map<String, Double> weights;
+  private final ThreadLocal<Deque<Waiter>> granting = new ThreadLocal<>();
+
+  // guarded by this
+  private final Map<String, Tenant> tenants = new HashMap<>(); // with requests queued
+  private final Deque<Tenant> round = new ArrayDeque<>();
+  private int active;
+  private int queued;
+
+  @Setter
+  private volatile Listener listener;
+
+  TenantScheduler(int slots, int maxQueued, Map<String, Double> weights) {
+    if (slots < 1 || maxQueued < 0 || weights.values().stream().anyMatch(w -> !(w > 0))) {
+      throw new IllegalArgumentException("invalid tenant scheduling");
+    }
+    this.slots = slots;
+    this.maxQueued = maxQueued;
+    this.weights = new HashMap<>(weights);
+  }
+
+  /**
+   * Acquires a call slot for a request of the given tenant.
+   *
+   * @param tenant tenant key
+   * @return future of the slot, completed once granted, cancelled to leave the queue; null if the
+   *     queue of the tenant is full
+   */
+  CompletableFuture<Slot> acquire(String tenant) {
+    final boolean free;
+    final Waiter waiter;
+    synchronized (this) {
+      free = this.active < this.slots;
+      if (free) {
+        this.active++;
+        waiter = null;
+      } else {
+        waiter = enqueue(tenant);
+      }
+    }
+    if (waiter != null) {
+      return waiter;
+    }
+
+    final Listener current = this.listener;
+    if (!free) {
+      if (current != null) {
+        current.onShed(tenant);
+      }
+      return null;
+    }
+    if (current != null) {
+      current.onGranted(tenant, 0);
+    }
+    return CompletableFuture.completedFuture(new Slot());
+  }
+
+  /**
+   * Makes the given asynchronous call of a request of the given tenant once granted a call slot,
+   * releasing it when the call completes. Cancelling the returned future before the slot is granted
+   * leaves the queue.
+   *
+   * @param tenant tenant key
+   * @param call asynchronous call
+   * @return future of the call
+   * @throws TranscoderException if the queue of the tenant is full
+   */
+  <T> CompletableFuture<T> callAsync(String tenant, Supplier<CompletableFuture<T>> call) {
+    final CompletableFuture<Slot> future = acquire(tenant);
+    if (future == null) {
+      throw TranscoderError.TENANT_QUEUE_FULL.toException();
+    }
+    final CompletableFuture<T> response = future.thenCompose(slot -> {
+      try {
+        return call.get().whenComplete((reply, t) -> slot.release());
+      } catch (RuntimeException e) {
+        slot.release();
+        throw e;
+      }
+    });
+    response.whenComplete((reply, t) -> {
+      if (response.isCancelled()) {
+        future.cancel(false);
+      }
+    });
+    return response;
+  }
+
+  /**
+   * Queues a request of the given tenant, with the lock held.
+   *
+   * @return queued request, null if the queue of the tenant is full
+   */
+  private Waiter enqueue(String tenant) {
+    Tenant state = this.tenants.get(tenant);
+    if (state == null) {
+      state = new Tenant(tenant, this.weights.getOrDefault(tenant, DEFAULT_WEIGHT));
+      this.tenants.put(tenant, state);
+      this.round.addLast(state);
+    }
+    final Waiter waiter = new Waiter(tenant);
+    if (!state.offer(waiter)) {
+      return null;
+    }
+    this.queued++;
+    return waiter;
+  }
+
+  private void release() {
+    final Waiter next;
+    synchronized (this) {
+      next = nextWaiter();
+      if (next == null) {
+        this.active--;
+        return;
+      }
+    }
+    grant(next);
+  }
+
+  /**
+   * Polls the next request to grant a slot to in deficit round robin order, with the lock held.
+   */
+  private Waiter nextWaiter() {
+    while (!this.round.isEmpty()) {
+      final Tenant tenant = this.round.peekFirst();
+      final Waiter waiter = tenant.waiters.peekFirst();
+      if (waiter == null || waiter.isDone()) { // cancelled, not charged
+        if (waiter != null) {
+          tenant.waiters.pollFirst();
+          this.queued--;
+        }
+        if (tenant.waiters.isEmpty()) {
+          removeFirst();
+        }
+        continue;
+      }
+      if (tenant.deficit < 1) { // its turn in this round
+        tenant.deficit += tenant.weight;
+        if (tenant.deficit < 1) {
+          this.round.addLast(this.round.pollFirst());
+          continue;
+        }
+      }
+
+      tenant.waiters.pollFirst();
+      this.queued--;
+      tenant.deficit -= 1;
+      if (tenant.waiters.isEmpty()) {
+        removeFirst();
+      } else if (tenant.deficit < 1) {
+        this.round.addLast(this.round.pollFirst());
+      }
+      return waiter;
+    }
+    return null;
+  }
+
+  private void removeFirst() {
+    this.tenants.remove(this.round.pollFirst().key);
+  }
+
+  /**
+   * Completes the given request with a slot, and those granted meanwhile by released calls.
+   */
+  private void grant(Waiter first) {
+    final Deque<Waiter> pending = this.granting.get();
+    if (pending != null) {
+      pending.addLast(first);
+      return;
+    }
+
+    final Deque<Waiter> granted = new ArrayDeque<>();
+    this.granting.set(granted);
+    try {
+      Waiter waiter = first;
+      while (waiter != null) {
+        if (waiter.complete(new Slot())) {
+          final Listener current = this.listener;
+          if (current != null) {
+            current.onGranted(waiter.tenant, System.nanoTime() - waiter.queuedNanos);
+          }
+        } else { // cancelled meanwhile
+          release();
+        }
+        waiter = granted.pollFirst();
+      }
+    } finally {
+      this.granting.remove();
+    }
+  }
+
+  /**
+   * Gets the number of slots in use.
+   */
+  synchronized int getActive() {
+    return this.active;
+  }
+
+  /**
+   * Gets the number of requests queued, including cancelled ones not removed yet.
+   */
+  synchronized int getQueued() {
+    return this.queued;
+  }
+
+  /**
+   * Notified of granted and shed requests, e.g. for metrics.
+   */
+  interface Listener {
+
+    /**
+     * Called when a request of the given tenant is granted a slot after the given wait.
+     */
+    void onGranted(String tenant, long waitNanos);
+
+    /**
+     * Called when a request of the given tenant is shed.
+     */
+    void onShed(String tenant);
+  }
+
+  /**
+   * A call slot granted to a request, released once when its call completes.
+   */
+  final class Slot {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Slot() {
+    }
+
+    void release() {
+      if (this.released.compareAndSet(false, true)) {
+        TenantScheduler.this.release();
+      }
+    }
+  }
+
+  private final class Tenant {
+
+    private final String key;
+    private final double weight;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private double deficit;
+
+    private Tenant(String key, double weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+
+    /**
+     * Queues the given request unless full of live ones, with the lock held.
+     */
+    private boolean offer(Waiter waiter) {
+      if (this.waiters.size() >= maxQueued) {
+        final int size = this.waiters.size();
+        this.waiters.removeIf(CompletableFuture::isDone);
+        queued -= size - this.waiters.size();
+        if (this.waiters.size() >= maxQueued) {
+          return false;
+        }
+      }
+      return this.waiters.add(waiter);
+    }
+  }
+
+  private static final class Waiter extends CompletableFuture<Slot> {
+
+    private final String tenant;
+    private final long queuedNanos = System.nanoTime();
+
+    private Waiter(String tenant) {
+      this.tenant = tenant;
+    }
+  }
+}
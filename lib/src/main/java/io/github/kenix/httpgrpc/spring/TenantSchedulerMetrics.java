@@ -0,0 +1,84 @@
+package io.github.kenix.httpgrpc.spring;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Micrometer metrics of a {@link TenantScheduler}, only loaded if Micrometer is present. Wait times
+ * and shed requests are tagged with the tenant if it has a configured weight, otherwise with
+ * <code>other</code>, so that tenant keys do not blow up the number of meters.
+ *
+ * @author zzhao
+ */
+final class TenantSchedulerMetrics implements MeterBinder, TenantScheduler.Listener {
+
+  private static final String TAG_TENANT = "tenant";
+  private static final String OTHER = "other";
+
+  private final TenantScheduler scheduler;
+  private final Set<String> tenants;
+  private final Map<String, Timer> waits = new HashMap<>();
+  private final Map<String, Counter> shed = new HashMap<>();
+
+  private TenantSchedulerMetrics(TenantScheduler scheduler, Set<String> tenants) {
+    this.scheduler = scheduler;
+    this.tenants = tenants;
+  }
+
+  /**
+   * Binds metrics of the given scheduler to the meter registry of the given context if any.
+   *
+   * @param tenants tenants tagged by name
+   */
+  static void bind(TenantScheduler scheduler, Set<String> tenants, ApplicationContext appCtx) {
+    appCtx.getBeanProvider(MeterRegistry.class)
+        .ifAvailable(new TenantSchedulerMetrics(scheduler, tenants)::bindTo);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("http.grpc.calls.active", this.scheduler, TenantScheduler::getActive)
+        .description("Call slots in use")
+        .register(registry);
+    Gauge.builder("http.grpc.calls.slots", this.scheduler, TenantScheduler::getSlots)
+        .description("Call slots")
+        .register(registry);
+    Gauge.builder("http.grpc.calls.queued", this.scheduler, TenantScheduler::getQueued)
+        .description("Requests waiting for a call slot")
+        .register(registry);
+    for (final String tenant : this.tenants) {
+      register(registry, tenant);
+    }
+    register(registry, OTHER);
+    this.scheduler.setListener(this);
+  }
+
+  private void register(MeterRegistry registry, String tenant) {
+    this.waits.put(tenant, Timer.builder("http.grpc.calls.wait")
+        .description("Time requests waited for a call slot")
+        .tag(TAG_TENANT, tenant)
+        .register(registry));
+    this.shed.put(tenant, Counter.builder("http.grpc.calls.shed")
+        .description("Requests shed for a full tenant queue")
+        .tag(TAG_TENANT, tenant)
+        .register(registry));
+  }
+
+  @Override
+  public void onGranted(String tenant, long waitNanos) {
+    this.waits.getOrDefault(tenant, this.waits.get(OTHER)).record(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void onShed(String tenant) {
+    this.shed.getOrDefault(tenant, this.shed.get(OTHER)).increment();
+  }
+}
@@ -0,0 +1,236 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records a sample of requests to rotating memory-mapped files, for replaying production traffic
+ * offline. Requests are queued by the request thread and serialized and written by a single writer
+ * thread, dropped if the queue is full.
+ * <p>
+ * Each file is a sequence of length-delimited records, a varint length followed by: the time in
+ * epoch microseconds (varint), route, HTTP method, request URI with query string, the number of
+ * headers followed by their names and values (all varint length-prefixed UTF-8), and the request
+ * body in protobuf (varint length-prefixed), i.e. the bound request message or its body field. A
+ * length of 0 ends the file, files are zero-filled.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+final class TrafficRecorder implements Closeable {
+
+  private static final int QUEUE_CAPACITY = 4096;
+  private static final String FILE_PREFIX = "capture-";
+  private static final String FILE_SUFFIX = ".bin";
+  private static final byte[] EMPTY_BYTES = new byte[0];
+
+  private final double sampleRate;
+  private final Path dir;
+  private final int fileBytes;
+  private final int maxFiles;
+  private final List<String> headers;
+  private final BlockingQueue<Capture> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final LongAdder dropped = new LongAdder();
+  private final long startNanos = System.nanoTime();
+  private final long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+  private final Thread writer;
+  private volatile boolean closed;
+
+  // writer thread only
+  private final Deque<Path> files = new ArrayDeque<>();
+  private MappedByteBuffer buffer;
+  private int sequence;
+
+  TrafficRecorder(double sampleRate, Path dir, int fileBytes, int maxFiles, List<String> headers)
+      throws IOException {
+    this.sampleRate = sampleRate;
+    this.dir = Files.createDirectories(dir);
+    this.fileBytes = fileBytes;
+    this.maxFiles = Math.max(1, maxFiles);
+    this.headers = headers;
+    this.writer = new Thread(this::drain, "http-grpc-capture");
+    this.writer.setDaemon(true);
+    this.writer.start();
+    log.info("<TrafficRecorder> sampling {} of requests to {}", sampleRate, this.dir);
+  }
+
+  /**
+   * Tells whether to record the current request.
+   */
+  boolean sample() {
+    return ThreadLocalRandom.current().nextDouble() < this.sampleRate;
+  }
+
+  /**
+   * Queues the given request for recording, dropped if the writer falls behind. The immutable
+   * message is serialized by the writer thread.
+   *
+   * @param route route of the request
+   * @param req HTTP request
+   * @param body bound request message or its body field, null if none
+   */
+  void record(String route, HttpServletRequest req, MessageLite body) {
+    queue(route, req, body, body == null ? EMPTY_BYTES : null);
+  }
+
+  /**
+   * Queues the given request for recording, dropped if the writer falls behind.
+   *
+   * @param route route of the request
+   * @param req HTTP request
+   * @param body request body in protobuf, not to be modified afterwards
+   */
+  void record(String route, HttpServletRequest req, byte[] body) {
+    queue(route, req, null, body);
+  }
+
+  private void queue(String route, HttpServletRequest req, MessageLite message, byte[] raw) {
+    final String[] headerValues = new String[this.headers.size()];
+    for (int i = 0; i < headerValues.length; i++) {
+      headerValues[i] = req.getHeader(this.headers.get(i));
+    }
+    final String query = req.getQueryString();
+    final long micros =
+        this.startMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - this.startNanos);
+    if (this.closed || !this.queue.offer(new Capture(micros, route, req.getMethod(),
+        query == null ? req.getRequestURI() : req.getRequestURI() + '?' + query, headerValues,
+        message, raw))) {
+      this.dropped.increment();
+    }
+  }
+
+  private void drain() {
+    try {
+      while (!this.closed || !this.queue.isEmpty()) {
+        final Capture capture = this.queue.poll(1, TimeUnit.SECONDS);
+        if (capture != null) {
+          write(encode(capture));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException | RuntimeException e) {
+      log.error("<drain> recording stopped", e);
+    } finally {
+      if (this.buffer != null) {
+        this.buffer.force();
+      }
+      log.info("<drain> recording done, {} dropped", this.dropped.sum());
+    }
+  }
+
+  private byte[] encode(Capture capture) throws IOException {
+    int size = CodedOutputStream.computeUInt64SizeNoTag(capture.micros)
+        + CodedOutputStream.computeStringSizeNoTag(capture.route)
+        + CodedOutputStream.computeStringSizeNoTag(capture.method)
+        + CodedOutputStream.computeStringSizeNoTag(capture.uri)
+        + (capture.message == null
+            ? CodedOutputStream.computeByteArraySizeNoTag(capture.raw)
+            : CodedOutputStream.computeMessageSizeNoTag(capture.message));
+    int headerCount = 0;
+    for (int i = 0; i < capture.headerValues.length; i++) {
+      if (capture.headerValues[i] != null) {
+        headerCount++;
+        size += CodedOutputStream.computeStringSizeNoTag(this.headers.get(i))
+            + CodedOutputStream.computeStringSizeNoTag(capture.headerValues[i]);
+      }
+    }
+    size += CodedOutputStream.computeUInt32SizeNoTag(headerCount);
+
+    final byte[] record = new byte[CodedOutputStream.computeUInt32SizeNoTag(size) + size];
+    final CodedOutputStream out = CodedOutputStream.newInstance(record);
+    out.writeUInt32NoTag(size);
+    out.writeUInt64NoTag(capture.micros);
+    out.writeStringNoTag(capture.route);
+    out.writeStringNoTag(capture.method);
+    out.writeStringNoTag(capture.uri);
+    out.writeUInt32NoTag(headerCount);
+    for (int i = 0; i < capture.headerValues.length; i++) {
+      if (capture.headerValues[i] != null) {
+        out.writeStringNoTag(this.headers.get(i));
+        out.writeStringNoTag(capture.headerValues[i]);
+      }
+    }
+    if (capture.message == null) {
+      out.writeByteArrayNoTag(capture.raw);
+    } else {
+      out.writeMessageNoTag(capture.message); // length-delimited as well
+    }
+    out.checkNoSpaceLeft();
+    return record;
+  }
+
+  private void write(byte[] record) throws IOException {
+    if (record.length >= this.fileBytes) {
+      this.dropped.increment();
+      return;
+    }
+    if (this.buffer == null || this.buffer.remaining() <= record.length) { // keep the end mark
+      rotate();
+    }
+    this.buffer.put(record);
+  }
+
+  private void rotate() throws IOException {
+    if (this.buffer != null) {
+      this.buffer.force();
+    }
+    final Path file = this.dir.resolve(String.format("%s%d-%05d%s", FILE_PREFIX,
+        TimeUnit.MICROSECONDS.toMillis(this.startMicros), this.sequence++, FILE_SUFFIX));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      this.buffer = channel.map(MapMode.READ_WRITE, 0, this.fileBytes); // valid after close
+    }
+    this.files.addLast(file);
+    while (this.files.size() > this.maxFiles) {
+      Files.deleteIfExists(this.files.removeFirst());
+    }
+    log.debug("<rotate> {}", file);
+  }
+
+  /**
+   * Stops recording after writing the queued requests.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    try {
+      this.writer.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Value
+  private static class Capture {
+
+    long micros;
+    String route;
+    String method;
+    String uri;
+    String[] headerValues;
+    // either of
+    MessageLite message;
+    byte[] raw;
+  }
+}
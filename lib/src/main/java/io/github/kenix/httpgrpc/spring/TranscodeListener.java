@@ -0,0 +1,26 @@
+package io.github.kenix.httpgrpc.spring;
+
+/**
+ * Gets notified of each transcoded request, e.g. to emit diagnostic events. Invoked on the request
+ * thread after the response got written, implementations must be cheap and thread-safe.
+ *
+ * @author zzhao
+ */
+public interface TranscodeListener {
+
+  /**
+   * Tells whether requests are to be recorded at all, checked at the start of each request.
+   *
+   * @return false to skip recording
+   */
+  default boolean isEnabled() {
+    return true;
+  }
+
+  /**
+   * Notifies of a transcoded request, either succeeded or failed.
+   *
+   * @param record the record of the request
+   */
+  void onTranscoded(TranscodeRecord record);
+}
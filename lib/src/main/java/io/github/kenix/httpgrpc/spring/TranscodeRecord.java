@@ -0,0 +1,142 @@
+package io.github.kenix.httpgrpc.spring;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Record of a transcoded request, with durations of its phases: binding the HTTP request to the
+ * request message, calling the gRPC method and writing the HTTP response.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter(AccessLevel.PACKAGE)
+public final class TranscodeRecord {
+
+  /**
+   * Record of requests not recorded, all marks are no-ops, so that callers need no null checks.
+   */
+  static final TranscodeRecord NONE = new TranscodeRecord(null, null, null);
+
+  /**
+   * HTTP method and path template, e.g. <code>POST /v1/greeter</code>.
+   */
+  private final String route;
+
+  /**
+   * Full name of the gRPC method.
+   */
+  private final String method;
+
+  /**
+   * Simple class name of the server call strategy.
+   */
+  private final String strategy;
+
+  private String requestContentType;
+
+  private String responseContentType;
+
+  /**
+   * Size of the request body in bytes, -1 if unknown.
+   */
+  private long requestBytes = -1;
+
+  /**
+   * Size of the response body in bytes, -1 if unknown.
+   */
+  private long responseBytes = -1;
+
+  /**
+   * HTTP response status.
+   */
+  private int status;
+
+  @Getter(AccessLevel.NONE)
+  private final long startNanos = System.nanoTime();
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private long boundNanos;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private long calledNanos;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private long writtenNanos;
+
+  TranscodeRecord(String route, String method, String strategy) {
+    this.route = route;
+    this.method = method;
+    this.strategy = strategy;
+  }
+
+  void bound() {
+    if (this != NONE) {
+      this.boundNanos = System.nanoTime();
+    }
+  }
+
+  void called() {
+    if (this != NONE) {
+      this.calledNanos = System.nanoTime();
+    }
+  }
+
+  void written() {
+    if (this != NONE) {
+      this.writtenNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Marks the end of a failed call, if the request got that far.
+   */
+  void failed() {
+    if (this != NONE && this.boundNanos != 0 && this.calledNanos == 0) {
+      called();
+    }
+  }
+
+  /**
+   * Gets the duration of binding the request message, 0 if not bound.
+   *
+   * @return duration in nanoseconds
+   */
+  public long getBindNanos() {
+    return this.boundNanos == 0 ? 0 : this.boundNanos - this.startNanos;
+  }
+
+  /**
+   * Gets the duration of the gRPC call, 0 if not called.
+   *
+   * @return duration in nanoseconds
+   */
+  public long getCallNanos() {
+    return this.calledNanos == 0 ? 0 : this.calledNanos - this.boundNanos;
+  }
+
+  /**
+   * Gets the duration of writing the response.
+   *
+   * @return duration in nanoseconds
+   */
+  public long getWriteNanos() {
+    final long from = this.calledNanos != 0
+        ? this.calledNanos
+        : this.boundNanos != 0 ? this.boundNanos : this.startNanos;
+    return this.writtenNanos - from;
+  }
+
+  /**
+   * Gets the duration of the whole request.
+   *
+   * @return duration in nanoseconds
+   */
+  public long getTotalNanos() {
+    return this.writtenNanos - this.startNanos;
+  }
+}
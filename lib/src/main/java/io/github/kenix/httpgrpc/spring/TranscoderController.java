@@ -3,7 +3,6 @@ package io.github.kenix.httpgrpc.spring;
 import static io.github.kenix.httpgrpc.spring.Util.HTTP_METHODS_NO_BODY;
 import static io.github.kenix.httpgrpc.spring.Util.HTTP_METHODS_WITH_BODY;
 import static io.github.kenix.httpgrpc.spring.Util.SUPPORTED_METHODS;
-import static io.github.kenix.httpgrpc.spring.Util.getBuilder;
 import static io.github.kenix.httpgrpc.spring.Util.grpcStatus;
 import static io.github.kenix.httpgrpc.spring.Util.protoStatus;
 import static io.github.kenix.httpgrpc.spring.Util.setFields;
@@ -11,27 +10,59 @@ import static io.github.kenix.httpgrpc.spring.Util.setNonMessageField;
 import static io.github.kenix.httpgrpc.spring.Util.toHttpStatus;
 import static java.util.Collections.emptyMap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.net.HttpHeaders;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.Type;
 import com.google.protobuf.Descriptors.MethodDescriptor;
+import com.google.protobuf.DynamicMessage;
 import com.google.protobuf.Empty;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
-import com.google.protobuf.util.JsonFormat;
-import com.google.protobuf.util.JsonFormat.Printer;
+import com.google.protobuf.UnsafeByteOperations;
+import io.github.kenix.httpgrpc.spring.BufferPool.Content;
+import io.github.kenix.httpgrpc.spring.IdempotencyStore.StoredResponse;
+import io.github.kenix.httpgrpc.spring.MemoryBudget.Reservation;
+import io.github.kenix.httpgrpc.spring.TenantScheduler.Slot;
+import io.github.kenix.httpgrpc.spring.codec.CompiledFieldMask;
+import io.github.kenix.httpgrpc.spring.codec.JsonCodec;
+import io.github.kenix.httpgrpc.spring.codec.MaskedProtobufWriter;
 import io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategy;
 import io.grpc.Status;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
@@ -42,6 +73,7 @@ import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
+import org.springframework.web.util.ContentCachingResponseWrapper;
 
 /**
  * Transcodes HTTP request into gRPC request, invokes corresponding method of the given service
@@ -57,104 +89,917 @@ class TranscoderController extends AbstractController {
   public static final String CONTENT_TYPE_JSON = MediaType.APPLICATION_JSON_VALUE;
   public static final String WILDCARD = "*";
   public static final String CHARSET = StandardCharsets.UTF_8.name();
+  public static final String HEADER_FIELD_MASK = "X-Goog-FieldMask";
+  public static final String PARAM_FIELDS = "fields";
+  public static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+  public static final String HEADER_IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
   private static final Set<String> SUPPORTED_CONTENT_TYPES = Sets.newHashSet(
       CONTENT_TYPE_JSON, CONTENT_TYPE_PROTOBUF
   );
-  private static final Printer PRINTER = JsonFormat.printer().omittingInsignificantWhitespace();
+  private static final String EMPTY = Empty.getDescriptor().getFullName();
+  private static final int MAX_CACHED_FIELD_MASKS = 256;
+  private static final String RECORD_ATTRIBUTE = TranscodeRecord.class.getName();
+  private static final String RESERVATION_ATTRIBUTE = Reservation.class.getName();
 
   private final HttpMethod httpMethod;
-  private final Class<? extends Message> reqClass;
+  private final Message reqPrototype;
   private final MethodDescriptor methodDesc;
   private final ServerCallStrategy serverCall;
+  private final Cache<String, CompiledFieldMask> fieldMasks = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_FIELD_MASKS)
+      .build();
 
   @Setter
   private String body;
 
+  @Setter
+  private JsonCodec jsonCodec;
+
+  @Setter
+  private BufferPool bufferPool;
+
+  @Setter
+  private int maxBodyBytes = Integer.MAX_VALUE;
+
+  @Getter
+  @Setter
+  private String route;
+
+  @Setter
+  private TranscodeListener transcodeListener;
+
+  @Setter
+  private Message respPrototype;
+
+  // timeout of requests handled with non-blocking I/O, 0 for blocking I/O
+  @Setter
+  private long nonBlockingTimeoutMs;
+
+  @Setter
+  private RateLimiter rateLimiter;
+
+  @Setter
+  private IdempotencyStore idempotencyStore;
+
+  @Setter
+  private long idempotencyWaitMs;
+
+  // scopes idempotency keys to their callers, null for none
+  @Setter
+  private CallerKey idempotencyCaller;
+
+  @Setter
+  private MemoryBudget memoryBudget;
+
+  @Setter
+  private long memoryBudgetWaitMs;
+
+  // reserved in the memory budget per request in addition to its body
+  @Setter
+  private int expectedResponseBytes;
+
+  @Setter
+  private TrafficRecorder trafficRecorder;
+
+  // resolved once at map time, null if no validation rules
+  @Setter
+  private Predicate<Message> requestValidator;
+
+  @Setter
+  private TenantScheduler tenantScheduler;
+
+  @Setter
+  private TenantClassifier tenantClassifier;
+
+  @Setter
+  private long callSlotWaitMs;
+
+  // response message field written as response body if any, see setResponseBody
+  private FieldDescriptor responseBodyField;
+  private boolean httpBodyResponse;
+
+  /**
+   * Sets the field of the response message to be written as response body, whole message if
+   * empty, following <code>response_body</code> of <code>HttpRule</code>. Responses of type
+   * <code>google.api.HttpBody</code> are written raw. Only singular message fields are supported.
+   *
+   * @param responseBody name of a message field of the response message, or empty
+   * @return false if the field is not a singular message field of the response message, nothing
+   *     set
+   */
+  boolean setResponseBody(String responseBody) {
+    FieldDescriptor field = null;
+    if (StringUtils.hasText(responseBody)) {
+      field = this.methodDesc.getOutputType().findFieldByName(responseBody);
+      if (field == null || field.getType() != Type.MESSAGE || field.isRepeated()) {
+        return false;
+      }
+    }
+    this.responseBodyField = field;
+    this.httpBodyResponse = HttpBodies.isHttpBody(getResponseType());
+    return true;
+  }
+
+  private Descriptor getResponseType() {
+    return this.responseBodyField == null
+        ? this.methodDesc.getOutputType()
+        : this.responseBodyField.getMessageType();
+  }
+
   @SuppressWarnings({"rawtypes", "unchecked"})
   @Override
   protected ModelAndView handleRequestInternal(@NonNull HttpServletRequest req,
       @NonNull HttpServletResponse resp) throws Exception {
     if (!SUPPORTED_METHODS.contains(this.httpMethod)) {
-      methodNotAllowed(resp); // double tap
-      return null;
+      wireError(TranscoderError.METHOD_NOT_ALLOWED, getResponseContentType(req), resp);
+      return null; // double tap
     }
 
     final String responseContentType = getResponseContentType(req);
     if (responseContentType == null) {
-      notSupported(resp);
+      wireError(TranscoderError.UNSUPPORTED_MEDIA_TYPE, null, resp);
+      return null;
+    }
+
+    final Reservation reserved = (Reservation) req.getAttribute(RESERVATION_ATTRIBUTE);
+    if (reserved != null) { // dispatched again once reserved without blocking, admitted already
+      handleReserved(req, resp, responseContentType, reserved);
+      return null;
+    }
+
+    if (this.rateLimiter != null) { // before any decoding
+      final long waitNanos = this.rateLimiter.acquire(req);
+      if (waitNanos > 0) {
+        rateLimited(waitNanos, responseContentType, resp);
+        return null;
+      }
+    }
+
+    if (HTTP_METHODS_WITH_BODY.contains(this.httpMethod)
+        && req.getContentLengthLong() > this.maxBodyBytes) {
+      wireError(TranscoderError.PAYLOAD_TOO_LARGE, responseContentType, resp);
       return null;
     }
 
+    if (this.memoryBudget == null) {
+      handleAdmitted(req, resp, responseContentType);
+      return null;
+    }
+
+    if (this.nonBlockingTimeoutMs > 0 && req.isAsyncSupported()) {
+      reserveNonBlocking(req, resp, responseContentType);
+      return null;
+    }
+
+    final Reservation reservation = this.memoryBudget.reserve(
+        Math.max(0, req.getContentLengthLong()), this.expectedResponseBytes,
+        this.memoryBudgetWaitMs);
+    if (reservation == null) {
+      shed(responseContentType, resp);
+      return null;
+    }
+    handleReserved(req, resp, responseContentType, reservation);
+    return null; // no view resolving
+  }
+
+  /**
+   * Reserves in the memory budget without blocking: while exhausted, the request is suspended
+   * until granted, then dispatched again, or shed after {@link #memoryBudgetWaitMs}, right away if
+   * not positive.
+   */
+  private void reserveNonBlocking(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType) throws IOException {
+    final CompletableFuture<Reservation> future = this.memoryBudget.reserveAsync(
+        Math.max(0, req.getContentLengthLong()), this.expectedResponseBytes);
+    if (future.isDone()) {
+      handleReserved(req, resp, responseContentType, future.join());
+      return;
+    }
+    if (this.memoryBudgetWaitMs <= 0) { // not suspended, an async timeout of 0 never expires
+      final Reservation granted = this.memoryBudget.shed(future);
+      if (granted == null) {
+        shed(responseContentType, resp);
+      } else {
+        handleReserved(req, resp, responseContentType, granted);
+      }
+      return;
+    }
+
+    final AsyncContext asyncContext = req.startAsync(req, resp);
+    asyncContext.setTimeout(this.memoryBudgetWaitMs);
+    asyncContext.addListener(new ReservationWait(future, responseContentType));
+    future.thenAccept(reservation -> {
+      req.setAttribute(RESERVATION_ATTRIBUTE, reservation);
+      asyncContext.dispatch();
+    });
+  }
+
+  /**
+   * Rejects a request exceeding its rate limit, to be retried after the given wait.
+   */
+  static void rateLimited(long waitNanos, String responseContentType, HttpServletResponse resp) {
+    resp.setHeader(HttpHeaders.RETRY_AFTER,
+        String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+    wireError(TranscoderError.TOO_MANY_REQUESTS, responseContentType, resp);
+  }
+
+  /**
+   * Sheds a request not reserved in the memory budget.
+   */
+  static void shed(String responseContentType, HttpServletResponse resp) {
+    resp.setHeader(HttpHeaders.RETRY_AFTER, "1");
+    wireError(TranscoderError.MEMORY_EXHAUSTED, responseContentType, resp);
+  }
+
+  /**
+   * Handles the request admitted with the given reservation, released when done.
+   */
+  private void handleReserved(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType, Reservation reservation) throws IOException {
+    req.setAttribute(RESERVATION_ATTRIBUTE, reservation);
+    try {
+      handleAdmitted(req, resp, responseContentType);
+    } finally {
+      if (!req.isAsyncStarted()) { // otherwise released on completion
+        reservation.release();
+      }
+    }
+  }
+
+  private void handleAdmitted(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType) throws IOException {
+    final TranscodeRecord record = startRecord(req, responseContentType);
+    final CompiledFieldMask fieldMask = getFieldMask(req);
+    final String idempotencyKey = this.idempotencyStore == null
+        ? null
+        : req.getHeader(HEADER_IDEMPOTENCY_KEY);
+    if (StringUtils.hasText(idempotencyKey)) {
+      final String caller = this.idempotencyCaller == null
+          ? CallerKey.NONE
+          : this.idempotencyCaller.of(req);
+      handleIdempotent(this.route + ' ' + caller + ' ' + idempotencyKey, req, resp,
+          responseContentType, fieldMask, record);
+      return;
+    }
+    if (this.nonBlockingTimeoutMs > 0 && req.isAsyncSupported()) {
+      handleNonBlocking(req, resp, responseContentType, fieldMask, record);
+      return;
+    }
+
+    transcode(req, resp, responseContentType, fieldMask, record, null);
+  }
+
+  /**
+   * Transcodes the request.
+   *
+   * @param preRead request body if already read, released by the caller
+   */
+  private void transcode(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType, CompiledFieldMask fieldMask, TranscodeRecord record,
+      Content preRead) {
+    if (fieldMask == null && isPassthrough(req, responseContentType)) {
+      final Content content = preRead != null ? preRead : readBody(req);
+      final byte[] request = Arrays.copyOf(content.getBuffer(), content.getLength());
+      if (preRead == null) {
+        this.bufferPool.release(content.getBuffer());
+      }
+      record.bound();
+      capture(req, request);
+      final byte[] reply = callScheduled(req, null, () -> this.serverCall.call(request));
+      record.called();
+      wireResponse(HttpStatus.OK, reply, responseContentType, resp);
+      endRecord(record, HttpStatus.OK, reply.length);
+      return;
+    }
+
     // https://cloud.google.com/endpoints/docs/grpc-service-config/reference/rpc/google.api#httprule
     final Optional<Message> message = HTTP_METHODS_NO_BODY.contains(this.httpMethod)
         ? getMessageNoBody(req)
         : HTTP_METHODS_WITH_BODY.contains(this.httpMethod)
-            ? getMessageWithBody(req)
+            ? getMessageWithBody(req, preRead)
             : Optional.empty();
     if (message.isPresent()) {
-      final Message reply = this.serverCall.call(message.get());
-      onSuccess(reply, responseContentType, resp);
+      record.bound();
+      validate(message.get());
+      capture(req, message.get());
+      final Message reply = callScheduled(req, message.get(),
+          () -> this.serverCall.call(message.get()));
+      record.called();
+      onSuccess(reply, fieldMask, responseContentType, record, resp);
     } else {
-      notAcceptable(resp);
+      wireError(TranscoderError.NOT_ACCEPTABLE, responseContentType, resp);
     }
+  }
 
-    return null; // no view resolving
+  /**
+   * Handles a request with an idempotency key: the first one is transcoded with its response
+   * captured and stored unless a server error or 429, concurrent ones wait for it, later ones
+   * replay it if of the same request, or are rejected with 422 otherwise.
+   */
+  @SneakyThrows
+  private void handleIdempotent(String key, HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType, CompiledFieldMask fieldMask, TranscodeRecord record) {
+    final Content content = HTTP_METHODS_WITH_BODY.contains(this.httpMethod)
+        ? readBody(req)
+        : null;
+    try {
+      final byte[] requestHash = hashRequest(req, content);
+      CompletableFuture<StoredResponse> prior;
+      while ((prior = this.idempotencyStore.claim(key)) != null) {
+        final StoredResponse stored;
+        try {
+          stored = prior.get(this.idempotencyWaitMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          throw new TranscoderException(Status.ABORTED.withDescription(
+              "request with the same idempotency key in progress"));
+        } catch (ExecutionException e) {
+          continue; // aborted, claim again
+        }
+        if (!MessageDigest.isEqual(stored.getRequestHash(), requestHash)) {
+          throw TranscoderError.IDEMPOTENCY_KEY_REUSED.toException();
+        }
+        resp.setHeader(HEADER_IDEMPOTENT_REPLAYED, "true");
+        wireResponse(HttpStatus.valueOf(stored.getStatus()), stored.getBody(),
+            stored.getContentType(), resp);
+        endRecord(record, HttpStatus.valueOf(stored.getStatus()), stored.getBody().length);
+        return;
+      }
+
+      boolean completed = false;
+      try {
+        final ContentCachingResponseWrapper captured = new ContentCachingResponseWrapper(resp);
+        try {
+          transcode(req, captured, responseContentType, fieldMask, record, content);
+        } catch (Throwable t) {
+          handleThrowable(t, req, captured);
+        }
+        final int status = captured.getStatus();
+        if (status < HttpStatus.INTERNAL_SERVER_ERROR.value()
+            && status != HttpStatus.TOO_MANY_REQUESTS.value()) {
+          this.idempotencyStore.complete(key, new StoredResponse(status,
+              captured.getContentType(), captured.getContentAsByteArray(), requestHash));
+          completed = true;
+        }
+        captured.copyBodyToResponse();
+      } finally {
+        if (!completed) { // not stored, e.g. failed writing the error, those waiting claim again
+          this.idempotencyStore.abort(key);
+        }
+      }
+    } finally {
+      if (content != null) {
+        this.bufferPool.release(content.getBuffer());
+      }
+    }
   }
 
+  /**
+   * Digests what identifies a request besides its idempotency key: its path, query, content type
+   * and body.
+   */
   @SneakyThrows
-  private Optional<Message> getMessageWithBody(HttpServletRequest req) {
+  private static byte[] hashRequest(HttpServletRequest req, Content content) {
+    final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    digest.update(req.getRequestURI().getBytes(StandardCharsets.UTF_8));
+    if (req.getQueryString() != null) {
+      digest.update((byte) '?');
+      digest.update(req.getQueryString().getBytes(StandardCharsets.UTF_8));
+    }
+    digest.update((byte) 0);
+    if (req.getContentType() != null) {
+      digest.update(req.getContentType().getBytes(StandardCharsets.UTF_8));
+    }
+    digest.update((byte) 0);
+    if (content != null) {
+      digest.update(content.getBuffer(), 0, content.getLength());
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Handles the request asynchronously, reading the request body without blocking, calling the
+   * gRPC method once it is complete, and writing the response without blocking.
+   */
+  private void handleNonBlocking(HttpServletRequest req, HttpServletResponse resp,
+      String responseContentType, CompiledFieldMask fieldMask, TranscodeRecord record)
+      throws IOException {
+    final NonBlockingExchange exchange =
+        new NonBlockingExchange(req, resp, this.nonBlockingTimeoutMs, () -> {
+          record.failed();
+          endRecord(record, HttpStatus.GATEWAY_TIMEOUT, 0);
+        });
+    final Reservation reservation = (Reservation) req.getAttribute(RESERVATION_ATTRIBUTE);
+    if (reservation != null) {
+      req.getAsyncContext().addListener(reservation);
+    }
+    if (!HTTP_METHODS_WITH_BODY.contains(this.httpMethod)) {
+      callNonBlocking(exchange, req, null, responseContentType, fieldMask, record);
+      return;
+    }
+
+    exchange.read(req, this.bufferPool, this.maxBodyBytes, (content, t) -> {
+      if (t != null) {
+        writeNonBlocking(exchange, encodeError(t, responseContentType), record);
+      } else {
+        callNonBlocking(exchange, req, content, responseContentType, fieldMask, record);
+      }
+    });
+  }
+
+  private void callNonBlocking(NonBlockingExchange exchange, HttpServletRequest req,
+      Content content, String responseContentType, CompiledFieldMask fieldMask,
+      TranscodeRecord record) {
+    final CompletableFuture<?> called;
+    final CompletableFuture<Encoded> response;
+    try {
+      if (content != null) {
+        bodyRead(req, content.getLength());
+      }
+      if (fieldMask == null && isPassthrough(req, responseContentType)) {
+        final byte[] request = Arrays.copyOf(content.getBuffer(), content.getLength());
+        record.bound();
+        capture(req, request);
+        final CompletableFuture<byte[]> rawCall =
+            callAsyncScheduled(req, null, () -> this.serverCall.callAsync(request));
+        called = rawCall;
+        response = rawCall.thenApply(reply -> {
+          record.called();
+          return new Encoded(HttpStatus.OK, responseContentType,
+              UnsafeByteOperations.unsafeWrap(reply));
+        });
+      } else {
+        final Optional<Message> message = content == null
+            ? getMessageNoBody(req)
+            : getMessageWithBody(req, content);
+        if (!message.isPresent()) {
+          writeNonBlocking(exchange, encodeError(TranscoderError.NOT_ACCEPTABLE.toException(),
+              responseContentType), record);
+          return;
+        }
+        record.bound();
+        validate(message.get());
+        capture(req, message.get());
+        final CompletableFuture<Message> call = callAsyncScheduled(req, message.get(),
+            () -> this.serverCall.callAsync(message.get()));
+        called = call;
+        response = call.thenApply(reply -> {
+          record.called();
+          return encode(reply, fieldMask, responseContentType);
+        });
+      }
+    } catch (RuntimeException e) {
+      writeNonBlocking(exchange, encodeError(e, responseContentType), record);
+      return;
+    } finally {
+      if (content != null) {
+        this.bufferPool.release(content.getBuffer());
+      }
+    }
+
+    exchange.setPending(response);
+    response.whenComplete((encoded, t) -> {
+      if (response.isCancelled()) { // e.g. timed out, leaves the call slot queue if still waiting
+        called.cancel(false);
+      }
+    });
+    response.whenComplete((encoded, t) -> writeNonBlocking(exchange, t == null
+        ? encoded
+        : encodeError(t instanceof CompletionException ? t.getCause() : t, responseContentType),
+        record));
+  }
+
+  private void writeNonBlocking(NonBlockingExchange exchange, Encoded encoded,
+      TranscodeRecord record) {
+    if (encoded.getStatus() != HttpStatus.OK) {
+      record.failed();
+    }
+    exchange.write(encoded.getStatus(), encoded.getContentType(), encoded.getBody(),
+        () -> endRecord(record, encoded.getStatus(), encoded.getBody().size()));
+  }
+
+  /**
+   * Encodes the given response message in the given content type.
+   */
+  @SneakyThrows
+  private Encoded encode(Message reply, CompiledFieldMask fieldMask, String responseContentType) {
+    final Message body = this.responseBodyField == null
+        ? reply
+        : (Message) reply.getField(this.responseBodyField);
+    if (this.httpBodyResponse) {
+      return HttpBodies.encode(body);
+    }
+
+    final ByteString.Output out = ByteString.newOutput();
+    if (CONTENT_TYPE_JSON.equals(responseContentType)) {
+      this.jsonCodec.write(body, fieldMask, out);
+    } else if (fieldMask == null) {
+      body.writeTo(out);
+    } else {
+      MaskedProtobufWriter.write(body, fieldMask, out);
+    }
+    return new Encoded(HttpStatus.OK, responseContentType, out.toByteString());
+  }
+
+  /**
+   * Encodes the error response of the given throwable in the given content type.
+   */
+  @SneakyThrows
+  private Encoded encodeError(Throwable t, String responseContentType) {
+    final TranscoderError error = t instanceof TranscoderException
+        ? ((TranscoderException) t).getError()
+        : null;
+    if (error != null) {
+      return new Encoded(error.getHttpStatus(), responseContentType,
+          UnsafeByteOperations.unsafeWrap(CONTENT_TYPE_PROTOBUF.equals(responseContentType)
+              ? error.getProtobuf()
+              : error.getJson()));
+    }
+
+    final Status status = grpcStatus(t);
+    final com.google.rpc.Status protoStatus = protoStatus(t, status);
+    final ByteString.Output out = ByteString.newOutput();
+    if (CONTENT_TYPE_PROTOBUF.equals(responseContentType)) {
+      protoStatus.writeTo(out);
+    } else {
+      this.jsonCodec.write(protoStatus, out);
+    }
+    return new Encoded(toHttpStatus(status.getCode()), responseContentType, out.toByteString());
+  }
+
+  /**
+   * Runs binding, parsing and serialization of this route with a synthesized request the given
+   * number of times, so that classes are loaded and hot code gets compiled before real requests
+   * arrive. Optionally also calls the gRPC method, errors ignored.
+   *
+   * @param iterations number of iterations
+   * @param call true to call the gRPC method, otherwise a synthesized response is serialized
+   */
+  @SneakyThrows
+  void warmUp(int iterations, boolean call) {
+    final Message sample = SampleMessages.create(this.reqPrototype);
+    final Map<String, String[]> params = SampleMessages.toParams(sample);
+    final ByteArrayOutputStream jsonOut = new ByteArrayOutputStream();
+    this.jsonCodec.write(sample, jsonOut);
+    final Content json = new Content(jsonOut.toByteArray(), jsonOut.size());
+    final byte[] protobuf = sample.toByteArray();
+    final Content proto = new Content(protobuf, protobuf.length);
+    final Message reply = this.respPrototype == null
+        ? null
+        : SampleMessages.create(this.respPrototype);
+
+    final OutputStream out = ByteStreams.nullOutputStream();
+    for (int i = 0; i < iterations; i++) {
+      final Message.Builder builder = this.reqPrototype.newBuilderForType();
+      if (HTTP_METHODS_NO_BODY.contains(this.httpMethod)) {
+        setFields(builder, builder.getDescriptorForType().getFields(), emptyMap(), params);
+        builder.clear();
+      }
+      fromReqBody(builder, CONTENT_TYPE_JSON, json);
+      builder.clear();
+      fromReqBody(builder, CONTENT_TYPE_PROTOBUF, proto);
+      final Message request = builder.build();
+
+      Message response = reply;
+      if (call) {
+        try {
+          response = this.serverCall.call(request);
+        } catch (RuntimeException e) { // e.g. invalid sample, warms up the error path
+          response = protoStatus(e, grpcStatus(e));
+        }
+      }
+      if (response != null) {
+        this.jsonCodec.write(response, out);
+        response.writeTo(out);
+      }
+    }
+  }
+
+  /**
+   * Starts recording the request if a listener is enabled, {@link TranscodeRecord#NONE}
+   * otherwise.
+   */
+  private TranscodeRecord startRecord(HttpServletRequest req, String responseContentType) {
+    if (this.transcodeListener == null || !this.transcodeListener.isEnabled()) {
+      return TranscodeRecord.NONE;
+    }
+
+    final TranscodeRecord record = new TranscodeRecord(this.route,
+        this.methodDesc.getFullName(), this.serverCall.getClass().getSimpleName());
+    record.setRequestContentType(req.getContentType());
+    record.setResponseContentType(responseContentType);
+    record.setRequestBytes(req.getContentLengthLong());
+    req.setAttribute(RECORD_ATTRIBUTE, record); // for the exception handler
+    return record;
+  }
+
+  private void endRecord(TranscodeRecord record, HttpStatus status, long responseBytes) {
+    if (record == TranscodeRecord.NONE) {
+      return;
+    }
+
+    record.written();
+    record.setStatus(status.value());
+    record.setResponseBytes(responseBytes);
+    this.transcodeListener.onTranscoded(record);
+  }
+
+  /**
+   * Protobuf in and out with the whole body being the request message and nothing to merge into
+   * it nor to validate: serialized messages can be passed through as is.
+   */
+  private boolean isPassthrough(HttpServletRequest req, String responseContentType) {
+    if (!this.serverCall.isRawSupported()
+        || this.requestValidator != null
+        || this.tenantClassifier != null && this.tenantClassifier.isFieldKey()
+        || !HTTP_METHODS_WITH_BODY.contains(this.httpMethod)
+        || !WILDCARD.equals(this.body)
+        || this.responseBodyField != null
+        || this.httpBodyResponse
+        || HttpBodies.isHttpBody(this.reqPrototype.getDescriptorForType())
+        || !CONTENT_TYPE_PROTOBUF.equals(responseContentType)
+        || !CONTENT_TYPE_PROTOBUF.equalsIgnoreCase(req.getContentType())) {
+      return false;
+    }
+
+    final Map<String, Object> pathVars = getPathVars(req);
+    return pathVars == null || pathVars.isEmpty();
+  }
+
+  /**
+   * Builds the request message with the request body, the given content if already read, or read
+   * here.
+   */
+  @SneakyThrows
+  private Optional<Message> getMessageWithBody(HttpServletRequest req, Content preRead) {
+    final Descriptor inputType = this.reqPrototype.getDescriptorForType();
+    final FieldDescriptor bodyField = this.body.equals(WILDCARD)
+        ? null
+        : inputType.findFieldByName(this.body);
+    if (bodyField == null
+        ? !this.body.equals(WILDCARD)
+        : bodyField.getType() != Type.MESSAGE) { // must be message type
+      return Optional.empty();
+    }
+    if (HttpBodies.isHttpBody(bodyField == null ? inputType : bodyField.getMessageType())) {
+      return Optional.of(getMessageWithHttpBody(req, bodyField, preRead));
+    }
+
     final String contentType = req.getContentType().toLowerCase();
     if (!SUPPORTED_CONTENT_TYPES.contains(contentType)) {
       return Optional.empty();
     }
 
-    final Message.Builder builder = getBuilder(this.reqClass);
-    final Map<String, Object> pathVars = getPathVars(req);
-    final Descriptor inputType = this.methodDesc.getInputType();
+    final Content content = preRead != null ? preRead : readBody(req);
+    final Message.Builder builder = this.reqPrototype.newBuilderForType();
+    try {
+      if (bodyField == null) {
+        // request body to request type
+        fromReqBody(builder, contentType, content);
+      } else if (builder instanceof DynamicMessage.Builder) { // no nested builders
+        final Message.Builder fieldBuilder = builder.newBuilderForField(bodyField);
+        fromReqBody(fieldBuilder, contentType, content);
+        builder.setField(bodyField, fieldBuilder.build());
+      } else {
+        // request body to a field, merged in place
+        fromReqBody(builder.getFieldBuilder(bodyField), contentType, content);
+      }
 
-    if (this.body.equals(WILDCARD)) {
-      // request body to request type
-      fromReqBody(builder, contentType, req);
-    } else {
-      // request body to a field
-      final FieldDescriptor bodyField = inputType.findFieldByName(this.body);
-      if (bodyField == null || bodyField.getType() != Type.MESSAGE) { // must be message type
-        return Optional.empty();
+      final Map<String, Object> pathVars = getPathVars(req);
+      inputType.getFields().stream()
+          .filter(f -> f.getType() != Type.MESSAGE)
+          .forEach(fieldDesc -> // can overwrite in case of wildcard body
+              setNonMessageField(builder, fieldDesc, fieldDesc.getName(), pathVars, emptyMap()));
+
+      return Optional.of(builder.build());
+    } finally {
+      if (preRead == null) { // released by the caller otherwise
+        this.bufferPool.release(content.getBuffer());
       }
-      final Message.Builder fieldBuilder = builder.getFieldBuilder(bodyField);
-      fromReqBody(fieldBuilder, contentType, req);
-      builder.setField(bodyField, fieldBuilder.build());
     }
+  }
 
-    inputType.getFields().stream()
+  /**
+   * Builds the request message with the raw request body as <code>google.api.HttpBody</code>, the
+   * whole request message or the given field.
+   */
+  private Message getMessageWithHttpBody(HttpServletRequest req, FieldDescriptor bodyField,
+      Content preRead) {
+    final ByteString data = preRead != null
+        ? ByteString.copyFrom(preRead.getBuffer(), 0, preRead.getLength())
+        : HttpBodies.read(req, this.maxBodyBytes);
+    if (preRead == null) {
+      bodyRead(req, data.size());
+    }
+    final Message.Builder builder = this.reqPrototype.newBuilderForType();
+    if (bodyField == null) {
+      HttpBodies.set(builder, req.getContentType(), data);
+      return builder.build();
+    }
+
+    final Message.Builder fieldBuilder = builder.newBuilderForField(bodyField);
+    HttpBodies.set(fieldBuilder, req.getContentType(), data);
+    builder.setField(bodyField, fieldBuilder.build());
+    final Map<String, Object> pathVars = getPathVars(req);
+    final Map<String, String[]> paramMap = req.getParameterMap();
+    builder.getDescriptorForType().getFields().stream()
         .filter(f -> f.getType() != Type.MESSAGE)
-        .forEach(fieldDesc -> // can overwrite in case of wildcard body
-            setNonMessageField(builder, fieldDesc, fieldDesc.getName(), pathVars, emptyMap()));
+        .forEach(fieldDesc ->
+            setNonMessageField(builder, fieldDesc, fieldDesc.getName(), pathVars, paramMap));
+    return builder.build();
+  }
+
+  /**
+   * Reads the request body into a pooled buffer, to be released after use.
+   */
+  @SneakyThrows
+  private Content readBody(HttpServletRequest req) {
+    final long contentLength = req.getContentLengthLong();
+    final Content content;
+    try {
+      content = this.bufferPool.read(req.getInputStream(), contentLength, this.maxBodyBytes);
+    } catch (EOFException e) { // connection closed early
+      throw TranscoderError.INCOMPLETE_BODY.toException();
+    }
+    if (content == null) {
+      throw TranscoderError.PAYLOAD_TOO_LARGE.toException();
+    }
+    if (content.getLength() < contentLength) {
+      this.bufferPool.release(content.getBuffer());
+      throw TranscoderError.INCOMPLETE_BODY.toException();
+    }
+    try {
+      bodyRead(req, content.getLength());
+    } catch (TranscoderException e) {
+      this.bufferPool.release(content.getBuffer());
+      throw e;
+    }
+    return content;
+  }
+
+  /**
+   * Makes the given call once granted a call slot by the tenant scheduler if any, waiting up to
+   * {@link #callSlotWaitMs}.
+   *
+   * @param message bound request message, null if passed through
+   */
+  private <T> T callScheduled(HttpServletRequest req, Message message, Supplier<T> call) {
+    if (this.tenantScheduler == null) {
+      return call.get();
+    }
+
+    final CompletableFuture<Slot> future =
+        this.tenantScheduler.acquire(this.tenantClassifier.classify(req, message));
+    if (future == null) {
+      throw TranscoderError.TENANT_QUEUE_FULL.toException();
+    }
+    final Slot slot;
+    try {
+      slot = future.get(this.callSlotWaitMs, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | InterruptedException e) {
+      if (e instanceof InterruptedException) {
+        Thread.currentThread().interrupt();
+      }
+      if (!future.cancel(false)) { // granted meanwhile
+        future.join().release();
+      }
+      throw TranscoderError.CALL_SLOT_TIMEOUT.toException();
+    } catch (ExecutionException e) { // never completed exceptionally
+      throw new IllegalStateException(e);
+    }
+    try {
+      return call.get();
+    } finally {
+      slot.release();
+    }
+  }
+
+  /**
+   * Makes the given asynchronous call once granted a call slot by the tenant scheduler if any,
+   * releasing it when the call completes. Cancelling the returned future before the slot is granted
+   * leaves the queue.
+   *
+   * @param message bound request message, null if passed through
+   */
+  private <T> CompletableFuture<T> callAsyncScheduled(HttpServletRequest req, Message message,
+      Supplier<CompletableFuture<T>> call) {
+    if (this.tenantScheduler == null) {
+      return call.get();
+    }
 
-    return Optional.of(builder.build());
+    return this.tenantScheduler.callAsync(this.tenantClassifier.classify(req, message), call);
+  }
+
+  /**
+   * Rejects the bound request message if it violates its validation rules, before any call.
+   */
+  private void validate(Message message) {
+    if (this.requestValidator != null && !this.requestValidator.test(message)) {
+      throw TranscoderError.INVALID_REQUEST.toException();
+    }
+  }
+
+  /**
+   * Records a sample of requests if enabled, with the request body in protobuf: the bound request
+   * message, or its body field if mapped so, none for requests without body. Raw bodies of
+   * <code>google.api.HttpBody</code> are not recorded.
+   */
+  private void capture(HttpServletRequest req, Message message) {
+    if (this.trafficRecorder == null || !this.trafficRecorder.sample()) {
+      return;
+    }
+    final Message body;
+    if (!HTTP_METHODS_WITH_BODY.contains(this.httpMethod)) {
+      body = null;
+    } else if (this.body.equals(WILDCARD)) {
+      body = message;
+    } else {
+      body = (Message) message.getField(
+          message.getDescriptorForType().findFieldByName(this.body));
+    }
+    if (body != null && HttpBodies.isHttpBody(body.getDescriptorForType())) {
+      return;
+    }
+    this.trafficRecorder.record(this.route, req, body);
+  }
+
+  private void capture(HttpServletRequest req, byte[] body) {
+    if (this.trafficRecorder != null && this.trafficRecorder.sample()) {
+      this.trafficRecorder.record(this.route, req, body);
+    }
+  }
+
+  /**
+   * Accounts the request body read in the memory budget if any, for bodies of unknown length.
+   *
+   * @throws TranscoderException if that exceeds the budget
+   */
+  private static void bodyRead(HttpServletRequest req, long length) {
+    final Reservation reservation = (Reservation) req.getAttribute(RESERVATION_ATTRIBUTE);
+    if (reservation != null && !reservation.bodyRead(length)) {
+      throw TranscoderError.MEMORY_EXHAUSTED.toException();
+    }
   }
 
   @SneakyThrows
-  private void fromReqBody(Message.Builder builder, String contentType, HttpServletRequest req) {
+  private void fromReqBody(Message.Builder builder, String contentType, Content content) {
     if (contentType.equals(CONTENT_TYPE_JSON)) {
-      JsonFormat.parser().merge(req.getReader(), builder);
+      this.jsonCodec.merge(content.getBuffer(), 0, content.getLength(), builder);
     } else {
-      builder.mergeFrom(req.getInputStream());
+      // no aliasing: bytes fields must not refer to the pooled buffer
+      final CodedInputStream in =
+          CodedInputStream.newInstance(content.getBuffer(), 0, content.getLength());
+      try {
+        builder.mergeFrom(in);
+        in.checkLastTagWas(0);
+      } catch (InvalidProtocolBufferException e) { // stack and message only point at the parser
+        throw TranscoderError.MALFORMED_BODY.toException();
+      }
     }
   }
 
   private Optional<Message> getMessageNoBody(HttpServletRequest req) {
-    if (this.reqClass == Empty.class) {
-      return Optional.of(Empty.getDefaultInstance());
+    if (EMPTY.equals(this.reqPrototype.getDescriptorForType().getFullName())) {
+      return Optional.of(this.reqPrototype);
     } else {
       final Map<String, Object> pathVars = getPathVars(req);
       final Map<String, String[]> paramMap = req.getParameterMap();
-      final Message.Builder builder = getBuilder(this.reqClass);
-      setFields(builder, this.methodDesc.getInputType().getFields(), pathVars, paramMap);
+      final Message.Builder builder = this.reqPrototype.newBuilderForType();
+      setFields(builder, builder.getDescriptorForType().getFields(), pathVars, paramMap);
       return Optional.of(builder.build());
     }
   }
 
+  /**
+   * Gets the field mask of partial response from header <code>X-Goog-FieldMask</code> or query
+   * parameter <code>fields</code>, the latter only if the request message has no such field.
+   */
+  private CompiledFieldMask getFieldMask(HttpServletRequest req) {
+    if (this.httpBodyResponse) {
+      return null;
+    }
+    String paths = req.getHeader(HEADER_FIELD_MASK);
+    if (!StringUtils.hasText(paths)
+        && this.reqPrototype.getDescriptorForType().findFieldByName(PARAM_FIELDS) == null) {
+      paths = req.getParameter(PARAM_FIELDS);
+    }
+    if (!StringUtils.hasText(paths)) {
+      return null;
+    }
+
+    CompiledFieldMask fieldMask = this.fieldMasks.getIfPresent(paths);
+    if (fieldMask == null) {
+      try {
+        fieldMask = CompiledFieldMask.compile(getResponseType(), paths);
+      } catch (IllegalArgumentException e) {
+        throw new TranscoderException(
+            Status.INVALID_ARGUMENT.withDescription(e.getMessage()));
+      }
+      this.fieldMasks.put(paths, fieldMask);
+    }
+
+    return fieldMask;
+  }
+
   private String getResponseContentType(HttpServletRequest req) {
     final String accept = req.getHeader(HttpHeaders.ACCEPT);
     if (StringUtils.hasText(accept)) {
@@ -163,7 +1008,8 @@ class TranscoderController extends AbstractController {
       } else if (accept.contains(CONTENT_TYPE_JSON)) {
         return CONTENT_TYPE_JSON;
       } else {
-        return "*/*".equals(accept) ? CONTENT_TYPE_JSON : null;
+        // raw responses have their own content type, errors are written in JSON
+        return "*/*".equals(accept) || this.httpBodyResponse ? CONTENT_TYPE_JSON : null;
       }
     }
 
@@ -175,16 +1021,21 @@ class TranscoderController extends AbstractController {
     return (Map<String, Object>) req.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
   }
 
-  private void notAcceptable(HttpServletResponse resp) {
-    resp.setStatus(HttpStatus.NOT_ACCEPTABLE.value());
-  }
-
-  private void notSupported(HttpServletResponse resp) {
-    resp.setStatus(HttpStatus.UNSUPPORTED_MEDIA_TYPE.value());
-  }
+  /**
+   * Writes the pre-encoded response of the given error, only the status if no content type.
+   */
+  static long wireError(TranscoderError error, String responseContentType,
+      HttpServletResponse resp) {
+    if (responseContentType == null) {
+      resp.setStatus(error.getHttpStatus().value());
+      return 0;
+    }
 
-  private void methodNotAllowed(HttpServletResponse resp) {
-    resp.setStatus(HttpStatus.METHOD_NOT_ALLOWED.value());
+    final byte[] payload = CONTENT_TYPE_PROTOBUF.equals(responseContentType)
+        ? error.getProtobuf()
+        : error.getJson();
+    wireResponse(error.getHttpStatus(), payload, responseContentType, resp);
+    return payload.length;
   }
 
   /**
@@ -192,35 +1043,131 @@ class TranscoderController extends AbstractController {
    */
   @ExceptionHandler(Throwable.class)
   public void handleThrowable(Throwable t, HttpServletRequest req, HttpServletResponse resp) {
+    final TranscodeRecord attribute = (TranscodeRecord) req.getAttribute(RECORD_ATTRIBUTE);
+    final TranscodeRecord record = attribute == null ? TranscodeRecord.NONE : attribute;
+    record.failed();
+
+    final String responseContentType = getResponseContentType(req);
+    final TranscoderError error = t instanceof TranscoderException
+        ? ((TranscoderException) t).getError()
+        : null;
+    if (error != null) { // fast path
+      endRecord(record, error.getHttpStatus(), wireError(error, responseContentType, resp));
+      return;
+    }
+
     final Status status = grpcStatus(t);
-    wireResponse(toHttpStatus(status.getCode()), protoStatus(status),
-        getResponseContentType(req), resp);
+    final HttpStatus httpStatus = toHttpStatus(status.getCode());
+    if (responseContentType == null) {
+      resp.setStatus(httpStatus.value());
+      endRecord(record, httpStatus, 0);
+      return;
+    }
+    final long written = wireResponse(httpStatus, protoStatus(t, status), null,
+        responseContentType, record, resp);
+    endRecord(record, httpStatus, written);
   }
 
-  private void onSuccess(Message val, String responseContentType,
-      HttpServletResponse resp) {
-    wireResponse(HttpStatus.OK, val, responseContentType, resp);
+  private void onSuccess(Message val, CompiledFieldMask fieldMask, String responseContentType,
+      TranscodeRecord record, HttpServletResponse resp) {
+    final Message body = this.responseBodyField == null
+        ? val
+        : (Message) val.getField(this.responseBodyField);
+    final long written = this.httpBodyResponse
+        ? HttpBodies.write(body, resp)
+        : wireResponse(HttpStatus.OK, body, fieldMask, responseContentType, record, resp);
+    endRecord(record, HttpStatus.OK, written);
   }
 
   @SneakyThrows
-  private void wireResponse(HttpStatus httpStatus, Message payload,
+  private static void wireResponse(HttpStatus httpStatus, byte[] payload,
       String responseContentType, HttpServletResponse resp) {
     resp.setStatus(httpStatus.value());
+    resp.setContentType(responseContentType);
+    resp.setContentLength(payload.length);
+    resp.getOutputStream().write(payload);
+    resp.getOutputStream().flush();
+  }
+
+  /**
+   * Writes the given message as response.
+   *
+   * @return number of bytes written if recorded, -1 otherwise
+   */
+  @SneakyThrows
+  private long wireResponse(HttpStatus httpStatus, Message payload, CompiledFieldMask fieldMask,
+      String responseContentType, TranscodeRecord record, HttpServletResponse resp) {
+    resp.setStatus(httpStatus.value());
     resp.setCharacterEncoding(CHARSET);
 
     resp.setContentType(responseContentType);
 
+    final OutputStream out = record == TranscodeRecord.NONE
+        ? resp.getOutputStream()
+        : new CountingOutputStream(resp.getOutputStream());
     switch (responseContentType) {
       case CONTENT_TYPE_JSON:
-        resp.getWriter().write(PRINTER.print(payload));
-        resp.getWriter().flush();
+        this.jsonCodec.write(payload, fieldMask, out);
         break;
       case CONTENT_TYPE_PROTOBUF:
-        resp.getOutputStream().write(payload.toByteArray());
-        resp.getOutputStream().flush();
+        if (fieldMask == null) {
+          out.write(payload.toByteArray());
+        } else {
+          MaskedProtobufWriter.write(payload, fieldMask, out);
+        }
+        out.flush();
         break;
       default:
         throw new UnsupportedOperationException("no support for " + responseContentType);
     }
+
+    return out instanceof CountingOutputStream ? ((CountingOutputStream) out).getCount() : -1;
+  }
+
+  /**
+   * Sheds a request suspended for its memory budget reservation once it waited too long.
+   */
+  @RequiredArgsConstructor
+  private final class ReservationWait implements AsyncListener {
+
+    private final CompletableFuture<Reservation> future;
+    private final String responseContentType;
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+      if (memoryBudget.shed(this.future) == null) {
+        shed(this.responseContentType, (HttpServletResponse) event.getSuppliedResponse());
+        event.getAsyncContext().complete();
+      } // otherwise dispatched
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+      // nothing to do
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+      final Reservation granted = memoryBudget.shed(this.future);
+      if (granted != null) { // not to be handled anymore
+        granted.release();
+      }
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+      // dispatched again, done
+    }
+  }
+
+  /**
+   * An encoded response.
+   */
+  @Value
+  static class Encoded {
+
+    HttpStatus status;
+    String contentType;
+    ByteString body;
   }
 }
@@ -0,0 +1,83 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import io.grpc.Status;
+import io.grpc.Status.Code;
+import java.nio.charset.StandardCharsets;
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Fixed errors detected by the transcoder itself, with their <code>google.rpc.Status</code>
+ * responses encoded once in JSON and protobuf.
+ *
+ * @author zzhao
+ */
+@Getter
+enum TranscoderError {
+
+  METHOD_NOT_ALLOWED(HttpStatus.METHOD_NOT_ALLOWED, Code.UNIMPLEMENTED,
+      "HTTP method not allowed"),
+
+  UNSUPPORTED_MEDIA_TYPE(HttpStatus.UNSUPPORTED_MEDIA_TYPE, Code.INVALID_ARGUMENT,
+      "none of the accepted media types supported"),
+
+  NOT_ACCEPTABLE(HttpStatus.NOT_ACCEPTABLE, Code.INVALID_ARGUMENT,
+      "request content type not supported"),
+
+  PAYLOAD_TOO_LARGE(HttpStatus.PAYLOAD_TOO_LARGE, Code.RESOURCE_EXHAUSTED,
+      "request body too large"),
+
+  TOO_MANY_REQUESTS(HttpStatus.TOO_MANY_REQUESTS, Code.RESOURCE_EXHAUSTED,
+      "rate limit exceeded"),
+
+  MEMORY_EXHAUSTED(HttpStatus.SERVICE_UNAVAILABLE, Code.UNAVAILABLE,
+      "memory budget exhausted"),
+
+  INVALID_REQUEST(HttpStatus.BAD_REQUEST, Code.INVALID_ARGUMENT,
+      "request validation failed"),
+
+  MALFORMED_BODY(HttpStatus.BAD_REQUEST, Code.INVALID_ARGUMENT,
+      "malformed protobuf request body"),
+
+  INCOMPLETE_BODY(HttpStatus.BAD_REQUEST, Code.INVALID_ARGUMENT,
+      "request body shorter than its content length"),
+
+  IDEMPOTENCY_KEY_REUSED(HttpStatus.UNPROCESSABLE_ENTITY, Code.FAILED_PRECONDITION,
+      "idempotency key reused with a different request"),
+
+  TENANT_QUEUE_FULL(HttpStatus.TOO_MANY_REQUESTS, Code.RESOURCE_EXHAUSTED,
+      "too many requests of tenant queued"),
+
+  CALL_SLOT_TIMEOUT(HttpStatus.SERVICE_UNAVAILABLE, Code.UNAVAILABLE,
+      "no call slot available in time");
+
+  private final HttpStatus httpStatus;
+  private final Status status;
+  private final byte[] json;
+  private final byte[] protobuf;
+
+  TranscoderError(HttpStatus httpStatus, Code code, String message) {
+    this.httpStatus = httpStatus;
+    this.status = Status.fromCode(code).withDescription(message);
+    final com.google.rpc.Status protoStatus = com.google.rpc.Status.newBuilder()
+        .setCode(code.value())
+        .setMessage(message)
+        .build();
+    this.protobuf = protoStatus.toByteArray();
+    try {
+      this.json = JsonFormat.printer().omittingInsignificantWhitespace().print(protoStatus)
+          .getBytes(StandardCharsets.UTF_8);
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Creates a stackless exception of this error.
+   */
+  TranscoderException toException() {
+    return new TranscoderException(this);
+  }
+}
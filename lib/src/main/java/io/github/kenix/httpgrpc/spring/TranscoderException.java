@@ -0,0 +1,56 @@
+package io.github.kenix.httpgrpc.spring;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * A {@link StatusRuntimeException} without stack trace, cheap to create. Used for errors detected
+ * while transcoding, e.g. malformed request bodies, and for error statuses of gRPC calls, where a
+ * stack trace would only point at the transcoder itself.
+ *
+ * @author zzhao
+ */
+public class TranscoderException extends StatusRuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient TranscoderError error;
+
+  /**
+   * Creates an exception of the given status.
+   *
+   * @param status error status
+   */
+  public TranscoderException(Status status) {
+    this(status, null);
+  }
+
+  /**
+   * Creates an exception of the given status and trailers.
+   *
+   * @param status error status
+   * @param trailers trailers of the call, may carry details of the status
+   */
+  public TranscoderException(Status status, Metadata trailers) {
+    super(status, trailers);
+    this.error = null;
+  }
+
+  TranscoderException(TranscoderError error) {
+    super(error.getStatus());
+    this.error = error;
+  }
+
+  /**
+   * Gets the fixed error with a pre-encoded response, if any.
+   */
+  TranscoderError getError() {
+    return this.error;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
@@ -2,18 +2,22 @@ package io.github.kenix.httpgrpc.spring;
 
 import com.google.api.HttpRule;
 import com.google.protobuf.Any;
-import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
 import com.google.protobuf.Descriptors.EnumDescriptor;
 import com.google.protobuf.Descriptors.EnumValueDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor;
 import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.Internal;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
+import com.google.rpc.DebugInfo;
 import com.google.rpc.Status;
 import io.grpc.Status.Code;
 import io.grpc.StatusException;
 import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.StatusProto;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -48,13 +52,21 @@ final class Util {
   }
 
   /**
-   * Reflectively creates a message builder.
+   * Gets the default instance of the given message type, a {@link DynamicMessage} if there is no
+   * generated class for it.
    *
-   * @return a {@link Builder}.
+   * @param className name of the generated class, null if there is none
+   * @param desc descriptor of the message type
+   * @return the default instance
    */
+  @SuppressWarnings("unchecked")
   @SneakyThrows
-  public static Message.Builder getBuilder(Class<? extends Message> clazz) {
-    return (Builder) clazz.getMethod("newBuilder").invoke(null);
+  public static Message getPrototype(String className, Descriptor desc) {
+    if (className == null) {
+      return DynamicMessage.getDefaultInstance(desc);
+    }
+
+    return Internal.getDefaultInstance((Class<? extends Message>) Class.forName(className));
   }
 
   /**
@@ -95,6 +107,15 @@ final class Util {
         return HttpStatus.FORBIDDEN;
       case UNIMPLEMENTED:
         return HttpStatus.NOT_IMPLEMENTED;
+      case RESOURCE_EXHAUSTED:
+        return HttpStatus.TOO_MANY_REQUESTS;
+      case DEADLINE_EXCEEDED:
+        return HttpStatus.GATEWAY_TIMEOUT;
+      case ALREADY_EXISTS:
+      case ABORTED:
+        return HttpStatus.CONFLICT;
+      case OUT_OF_RANGE:
+        return HttpStatus.BAD_REQUEST;
       default:
         return HttpStatus.INTERNAL_SERVER_ERROR;
     }
@@ -124,6 +145,15 @@ final class Util {
         .withCause(t.getCause());
   }
 
+  /**
+   * Creates {@link Status} from the given {@link Throwable}, the full status with details as sent
+   * by the gRPC service if any, otherwise from the given {@link io.grpc.Status}.
+   */
+  public static Status protoStatus(Throwable t, io.grpc.Status status) {
+    final Status details = StatusProto.fromThrowable(t);
+    return details != null ? details : protoStatus(status);
+  }
+
   /**
    * Creates {@link Status} from {@link io.grpc.Status}.
    */
@@ -133,9 +163,10 @@ final class Util {
     if (status.getDescription() != null) {
       builder.setMessage(status.getDescription());
     }
-    if (status.getCause() != null) {
-      builder.addDetails(Any.newBuilder().setValue(
-          ByteString.copyFromUtf8(status.getCause().getMessage())).build());
+    if (status.getCause() != null && status.getCause().getMessage() != null) {
+      builder.addDetails(Any.pack(DebugInfo.newBuilder()
+          .setDetail(status.getCause().getMessage())
+          .build()));
     }
 
     return builder.build();
@@ -154,7 +185,7 @@ final class Util {
     fields.forEach(fieldDesc -> {
       final String fieldName = makeFieldName(namePath, fieldDesc.getName());
       if (fieldDesc.getType() == Type.MESSAGE) {
-        final Builder fieldBuilder = builder.getFieldBuilder(fieldDesc);
+        final Builder fieldBuilder = builder.newBuilderForField(fieldDesc);
         setFields(fieldBuilder, fieldName, fieldDesc.getMessageType().getFields(),
             pathVars, paramMap);
         builder.setField(fieldDesc, fieldBuilder.build());
@@ -182,9 +213,8 @@ final class Util {
       } else {
         getValue(fieldName, pathVars, paramMap).map(String::valueOf).ifPresent(v ->
             builder.setField(fieldDesc, getEnumValue(enumType, v)
-                .orElseThrow(() -> io.grpc.Status.INVALID_ARGUMENT
-                    .withDescription("no enum " + enumType.getName() + " found for " + v)
-                    .asRuntimeException())));
+                .orElseThrow(() -> new TranscoderException(io.grpc.Status.INVALID_ARGUMENT
+                    .withDescription("no enum " + enumType.getName() + " found for " + v)))));
       }
     } else {
       if (fieldDesc.isRepeated()) { // can only from parameters
@@ -0,0 +1,375 @@
+package io.github.kenix.httpgrpc.spring;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import io.github.kenix.httpgrpc.spring.codec.JsonCodec;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.NonNull;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.HttpRequestHandler;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.springframework.web.socket.server.support.WebSocketHttpRequestHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Bridges a WebSocket session to a client or bidirectional streaming gRPC call on the local gRPC
+ * server port, one message per frame.
+ * <p>
+ * Text frames carry JSON, binary frames protobuf. Response messages are sent in JSON unless the
+ * handshake has query parameter <code>format=protobuf</code>. An empty text frame half-closes the
+ * call. The session is closed with 1000 when the call completes, otherwise with 4000 plus the gRPC
+ * status code and its description as reason.
+ * </p>
+ * <p>
+ * Flow control: one response message is requested from the call at a time, the next one only after
+ * the previous one has actually been sent, asynchronously if the session is a JSR-356 one. Frames
+ * received while the call is not ready are queued up to the send buffer size, beyond which the
+ * session is closed, the container thread is never blocked.
+ * </p>
+ *
+ * @author zzhao
+ */
+@Slf4j
+class WebSocketTranscoder extends AbstractWebSocketHandler implements HttpRequestHandler {
+
+  static final String PARAM_FORMAT = "format";
+  private static final String FORMAT_PROTOBUF = "protobuf";
+  private static final String PUMP_ATTRIBUTE = Pump.class.getName();
+  private static final int CLOSE_CODE_GRPC_STATUS = 4000;
+  private static final int MAX_REASON_LENGTH = 120;
+  private static final boolean JSR356_PRESENT = ClassUtils.isPresent(
+      "javax.websocket.Session", WebSocketTranscoder.class.getClassLoader());
+
+  private final Channel channel;
+  private final MethodDescriptor<Message, Message> methodDesc;
+  private final Message reqPrototype;
+  private final JsonCodec jsonCodec;
+  private final int maxMessageBytes;
+  private final int sendTimeLimitMs;
+  private final int sendBufferBytes;
+  private final WebSocketHttpRequestHandler requestHandler;
+
+  WebSocketTranscoder(Channel channel, MethodDescriptor<Message, Message> methodDesc,
+      Message reqPrototype, JsonCodec jsonCodec, HttpGrpcSettings settings,
+      ServletContext servletContext) {
+    this.channel = channel;
+    this.methodDesc = methodDesc;
+    this.reqPrototype = reqPrototype;
+    this.jsonCodec = jsonCodec;
+    this.maxMessageBytes = settings.getMaxRequestBodyBytes();
+    this.sendTimeLimitMs = settings.getWebSocketSendTimeLimitMs();
+    this.sendBufferBytes = settings.getWebSocketSendBufferBytes();
+    this.requestHandler = new WebSocketHttpRequestHandler(this);
+    if (servletContext != null) {
+      this.requestHandler.setServletContext(servletContext);
+    }
+    this.requestHandler.start();
+  }
+
+  /**
+   * Handles the WebSocket handshake.
+   *
+   * @param req HTTP request
+   * @param resp HTTP response
+   * @throws ServletException when the handshake fails
+   * @throws IOException when the handshake fails
+   */
+  @Override
+  public void handleRequest(@NonNull HttpServletRequest req, @NonNull HttpServletResponse resp)
+      throws ServletException, IOException {
+    this.requestHandler.handleRequest(req, resp);
+  }
+
+  @Override
+  public void afterConnectionEstablished(@NonNull WebSocketSession session) {
+    final boolean protobuf = session.getUri() != null && FORMAT_PROTOBUF.equals(
+        UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams()
+            .getFirst(PARAM_FORMAT));
+    final Pump pump = new Pump(session, protobuf);
+    session.getAttributes().put(PUMP_ATTRIBUTE, pump);
+    pump.start();
+  }
+
+  @Override
+  protected void handleTextMessage(@NonNull WebSocketSession session,
+      @NonNull TextMessage message) throws Exception {
+    final Pump pump = getPump(session);
+    if (message.getPayloadLength() == 0) {
+      pump.halfClose();
+      return;
+    }
+    final byte[] bytes = message.asBytes();
+    final Message.Builder builder = this.reqPrototype.newBuilderForType();
+    try {
+      this.jsonCodec.merge(bytes, 0, bytes.length, builder);
+    } catch (IOException e) {
+      pump.abort(CloseStatus.BAD_DATA.withReason(truncate(e.getMessage())));
+      return;
+    }
+    pump.send(builder.build());
+  }
+
+  @Override
+  protected void handleBinaryMessage(@NonNull WebSocketSession session,
+      @NonNull BinaryMessage message) throws Exception {
+    final Pump pump = getPump(session);
+    final Message.Builder builder = this.reqPrototype.newBuilderForType();
+    try {
+      final CodedInputStream cis = CodedInputStream.newInstance(message.getPayload());
+      builder.mergeFrom(cis);
+      cis.checkLastTagWas(0);
+    } catch (IOException e) {
+      pump.abort(CloseStatus.BAD_DATA.withReason(truncate(e.getMessage())));
+      return;
+    }
+    pump.send(builder.build());
+  }
+
+  @Override
+  public void handleMessage(@NonNull WebSocketSession session,
+      @NonNull WebSocketMessage<?> message) throws Exception {
+    if (message.getPayloadLength() > this.maxMessageBytes) {
+      getPump(session).abort(CloseStatus.TOO_BIG_TO_PROCESS);
+      return;
+    }
+    super.handleMessage(session, message);
+  }
+
+  @Override
+  public void handleTransportError(@NonNull WebSocketSession session,
+      @NonNull Throwable exception) {
+    log.debug("<handleTransportError> {}", session.getId(), exception);
+    getPump(session).cancel("transport error");
+  }
+
+  @Override
+  public void afterConnectionClosed(@NonNull WebSocketSession session,
+      @NonNull CloseStatus status) {
+    final Pump pump = (Pump) session.getAttributes().get(PUMP_ATTRIBUTE);
+    if (pump != null) {
+      pump.cancel("connection closed " + status.getCode());
+    }
+  }
+
+  private static Pump getPump(WebSocketSession session) {
+    return (Pump) session.getAttributes().get(PUMP_ATTRIBUTE);
+  }
+
+  private RemoteEndpoint.Async getAsyncRemote(WebSocketSession session) {
+    if (!JSR356_PRESENT || !(session instanceof NativeWebSocketSession)) {
+      return null;
+    }
+    final javax.websocket.Session nativeSession = ((NativeWebSocketSession) session)
+        .getNativeSession(javax.websocket.Session.class);
+    if (nativeSession == null) {
+      return null;
+    }
+    final RemoteEndpoint.Async remote = nativeSession.getAsyncRemote();
+    remote.setSendTimeout(this.sendTimeLimitMs);
+    return remote;
+  }
+
+  private static String truncate(String reason) {
+    return reason == null || reason.length() <= MAX_REASON_LENGTH
+        ? reason
+        : reason.substring(0, MAX_REASON_LENGTH);
+  }
+
+  static CloseStatus toCloseStatus(Status status) {
+    return status.isOk()
+        ? CloseStatus.NORMAL
+        : new CloseStatus(CLOSE_CODE_GRPC_STATUS + status.getCode().value(),
+            truncate(status.getDescription()));
+  }
+
+  /**
+   * Pumps messages of one session into and out of its gRPC call.
+   */
+  private final class Pump extends ClientCall.Listener<Message> {
+
+    private final WebSocketSession session;
+    private final RemoteEndpoint.Async remote; // null if not a JSR-356 session
+    private final boolean protobuf;
+    private final ClientCall<Message, Message> call;
+    // guarded by this
+    private final ArrayDeque<Message> pending = new ArrayDeque<>();
+    private int pendingBytes;
+    private boolean halfClosing; // half-close received, done once pending messages are sent
+    private boolean halfClosed;
+    private boolean sending; // a response message is being sent
+    private CloseStatus closing; // close deferred until the response message is sent
+    private volatile boolean closed;
+
+    Pump(WebSocketSession session, boolean protobuf) {
+      this.session = session;
+      this.remote = getAsyncRemote(session);
+      this.protobuf = protobuf;
+      this.call = channel.newCall(methodDesc, CallOptions.DEFAULT);
+    }
+
+    void start() {
+      this.call.start(this, new Metadata());
+      this.call.request(1);
+    }
+
+    synchronized void send(Message message) {
+      if (this.closed || this.halfClosing) {
+        return;
+      }
+      if (this.pending.isEmpty() && this.call.isReady()) {
+        this.call.sendMessage(message);
+        return;
+      }
+      this.pendingBytes += message.getSerializedSize();
+      if (this.pendingBytes > sendBufferBytes) {
+        abort(CloseStatus.SESSION_NOT_RELIABLE.withReason("gRPC call not ready"));
+        return;
+      }
+      this.pending.add(message);
+    }
+
+    synchronized void halfClose() {
+      if (!this.closed && !this.halfClosing) {
+        this.halfClosing = true;
+        drain();
+      }
+    }
+
+    void abort(CloseStatus status) {
+      cancel(status.getReason());
+      close(status);
+    }
+
+    synchronized void cancel(String reason) {
+      if (!this.closed) {
+        this.closed = true;
+        this.pending.clear();
+        this.call.cancel(reason, null);
+      }
+    }
+
+    @Override
+    public synchronized void onReady() {
+      drain();
+    }
+
+    private void drain() {
+      while (!this.closed && !this.pending.isEmpty() && this.call.isReady()) {
+        final Message message = this.pending.poll();
+        this.pendingBytes -= message.getSerializedSize();
+        this.call.sendMessage(message);
+      }
+      if (!this.closed && this.halfClosing && !this.halfClosed && this.pending.isEmpty()) {
+        this.halfClosed = true;
+        this.call.halfClose();
+      }
+    }
+
+    @Override
+    public void onMessage(Message message) {
+      synchronized (this) {
+        if (this.closed) {
+          return;
+        }
+        this.sending = true;
+      }
+      try {
+        if (this.protobuf) {
+          final byte[] bytes = message.toByteArray();
+          if (this.remote != null) {
+            this.remote.sendBinary(ByteBuffer.wrap(bytes), this::onSendResult);
+            return;
+          }
+          this.session.sendMessage(new BinaryMessage(bytes));
+        } else {
+          final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+          jsonCodec.write(message, out);
+          final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+          if (this.remote != null) {
+            this.remote.sendText(text, this::onSendResult);
+            return;
+          }
+          this.session.sendMessage(new TextMessage(text));
+        }
+        onSent(null);
+      } catch (Exception e) {
+        onSent(e);
+      }
+    }
+
+    private void onSendResult(SendResult result) {
+      onSent(result.isOK() ? null : result.getException());
+    }
+
+    private void onSent(Throwable t) {
+      final CloseStatus deferred;
+      synchronized (this) {
+        this.sending = false;
+        deferred = this.closing;
+      }
+      if (t != null) {
+        log.debug("<onSent> {} cannot send", this.session.getId(), t);
+        abort(CloseStatus.SESSION_NOT_RELIABLE);
+      } else if (deferred != null) {
+        closeSession(deferred);
+      } else if (!this.closed) {
+        this.call.request(1);
+      }
+    }
+
+    @Override
+    public void onClose(Status status, Metadata trailers) {
+      synchronized (this) {
+        this.closed = true;
+        this.pending.clear();
+      }
+      close(toCloseStatus(status));
+    }
+
+    /**
+     * Closes the session, once the response message being sent, if any, is sent.
+     */
+    private void close(CloseStatus status) {
+      synchronized (this) {
+        if (this.sending) {
+          if (this.closing == null) {
+            this.closing = status;
+          }
+          return;
+        }
+      }
+      closeSession(status);
+    }
+
+    private void closeSession(CloseStatus status) {
+      try {
+        this.session.close(status);
+      } catch (IOException e) {
+        log.debug("<close> {}", this.session.getId(), e);
+      }
+    }
+  }
+}
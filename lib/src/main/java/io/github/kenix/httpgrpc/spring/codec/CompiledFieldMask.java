@@ -0,0 +1,200 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.common.base.Splitter;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A field mask compiled into a tree of selected fields, applied while serializing messages.
+ * <p>
+ * Paths are separated by comma, path elements by dot, e.g. <code>name,sub.planet</code>. Either
+ * proto or JSON field names can be used. A selected message field without sub-paths is selected as
+ * a whole. Paths can go through singular and repeated message fields, the latter applying to each
+ * element.
+ * </p>
+ *
+ * @author zzhao
+ */
+public final class CompiledFieldMask {
+
+  private static final Splitter PATH_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+  private static final Splitter NAME_SPLITTER = Splitter.on('.');
+
+  private static final FieldDescriptor[] NO_FIELDS = new FieldDescriptor[0];
+  private static final CompiledFieldMask[] NO_MASKS = new CompiledFieldMask[0];
+
+  // keyed by field number, robust across descriptor instances of the same type, empty for all
+  private final Map<Integer, CompiledFieldMask> children;
+  // selected fields sorted by number and their masks at the same index, for serializing
+  private final FieldDescriptor[] fields;
+  private final CompiledFieldMask[] masks;
+
+  private CompiledFieldMask(Map<Integer, CompiledFieldMask> children, FieldDescriptor[] fields,
+      CompiledFieldMask[] masks) {
+    this.children = children;
+    this.fields = fields;
+    this.masks = masks;
+  }
+
+  /**
+   * Compiles the given field mask paths against the given message type.
+   *
+   * @param desc descriptor of the masked message type
+   * @param paths comma separated field paths
+   * @return compiled field mask
+   * @throws IllegalArgumentException if a path cannot be resolved
+   */
+  public static CompiledFieldMask compile(Descriptor desc, String paths) {
+    final Node root = new Node();
+    for (final String path : PATH_SPLITTER.split(paths)) {
+      Node node = root;
+      Descriptor type = desc;
+      for (final String name : NAME_SPLITTER.split(path)) {
+        if (type == null) {
+          throw new IllegalArgumentException("invalid field path " + path);
+        }
+        final FieldDescriptor field = findField(type, name);
+        if (field == null) {
+          throw new IllegalArgumentException("no field " + name + " in " + type.getFullName());
+        }
+        if (node.all) { // a parent is selected as a whole
+          break;
+        }
+        node = node.children.computeIfAbsent(field.getNumber(), n -> new Node(field));
+        type = field.getJavaType() == JavaType.MESSAGE && !field.isMapField()
+            ? field.getMessageType()
+            : null;
+      }
+      node.all = true;
+      node.children.clear();
+    }
+    if (root.children.isEmpty()) {
+      throw new IllegalArgumentException("no field path in " + paths);
+    }
+
+    return root.compile();
+  }
+
+  private static FieldDescriptor findField(Descriptor type, String name) {
+    final FieldDescriptor field = type.findFieldByName(name);
+    if (field != null) {
+      return field;
+    }
+    for (final FieldDescriptor fd : type.getFields()) {
+      if (fd.getJsonName().equals(name)) {
+        return fd;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets the mask of the given field.
+   *
+   * @param field a field of the masked message type
+   * @return null if the field is not selected
+   */
+  public CompiledFieldMask get(FieldDescriptor field) {
+    return this.children.get(field.getNumber());
+  }
+
+  /**
+   * Gets the number of selected fields, 0 if all are selected.
+   */
+  int getFieldCount() {
+    return this.fields.length;
+  }
+
+  /**
+   * Gets the selected field of the given index, in field number order, as resolved at compile
+   * time.
+   */
+  FieldDescriptor getField(int index) {
+    return this.fields[index];
+  }
+
+  /**
+   * Gets the mask of the selected field of the given index.
+   */
+  CompiledFieldMask getMask(int index) {
+    return this.masks[index];
+  }
+
+  /**
+   * Tells whether all fields are selected.
+   *
+   * @return true if no field is masked out
+   */
+  public boolean isAll() {
+    return this.children.isEmpty();
+  }
+
+  /**
+   * Creates a copy of the given message with only selected fields set.
+   *
+   * @param message message to be trimmed
+   * @return the trimmed copy
+   */
+  public Message trim(MessageOrBuilder message) {
+    final Message.Builder builder = message.getDefaultInstanceForType().newBuilderForType();
+    for (final FieldDescriptor field : message.getDescriptorForType().getFields()) {
+      final CompiledFieldMask mask = get(field);
+      if (mask == null) {
+        continue;
+      }
+      if (field.isRepeated()) {
+        final int count = message.getRepeatedFieldCount(field);
+        for (int i = 0; i < count; i++) {
+          builder.addRepeatedField(field, mask.isAll()
+              ? message.getRepeatedField(field, i)
+              : mask.trim((Message) message.getRepeatedField(field, i)));
+        }
+      } else if (message.hasField(field)) {
+        builder.setField(field, mask.isAll()
+            ? message.getField(field)
+            : mask.trim((Message) message.getField(field)));
+      }
+    }
+
+    return builder.build();
+  }
+
+  private static final class Node {
+
+    private final FieldDescriptor field;
+    private final Map<Integer, Node> children = new TreeMap<>();
+    private boolean all;
+
+    Node() {
+      this(null);
+    }
+
+    Node(FieldDescriptor field) {
+      this.field = field;
+    }
+
+    CompiledFieldMask compile() {
+      if (this.all) {
+        return new CompiledFieldMask(Collections.emptyMap(), NO_FIELDS, NO_MASKS);
+      }
+      final Map<Integer, CompiledFieldMask> compiled = new HashMap<>();
+      final FieldDescriptor[] fields = new FieldDescriptor[this.children.size()];
+      final CompiledFieldMask[] masks = new CompiledFieldMask[fields.length];
+      int i = 0;
+      for (final Node child : this.children.values()) { // in field number order
+        fields[i] = child.field;
+        masks[i] = child.compile();
+        compiled.put(child.field.getNumber(), masks[i]);
+        i++;
+      }
+      return new CompiledFieldMask(compiled, fields, masks);
+    }
+  }
+}
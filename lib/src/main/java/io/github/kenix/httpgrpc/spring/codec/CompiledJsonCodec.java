@@ -0,0 +1,61 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.common.io.ByteStreams;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Message.Builder;
+import com.google.protobuf.MessageOrBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A {@link JsonCodec} building serializer and deserializer once per message type, which read and
+ * write UTF-8 bytes directly without intermediate strings. Output is identical to
+ * {@link JsonFormatCodec}, except that a field given twice under the same name is rejected.
+ *
+ * @author zzhao
+ */
+public class CompiledJsonCodec implements JsonCodec {
+
+  private final ConcurrentMap<Descriptor, MessageJsonCodec> codecs = new ConcurrentHashMap<>();
+
+  @Override
+  public void merge(InputStream in, Builder builder) throws IOException {
+    final byte[] bytes = ByteStreams.toByteArray(in);
+    merge(bytes, 0, bytes.length, builder);
+  }
+
+  @Override
+  public void merge(byte[] buf, int offset, int length, Builder builder) throws IOException {
+    final JsonReader reader = new JsonReader(buf, offset, length);
+    if (reader.isAtEnd()) {
+      throw reader.error("no JSON content");
+    }
+    codecFor(builder.getDescriptorForType()).merge(reader, builder);
+    if (!reader.isAtEnd()) {
+      throw reader.error("unexpected content");
+    }
+  }
+
+  @Override
+  public void write(MessageOrBuilder message, OutputStream out) throws IOException {
+    write(message, null, out);
+  }
+
+  @Override
+  public void write(MessageOrBuilder message, CompiledFieldMask mask, OutputStream out)
+      throws IOException {
+    final JsonWriter writer = new JsonWriter(out);
+    codecFor(message.getDescriptorForType()).write(message, mask, writer);
+    writer.flush();
+  }
+
+  MessageJsonCodec codecFor(Descriptor desc) {
+    final MessageJsonCodec codec = this.codecs.get(desc);
+    return codec != null
+        ? codec
+        : this.codecs.computeIfAbsent(desc, d -> new MessageJsonCodec(this, d));
+  }
+}
@@ -0,0 +1,65 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts protobuf messages from and to JSON following the
+ * <a href="https://developers.google.com/protocol-buffers/docs/proto3#json">proto3 JSON
+ * mapping</a>, output as produced by {@link com.google.protobuf.util.JsonFormat} omitting
+ * insignificant whitespaces.
+ *
+ * @author zzhao
+ */
+public interface JsonCodec {
+
+  /**
+   * Merges JSON read from the given stream into the given builder.
+   *
+   * @param in UTF-8 encoded JSON
+   * @param builder message builder to merge into
+   * @throws IOException when the stream cannot be read or is no valid JSON for the message
+   */
+  void merge(InputStream in, Message.Builder builder) throws IOException;
+
+  /**
+   * Merges JSON of the given bytes into the given builder.
+   *
+   * @param buf buffer holding UTF-8 encoded JSON
+   * @param offset offset of JSON in the buffer
+   * @param length length of JSON in bytes
+   * @param builder message builder to merge into
+   * @throws IOException when the bytes are no valid JSON for the message
+   */
+  default void merge(byte[] buf, int offset, int length, Message.Builder builder)
+      throws IOException {
+    merge(new ByteArrayInputStream(buf, offset, length), builder);
+  }
+
+  /**
+   * Writes the given message as JSON to the given stream.
+   *
+   * @param message the message to be written
+   * @param out stream receiving UTF-8 encoded JSON, not closed
+   * @throws IOException when the stream cannot be written
+   */
+  void write(MessageOrBuilder message, OutputStream out) throws IOException;
+
+  /**
+   * Writes only the fields selected by the given mask of the given message as JSON to the given
+   * stream.
+   *
+   * @param message the message to be written
+   * @param mask field mask, null for all fields
+   * @param out stream receiving UTF-8 encoded JSON, not closed
+   * @throws IOException when the stream cannot be written
+   */
+  default void write(MessageOrBuilder message, CompiledFieldMask mask, OutputStream out)
+      throws IOException {
+    write(mask == null ? message : mask.trim(message), out);
+  }
+}
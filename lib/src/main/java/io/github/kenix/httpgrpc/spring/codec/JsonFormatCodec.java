@@ -0,0 +1,40 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.protobuf.Message.Builder;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.JsonFormat.Parser;
+import com.google.protobuf.util.JsonFormat.Printer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link JsonCodec} using {@link JsonFormat}.
+ *
+ * @author zzhao
+ */
+public class JsonFormatCodec implements JsonCodec {
+
+  private static final Parser PARSER =
+      JsonFormat.parser().usingTypeRegistry(MessageJsonCodec.TYPE_REGISTRY);
+  private static final Printer PRINTER = JsonFormat.printer()
+      .usingTypeRegistry(MessageJsonCodec.TYPE_REGISTRY)
+      .omittingInsignificantWhitespace();
+
+  @Override
+  public void merge(InputStream in, Builder builder) throws IOException {
+    PARSER.merge(new InputStreamReader(in, StandardCharsets.UTF_8), builder);
+  }
+
+  @Override
+  public void write(MessageOrBuilder message, OutputStream out) throws IOException {
+    final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    PRINTER.appendTo(message, writer);
+    writer.flush();
+  }
+}
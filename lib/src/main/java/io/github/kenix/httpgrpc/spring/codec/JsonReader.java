@@ -0,0 +1,242 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pull reader of JSON tokens from UTF-8 encoded bytes.
+ *
+ * @author zzhao
+ */
+final class JsonReader {
+
+  private final byte[] buf;
+  private final int end;
+  private int pos;
+
+  JsonReader(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.pos = offset;
+    this.end = offset + length;
+  }
+
+  /**
+   * Peeks the next non-whitespace character.
+   *
+   * @return the next character or -1 at the end
+   */
+  int peek() {
+    skipWhitespaces();
+    return this.pos < this.end ? this.buf[this.pos] : -1;
+  }
+
+  void expect(char c) throws InvalidProtocolBufferException {
+    if (peek() != c) {
+      throw error("expected '" + c + "'");
+    }
+    this.pos++;
+  }
+
+  /**
+   * Consumes the given character if it is the next one.
+   */
+  boolean consume(char c) {
+    if (peek() == c) {
+      this.pos++;
+      return true;
+    }
+    return false;
+  }
+
+  boolean isAtEnd() {
+    return peek() == -1;
+  }
+
+  /**
+   * Consumes a <code>null</code> literal if it is the next token.
+   */
+  boolean consumeNull() throws InvalidProtocolBufferException {
+    if (peek() == 'n') {
+      if (!"null".equals(readLiteral())) {
+        throw error("invalid literal");
+      }
+      return true;
+    }
+    return false;
+  }
+
+  String readString() throws InvalidProtocolBufferException {
+    expect('"');
+    StringBuilder sb = null;
+    int start = this.pos;
+    while (this.pos < this.end) {
+      final byte b = this.buf[this.pos];
+      if (b == '"') {
+        final String tail = new String(this.buf, start, this.pos - start, StandardCharsets.UTF_8);
+        this.pos++;
+        return sb == null ? tail : sb.append(tail).toString();
+      }
+      if (b == '\\') {
+        if (sb == null) {
+          sb = new StringBuilder();
+        }
+        sb.append(new String(this.buf, start, this.pos - start, StandardCharsets.UTF_8));
+        this.pos++;
+        sb.append(readEscape());
+        start = this.pos;
+      } else if ((b & 0xFF) < 0x20) {
+        throw error("unescaped control character");
+      } else {
+        this.pos++;
+      }
+    }
+
+    throw error("unterminated string");
+  }
+
+  private char readEscape() throws InvalidProtocolBufferException {
+    if (this.pos >= this.end) {
+      throw error("unterminated escape");
+    }
+    final byte b = this.buf[this.pos++];
+    switch (b) {
+      case '"':
+        return '"';
+      case '\\':
+        return '\\';
+      case '/':
+        return '/';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        if (this.pos + 4 > this.end) {
+          throw error("unterminated escape");
+        }
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+          final int digit = Character.digit(this.buf[this.pos++], 16);
+          if (digit < 0) {
+            throw error("invalid unicode escape");
+          }
+          c = (c << 4) | digit;
+        }
+        return (char) c;
+      default:
+        throw error("invalid escape");
+    }
+  }
+
+  /**
+   * Reads a scalar value, either a string, a number or a literal, as text.
+   */
+  String readScalar() throws InvalidProtocolBufferException {
+    final int c = peek();
+    if (c == '"') {
+      return readString();
+    }
+    if (c == '-' || (c >= '0' && c <= '9')) {
+      return readNumber();
+    }
+    if (c >= 'a' && c <= 'z') {
+      return readLiteral();
+    }
+
+    throw error("expected a scalar value");
+  }
+
+  private String readNumber() {
+    final int start = this.pos;
+    while (this.pos < this.end) {
+      final byte b = this.buf[this.pos];
+      if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+        this.pos++;
+      } else {
+        break;
+      }
+    }
+    return new String(this.buf, start, this.pos - start, StandardCharsets.US_ASCII);
+  }
+
+  private String readLiteral() {
+    final int start = this.pos;
+    while (this.pos < this.end && this.buf[this.pos] >= 'a' && this.buf[this.pos] <= 'z') {
+      this.pos++;
+    }
+    return new String(this.buf, start, this.pos - start, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Reads the next value whatever it is as raw JSON text.
+   */
+  String readRaw() throws InvalidProtocolBufferException {
+    skipWhitespaces();
+    final int start = this.pos;
+    skipValue();
+    return new String(this.buf, start, this.pos - start, StandardCharsets.UTF_8);
+  }
+
+  private void skipValue() throws InvalidProtocolBufferException {
+    final int c = peek();
+    if (c == '{') {
+      this.pos++;
+      if (!consume('}')) {
+        do {
+          readString();
+          expect(':');
+          skipValue();
+        } while (consume(','));
+        expect('}');
+      }
+    } else if (c == '[') {
+      this.pos++;
+      if (!consume(']')) {
+        do {
+          skipValue();
+        } while (consume(','));
+        expect(']');
+      }
+    } else {
+      readScalar();
+    }
+  }
+
+  InvalidProtocolBufferException error(String description) {
+    return new JsonException(description + " at position " + this.pos);
+  }
+
+  private void skipWhitespaces() {
+    while (this.pos < this.end) {
+      final byte b = this.buf[this.pos];
+      if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+        this.pos++;
+      } else {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Malformed JSON, without stack trace as it only points at the reader.
+   */
+  private static final class JsonException extends InvalidProtocolBufferException {
+
+    private static final long serialVersionUID = 1L;
+
+    JsonException(String description) {
+      super(description);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
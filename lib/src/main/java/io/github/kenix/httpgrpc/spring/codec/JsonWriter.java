@@ -0,0 +1,139 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A buffered writer of UTF-8 encoded JSON tokens, escaping strings the same way as Gson does for
+ * {@link com.google.protobuf.util.JsonFormat}.
+ *
+ * @author zzhao
+ */
+final class JsonWriter {
+
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[][] ESCAPES = new byte[128][];
+
+  static {
+    for (int c = 0; c < 0x20; c++) {
+      ESCAPES[c] = new byte[]{'\\', 'u', '0', '0', HEX[c >> 4], HEX[c & 0xF]};
+    }
+    ESCAPES['"'] = new byte[]{'\\', '"'};
+    ESCAPES['\\'] = new byte[]{'\\', '\\'};
+    ESCAPES['\t'] = new byte[]{'\\', 't'};
+    ESCAPES['\b'] = new byte[]{'\\', 'b'};
+    ESCAPES['\n'] = new byte[]{'\\', 'n'};
+    ESCAPES['\r'] = new byte[]{'\\', 'r'};
+    ESCAPES['\f'] = new byte[]{'\\', 'f'};
+    // html safe
+    for (final char c : new char[]{'<', '>', '&', '=', '\''}) {
+      ESCAPES[c] = new byte[]{'\\', 'u', '0', '0', HEX[c >> 4], HEX[c & 0xF]};
+    }
+  }
+
+  private final OutputStream out;
+  private final byte[] buf;
+  private int pos;
+  private long written;
+
+  JsonWriter(OutputStream out) {
+    this.out = out;
+    this.buf = new byte[8192];
+  }
+
+  void write(byte b) throws IOException {
+    if (this.pos == this.buf.length) {
+      flushBuffer();
+    }
+    this.buf[this.pos++] = b;
+  }
+
+  void write(byte[] bytes) throws IOException {
+    if (bytes.length > this.buf.length - this.pos) {
+      flushBuffer();
+      if (bytes.length > this.buf.length) {
+        this.out.write(bytes);
+        this.written += bytes.length;
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, this.buf, this.pos, bytes.length);
+    this.pos += bytes.length;
+  }
+
+  /**
+   * Writes ASCII only characters as is.
+   */
+  void writeAscii(String str) throws IOException {
+    for (int i = 0; i < str.length(); i++) {
+      write((byte) str.charAt(i));
+    }
+  }
+
+  void writeQuotedAscii(String str) throws IOException {
+    write((byte) '"');
+    writeAscii(str);
+    write((byte) '"');
+  }
+
+  /**
+   * Writes a quoted and escaped string.
+   */
+  void writeString(String str) throws IOException {
+    write((byte) '"');
+    final int len = str.length();
+    for (int i = 0; i < len; i++) {
+      final char c = str.charAt(i);
+      if (c < 0x80) {
+        final byte[] escape = ESCAPES[c];
+        if (escape == null) {
+          write((byte) c);
+        } else {
+          write(escape);
+        }
+      } else if (c == '\u2028' || c == '\u2029') {
+        write((byte) '\\');
+        write((byte) 'u');
+        writeAscii(Integer.toHexString(c));
+      } else if (c < 0x800) {
+        write((byte) (0xC0 | (c >> 6)));
+        write((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < len
+          && Character.isLowSurrogate(str.charAt(i + 1))) {
+        final int cp = Character.toCodePoint(c, str.charAt(++i));
+        write((byte) (0xF0 | (cp >> 18)));
+        write((byte) (0x80 | ((cp >> 12) & 0x3F)));
+        write((byte) (0x80 | ((cp >> 6) & 0x3F)));
+        write((byte) (0x80 | (cp & 0x3F)));
+      } else if (Character.isSurrogate(c)) { // unpaired, as String#getBytes does
+        write((byte) '?');
+      } else {
+        write((byte) (0xE0 | (c >> 12)));
+        write((byte) (0x80 | ((c >> 6) & 0x3F)));
+        write((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+    write((byte) '"');
+  }
+
+  /**
+   * Gets the number of bytes written so far, including buffered ones.
+   */
+  long getWritten() {
+    return this.written + this.pos;
+  }
+
+  void flush() throws IOException {
+    flushBuffer();
+    this.out.flush();
+  }
+
+  private void flushBuffer() throws IOException {
+    if (this.pos > 0) {
+      this.out.write(this.buf, 0, this.pos);
+      this.written += this.pos;
+      this.pos = 0;
+    }
+  }
+}
@@ -0,0 +1,334 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes protobuf wire format of messages with only the fields selected by a
+ * {@link CompiledFieldMask}, without building trimmed copies of them.
+ *
+ * @author zzhao
+ */
+public final class MaskedProtobufWriter {
+
+  private MaskedProtobufWriter() {
+    throw new AssertionError("not for instantiation or inheritance");
+  }
+
+  /**
+   * Writes the selected fields of the given message.
+   *
+   * @param message message to be written
+   * @param mask field mask
+   * @param out stream receiving the serialized message, not closed
+   * @throws IOException when the stream cannot be written
+   */
+  public static void write(MessageOrBuilder message, CompiledFieldMask mask, OutputStream out)
+      throws IOException {
+    // sizes of trimmed nested messages computed once, in the order they are written
+    final Sizes sizes = new Sizes();
+    size(message, mask, sizes);
+    final CodedOutputStream cos = CodedOutputStream.newInstance(out);
+    write(message, mask, sizes, cos);
+    cos.flush();
+  }
+
+  /**
+   * Computes the serialized size of the selected fields of the given message.
+   *
+   * @param message message to be sized
+   * @param mask field mask
+   * @return size in bytes
+   */
+  public static int size(MessageOrBuilder message, CompiledFieldMask mask) {
+    return size(message, mask, null);
+  }
+
+  /**
+   * Computes the size of the selected fields, recording sizes of trimmed nested messages in
+   * pre-order if the given sizes is not null.
+   */
+  private static int size(MessageOrBuilder message, CompiledFieldMask mask, Sizes sizes) {
+    final Descriptor type = message.getDescriptorForType();
+    int size = 0;
+    for (int i = 0; i < mask.getFieldCount(); i++) {
+      final FieldDescriptor field = resolve(type, mask.getField(i));
+      final CompiledFieldMask fieldMask = mask.getMask(i);
+      if (field == null || !isPresent(message, field)) {
+        continue;
+      }
+      if (fieldMask.isAll()) {
+        size += fieldSize(field, message.getField(field));
+      } else if (field.isRepeated()) {
+        final int count = message.getRepeatedFieldCount(field);
+        for (int j = 0; j < count; j++) {
+          size += nestedSize(field, (MessageOrBuilder) message.getRepeatedField(field, j),
+              fieldMask, sizes);
+        }
+      } else {
+        size += nestedSize(field, (MessageOrBuilder) message.getField(field), fieldMask, sizes);
+      }
+    }
+
+    return size;
+  }
+
+  private static void write(MessageOrBuilder message, CompiledFieldMask mask, Sizes sizes,
+      CodedOutputStream out) throws IOException {
+    final Descriptor type = message.getDescriptorForType();
+    for (int i = 0; i < mask.getFieldCount(); i++) {
+      final FieldDescriptor field = resolve(type, mask.getField(i));
+      final CompiledFieldMask fieldMask = mask.getMask(i);
+      if (field == null || !isPresent(message, field)) {
+        continue;
+      }
+      if (fieldMask.isAll()) {
+        writeField(field, message.getField(field), out);
+      } else if (field.isRepeated()) {
+        final int count = message.getRepeatedFieldCount(field);
+        for (int j = 0; j < count; j++) {
+          writeNested(field, (MessageOrBuilder) message.getRepeatedField(field, j), fieldMask,
+              sizes, out);
+        }
+      } else {
+        writeNested(field, (MessageOrBuilder) message.getField(field), fieldMask, sizes, out);
+      }
+    }
+  }
+
+  /**
+   * Resolves a field of the mask in the given type, another descriptor instance of the type the
+   * mask was compiled for only in rare cases.
+   */
+  private static FieldDescriptor resolve(Descriptor type, FieldDescriptor field) {
+    return field.getContainingType() == type ? field : type.findFieldByNumber(field.getNumber());
+  }
+
+  private static boolean isPresent(MessageOrBuilder message, FieldDescriptor field) {
+    return field.isRepeated()
+        ? message.getRepeatedFieldCount(field) > 0
+        : message.hasField(field);
+  }
+
+  private static int nestedSize(FieldDescriptor field, MessageOrBuilder value,
+      CompiledFieldMask mask, Sizes sizes) {
+    if (field.getType() == Type.GROUP) {
+      return CodedOutputStream.computeTagSize(field.getNumber()) * 2 + size(value, mask, sizes);
+    }
+    final int slot = sizes == null ? -1 : sizes.reserve();
+    final int size = size(value, mask, sizes);
+    if (sizes != null) {
+      sizes.set(slot, size);
+    }
+    return CodedOutputStream.computeTagSize(field.getNumber())
+        + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+  }
+
+  private static void writeNested(FieldDescriptor field, MessageOrBuilder value,
+      CompiledFieldMask mask, Sizes sizes, CodedOutputStream out) throws IOException {
+    if (field.getType() == Type.GROUP) {
+      out.writeTag(field.getNumber(), WireFormat.WIRETYPE_START_GROUP);
+      write(value, mask, sizes, out);
+      out.writeTag(field.getNumber(), WireFormat.WIRETYPE_END_GROUP);
+    } else {
+      out.writeTag(field.getNumber(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      out.writeUInt32NoTag(sizes.next());
+      write(value, mask, sizes, out);
+    }
+  }
+
+  private static int fieldSize(FieldDescriptor field, Object value) {
+    if (!field.isRepeated()) {
+      return CodedOutputStream.computeTagSize(field.getNumber())
+          + valueSize(field, value);
+    }
+
+    final List<?> values = (List<?>) value;
+    int size = 0;
+    for (final Object element : values) {
+      size += valueSize(field, element);
+    }
+    if (field.isPacked()) {
+      return CodedOutputStream.computeTagSize(field.getNumber())
+          + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    return size + values.size() * CodedOutputStream.computeTagSize(field.getNumber());
+  }
+
+  private static void writeField(FieldDescriptor field, Object value, CodedOutputStream out)
+      throws IOException {
+    if (!field.isRepeated()) {
+      writeTag(field, out);
+      writeValue(field, value, out);
+      return;
+    }
+
+    final List<?> values = (List<?>) value;
+    if (field.isPacked()) {
+      int size = 0;
+      for (final Object element : values) {
+        size += valueSize(field, element);
+      }
+      out.writeTag(field.getNumber(), WireFormat.WIRETYPE_LENGTH_DELIMITED);
+      out.writeUInt32NoTag(size);
+      for (final Object element : values) {
+        writeValue(field, element, out);
+      }
+    } else {
+      for (final Object element : values) {
+        writeTag(field, out);
+        writeValue(field, element, out);
+      }
+    }
+  }
+
+  private static void writeTag(FieldDescriptor field, CodedOutputStream out) throws IOException {
+    out.writeTag(field.getNumber(), field.getType() == Type.GROUP
+        ? WireFormat.WIRETYPE_START_GROUP
+        : field.getLiteType().getWireType());
+  }
+
+  /**
+   * Computes the size of a value without its tag, groups including their end tags.
+   */
+  private static int valueSize(FieldDescriptor field, Object value) {
+    switch (field.getType()) {
+      case INT32:
+        return CodedOutputStream.computeInt32SizeNoTag((Integer) value);
+      case INT64:
+        return CodedOutputStream.computeInt64SizeNoTag((Long) value);
+      case UINT32:
+        return CodedOutputStream.computeUInt32SizeNoTag((Integer) value);
+      case UINT64:
+        return CodedOutputStream.computeUInt64SizeNoTag((Long) value);
+      case SINT32:
+        return CodedOutputStream.computeSInt32SizeNoTag((Integer) value);
+      case SINT64:
+        return CodedOutputStream.computeSInt64SizeNoTag((Long) value);
+      case FIXED32:
+      case SFIXED32:
+      case FLOAT:
+        return 4;
+      case FIXED64:
+      case SFIXED64:
+      case DOUBLE:
+        return 8;
+      case BOOL:
+        return 1;
+      case ENUM:
+        return CodedOutputStream.computeEnumSizeNoTag(((EnumValueDescriptor) value).getNumber());
+      case STRING:
+        return CodedOutputStream.computeStringSizeNoTag((String) value);
+      case BYTES:
+        return CodedOutputStream.computeBytesSizeNoTag((ByteString) value);
+      case MESSAGE:
+        return CodedOutputStream.computeMessageSizeNoTag((MessageLite) value);
+      case GROUP:
+        return ((MessageLite) value).getSerializedSize()
+            + CodedOutputStream.computeTagSize(field.getNumber());
+      default:
+        throw new UnsupportedOperationException("no support for " + field.getType());
+    }
+  }
+
+  private static void writeValue(FieldDescriptor field, Object value, CodedOutputStream out)
+      throws IOException {
+    switch (field.getType()) {
+      case INT32:
+        out.writeInt32NoTag((Integer) value);
+        break;
+      case INT64:
+        out.writeInt64NoTag((Long) value);
+        break;
+      case UINT32:
+        out.writeUInt32NoTag((Integer) value);
+        break;
+      case UINT64:
+        out.writeUInt64NoTag((Long) value);
+        break;
+      case SINT32:
+        out.writeSInt32NoTag((Integer) value);
+        break;
+      case SINT64:
+        out.writeSInt64NoTag((Long) value);
+        break;
+      case FIXED32:
+        out.writeFixed32NoTag((Integer) value);
+        break;
+      case SFIXED32:
+        out.writeSFixed32NoTag((Integer) value);
+        break;
+      case FLOAT:
+        out.writeFloatNoTag((Float) value);
+        break;
+      case FIXED64:
+        out.writeFixed64NoTag((Long) value);
+        break;
+      case SFIXED64:
+        out.writeSFixed64NoTag((Long) value);
+        break;
+      case DOUBLE:
+        out.writeDoubleNoTag((Double) value);
+        break;
+      case BOOL:
+        out.writeBoolNoTag((Boolean) value);
+        break;
+      case ENUM:
+        out.writeEnumNoTag(((EnumValueDescriptor) value).getNumber());
+        break;
+      case STRING:
+        out.writeStringNoTag((String) value);
+        break;
+      case BYTES:
+        out.writeBytesNoTag((ByteString) value);
+        break;
+      case MESSAGE:
+        out.writeMessageNoTag((MessageLite) value);
+        break;
+      case GROUP:
+        ((MessageLite) value).writeTo(out);
+        out.writeTag(field.getNumber(), WireFormat.WIRETYPE_END_GROUP);
+        break;
+      default:
+        throw new UnsupportedOperationException("no support for " + field.getType());
+    }
+  }
+
+  /**
+   * Sizes of trimmed nested messages, recorded by the sizing pass and consumed in the same order
+   * by the writing pass.
+   */
+  private static final class Sizes {
+
+    private int[] sizes = new int[16];
+    private int count;
+    private int next;
+
+    int reserve() {
+      if (this.count == this.sizes.length) {
+        this.sizes = Arrays.copyOf(this.sizes, this.count * 2);
+      }
+      return this.count++;
+    }
+
+    void set(int slot, int size) {
+      this.sizes[slot] = size;
+    }
+
+    int next() {
+      return this.sizes[this.next++];
+    }
+  }
+}
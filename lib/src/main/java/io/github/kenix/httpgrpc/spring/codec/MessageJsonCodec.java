@@ -0,0 +1,452 @@
+package io.github.kenix.httpgrpc.spring.codec;
+
+import com.google.common.io.BaseEncoding;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumDescriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.Type;
+import com.google.protobuf.Descriptors.FileDescriptor.Syntax;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import com.google.protobuf.util.JsonFormat;
+import com.google.protobuf.util.JsonFormat.Parser;
+import com.google.protobuf.util.JsonFormat.Printer;
+import com.google.protobuf.util.JsonFormat.TypeRegistry;
+import com.google.rpc.ErrorDetailsProto;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JSON serializer and deserializer of one message type, with field names encoded once.
+ * <p>
+ * Well-known types, e.g. <code>google.protobuf.Timestamp</code>, have special JSON
+ * representations and are delegated to {@link JsonFormat}.
+ * </p>
+ *
+ * @author zzhao
+ */
+final class MessageJsonCodec {
+
+  // types of google.rpc.Status details packed into Any
+  static final TypeRegistry TYPE_REGISTRY = TypeRegistry.newBuilder()
+      .add(ErrorDetailsProto.getDescriptor().getMessageTypes())
+      .build();
+  private static final Parser PARSER = JsonFormat.parser().usingTypeRegistry(TYPE_REGISTRY);
+  private static final Printer PRINTER = JsonFormat.printer()
+      .usingTypeRegistry(TYPE_REGISTRY)
+      .omittingInsignificantWhitespace();
+  private static final String WELL_KNOWN_FILE_PREFIX = "google/protobuf/";
+  private static final String NULL_VALUE = "google.protobuf.NullValue";
+  private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+  private static final double EPSILON = 1e-6;
+
+  private final CompiledJsonCodec codecs;
+  private final Descriptor descriptor;
+  private final boolean wellKnown;
+  private final FieldDescriptor[] fields;
+  private final byte[][] names;
+  private final Map<String, FieldDescriptor> fieldsByName;
+
+  MessageJsonCodec(CompiledJsonCodec codecs, Descriptor descriptor) {
+    this.codecs = codecs;
+    this.descriptor = descriptor;
+    this.wellKnown = descriptor.getFile().getName().startsWith(WELL_KNOWN_FILE_PREFIX);
+    this.fields = descriptor.getFields().toArray(new FieldDescriptor[0]);
+    Arrays.sort(this.fields, Comparator.comparingInt(FieldDescriptor::getNumber));
+    this.names = new byte[this.fields.length][];
+    this.fieldsByName = new HashMap<>();
+    for (int i = 0; i < this.fields.length; i++) {
+      final FieldDescriptor field = this.fields[i];
+      this.names[i] = ('"' + field.getJsonName() + "\":").getBytes(StandardCharsets.UTF_8);
+      this.fieldsByName.put(field.getName(), field);
+      this.fieldsByName.put(field.getJsonName(), field);
+    }
+  }
+
+  /**
+   * Writes the given message, only fields selected by the given mask if any.
+   */
+  void write(MessageOrBuilder message, CompiledFieldMask mask, JsonWriter writer)
+      throws IOException {
+    if (this.wellKnown) {
+      writer.write(PRINTER.print(mask == null ? message : mask.trim(message))
+          .getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+
+    writer.write((byte) '{');
+    boolean first = true;
+    for (int i = 0; i < this.fields.length; i++) {
+      final FieldDescriptor field = this.fields[i];
+      final CompiledFieldMask fieldMask = mask == null ? null : mask.get(field);
+      if (mask != null && fieldMask == null) {
+        continue;
+      }
+      final CompiledFieldMask subMask = fieldMask == null || fieldMask.isAll() ? null : fieldMask;
+      if (field.isRepeated()
+          ? message.getRepeatedFieldCount(field) == 0
+          : !message.hasField(field)) {
+        continue;
+      }
+
+      if (!first) {
+        writer.write((byte) ',');
+      }
+      first = false;
+      writer.write(this.names[i]);
+      if (field.isMapField()) {
+        writeMap(message, field, writer);
+      } else if (field.isRepeated()) {
+        writer.write((byte) '[');
+        final int count = message.getRepeatedFieldCount(field);
+        for (int j = 0; j < count; j++) {
+          if (j > 0) {
+            writer.write((byte) ',');
+          }
+          writeValue(field, message.getRepeatedField(field, j), subMask, writer);
+        }
+        writer.write((byte) ']');
+      } else {
+        writeValue(field, message.getField(field), subMask, writer);
+      }
+    }
+    writer.write((byte) '}');
+  }
+
+  private void writeMap(MessageOrBuilder message, FieldDescriptor field, JsonWriter writer)
+      throws IOException {
+    final Descriptor entryType = field.getMessageType();
+    final FieldDescriptor keyField = entryType.findFieldByName("key");
+    final FieldDescriptor valueField = entryType.findFieldByName("value");
+    writer.write((byte) '{');
+    final int count = message.getRepeatedFieldCount(field);
+    for (int j = 0; j < count; j++) {
+      if (j > 0) {
+        writer.write((byte) ',');
+      }
+      final Message entry = (Message) message.getRepeatedField(field, j);
+      writeKey(keyField, entry.getField(keyField), writer);
+      writer.write((byte) ':');
+      writeValue(valueField, entry.getField(valueField), null, writer);
+    }
+    writer.write((byte) '}');
+  }
+
+  private void writeKey(FieldDescriptor field, Object value, JsonWriter writer)
+      throws IOException {
+    writeValue(field, value, true, null, writer);
+  }
+
+  private void writeValue(FieldDescriptor field, Object value, CompiledFieldMask mask,
+      JsonWriter writer) throws IOException {
+    writeValue(field, value, false, mask, writer);
+  }
+
+  private void writeValue(FieldDescriptor field, Object value, boolean quoted,
+      CompiledFieldMask mask, JsonWriter writer) throws IOException {
+    switch (field.getType()) {
+      case INT32:
+      case SINT32:
+      case SFIXED32:
+        writeNumber(Integer.toString((Integer) value), quoted, writer);
+        break;
+      case INT64:
+      case SINT64:
+      case SFIXED64:
+        writer.writeQuotedAscii(Long.toString((Long) value));
+        break;
+      case UINT32:
+      case FIXED32:
+        writeNumber(Integer.toUnsignedString((Integer) value), quoted, writer);
+        break;
+      case UINT64:
+      case FIXED64:
+        writer.writeQuotedAscii(Long.toUnsignedString((Long) value));
+        break;
+      case BOOL:
+        writeNumber(((Boolean) value) ? "true" : "false", quoted, writer);
+        break;
+      case FLOAT:
+        final Float floatValue = (Float) value;
+        if (floatValue.isNaN() || floatValue.isInfinite()) {
+          writer.writeQuotedAscii(floatValue.toString());
+        } else {
+          writeNumber(floatValue.toString(), quoted, writer);
+        }
+        break;
+      case DOUBLE:
+        final Double doubleValue = (Double) value;
+        if (doubleValue.isNaN() || doubleValue.isInfinite()) {
+          writer.writeQuotedAscii(doubleValue.toString());
+        } else {
+          writeNumber(doubleValue.toString(), quoted, writer);
+        }
+        break;
+      case STRING:
+        writer.writeString((String) value);
+        break;
+      case BYTES:
+        writer.writeQuotedAscii(BaseEncoding.base64().encode(((ByteString) value).toByteArray()));
+        break;
+      case ENUM:
+        final EnumValueDescriptor enumValue = (EnumValueDescriptor) value;
+        if (NULL_VALUE.equals(field.getEnumType().getFullName())) {
+          writeNumber("null", quoted, writer);
+        } else if (enumValue.getIndex() == -1) { // unknown
+          writer.writeAscii(Integer.toString(enumValue.getNumber()));
+        } else {
+          writer.writeString(enumValue.getName());
+        }
+        break;
+      case MESSAGE:
+      case GROUP:
+        this.codecs.codecFor(field.getMessageType()).write((Message) value, mask, writer);
+        break;
+      default:
+        throw new UnsupportedOperationException("no support for " + field.getType());
+    }
+  }
+
+  private static void writeNumber(String number, boolean quoted, JsonWriter writer)
+      throws IOException {
+    if (quoted) {
+      writer.writeQuotedAscii(number);
+    } else {
+      writer.writeAscii(number);
+    }
+  }
+
+  void merge(JsonReader reader, Message.Builder builder) throws IOException {
+    if (this.wellKnown) {
+      PARSER.merge(reader.readRaw(), builder);
+      return;
+    }
+
+    reader.expect('{');
+    if (reader.consume('}')) {
+      return;
+    }
+    do {
+      final String name = reader.readString();
+      reader.expect(':');
+      final FieldDescriptor field = this.fieldsByName.get(name);
+      if (field == null) {
+        throw reader.error("cannot find field " + name + " in message "
+            + this.descriptor.getFullName());
+      }
+      mergeField(field, reader, builder);
+    } while (reader.consume(','));
+    reader.expect('}');
+  }
+
+  /**
+   * Merges the value of the given field, rejecting fields set already, e.g. by both their proto
+   * and JSON name, and a second field of the same oneof, as {@link JsonFormat} does. A
+   * <code>null</code> leaves the field unset, except singular <code>google.protobuf.Value</code>
+   * and <code>google.protobuf.NullValue</code> fields.
+   */
+  private void mergeField(FieldDescriptor field, JsonReader reader, Message.Builder builder)
+      throws IOException {
+    if (field.isRepeated()
+        ? builder.getRepeatedFieldCount(field) > 0
+        : builder.hasField(field)) {
+      throw reader.error("field " + field.getFullName() + " has already been set");
+    }
+    if (reader.peek() == 'n'
+        && (field.isRepeated() || (!isValueType(field) && !isNullValueType(field)))) {
+      reader.consumeNull();
+      return;
+    }
+    final OneofDescriptor oneof = field.getContainingOneof();
+    if (oneof != null && builder.hasOneof(oneof)) {
+      throw reader.error("cannot set field " + field.getFullName() + " because another field "
+          + builder.getOneofFieldDescriptor(oneof).getFullName()
+          + " belonging to the same oneof has already been set");
+    }
+
+    if (field.isMapField()) {
+      mergeMap(field, reader, builder);
+    } else if (field.isRepeated()) {
+      reader.expect('[');
+      if (!reader.consume(']')) {
+        do {
+          builder.addRepeatedField(field, readValue(field, reader, builder));
+        } while (reader.consume(','));
+        reader.expect(']');
+      }
+    } else {
+      builder.setField(field, readValue(field, reader, builder));
+    }
+  }
+
+  private void mergeMap(FieldDescriptor field, JsonReader reader, Message.Builder builder)
+      throws IOException {
+    final Descriptor entryType = field.getMessageType();
+    final FieldDescriptor keyField = entryType.findFieldByName("key");
+    final FieldDescriptor valueField = entryType.findFieldByName("value");
+    reader.expect('{');
+    if (reader.consume('}')) {
+      return;
+    }
+    do {
+      final String key = reader.readString();
+      reader.expect(':');
+      final Message.Builder entry = builder.newBuilderForField(field);
+      entry.setField(keyField, parseScalar(keyField.getType(), key, reader));
+      entry.setField(valueField, readValue(valueField, reader, entry));
+      builder.addRepeatedField(field, entry.build());
+    } while (reader.consume(','));
+    reader.expect('}');
+  }
+
+  private Object readValue(FieldDescriptor field, JsonReader reader, Message.Builder builder)
+      throws IOException {
+    switch (field.getType()) {
+      case MESSAGE:
+      case GROUP:
+        final Message.Builder fieldBuilder = builder.newBuilderForField(field);
+        this.codecs.codecFor(field.getMessageType()).merge(reader, fieldBuilder);
+        return fieldBuilder.build();
+      case ENUM:
+        return parseEnum(field.getEnumType(), reader.readScalar(), reader);
+      default:
+        return parseScalar(field.getType(), reader.readScalar(), reader);
+    }
+  }
+
+  private static boolean isValueType(FieldDescriptor field) {
+    return field.getType() == Type.MESSAGE
+        && "google.protobuf.Value".equals(field.getMessageType().getFullName());
+  }
+
+  private static boolean isNullValueType(FieldDescriptor field) {
+    return field.getType() == Type.ENUM
+        && NULL_VALUE.equals(field.getEnumType().getFullName());
+  }
+
+  private static EnumValueDescriptor parseEnum(EnumDescriptor enumType, String text,
+      JsonReader reader) throws InvalidProtocolBufferException {
+    if ("null".equals(text) && NULL_VALUE.equals(enumType.getFullName())) {
+      return enumType.findValueByNumber(0);
+    }
+    EnumValueDescriptor value = enumType.findValueByName(text);
+    if (value == null) {
+      try {
+        final int number = parseInt32(text);
+        value = enumType.getFile().getSyntax() == Syntax.PROTO3
+            ? enumType.findValueByNumberCreatingIfUnknown(number)
+            : enumType.findValueByNumber(number);
+      } catch (NumberFormatException | ArithmeticException expected) {
+        // neither name nor number
+      }
+    }
+    if (value == null) {
+      throw reader.error("invalid enum value " + text + " for enum type "
+          + enumType.getFullName());
+    }
+
+    return value;
+  }
+
+  private static Object parseScalar(Type type, String text, JsonReader reader)
+      throws InvalidProtocolBufferException {
+    try {
+      switch (type) {
+        case INT32:
+        case SINT32:
+        case SFIXED32:
+          return parseInt32(text);
+        case INT64:
+        case SINT64:
+        case SFIXED64:
+          return parseInt64(text);
+        case UINT32:
+        case FIXED32:
+          final long uint32 = parseInt64(text);
+          if (uint32 < 0 || uint32 > 0xFFFFFFFFL) {
+            throw new ArithmeticException("out of range");
+          }
+          return (int) uint32;
+        case UINT64:
+        case FIXED64:
+          final BigInteger uint64 = new BigDecimal(text).toBigIntegerExact();
+          if (uint64.signum() < 0 || uint64.compareTo(MAX_UINT64) > 0) {
+            throw new ArithmeticException("out of range");
+          }
+          return uint64.longValue();
+        case FLOAT:
+          final double floatValue = parseDouble(text);
+          if (!Double.isInfinite(floatValue) && Math.abs(floatValue)
+              > Float.MAX_VALUE * (1.0 + EPSILON)) {
+            throw new ArithmeticException("out of range");
+          }
+          return (float) floatValue;
+        case DOUBLE:
+          return parseDouble(text);
+        case BOOL:
+          if ("true".equals(text)) {
+            return Boolean.TRUE;
+          }
+          if ("false".equals(text)) {
+            return Boolean.FALSE;
+          }
+          throw new IllegalArgumentException("not a boolean");
+        case STRING:
+          return text;
+        case BYTES:
+          try {
+            return ByteString.copyFrom(BaseEncoding.base64().decode(text));
+          } catch (IllegalArgumentException e) {
+            return ByteString.copyFrom(BaseEncoding.base64Url().decode(text));
+          }
+        default:
+          throw new UnsupportedOperationException("no support for " + type);
+      }
+    } catch (IllegalArgumentException | ArithmeticException e) { // incl. NumberFormatException
+      throw reader.error("invalid " + type + " value " + text);
+    }
+  }
+
+  private static int parseInt32(String text) {
+    try {
+      return Integer.parseInt(text);
+    } catch (NumberFormatException e) {
+      return new BigDecimal(text).intValueExact();
+    }
+  }
+
+  private static long parseInt64(String text) {
+    try {
+      return Long.parseLong(text);
+    } catch (NumberFormatException e) {
+      return new BigDecimal(text).longValueExact();
+    }
+  }
+
+  private static double parseDouble(String text) {
+    switch (text) {
+      case "NaN":
+        return Double.NaN;
+      case "Infinity":
+        return Double.POSITIVE_INFINITY;
+      case "-Infinity":
+        return Double.NEGATIVE_INFINITY;
+      default:
+        final double value = Double.parseDouble(text);
+        if (Double.isInfinite(value)) {
+          throw new ArithmeticException("out of range");
+        }
+        return value;
+    }
+  }
+}
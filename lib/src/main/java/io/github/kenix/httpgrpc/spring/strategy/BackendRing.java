@@ -0,0 +1,151 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import com.google.common.hash.Hashing;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Backend channels selected by rendezvous (highest random weight) hashing of an affinity key with
+ * bounded load: the backend scoring highest for a key is taken unless it already has more than the
+ * load factor times the average in-flight calls, then the next one in score order. Adding or
+ * removing a backend only moves the keys it scores highest for.
+ *
+ * @author zzhao
+ */
+@Slf4j
+public final class BackendRing {
+
+  private final Backend[] backends;
+  private final double loadFactor;
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * Creates channels to the given targets.
+   *
+   * @param targets gRPC targets, e.g. <code>greeter-0.greeter:9898</code>
+   * @param loadFactor maximum in-flight calls of a backend relative to the average, at least 1
+   */
+  public BackendRing(List<String> targets, double loadFactor) {
+    if (targets.isEmpty()) {
+      throw new IllegalArgumentException("no backends");
+    }
+    this.backends = targets.stream().map(Backend::new).toArray(Backend[]::new);
+    this.loadFactor = Math.max(1, loadFactor);
+    log.info("<BackendRing> {}", targets);
+  }
+
+  /**
+   * Selects the backend for the given key hash, the least loaded one for no key, and counts a call
+   * in flight until {@link #release(Backend)}.
+   *
+   * @param keyHash 64-bit hash of the affinity key, null if none
+   * @return selected backend
+   */
+  public Backend acquire(Long keyHash) {
+    final Backend backend = keyHash == null ? leastLoaded() : select(keyHash);
+    backend.inFlight.incrementAndGet();
+    this.inFlight.incrementAndGet();
+    return backend;
+  }
+
+  /**
+   * Counts a call to the given backend done.
+   */
+  public void release(Backend backend) {
+    backend.inFlight.decrementAndGet();
+    this.inFlight.decrementAndGet();
+  }
+
+  private Backend select(long keyHash) {
+    final int n = this.backends.length;
+    final int capacity = (int) Math.ceil(this.loadFactor * (this.inFlight.get() + 1) / n);
+    final long[] scores = new long[n];
+    for (int i = 0; i < n; i++) {
+      scores[i] = mix(keyHash ^ this.backends[i].seed);
+    }
+    // in score order, first one below capacity, the top one if none
+    Backend top = null;
+    for (int round = 0; round < n; round++) {
+      int best = -1;
+      for (int i = 0; i < n; i++) {
+        if (scores[i] != Long.MIN_VALUE && (best < 0 || scores[i] > scores[best])) {
+          best = i;
+        }
+      }
+      final Backend candidate = this.backends[best];
+      if (candidate.inFlight.get() < capacity) {
+        return candidate;
+      }
+      if (top == null) {
+        top = candidate;
+      }
+      scores[best] = Long.MIN_VALUE;
+    }
+    return top;
+  }
+
+  private Backend leastLoaded() {
+    Backend least = this.backends[0];
+    for (final Backend backend : this.backends) {
+      if (backend.inFlight.get() < least.inFlight.get()) {
+        least = backend;
+      }
+    }
+    return least;
+  }
+
+  /**
+   * Finalizer of SplitMix64, spreading bits of the combined key and backend hashes.
+   */
+  private static long mix(long z) {
+    final long z1 = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    final long z2 = (z1 ^ (z1 >>> 27)) * 0x94d049bb133111ebL;
+    final long mixed = z2 ^ (z2 >>> 31);
+    return mixed == Long.MIN_VALUE ? Long.MAX_VALUE : mixed; // MIN_VALUE marks taken
+  }
+
+  /**
+   * Shuts down all backend channels.
+   */
+  public void shutdown() {
+    for (final Backend backend : this.backends) {
+      backend.channel.shutdown();
+    }
+    for (final Backend backend : this.backends) {
+      try {
+        if (!backend.channel.awaitTermination(10, TimeUnit.SECONDS)) {
+          backend.channel.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        log.error("<shutdown> interrupted", e);
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  /**
+   * A backend channel with its calls in flight.
+   */
+  public static final class Backend {
+
+    @Getter
+    private final String target;
+    @Getter
+    private final ManagedChannel channel;
+    private final long seed;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    Backend(String target) {
+      this.target = target;
+      this.channel = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+      this.seed = Hashing.murmur3_128().hashString(target, StandardCharsets.UTF_8).asLong();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Policy of hedging and retrying calls of a gRPC method in routing mode, see
+ * {@link ServerCallStrategyHedging}. Only to be applied to idempotent methods.
+ *
+ * @author zzhao
+ */
+@Getter
+@Setter
+public class CallPolicy {
+
+  /**
+   * Maximum number of attempts per call, including hedged and retried ones.
+   */
+  private int maxAttempts = 2;
+
+  /**
+   * Percentile of recent latencies of the method after which a hedged attempt is sent if no
+   * response yet, 0 for no hedging.
+   */
+  private double hedgeDelayPercentile = 95;
+
+  /**
+   * Minimum delay of hedged attempts in milliseconds.
+   */
+  private long minHedgeDelayMs = 1;
+
+  /**
+   * Retries calls failed with <code>UNAVAILABLE</code>.
+   */
+  private boolean retryOnUnavailable = true;
+
+  /**
+   * Upper bound of the random backoff before the first retry in milliseconds.
+   */
+  private long initialBackoffMs = 10;
+
+  /**
+   * Upper bound of the random backoff of any retry in milliseconds.
+   */
+  private long maxBackoffMs = 1000;
+
+  /**
+   * Factor the upper bound of the backoff grows by with each retry.
+   */
+  private double backoffMultiplier = 2;
+}
@@ -1,20 +1,22 @@
 package io.github.kenix.httpgrpc.spring.strategy;
 
+import io.github.kenix.httpgrpc.spring.TranscoderException;
 import io.grpc.ClientCall.Listener;
 import io.grpc.Metadata;
 import io.grpc.Status;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
 import lombok.Getter;
 
 /**
- * A client call listener for unary server calls.
+ * A client call listener for unary server calls, completing a future with the response message or
+ * the error status.
  *
  * @author zzhao
  */
 @Getter
 class ClientCallOnceListener<T> extends Listener<T> {
 
-  private final CountDownLatch latch = new CountDownLatch(1);
+  private final CompletableFuture<T> future = new CompletableFuture<>();
   private T message;
   private Metadata headers;
   private Status status;
@@ -36,7 +38,11 @@ class ClientCallOnceListener<T> extends Listener<T> {
   public void onClose(Status status, Metadata trailers) {
     this.status = status;
     this.trailers = trailers;
-    this.latch.countDown();
+    if (status.isOk()) {
+      this.future.complete(this.message);
+    } else {
+      this.future.completeExceptionally(new TranscoderException(status, trailers));
+    }
     super.onClose(status, trailers);
   }
 
@@ -0,0 +1,89 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.Status;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A channel making {@link DirectServerCall}s to the given server methods, for calls of any method
+ * type without serialization and network, e.g. streaming calls over WebSocket. Call options are not
+ * applied, calls are cancelled by their clients.
+ *
+ * @author zzhao
+ */
+public final class DirectChannel extends Channel {
+
+  private final Map<String, ServerMethodDefinition<?, ?>> methods;
+
+  /**
+   * Constructs the channel with the given server methods.
+   *
+   * @param methodDefs server method definitions
+   */
+  public DirectChannel(Collection<ServerMethodDefinition<?, ?>> methodDefs) {
+    this.methods = methodDefs.stream().collect(Collectors.toMap(
+        def -> def.getMethodDescriptor().getFullMethodName(), Function.identity()));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(
+      MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+    final ServerMethodDefinition<ReqT, RespT> methodDef = (ServerMethodDefinition<ReqT, RespT>)
+        this.methods.get(methodDescriptor.getFullMethodName());
+    return methodDef == null
+        ? new UnimplementedCall<>(methodDescriptor.getFullMethodName())
+        : new DirectServerCall<>(methodDef).getClientCall();
+  }
+
+  @Override
+  public String authority() {
+    return "localhost";
+  }
+
+  /**
+   * A call of an unknown method, closed with <code>UNIMPLEMENTED</code> when started.
+   */
+  private static final class UnimplementedCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+
+    private final String method;
+
+    UnimplementedCall(String method) {
+      this.method = method;
+    }
+
+    @Override
+    public void start(Listener<RespT> listener, Metadata headers) {
+      listener.onClose(Status.UNIMPLEMENTED.withDescription("method not found: " + this.method),
+          new Metadata());
+    }
+
+    @Override
+    public void request(int numMessages) {
+      // nothing to receive
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {
+      // closed already
+    }
+
+    @Override
+    public void halfClose() {
+      // closed already
+    }
+
+    @Override
+    public void sendMessage(ReqT message) {
+      // dropped
+    }
+  }
+}
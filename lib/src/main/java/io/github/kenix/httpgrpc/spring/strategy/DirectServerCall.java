@@ -1,57 +1,355 @@
 package io.github.kenix.httpgrpc.spring.strategy;
 
+import io.grpc.ClientCall;
+import io.grpc.Context;
+import io.grpc.Context.CancellableContext;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.ServerCall;
+import io.grpc.ServerMethodDefinition;
 import io.grpc.Status;
-import lombok.Getter;
-import lombok.RequiredArgsConstructor;
+import io.grpc.SynchronizationContext;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
 
 /**
- * Simulates a server call.
+ * An in-JVM server call of a server method, paired with the client call driving it: messages are
+ * handed over as is in both directions, no serialization and no network involved. Any method type
+ * is supported.
+ * <p>
+ * Messages are delivered to either side as it requests them, those not requested yet are buffered.
+ * A side is not ready while more than a few of its messages are buffered, and gets
+ * <code>onReady</code> once they are taken. The server closes with its status and trailers
+ * delivered to the client after its remaining messages; cancelling the client call cancels the
+ * server call and its {@link Context}.
+ * </p>
+ * <p>
+ * Callbacks of each side are serialized by its own {@link SynchronizationContext} and run in the
+ * thread triggering them, e.g. a message is received by the server in the thread of the client
+ * sending it if requested already, otherwise in the thread of the server requesting it. Server
+ * callbacks run in the context of the call.
+ * </p>
  *
  * @author zzhao
  */
-@Getter
-@RequiredArgsConstructor
-class DirectServerCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
+@Slf4j
+final class DirectServerCall<ReqT, RespT> extends ServerCall<ReqT, RespT> {
 
-  private final MethodDescriptor<ReqT, RespT> desc;
+  // buffered messages of one side making it not ready
+  private static final int READY_THRESHOLD = 8;
 
-  private RespT message;
+  private final ServerMethodDefinition<ReqT, RespT> methodDef;
+  private final Client client = new Client();
+  private final CancellableContext context = Context.current().withCancellation();
+  private final SynchronizationContext serverSync = new SynchronizationContext((t, e) -> {
+    log.warn("<serverCallback> {} failed", getMethodDescriptor().getFullMethodName(), e);
+    abort(Status.UNKNOWN.withDescription("application error").withCause(e));
+    drain();
+  });
+  private final SynchronizationContext clientSync = new SynchronizationContext((t, e) -> {
+    log.warn("<clientCallback> {} failed", getMethodDescriptor().getFullMethodName(), e);
+    abort(Status.CANCELLED.withDescription("client callback failed").withCause(e));
+    drain();
+  });
 
-  private Metadata headers;
+  // guarded by this
+  private final Deque<ReqT> inbound = new ArrayDeque<>();
+  private final Deque<RespT> outbound = new ArrayDeque<>();
+  private ServerCall.Listener<ReqT> serverListener;
+  private ClientCall.Listener<RespT> clientListener;
+  private int serverDemand;
+  private int clientDemand;
+  private boolean serverBlocked;
+  private boolean clientBlocked;
+  private boolean halfClosed;
+  private boolean halfCloseDelivered;
+  private Status status; // closed by the server, or aborted
+  private Metadata trailers;
+  private boolean closeDelivered;
+  private boolean cancelled;
 
-  private Status status;
+  DirectServerCall(ServerMethodDefinition<ReqT, RespT> methodDef) {
+    this.methodDef = methodDef;
+  }
+
+  /**
+   * Gets the client call driving this server call, to be started once.
+   */
+  ClientCall<ReqT, RespT> getClientCall() {
+    return this.client;
+  }
 
   @Override
   public void request(int numMessages) {
-    // TODO
+    synchronized (this) {
+      this.serverDemand = add(this.serverDemand, numMessages);
+      deliverInbound();
+    }
+    drain();
   }
 
   @Override
   public void sendHeaders(Metadata headers) {
-    this.headers = headers;
+    synchronized (this) {
+      final ClientCall.Listener<RespT> listener = this.clientListener;
+      if (listener != null && this.status == null) {
+        this.clientSync.executeLater(() -> listener.onHeaders(headers));
+      }
+    }
+    drain();
   }
 
   @Override
   public void sendMessage(RespT message) {
-    this.message = message;
+    synchronized (this) {
+      if (this.cancelled) {
+        return;
+      }
+      if (this.status != null) {
+        throw new IllegalStateException("call already closed");
+      }
+      this.outbound.add(message);
+      if (this.outbound.size() >= READY_THRESHOLD) {
+        this.serverBlocked = true;
+      }
+      deliverOutbound();
+    }
+    drain();
   }
 
   @Override
   public void close(Status status, Metadata trailers) {
-    this.status = status;
+    synchronized (this) {
+      if (this.cancelled) {
+        return;
+      }
+      if (this.status != null) {
+        throw new IllegalStateException("call already closed");
+      }
+      this.status = status;
+      this.trailers = trailers;
+      deliverOutbound();
+    }
+    drain();
+  }
+
+  @Override
+  public synchronized boolean isReady() {
+    return this.status == null && this.outbound.size() < READY_THRESHOLD;
   }
 
   @Override
-  public boolean isCancelled() {
-    // TODO cancel if timeout
-    return false;
+  public synchronized boolean isCancelled() {
+    return this.cancelled;
   }
 
   @Override
   public MethodDescriptor<ReqT, RespT> getMethodDescriptor() {
-    return this.desc;
+    return this.methodDef.getMethodDescriptor();
+  }
+
+  /**
+   * Hands requested messages over to the server, followed by half-close, with the lock held.
+   */
+  private void deliverInbound() {
+    if (this.serverListener == null || this.status != null) {
+      return;
+    }
+    while (this.serverDemand > 0 && !this.inbound.isEmpty()) {
+      this.serverDemand--;
+      final ReqT message = this.inbound.poll();
+      this.serverSync.executeLater(() -> runServer(listener -> listener.onMessage(message)));
+    }
+    if (this.halfClosed && this.inbound.isEmpty() && !this.halfCloseDelivered) {
+      this.halfCloseDelivered = true;
+      this.serverSync.executeLater(() -> runServer(ServerCall.Listener::onHalfClose));
+    }
+    if (this.clientBlocked && this.inbound.size() < READY_THRESHOLD) {
+      this.clientBlocked = false;
+      final ClientCall.Listener<RespT> listener = this.clientListener;
+      this.clientSync.executeLater(listener::onReady);
+    }
+  }
+
+  /**
+   * Hands requested messages over to the client, followed by the status once closed, with the
+   * lock held.
+   */
+  private void deliverOutbound() {
+    final ClientCall.Listener<RespT> listener = this.clientListener;
+    if (listener == null || this.closeDelivered) {
+      return;
+    }
+    while (this.clientDemand > 0 && !this.outbound.isEmpty()) {
+      this.clientDemand--;
+      final RespT message = this.outbound.poll();
+      this.clientSync.executeLater(() -> listener.onMessage(message));
+    }
+    if (this.status == null) {
+      if (this.serverBlocked && this.outbound.size() < READY_THRESHOLD) {
+        this.serverBlocked = false;
+        this.serverSync.executeLater(() -> runServer(ServerCall.Listener::onReady));
+      }
+    } else if (this.outbound.isEmpty()) {
+      this.closeDelivered = true;
+      final Status closeStatus = this.status;
+      final Metadata closeTrailers = this.trailers == null ? new Metadata() : this.trailers;
+      this.clientSync.executeLater(() -> listener.onClose(closeStatus, closeTrailers));
+      this.serverSync.executeLater(() -> {
+        runServer(ServerCall.Listener::onComplete);
+        this.context.cancel(null);
+      });
+    }
+  }
+
+  /**
+   * Closes both sides with the given status right away, dropping buffered messages.
+   */
+  private void abort(Status abortStatus) {
+    synchronized (this) {
+      if (this.closeDelivered) {
+        return;
+      }
+      this.closeDelivered = true;
+      this.cancelled = true;
+      this.status = abortStatus;
+      this.inbound.clear();
+      this.outbound.clear();
+      final ClientCall.Listener<RespT> listener = this.clientListener;
+      if (listener != null) {
+        this.clientSync.executeLater(() -> listener.onClose(abortStatus, new Metadata()));
+      }
+      this.serverSync.executeLater(() -> {
+        runServer(ServerCall.Listener::onCancel);
+        this.context.cancel(abortStatus.asRuntimeException());
+      });
+    }
+  }
+
+  private void runServer(Consumer<ServerCall.Listener<ReqT>> callback) {
+    final ServerCall.Listener<ReqT> listener;
+    synchronized (this) {
+      listener = this.serverListener;
+    }
+    if (listener == null) { // closed while starting
+      return;
+    }
+    final Context previous = this.context.attach();
+    try {
+      callback.accept(listener);
+    } finally {
+      this.context.detach(previous);
+    }
+  }
+
+  private ServerCall.Listener<ReqT> startServer(Metadata headers) {
+    final Context previous = this.context.attach();
+    try {
+      return this.methodDef.getServerCallHandler().startCall(this, headers);
+    } finally {
+      this.context.detach(previous);
+    }
+  }
+
+  /**
+   * Runs the callbacks queued, never called with the lock held.
+   */
+  private void drain() {
+    this.serverSync.drain();
+    this.clientSync.drain();
+  }
+
+  private static int add(int demand, int numMessages) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) demand + numMessages);
+  }
+
+  /**
+   * The client side of the call.
+   */
+  private final class Client extends ClientCall<ReqT, RespT> {
+
+    @Override
+    public void start(Listener<RespT> listener, Metadata headers) {
+      synchronized (DirectServerCall.this) {
+        if (clientListener != null) {
+          throw new IllegalStateException("call already started");
+        }
+        clientListener = listener;
+      }
+
+      final ServerCall.Listener<ReqT> started;
+      try {
+        started = startServer(headers);
+      } catch (RuntimeException e) {
+        abort(Status.fromThrowable(e));
+        drain();
+        return;
+      }
+
+      synchronized (DirectServerCall.this) {
+        serverListener = started;
+        if (status == null) {
+          serverSync.executeLater(() -> runServer(ServerCall.Listener::onReady));
+          clientSync.executeLater(listener::onReady);
+        }
+        deliverInbound();
+        deliverOutbound();
+      }
+      drain();
+    }
+
+    @Override
+    public void request(int numMessages) {
+      synchronized (DirectServerCall.this) {
+        clientDemand = add(clientDemand, numMessages);
+        deliverOutbound();
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel(String message, Throwable cause) {
+      abort(Status.CANCELLED.withDescription(message).withCause(cause));
+      drain();
+    }
+
+    @Override
+    public void halfClose() {
+      synchronized (DirectServerCall.this) {
+        if (halfClosed) {
+          throw new IllegalStateException("call already half-closed");
+        }
+        halfClosed = true;
+        deliverInbound();
+      }
+      drain();
+    }
+
+    @Override
+    public void sendMessage(ReqT message) {
+      synchronized (DirectServerCall.this) {
+        if (halfClosed) {
+          throw new IllegalStateException("call already half-closed");
+        }
+        if (status != null) { // closed by the server or cancelled, dropped as gRPC does
+          return;
+        }
+        inbound.add(message);
+        if (inbound.size() >= READY_THRESHOLD) {
+          clientBlocked = true;
+        }
+        deliverInbound();
+      }
+      drain();
+    }
+
+    @Override
+    public boolean isReady() {
+      synchronized (DirectServerCall.this) {
+        return status == null && !halfClosed && inbound.size() < READY_THRESHOLD;
+      }
+    }
   }
 }
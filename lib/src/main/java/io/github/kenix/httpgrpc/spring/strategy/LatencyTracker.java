@@ -0,0 +1,46 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks a percentile of recent call latencies in a ring buffer, recomputed every so many samples.
+ * Samples are written without synchronization, an occasional torn or stale value only skews the
+ * estimate slightly.
+ *
+ * @author zzhao
+ */
+final class LatencyTracker {
+
+  private static final int SIZE = 512;
+  private static final int RECOMPUTE_EVERY = 64;
+
+  private final long[] samples = new long[SIZE];
+  private final AtomicLong count = new AtomicLong();
+  private final double percentile;
+  private volatile long percentileNanos = -1;
+
+  LatencyTracker(double percentile) {
+    this.percentile = percentile;
+  }
+
+  void record(long nanos) {
+    final long n = this.count.getAndIncrement();
+    this.samples[(int) (n % SIZE)] = nanos;
+    if ((n + 1) % RECOMPUTE_EVERY == 0) {
+      final long[] sorted = Arrays.copyOf(this.samples, (int) Math.min(n + 1, SIZE));
+      Arrays.sort(sorted);
+      final int index = (int) Math.ceil(this.percentile / 100 * sorted.length) - 1;
+      this.percentileNanos = sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+  }
+
+  /**
+   * Gets the tracked percentile.
+   *
+   * @return latency in nanoseconds, -1 if not enough samples yet
+   */
+  long getPercentileNanos() {
+    return this.percentileNanos;
+  }
+}
@@ -0,0 +1,62 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket limiting retries and hedged attempts: each one takes a token, each successful call
+ * adds a fraction of a token, up to a maximum. Extra attempts are thus bounded to a ratio of
+ * successful calls and dry up while a backend keeps failing, instead of amplifying an outage.
+ *
+ * @author zzhao
+ */
+public final class RetryBudget {
+
+  private static final long SCALE = 1000; // tokens in thousandths
+
+  private final long maxTokens;
+  private final long tokensPerSuccess;
+  private final AtomicLong tokens;
+
+  /**
+   * Creates a full budget.
+   *
+   * @param maxTokens maximum number of tokens, i.e. extra attempts in a burst
+   * @param tokenRatio tokens added per successful call, e.g. 0.1 for one extra attempt per ten
+   *     successful calls
+   */
+  public RetryBudget(int maxTokens, double tokenRatio) {
+    this.maxTokens = maxTokens * SCALE;
+    this.tokensPerSuccess = Math.round(tokenRatio * SCALE);
+    this.tokens = new AtomicLong(this.maxTokens);
+  }
+
+  /**
+   * Takes a token for an extra attempt if available.
+   *
+   * @return true if the attempt is allowed
+   */
+  public boolean tryAcquire() {
+    while (true) {
+      final long current = this.tokens.get();
+      if (current < SCALE) {
+        return false;
+      }
+      if (this.tokens.compareAndSet(current, current - SCALE)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Adds tokens for a successful call.
+   */
+  public void onSuccess() {
+    while (true) {
+      final long current = this.tokens.get();
+      final long next = Math.min(this.maxTokens, current + this.tokensPerSuccess);
+      if (current == next || this.tokens.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package io.github.kenix.httpgrpc.spring.strategy;
 
 import com.google.protobuf.Message;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A strategy interface for invoking server calls.
@@ -16,4 +17,57 @@ public interface ServerCallStrategy {
    * @return response message
    */
   Message call(Message message);
+
+  /**
+   * Tells whether serialized messages can be passed through as is, see {@link #call(byte[])}.
+   *
+   * @return true if raw calls are supported
+   */
+  default boolean isRawSupported() {
+    return false;
+  }
+
+  /**
+   * Invokes server call with the given serialized request message without parsing it.
+   *
+   * @param message serialized request message
+   * @return serialized response message
+   */
+  default byte[] call(byte[] message) {
+    throw new UnsupportedOperationException("no support for raw calls");
+  }
+
+  /**
+   * Invokes server call with the given request message without waiting for the response, by
+   * default calling {@link #call(Message)} in the calling thread.
+   *
+   * @param message request message
+   * @return future of the response message
+   */
+  default CompletableFuture<Message> callAsync(Message message) {
+    final CompletableFuture<Message> future = new CompletableFuture<>();
+    try {
+      future.complete(call(message));
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Invokes server call with the given serialized request message without waiting for the
+   * response, by default calling {@link #call(byte[])} in the calling thread.
+   *
+   * @param message serialized request message
+   * @return future of the serialized response message
+   */
+  default CompletableFuture<byte[]> callAsync(byte[] message) {
+    final CompletableFuture<byte[]> future = new CompletableFuture<>();
+    try {
+      future.complete(call(message));
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
 }
@@ -0,0 +1,143 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import static io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyLocalRouting.await;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor.JavaType;
+import com.google.protobuf.Message;
+import io.github.kenix.httpgrpc.spring.strategy.BackendRing.Backend;
+import io.grpc.MethodDescriptor;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * A server call strategy routing calls to backends of a {@link BackendRing} by an affinity key, a
+ * field of the request message, so that requests of the same key land on the same backend and
+ * benefit from its caches. Requests without a key, or of methods without an affinity key, go to the
+ * least loaded backend.
+ * <p>
+ * The key is the value of the scalar, string, bytes or enum field at the configured path, e.g.
+ * <code>user.id</code>, resolved to field descriptors once; message fields are not keys as their
+ * serialization is not deterministic, e.g. of maps. Request messages have to be parsed to get the
+ * key, so raw calls are not supported.
+ * </p>
+ *
+ * @author zzhao
+ */
+public class ServerCallStrategyAffinity implements ServerCallStrategy {
+
+  private static final Pattern DOT = Pattern.compile("\\.");
+  private static final HashFunction HASH = Hashing.murmur3_128();
+
+  private final BackendRing ring;
+  private final MethodDescriptor<Message, Message> methodDescriptor;
+  private final List<FieldDescriptor> keyPath;
+
+  /**
+   * Constructs the strategy using given parameters.
+   *
+   * @param ring backends
+   * @param methodDescriptor descriptor of the call
+   * @param keyPath fields from the request message to the affinity key, empty if none
+   */
+  public ServerCallStrategyAffinity(BackendRing ring,
+      MethodDescriptor<Message, Message> methodDescriptor, List<FieldDescriptor> keyPath) {
+    this.ring = ring;
+    this.methodDescriptor = methodDescriptor;
+    this.keyPath = keyPath;
+  }
+
+  /**
+   * Resolves the given field path, names separated by dots, in the given message type.
+   *
+   * @param type request message type
+   * @param path field path, none if null or empty
+   * @return fields from the request message to the key field
+   * @throws IllegalArgumentException if a field is not found, repeated, or a map, a field other
+   *     than the last one is not a message, or the last one is
+   */
+  public static List<FieldDescriptor> resolveKeyPath(Descriptor type, String path) {
+    if (path == null || path.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final List<FieldDescriptor> fields = new ArrayList<>();
+    Descriptor current = type;
+    for (final String name : DOT.split(path)) {
+      if (current == null) {
+        throw new IllegalArgumentException("not a message field before " + name + " in " + path);
+      }
+      final FieldDescriptor field = current.findFieldByName(name);
+      if (field == null || field.isRepeated()) {
+        throw new IllegalArgumentException(
+            "no singular field " + name + " in " + current.getFullName());
+      }
+      fields.add(field);
+      current = field.getJavaType() == JavaType.MESSAGE ? field.getMessageType() : null;
+    }
+    if (current != null) {
+      throw new IllegalArgumentException("message field as key " + path);
+    }
+    return Collections.unmodifiableList(fields);
+  }
+
+  @Override
+  public Message call(Message message) {
+    return await(callAsync(message));
+  }
+
+  @Override
+  public CompletableFuture<Message> callAsync(Message message) {
+    final Backend backend = this.ring.acquire(keyHash(message));
+    final CompletableFuture<Message> future = ServerCallStrategyLocalRouting.invoke(
+        backend.getChannel(), this.methodDescriptor, message);
+    future.whenComplete((resp, t) -> this.ring.release(backend));
+    return future;
+  }
+
+  /**
+   * Hashes the affinity key of the given request message.
+   *
+   * @return hash of the key, null if none or not set
+   */
+  Long keyHash(Message message) {
+    if (this.keyPath.isEmpty()) {
+      return null;
+    }
+
+    Message current = message;
+    final int last = this.keyPath.size() - 1;
+    for (int i = 0; i < last; i++) {
+      final FieldDescriptor field = this.keyPath.get(i);
+      if (!current.hasField(field)) {
+        return null;
+      }
+      current = (Message) current.getField(field);
+    }
+
+    final FieldDescriptor field = this.keyPath.get(last);
+    if (!current.hasField(field)) { // also for default values of proto3 scalars
+      return null;
+    }
+    final Object value = current.getField(field);
+    if (value instanceof String) {
+      return HASH.hashString((String) value, StandardCharsets.UTF_8).asLong();
+    }
+    if (value instanceof ByteString) {
+      return HASH.hashBytes(((ByteString) value).toByteArray()).asLong();
+    }
+    if (value instanceof EnumValueDescriptor) {
+      return HASH.hashInt(((EnumValueDescriptor) value).getNumber()).asLong();
+    }
+    return HASH.hashString(String.valueOf(value), StandardCharsets.UTF_8).asLong();
+  }
+}
@@ -1,14 +1,17 @@
 package io.github.kenix.httpgrpc.spring.strategy;
 
 import com.google.protobuf.Message;
-import io.grpc.Metadata;
-import io.grpc.ServerCall.Listener;
-import io.grpc.ServerCallHandler;
 import io.grpc.ServerMethodDefinition;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
 
 /**
- * A server call strategy using direct server call.
+ * A server call strategy using direct server call, see {@link DirectServerCall}. The call runs in
+ * the calling thread as long as the service completes it there. Like any in-process method call,
+ * it has no deadline: it is bounded by the service, or by the timeout of non-blocking requests
+ * cancelling it.
  *
  * @author zzhao
  */
@@ -17,21 +20,32 @@ public class ServerCallStrategyDirect implements ServerCallStrategy {
 
   private final ServerMethodDefinition<?, ?> methodDef;
 
-  @SuppressWarnings({"rawtypes", "unchecked"})
+  @SneakyThrows
   @Override
   public Message call(Message message) {
-    final ServerCallHandler<?, ?> callHandler = this.methodDef.getServerCallHandler();
-    final DirectServerCall call = new DirectServerCall(this.methodDef.getMethodDescriptor());
-    final Listener listener = callHandler.startCall(call, new Metadata());
-
-    listener.onMessage(message);
-    listener.onHalfClose();
-    listener.onComplete();
-
-    if (call.getStatus().isOk()) {
-      return (Message) call.getMessage();
-    } else {
-      throw call.getStatus().asRuntimeException();
+    final CompletableFuture<Message> future = callAsync(message);
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      future.cancel(false);
+      throw e;
     }
   }
+
+  /**
+   * Invokes server call with the given request message, completed in the calling thread unless
+   * the service completes it later in another thread. Cancelling the returned future cancels the
+   * call.
+   *
+   * @param message request message
+   * @return future of the response message
+   */
+  @SuppressWarnings({"rawtypes", "unchecked"})
+  @Override
+  public CompletableFuture<Message> callAsync(Message message) {
+    return ServerCallStrategyLocalRouting.invoke(
+        new DirectServerCall(this.methodDef).getClientCall(), message);
+  }
 }
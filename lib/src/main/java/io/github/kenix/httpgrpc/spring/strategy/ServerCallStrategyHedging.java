@@ -0,0 +1,239 @@
+package io.github.kenix.httpgrpc.spring.strategy;
+
+import static io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyLocalRouting.DEADLINE_SECONDS;
+import static io.github.kenix.httpgrpc.spring.strategy.ServerCallStrategyLocalRouting.await;
+
+import com.google.protobuf.Message;
+import io.grpc.Context;
+import io.grpc.Context.CancellableContext;
+import io.grpc.Deadline;
+import io.grpc.Status;
+import io.grpc.Status.Code;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A server call strategy decorating a routing one, e.g. {@link ServerCallStrategyLocalRouting},
+ * with hedging and retries following a {@link CallPolicy}, for idempotent methods only.
+ * <p>
+ * If no response arrives within the configured percentile of recent latencies of the method, a
+ * hedged attempt is sent and the first response wins, the others get cancelled. Attempts failed
+ * with <code>UNAVAILABLE</code> are retried after an exponential backoff with full jitter. Both
+ * hedged and retried attempts take a token from a shared {@link RetryBudget}, none are made while
+ * it is exhausted. All attempts of a call share one deadline, set when the call starts, as the
+ * deadline of the gRPC context they are made in.
+ * </p>
+ *
+ * @author zzhao
+ */
+public class ServerCallStrategyHedging implements ServerCallStrategy {
+
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final ServerCallStrategy delegate;
+  private final CallPolicy policy;
+  private final RetryBudget budget;
+  private final ScheduledExecutorService scheduler;
+  private final LatencyTracker latencyTracker;
+
+  /**
+   * Constructs the strategy using given parameters.
+   *
+   * @param delegate strategy making the attempts
+   * @param policy hedging and retry policy of the method
+   * @param budget retry budget, usually shared by all methods
+   * @param scheduler scheduler of hedged and retried attempts
+   */
+  public ServerCallStrategyHedging(ServerCallStrategy delegate, CallPolicy policy,
+      RetryBudget budget, ScheduledExecutorService scheduler) {
+    this.delegate = delegate;
+    this.policy = policy;
+    this.budget = budget;
+    this.scheduler = scheduler;
+    this.latencyTracker = new LatencyTracker(policy.getHedgeDelayPercentile());
+  }
+
+  @Override
+  public Message call(Message message) {
+    return await(callAsync(message));
+  }
+
+  @Override
+  public CompletableFuture<Message> callAsync(Message message) {
+    return new Execution<>(() -> this.delegate.callAsync(message)).start();
+  }
+
+  @Override
+  public boolean isRawSupported() {
+    return this.delegate.isRawSupported();
+  }
+
+  @Override
+  public byte[] call(byte[] message) {
+    return await(callAsync(message));
+  }
+
+  @Override
+  public CompletableFuture<byte[]> callAsync(byte[] message) {
+    return new Execution<>(() -> this.delegate.callAsync(message)).start();
+  }
+
+  private long getHedgeDelayNanos() {
+    if (this.policy.getHedgeDelayPercentile() <= 0 || this.policy.getMaxAttempts() < 2) {
+      return -1;
+    }
+    final long percentileNanos = this.latencyTracker.getPercentileNanos();
+    if (percentileNanos < 0) { // not enough samples yet
+      return -1;
+    }
+    return Math.max(percentileNanos,
+        TimeUnit.MILLISECONDS.toNanos(this.policy.getMinHedgeDelayMs()));
+  }
+
+  /**
+   * Gets the backoff of the given retry: uniformly random up to the initial backoff multiplied for
+   * each retry before, capped at the maximum backoff.
+   */
+  private long getBackoffNanos(int retry) {
+    final double ceilingMs = Math.min(this.policy.getMaxBackoffMs(),
+        this.policy.getInitialBackoffMs()
+            * Math.pow(this.policy.getBackoffMultiplier(), retry - 1));
+    return (long) (ThreadLocalRandom.current().nextDouble() * ceilingMs * NANOS_PER_MILLI);
+  }
+
+  private boolean isRetryable(Throwable t) {
+    return this.policy.isRetryOnUnavailable()
+        && Status.fromThrowable(t).getCode() == Code.UNAVAILABLE;
+  }
+
+  /**
+   * Attempts of a single call.
+   */
+  private final class Execution<T> {
+
+    private final Supplier<CompletableFuture<T>> attempt;
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final CancellableContext context = Context.current().withDeadline(
+        Deadline.after(DEADLINE_SECONDS, TimeUnit.SECONDS), scheduler);
+    // guarded by this
+    private final List<CompletableFuture<T>> attempts = new ArrayList<>(2);
+    private int started; // attempts made or scheduled
+    private int outstanding; // attempts in flight or scheduled
+    private int retries;
+    private ScheduledFuture<?> hedge;
+    private ScheduledFuture<?> retry;
+
+    Execution(Supplier<CompletableFuture<T>> attempt) {
+      this.attempt = attempt;
+    }
+
+    CompletableFuture<T> start() {
+      synchronized (this) {
+        this.started = 1;
+        this.outstanding = 1;
+      }
+      fire();
+      final long hedgeDelayNanos = getHedgeDelayNanos();
+      if (hedgeDelayNanos > 0) {
+        synchronized (this) {
+          this.hedge = scheduler.schedule(this::fireHedge, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+      this.result.whenComplete((resp, t) -> {
+        cancel();
+        this.context.cancel(null);
+      });
+      return this.result;
+    }
+
+    private void fireHedge() {
+      synchronized (this) {
+        if (this.result.isDone() || this.started >= policy.getMaxAttempts()
+            || !budget.tryAcquire()) {
+          return;
+        }
+        this.started++;
+        this.outstanding++;
+      }
+      fire();
+    }
+
+    private void fire() {
+      final long start = System.nanoTime();
+      final CompletableFuture<T> future;
+      synchronized (this) {
+        if (this.result.isDone()) {
+          return;
+        }
+        future = makeAttempt();
+        this.attempts.add(future);
+      }
+      future.whenComplete((resp, t) -> onComplete(start, resp, t));
+    }
+
+    /**
+     * Makes an attempt in the context of the call deadline, failed if it throws, e.g. as fired by
+     * the scheduler, which would swallow the exception.
+     */
+    private CompletableFuture<T> makeAttempt() {
+      final Context previous = this.context.attach();
+      try {
+        return this.attempt.get();
+      } catch (RuntimeException e) {
+        final CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      } finally {
+        this.context.detach(previous);
+      }
+    }
+
+    private void onComplete(long start, T resp, Throwable t) {
+      if (t == null) {
+        if (this.result.complete(resp)) {
+          latencyTracker.record(System.nanoTime() - start);
+          budget.onSuccess();
+        }
+        return;
+      }
+
+      synchronized (this) {
+        this.outstanding--;
+        if (this.result.isDone()) {
+          return;
+        }
+        if (!isRetryable(t) || this.started >= policy.getMaxAttempts()
+            || !budget.tryAcquire()) {
+          if (this.outstanding == 0) {
+            this.result.completeExceptionally(t);
+          }
+          return;
+        }
+        this.started++;
+        this.outstanding++;
+        final long backoffNanos = getBackoffNanos(++this.retries);
+        if (backoffNanos > 0) {
+          this.retry = scheduler.schedule(this::fire, backoffNanos, TimeUnit.NANOSECONDS);
+          return;
+        }
+      }
+      fire();
+    }
+
+    private synchronized void cancel() {
+      if (this.hedge != null) {
+        this.hedge.cancel(false);
+      }
+      if (this.retry != null) {
+        this.retry.cancel(false);
+      }
+      this.attempts.forEach(future -> future.cancel(false));
+    }
+  }
+}
@@ -1,13 +1,18 @@
 package io.github.kenix.httpgrpc.spring.strategy;
 
 import com.google.protobuf.Message;
+import io.github.kenix.httpgrpc.spring.TranscoderException;
 import io.grpc.CallOptions;
+import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 import io.grpc.Status;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
 
@@ -19,27 +24,95 @@ import lombok.SneakyThrows;
 @RequiredArgsConstructor
 public class ServerCallStrategyLocalRouting implements ServerCallStrategy {
 
+  static final long DEADLINE_SECONDS = 2;
+
   private final ManagedChannel managedChannel;
 
   private final MethodDescriptor<Message, Message> methodDescriptor;
 
-  @SneakyThrows
+  private final MethodDescriptor<byte[], byte[]> rawMethodDescriptor;
+
   @Override
   public Message call(Message message) {
-    final ClientCall<Message, Message> clientCall =
-        this.managedChannel.newCall(this.methodDescriptor, CallOptions.DEFAULT);
-    final ClientCallOnceListener<Message> listener = new ClientCallOnceListener<>();
+    return await(callAsync(message));
+  }
+
+  @Override
+  public boolean isRawSupported() {
+    return true;
+  }
+
+  @Override
+  public byte[] call(byte[] message) {
+    return await(callAsync(message));
+  }
+
+  /**
+   * Invokes server call with the given request message asynchronously. Cancelling the returned
+   * future cancels the call.
+   *
+   * @param message request message
+   * @return future of the response message
+   */
+  @Override
+  public CompletableFuture<Message> callAsync(Message message) {
+    return invoke(this.managedChannel, this.methodDescriptor, message);
+  }
+
+  /**
+   * Invokes server call with the given serialized request message asynchronously.
+   *
+   * @param message serialized request message
+   * @return future of the serialized response message
+   */
+  @Override
+  public CompletableFuture<byte[]> callAsync(byte[] message) {
+    return invoke(this.managedChannel, this.rawMethodDescriptor, message);
+  }
+
+  /**
+   * Invokes a unary call on the given channel with the call deadline. Cancelling the returned
+   * future cancels the call.
+   */
+  static <ReqT, RespT> CompletableFuture<RespT> invoke(Channel channel,
+      MethodDescriptor<ReqT, RespT> desc, ReqT message) {
+    return invoke(channel.newCall(desc,
+        CallOptions.DEFAULT.withDeadlineAfter(DEADLINE_SECONDS, TimeUnit.SECONDS)), message);
+  }
+
+  /**
+   * Invokes the given unary call. Cancelling the returned future cancels the call.
+   */
+  static <ReqT, RespT> CompletableFuture<RespT> invoke(ClientCall<ReqT, RespT> clientCall,
+      ReqT message) {
+    final ClientCallOnceListener<RespT> listener = new ClientCallOnceListener<>();
+    final CompletableFuture<RespT> future = listener.getFuture();
+    future.whenComplete((resp, t) -> {
+      if (future.isCancelled()) {
+        clientCall.cancel("cancelled", null);
+      }
+    });
     clientCall.start(listener, new Metadata());
     clientCall.sendMessage(message);
     clientCall.halfClose();
     clientCall.request(1);
 
-    listener.getLatch().await(2, TimeUnit.SECONDS);
-    final Status status = listener.getStatus();
-    if (status.isOk()) {
-      return listener.getMessage();
-    } else {
-      throw status.asRuntimeException();
+    return future;
+  }
+
+  /**
+   * Waits for the given future of a call, cancelling it if not completed within the deadline.
+   */
+  @SneakyThrows
+  static <T> T await(CompletableFuture<T> future) {
+    try {
+      // the call deadline applies already, a bit of slack here
+      return future.get(DEADLINE_SECONDS * 1000 + 100, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(false);
+      throw new TranscoderException(Status.DEADLINE_EXCEEDED);
+    } catch (ExecutionException e) {
+      throw e.getCause();
     }
   }
 }
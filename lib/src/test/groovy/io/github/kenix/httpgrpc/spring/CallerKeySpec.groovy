@@ -0,0 +1,47 @@
+package io.github.kenix.httpgrpc.spring
+
+import java.security.Principal
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.web.servlet.HandlerMapping
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * @author zzhao
+ */
+class CallerKeySpec extends Specification {
+
+  @Unroll
+  def 'extracts #spec'() {
+    given:
+    def req = new MockHttpServletRequest(remoteAddr: '10.0.0.1')
+    req.addHeader('X-Api-Key', 'k')
+    req.addParameter('q', 'p')
+    req.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, [name: 'v'])
+    req.setUserPrincipal({ 'alice' } as Principal)
+
+    expect:
+    new CallerKey(spec).of(req) == expected
+    new CallerKey(spec).of(new MockHttpServletRequest(remoteAddr: null)) == CallerKey.NONE
+
+    where:
+    spec               | expected
+    'ip'               | '10.0.0.1'
+    'principal'        | 'alice'
+    'header:X-Api-Key' | 'k'
+    'field:name'       | 'v'
+    'field:q'          | 'p'
+  }
+
+  @Unroll
+  def 'rejects #spec'() {
+    when:
+    new CallerKey(spec)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    spec << [null, '', 'host', 'cookie:a']
+  }
+}
@@ -0,0 +1,92 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.attribute.FileTime
+import java.time.Duration
+import spock.lang.Specification
+import spock.lang.Unroll
+import spock.util.concurrent.BlockingVariable
+
+/**
+ * @author zzhao
+ */
+class DescriptorSetWatcherSpec extends Specification {
+
+  Path dir = Files.createTempDirectory('descriptor-set')
+  Path descriptorSet = dir.resolve('api.pb')
+  def mapper = Mock(HttpGrpcMapper)
+  def grpcServerDesc = Stub(GrpcServerDescriptor) {
+    getFileDescriptors() >> []
+  }
+  def watcher = new DescriptorSetWatcher(mapper, grpcServerDesc, descriptorSet,
+      Duration.ofMillis(20))
+
+  def cleanup() {
+    watcher.destroy()
+    dir.toFile().deleteDir()
+  }
+
+  def 'reloads once the descriptor set appears or changes'() {
+    given:
+    def reloaded = new BlockingVariable<List>(5)
+    mapper.reload(_) >> { reloaded.set(it[0]) }
+    watcher.afterPropertiesSet()
+
+    when:
+    write(new SyntheticApi(services: 2), 1000)
+
+    then:
+    reloaded.get()*.name == ['synthetic/s0.proto', 'synthetic/s1.proto']
+
+    when:
+    reloaded = new BlockingVariable<List>(5)
+    write(new SyntheticApi(services: 1), 2000)
+
+    then:
+    reloaded.get()*.name == ['synthetic/s0.proto']
+  }
+
+  @Unroll
+  def 'keeps watching after #description descriptor set'() {
+    given:
+    def reloaded = new BlockingVariable<List>(5)
+    def reloads = []
+    mapper.reload(_) >> {
+      reloads << it[0]
+      reloaded.set(it[0])
+    }
+    watcher.afterPropertiesSet()
+
+    when:
+    descriptorSet.toFile().bytes = bytes as byte[]
+    Files.setLastModifiedTime(descriptorSet, FileTime.fromMillis(1000))
+    Thread.sleep(100)
+    write(new SyntheticApi(services: 1), 2000)
+
+    then:
+    reloaded.get()*.name == ['synthetic/s0.proto']
+    reloads.size() == 1
+
+    where:
+    description         | bytes
+    'a truncated'       | [0x0a, 0x7f]
+    'an empty'          | []
+    'a service-less'    | FileDescriptorSet.newBuilder()
+        .addFile(FileDescriptorProto.newBuilder().setName('a.proto')).build().toByteArray()
+  }
+
+  private void write(SyntheticApi api, long modifiedMillis) {
+    def tmp = dir.resolve('api.tmp')
+    tmp.toFile().bytes = FileDescriptorSet.newBuilder()
+        .addAllFile(api.build()*.toProto())
+        .build()
+        .toByteArray()
+    Files.setLastModifiedTime(tmp, FileTime.fromMillis(modifiedMillis))
+    Files.move(tmp, descriptorSet, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE)
+  }
+}
@@ -0,0 +1,66 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.api.HttpBody
+import com.google.protobuf.ByteString
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class HttpBodiesSpec extends Specification {
+
+  def 'reads bodies of known and unknown length'() {
+    expect:
+    HttpBodies.read(request('abc'.bytes, length), 3) == ByteString.copyFromUtf8('abc')
+
+    where:
+    length << [3L, -1L]
+  }
+
+  def 'rejects bodies shorter than their content length'() {
+    when:
+    HttpBodies.read(request('abc'.bytes, 1024), 1 << 20)
+
+    then:
+    def e = thrown(TranscoderException)
+    e.getError() == TranscoderError.INCOMPLETE_BODY
+  }
+
+  def 'rejects bodies too large'() {
+    when:
+    HttpBodies.read(request(new byte[5], length), 4)
+
+    then:
+    def e = thrown(TranscoderException)
+    e.getError() == TranscoderError.PAYLOAD_TOO_LARGE
+
+    where:
+    length << [5L, -1L]
+  }
+
+  def 'sets and encodes bodies'() {
+    given:
+    def builder = HttpBody.newBuilder()
+
+    when:
+    HttpBodies.set(builder, 'text/plain', ByteString.copyFromUtf8('hi'))
+    def encoded = HttpBodies.encode(builder)
+
+    then:
+    encoded.contentType == 'text/plain'
+    encoded.body.toStringUtf8() == 'hi'
+    HttpBodies.encode(HttpBody.getDefaultInstance()).contentType == 'application/octet-stream'
+  }
+
+  private static MockHttpServletRequest request(byte[] content, long length) {
+    def req = new MockHttpServletRequest('POST', '/') {
+      @Override
+      long getContentLengthLong() {
+        length
+      }
+    }
+    req.content = content
+    req
+  }
+}
@@ -0,0 +1,66 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.Descriptors.FileDescriptor
+import org.springframework.context.event.ContextRefreshedEvent
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.mock.web.MockServletContext
+import org.springframework.web.context.support.GenericWebApplicationContext
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping
+
+/**
+ * Maps the gRPC services of the given file descriptors with {@link HttpGrpcMapper} in a web
+ * application context without gRPC server, descriptors only unless another
+ * {@link GrpcServerDescriptor} is given.
+ *
+ * @author zzhao
+ */
+class MapperFixture {
+
+  final GenericWebApplicationContext appCtx
+  final HttpGrpcMapper mapper
+  final RequestMappingHandlerMapping mapping
+
+  MapperFixture(List<FileDescriptor> fileDescriptors, HttpGrpcSettings settings = null,
+      GrpcServerDescriptor grpcServerDesc = null, HttpGrpcMapper mapper = new HttpGrpcMapper()) {
+    this.mapper = mapper
+    this.appCtx = new GenericWebApplicationContext(new MockServletContext())
+    this.appCtx.registerBean(RequestMappingHandlerMapping, new Object[0])
+    this.appCtx.registerBean(GrpcServerDescriptor, {
+      grpcServerDesc ?: new GrpcServerDescriptor() {
+
+        List<FileDescriptor> getFileDescriptors() {
+          fileDescriptors
+        }
+
+        boolean isDescriptorOnly() {
+          true
+        }
+
+        int getPort() {
+          9 // never called
+        }
+      }
+    })
+    if (settings != null) {
+      this.appCtx.registerBean(HttpGrpcSettings, { settings })
+    }
+    this.appCtx.refresh()
+
+    this.mapper.setApplicationContext(this.appCtx)
+    this.mapper.map(new ContextRefreshedEvent(this.appCtx))
+    this.mapping = this.appCtx.getBean(RequestMappingHandlerMapping)
+  }
+
+  /**
+   * Gets the current handler of the route matching the given request, null if none.
+   */
+  Object handlerOf(String method, String path) {
+    def chain = this.mapping.getHandler(new MockHttpServletRequest(method, path))
+    chain == null ? null : ((RouteHandler) chain.handler.bean).getHandler()
+  }
+
+  void close() {
+    this.mapper.destroy()
+    this.appCtx.close()
+  }
+}
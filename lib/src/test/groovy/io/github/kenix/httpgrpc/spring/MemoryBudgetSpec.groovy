@@ -0,0 +1,137 @@
+package io.github.kenix.httpgrpc.spring
+
+import javax.servlet.AsyncEvent
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class MemoryBudgetSpec extends Specification {
+
+  def budget = new MemoryBudget(100)
+
+  def 'reserves without queueing while in budget'() {
+    when:
+    def first = budget.reserve(40, 20, 0)
+    def second = budget.reserveAsync(30, 10)
+
+    then:
+    first != null
+    second.isDone()
+    budget.getReservedBytes() == 100
+    budget.getQueuedCount() == 0
+
+    when:
+    first.release()
+    first.release()
+    second.join().release()
+
+    then:
+    budget.getReservedBytes() == 0
+  }
+
+  def 'admits a request larger than the budget while nothing else is reserved'() {
+    expect:
+    budget.reserve(500, 0, 0) != null
+    budget.reserve(1, 0, 0) == null
+  }
+
+  def 'queues reservations in arrival order until released'() {
+    given:
+    def held = budget.reserve(90, 0, 0)
+
+    when:
+    def large = budget.reserveAsync(50, 0)
+    def small = budget.reserveAsync(5, 0)
+
+    then: 'the small one waits behind the large one although it would fit'
+    !large.isDone()
+    !small.isDone()
+    budget.getQueuedCount() == 2
+
+    when:
+    held.release()
+
+    then:
+    large.isDone()
+    small.isDone()
+    budget.getReservedBytes() == 55
+  }
+
+  def 'sheds reservations not granted in time'() {
+    given:
+    def held = budget.reserve(90, 0, 0)
+
+    when:
+    def shed = budget.reserve(50, 0, 20)
+    def queued = budget.reserveAsync(60, 0)
+    def small = budget.reserveAsync(5, 0)
+
+    then:
+    shed == null
+    !small.isDone()
+
+    when: 'the head is shed'
+    def shedQueued = budget.shed(queued)
+
+    then: 'the ones behind get granted'
+    shedQueued == null
+    small.isDone()
+    budget.getShedCount() == 2
+
+    when:
+    held.release()
+    small.join().release()
+
+    then:
+    budget.getReservedBytes() == 0
+  }
+
+  def 'returns reservations granted before being shed'() {
+    given:
+    def held = budget.reserve(90, 0, 0)
+    def queued = budget.reserveAsync(50, 0)
+    held.release()
+
+    expect:
+    budget.shed(queued) == queued.join()
+    budget.getShedCount() == 0
+  }
+
+  def 'grows reservations by bodies read, shedding beyond the budget'() {
+    given:
+    def unknown = budget.reserve(0, 10, 0)
+    def other = budget.reserve(0, 10, 0)
+
+    expect:
+    unknown.bodyRead(50)
+    budget.getReservedBytes() == 70
+    !other.bodyRead(50)
+    budget.getReservedBytes() == 70
+    budget.getShedCount() == 1
+
+    when:
+    unknown.release()
+
+    then: 'alone it may exceed the budget'
+    other.bodyRead(200)
+    budget.getReservedBytes() == 210
+  }
+
+  def 'releases on async completion'() {
+    given:
+    def reservation = budget.reserve(40, 0, 0)
+
+    when:
+    reservation.onTimeout(Mock(AsyncEvent))
+
+    then:
+    budget.getReservedBytes() == 40
+
+    when:
+    reservation.onComplete(Mock(AsyncEvent))
+
+    then:
+    budget.getReservedBytes() == 0
+  }
+}
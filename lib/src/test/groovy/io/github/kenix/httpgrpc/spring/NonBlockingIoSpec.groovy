@@ -0,0 +1,346 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.protobuf.Descriptors
+import com.google.protobuf.Descriptors.FileDescriptor
+import com.google.protobuf.DynamicMessage
+import io.grpc.MethodDescriptor
+import io.grpc.Server
+import io.grpc.ServerBuilder
+import io.grpc.ServerMethodDefinition
+import io.grpc.ServerServiceDefinition
+import io.grpc.protobuf.ProtoUtils
+import io.grpc.stub.ServerCalls
+import io.grpc.stub.StreamObserver
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.SpringBootConfiguration
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration
+import org.springframework.boot.context.properties.ConfigurationProperties
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.web.client.TestRestTemplate
+import org.springframework.boot.web.server.LocalServerPort
+import org.springframework.context.annotation.Bean
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpMethod
+import org.springframework.http.MediaType
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.web.method.HandlerMethod
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+/**
+ * Non-blocking I/O against embedded Tomcat, transcoding descriptors only to a gRPC server of the
+ * synthetic API.
+ *
+ * @author zzhao
+ */
+@SpringBootTest(classes = Config, webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = [
+        'http-grpc.non-blocking-io=true',
+        'http-grpc.non-blocking-timeout-ms=500',
+        'http-grpc.max-request-body-bytes=1024',
+        'http-grpc.memory-budget-bytes=1048576',
+        'http-grpc.memory-budget-wait-ms=1000',
+        // routes are mapped by ant-style patterns, the default until Spring Boot 2.6
+        'spring.mvc.pathmatch.matching-strategy=ant_path_matcher',
+    ])
+class NonBlockingIoSpec extends Specification {
+
+  static final SyntheticApi API = new SyntheticApi(services: 1, methodsPerService: 1)
+  static final String GET_PATH = API.path(0, 0).replace('/v0', '')
+  static final String POST_PATH = "$GET_PATH/b0".toString()
+  static final int LARGE_LENGTH = 100_000
+
+  @LocalServerPort
+  int port
+
+  @Autowired
+  TestRestTemplate restTemplate
+
+  @Autowired
+  HttpGrpcMapper mapper
+
+  @Autowired
+  Records records
+
+  def conditions = new PollingConditions(timeout: 5)
+
+  def setup() {
+    records.records.clear()
+  }
+
+  def 'writes large responses in chunks'() {
+    when:
+    def resp = restTemplate.getForEntity("$GET_PATH/large".toString(), String)
+
+    then:
+    resp.statusCodeValue == 200
+    new ObjectMapper().readTree(resp.body).path('message').asText().length() == LARGE_LENGTH
+
+    and: 'recorded once written'
+    def record = records.records.poll(5, TimeUnit.SECONDS)
+    record.status == 200
+    record.responseBytes == resp.body.getBytes(StandardCharsets.UTF_8).length
+    released()
+  }
+
+  def 'reads request bodies, releasing buffer and reservation'() {
+    given:
+    def pooled = bufferPool().getPooledCount()
+
+    when:
+    def resp = post("$POST_PATH/x", '{"f1":"y"}')
+
+    then:
+    resp.statusCodeValue == 200
+    new ObjectMapper().readTree(resp.body).path('message').asText() == 'xy'
+    records.records.poll(5, TimeUnit.SECONDS).status == 200
+    bufferPool().getPooledCount() >= Math.max(pooled, 1)
+    released()
+  }
+
+  def 'caps request bodies of declared length'() {
+    when:
+    def resp = post("$POST_PATH/x", "{\"f1\":\"${'y' * 2000}\"}")
+
+    then:
+    resp.statusCodeValue == 413
+    released()
+  }
+
+  def 'caps chunked request bodies while reading'() {
+    given:
+    def body = "{\"f1\":\"${'y' * 2000}\"}"
+    def socket = new Socket('localhost', port)
+    socket.soTimeout = 5000
+
+    when:
+    def statusLine = send(socket, "POST $POST_PATH/x HTTP/1.1\r\nHost: localhost\r\n"
+        + 'Content-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n'
+        + "${Integer.toHexString(body.length())}\r\n$body\r\n0\r\n\r\n")
+
+    then:
+    statusLine.startsWith('HTTP/1.1 413')
+    records.records.poll(5, TimeUnit.SECONDS).status == 413
+    released()
+
+    cleanup:
+    socket?.close()
+  }
+
+  def 'answers 504 when the call times out'() {
+    when:
+    def resp = restTemplate.getForEntity("$GET_PATH/slow".toString(), String)
+
+    then:
+    resp.statusCodeValue == 504
+
+    and: 'recorded by the timeout'
+    def record = records.records.poll(5, TimeUnit.SECONDS)
+    record.status == 504
+    record.responseBytes == 0
+    released()
+  }
+
+  def 'answers 504 while the request body is incomplete, releasing its buffer'() {
+    given:
+    def pooled = bufferPool().getPooledCount()
+    def socket = new Socket('localhost', port)
+    socket.soTimeout = 5000
+
+    when:
+    def statusLine = send(socket, "POST $POST_PATH/x HTTP/1.1\r\nHost: localhost\r\n"
+        + 'Content-Type: application/json\r\nContent-Length: 100\r\n\r\n{"f1":')
+
+    then:
+    statusLine.startsWith('HTTP/1.1 504')
+    records.records.poll(5, TimeUnit.SECONDS).status == 504
+    conditions.eventually {
+      assert bufferPool().getPooledCount() >= Math.max(pooled, 1)
+    }
+    released()
+
+    cleanup:
+    socket?.close()
+  }
+
+  def 'suspends requests while the memory budget is exhausted'() {
+    given:
+    def held = mapper.@memoryBudget.reserve(1048576, 0, 0)
+    def queued = mapper.@memoryBudget.getQueuedCount()
+
+    when:
+    def resp = CompletableFuture.supplyAsync { post("$POST_PATH/x", '{"f1":"y"}') }
+    conditions.eventually {
+      assert mapper.@memoryBudget.getQueuedCount() == queued + 1
+    }
+
+    then:
+    !resp.isDone()
+
+    when:
+    held.release()
+
+    then: 'resumed once released'
+    resp.get(5, TimeUnit.SECONDS).statusCodeValue == 200
+    records.records.poll(5, TimeUnit.SECONDS).status == 200
+    released()
+  }
+
+  def 'sheds requests suspended too long for the memory budget'() {
+    given:
+    def held = mapper.@memoryBudget.reserve(1048576, 0, 0)
+    def shed = mapper.@memoryBudget.getShedCount()
+
+    when:
+    def resp = post("$POST_PATH/x", '{"f1":"y"}')
+
+    then:
+    resp.statusCodeValue == 503
+    resp.headers.getFirst(HttpHeaders.RETRY_AFTER) == '1'
+    mapper.@memoryBudget.getShedCount() == shed + 1
+
+    cleanup:
+    held?.release()
+  }
+
+  def 'sheds requests right away when not to wait for the memory budget'() {
+    given:
+    def routeHandler = ((HandlerMethod) mapper.@mapping
+        .getHandler(new MockHttpServletRequest('POST', "$POST_PATH/x")).handler).bean
+    def controller = (TranscoderController) ((RouteHandler) routeHandler).handler
+    controller.@memoryBudgetWaitMs = 0
+    def held = mapper.@memoryBudget.reserve(1048576, 0, 0)
+    def shed = mapper.@memoryBudget.getShedCount()
+
+    when:
+    def resp = post("$POST_PATH/x", '{"f1":"y"}')
+
+    then:
+    resp.statusCodeValue == 503
+    mapper.@memoryBudget.getShedCount() == shed + 1
+
+    cleanup:
+    held?.release()
+    controller?.@memoryBudgetWaitMs = 1000
+  }
+
+  private def post(String path, String json) {
+    def headers = new HttpHeaders()
+    headers.contentType = MediaType.APPLICATION_JSON
+    restTemplate.exchange(path, HttpMethod.POST, new HttpEntity<>(json, headers), String)
+  }
+
+  /**
+   * Sends the given raw request, returns the status line of the response.
+   */
+  private static String send(Socket socket, String request) {
+    socket.outputStream.write(request.getBytes(StandardCharsets.US_ASCII))
+    socket.outputStream.flush()
+    new BufferedReader(new InputStreamReader(socket.inputStream, StandardCharsets.US_ASCII))
+        .readLine()
+  }
+
+  private BufferPool bufferPool() {
+    mapper.@bufferPool
+  }
+
+  private boolean released() {
+    conditions.eventually {
+      assert mapper.@memoryBudget.getReservedBytes() == 0
+    }
+    true
+  }
+
+  static class Records implements TranscodeListener {
+
+    final BlockingQueue<TranscodeRecord> records = new LinkedBlockingQueue<>()
+
+    @Override
+    void onTranscoded(TranscodeRecord record) {
+      records << record
+    }
+  }
+
+  @SpringBootConfiguration
+  @EnableAutoConfiguration
+  static class Config {
+
+    @Bean
+    HttpGrpcMapper httpGrpcMapper() {
+      new HttpGrpcMapper()
+    }
+
+    @Bean
+    @ConfigurationProperties('http-grpc')
+    HttpGrpcSettings httpGrpcSettings() {
+      new HttpGrpcSettings()
+    }
+
+    @Bean
+    Records records() {
+      new Records()
+    }
+
+    @Bean(destroyMethod = 'shutdownNow')
+    Server grpcServer() {
+      def builder = ServerBuilder.forPort(0)
+      API.build().collectMany { it.services }.each { serviceDesc ->
+        def service = ServerServiceDefinition.builder(serviceDesc.fullName)
+        serviceDesc.methods.each { service.addMethod(methodDefinition(it)) }
+        builder.addService(service.build())
+      }
+      builder.build().start()
+    }
+
+    @Bean
+    GrpcServerDescriptor grpcServerDescriptor(Server grpcServer) {
+      def fileDescriptors = API.build()
+      new GrpcServerDescriptor() {
+
+        List<FileDescriptor> getFileDescriptors() {
+          fileDescriptors
+        }
+
+        boolean isDescriptorOnly() {
+          true
+        }
+
+        int getPort() {
+          grpcServer.port
+        }
+      }
+    }
+
+    private static ServerMethodDefinition methodDefinition(
+        Descriptors.MethodDescriptor methodDesc) {
+      def reqPrototype = DynamicMessage.getDefaultInstance(methodDesc.inputType)
+      def respPrototype = DynamicMessage.getDefaultInstance(methodDesc.outputType)
+      def callDesc = MethodDescriptor.newBuilder(ProtoUtils.marshaller(reqPrototype),
+          ProtoUtils.marshaller(respPrototype))
+          .setType(MethodDescriptor.MethodType.UNARY)
+          .setFullMethodName(MethodDescriptor.generateFullMethodName(
+              methodDesc.service.fullName, methodDesc.name))
+          .build()
+      ServerMethodDefinition.create(callDesc, ServerCalls.asyncUnaryCall(
+          { DynamicMessage req, StreamObserver<DynamicMessage> respOb ->
+            def f0 = req.getField(methodDesc.inputType.findFieldByName('f0'))
+            def f1 = req.getField(methodDesc.inputType.findFieldByName('f1'))
+            if (f0 == 'slow') {
+              return // never answered
+            }
+            def message = f0 == 'large' ? 'x' * LARGE_LENGTH : "$f0$f1".toString()
+            respOb.onNext(DynamicMessage.newBuilder(respPrototype)
+                .setField(methodDesc.outputType.findFieldByName('message'), message)
+                .build())
+            respOb.onCompleted()
+          } as ServerCalls.UnaryMethod))
+    }
+  }
+}
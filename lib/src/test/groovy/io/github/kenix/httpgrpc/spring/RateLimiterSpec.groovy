@@ -0,0 +1,55 @@
+package io.github.kenix.httpgrpc.spring
+
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class RateLimiterSpec extends Specification {
+
+  def 'limits per key after the burst'() {
+    given:
+    def limiter = new RateLimiter(new RateLimit(permitsPerSecond: 1, burst: 2, key: 'header:K'))
+
+    expect:
+    limiter.acquire(request('a')) == 0
+    limiter.acquire(request('a')) == 0
+    limiter.acquire(request('a')) > 0
+    limiter.acquire(request('b')) == 0
+  }
+
+  def 'shares the bucket of requests without key beyond the maximum number of keys'() {
+    given:
+    def limiter = new RateLimiter(
+        new RateLimit(permitsPerSecond: 1, burst: 1, key: 'header:K', maxKeys: 2))
+
+    when:
+    def permitted = ['a', 'b', 'c'].collect { limiter.acquire(request(it)) }
+
+    then:
+    permitted == [0L, 0L, 0L]
+    limiter.getKeyCount() == 3 // a, b and the shared bucket
+
+    and: 'c took the permit of the shared bucket'
+    limiter.acquire(request(null)) > 0
+    limiter.acquire(request('d')) > 0
+    limiter.getKeyCount() == 3
+  }
+
+  def 'rejects invalid keys'() {
+    when:
+    new RateLimiter(new RateLimit(key: 'cookie:x'))
+
+    then:
+    thrown(IllegalArgumentException)
+  }
+
+  private static MockHttpServletRequest request(String key) {
+    def req = new MockHttpServletRequest()
+    if (key != null) {
+      req.addHeader('K', key)
+    }
+    req
+  }
+}
@@ -0,0 +1,172 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto
+import com.google.protobuf.Descriptors.FileDescriptor
+import com.google.protobuf.DynamicMessage
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import org.springframework.http.HttpMethod
+import org.springframework.mock.web.MockHttpServletRequest
+import org.springframework.web.bind.annotation.RequestMethod
+import org.springframework.web.servlet.mvc.method.RequestMappingInfo
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class ReloadSpec extends Specification {
+
+  def api = new SyntheticApi(services: 2, methodsPerService: 3)
+  def changed = new SyntheticApi(services: 2, methodsPerService: 3, fieldsPerMessage: 9)
+  def fileDescriptors = api.build()
+  def fixture = new MapperFixture(fileDescriptors)
+  Path dir = Files.createTempDirectory('route-index')
+
+  def cleanup() {
+    fixture.close()
+    dir.toFile().deleteDir()
+  }
+
+  def 'keeps unchanged routes and swaps changed ones in place'() {
+    given:
+    def before = fixture.handlerOf('GET', api.path(0, 0))
+    def routeHandler = fixture.mapping.getHandler(request(api.path(0, 0))).handler.bean
+
+    when: 'unchanged'
+    fixture.mapper.reload(api.build())
+
+    then:
+    fixture.handlerOf('GET', api.path(0, 0)).is(before)
+
+    when: 'request message changed'
+    fixture.mapper.reload(changed.build())
+
+    then:
+    def after = fixture.handlerOf('GET', api.path(0, 0))
+    after instanceof TranscoderController
+    !after.is(before)
+    fixture.mapping.getHandler(request(api.path(0, 0))).handler.bean.is(routeHandler)
+  }
+
+  def 'takes routes from the index only for files unchanged since built'() {
+    given: 'an index mapping another path of the first file'
+    def index = dir.resolve(RouteIndex.LOCATION)
+    Files.createDirectories(index.parent)
+    Files.newBufferedWriter(index).withCloseable {
+      RouteIndex.write([fileDescriptors[0]], [new RouteIndex.Route(HttpMethod.GET, '/indexed',
+          '', '', 'synthetic.s0.Service0.Method0', 'synthetic.s0.Level0', 'synthetic.s0.Resp')],
+          it)
+    }
+    fixture.appCtx.classLoader = new URLClassLoader([dir.toUri().toURL()] as URL[],
+        getClass().classLoader)
+
+    when: 'reloaded as built'
+    fixture.mapper.reload(fileDescriptors)
+
+    then:
+    fixture.handlerOf('GET', '/indexed') instanceof TranscoderController
+    fixture.handlerOf('GET', api.path(0, 0)) == null
+    fixture.handlerOf('GET', api.path(1, 0)) instanceof TranscoderController
+
+    when: 'reloaded from a descriptor set, e.g. with changed HTTP rules'
+    fixture.mapper.reload(api.build())
+
+    then:
+    fixture.handlerOf('GET', '/indexed') == null
+    fixture.handlerOf('GET', api.path(0, 0)) instanceof TranscoderController
+  }
+
+  def 'gets dynamic prototypes of types changed since generated'() {
+    given:
+    def generated = com.google.rpc.Status.descriptor
+    def fileProto = generated.file.toProto().toBuilder()
+    fileProto.getMessageTypeBuilder(0).addField(FieldDescriptorProto.newBuilder()
+        .setName('extra')
+        .setNumber(99)
+        .setType(FieldDescriptorProto.Type.TYPE_STRING)
+        .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL))
+    def changedDesc = FileDescriptor.buildFrom(fileProto.build(),
+        generated.file.dependencies as FileDescriptor[]).findMessageTypeByName('Status')
+
+    when:
+    def unchanged = HttpGrpcMapper.prototypeOf([:], 'com.google.rpc.Status', generated)
+    def changed = HttpGrpcMapper.prototypeOf([:], 'com.google.rpc.Status', changedDesc)
+
+    then:
+    unchanged.is(com.google.rpc.Status.defaultInstance)
+    changed instanceof DynamicMessage
+    changed.descriptorForType.is(changedDesc)
+  }
+
+  def 'maps new routes and unmaps removed ones'() {
+    when:
+    fixture.mapper.reload(new SyntheticApi(services: 1, methodsPerService: 4).build())
+
+    then:
+    fixture.handlerOf('GET', api.path(0, 3)) instanceof TranscoderController
+    fixture.handlerOf('GET', api.path(1, 0)) == null
+    fixture.mapper.registrations.size() == 8
+  }
+
+  def 'never misses changed routes while reloading'() {
+    given:
+    def misses = new AtomicInteger()
+    def lookups = new AtomicInteger()
+    def done = new AtomicBoolean()
+    def paths = (0..<api.services).collectMany { s ->
+      (0..<api.methodsPerService).collect { m -> api.path(s, m) }
+    }
+    def reader = Thread.start {
+      while (!done.get()) {
+        paths.each {
+          if (fixture.handlerOf('GET', it) == null) {
+            misses.incrementAndGet()
+          }
+          lookups.incrementAndGet()
+        }
+      }
+    }
+
+    when:
+    20.times { fixture.mapper.reload((it % 2 == 0 ? changed : api).build()) }
+    done.set(true)
+    reader.join()
+
+    then:
+    lookups.get() > 0
+    misses.get() == 0
+  }
+
+  def 'rolls back new mappings when mapping fails'() {
+    given:
+    def grown = new SyntheticApi(services: 3, methodsPerService: 3)
+    def conflict = RequestMappingInfo.paths(grown.path(2, 2).replace('/v0', '/{f0}'))
+        .methods(RequestMethod.GET)
+        .build()
+    fixture.mapping.registerMapping(conflict, new Object(), Object.getMethod('toString'))
+    def before = fixture.handlerOf('GET', api.path(0, 0))
+    def registrations = fixture.mapper.registrations
+
+    when:
+    fixture.mapper.reload(grown.build())
+
+    then:
+    thrown(IllegalStateException)
+    fixture.handlerOf('GET', grown.path(2, 0)) == null
+    fixture.handlerOf('GET', api.path(0, 0)).is(before)
+    fixture.mapper.registrations.is(registrations)
+
+    when: 'conflict resolved'
+    fixture.mapping.unregisterMapping(conflict)
+    fixture.mapper.reload(grown.build())
+
+    then:
+    fixture.handlerOf('GET', grown.path(2, 2)) instanceof TranscoderController
+  }
+
+  private static request(String path) {
+    new MockHttpServletRequest('GET', path)
+  }
+}
@@ -0,0 +1,118 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.DescriptorProtos
+import com.google.protobuf.DescriptorProtos.DescriptorProto
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.Descriptors.FileDescriptor
+import com.google.protobuf.Struct
+import java.nio.file.Files
+import java.nio.file.Path
+import org.springframework.http.HttpMethod
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class RouteIndexSpec extends Specification {
+
+  def fileDescriptors = new SyntheticApi(services: 2, methodsPerService: 3).build()
+  Path dir = Files.createTempDirectory('route-index')
+
+  def cleanup() {
+    dir.toFile().deleteDir()
+  }
+
+  def 'resolves routes from a written index'() {
+    given:
+    def scanned = RouteIndex.scan(fileDescriptors)
+    writeIndex(fileDescriptors, scanned)
+
+    expect:
+    RouteIndex.resolve(fileDescriptors, loader()) == scanned
+  }
+
+  def 'prefers the index, scanning only files not covered'() {
+    given:
+    def indexed = new RouteIndex.Route(HttpMethod.GET, '/indexed', '', '',
+        'synthetic.s0.Service0.Method0', 'a.Req', 'a.Resp')
+    writeIndex([fileDescriptors[0]], [indexed])
+
+    when:
+    def resolved = RouteIndex.resolve(fileDescriptors, loader())
+
+    then:
+    resolved == [indexed] + RouteIndex.scan([fileDescriptors[1]])
+  }
+
+  def 'scans files differing from their indexed ones'() {
+    given:
+    def indexed = new RouteIndex.Route(HttpMethod.GET, '/indexed', '', '',
+        'synthetic.s0.Service0.Method0', 'a.Req', 'a.Resp')
+    writeIndex(fileDescriptors, [indexed])
+    def reloaded = new SyntheticApi(services: 2, methodsPerService: 3).build()
+
+    when:
+    def resolved = RouteIndex.resolve([reloaded[0], fileDescriptors[1]], fileDescriptors, loader())
+
+    then:
+    resolved == RouteIndex.scan([reloaded[0]])
+  }
+
+  def 'scans all files without index'() {
+    expect:
+    RouteIndex.resolve(fileDescriptors, loader()) == RouteIndex.scan(fileDescriptors)
+  }
+
+  def 'reads indexes without response body'() {
+    given:
+    def index = dir.resolve(RouteIndex.LOCATION)
+    Files.createDirectories(index.parent)
+    index.toFile().text = '# http-grpc route index v1\nF\tsynthetic/s0.proto\n' +
+        'R\tPOST\t/v1/x\t*\tsynthetic.s0.Service0.Method0\ta.Req\ta.Resp\n'
+
+    when:
+    def routes = RouteIndex.resolve([fileDescriptors[0]], loader())
+
+    then:
+    routes == [new RouteIndex.Route(HttpMethod.POST, '/v1/x', '*', '',
+        'synthetic.s0.Service0.Method0', 'a.Req', 'a.Resp')]
+  }
+
+  def 'gets class names of generated messages'() {
+    expect:
+    RouteIndex.getClassName(type.getDescriptor()) == type.name
+
+    where:
+    type << [com.google.rpc.Status, Struct, DescriptorProto, DescriptorProto.ExtensionRange,
+             DescriptorProtos.FieldDescriptorProto]
+  }
+
+  def 'gets class names with default outer class'() {
+    given:
+    def fileDesc = FileDescriptor.buildFrom(FileDescriptorProto.newBuilder()
+        .setName("foo/$fileName")
+        .setPackage('x.y')
+        .addMessageType(DescriptorProto.newBuilder()
+            .setName('Req')
+            .addNestedType(DescriptorProto.newBuilder().setName('Sub')))
+        .build(), [] as FileDescriptor[])
+
+    expect:
+    RouteIndex.getClassName(fileDesc.findMessageTypeByName('Req').nestedTypes[0]) == className
+
+    where:
+    fileName          | className
+    'my_api-v2.proto' | 'x.y.MyApiV2$Req$Sub'
+    'req.proto'       | 'x.y.ReqOuterClass$Req$Sub'
+  }
+
+  private void writeIndex(List<FileDescriptor> fds, List<RouteIndex.Route> routes) {
+    def index = dir.resolve(RouteIndex.LOCATION)
+    Files.createDirectories(index.parent)
+    Files.newBufferedWriter(index).withCloseable { RouteIndex.write(fds, routes, it) }
+  }
+
+  private ClassLoader loader() {
+    new URLClassLoader([dir.toUri().toURL()] as URL[], (ClassLoader) null)
+  }
+}
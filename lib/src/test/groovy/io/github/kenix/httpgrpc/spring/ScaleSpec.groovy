@@ -0,0 +1,81 @@
+package io.github.kenix.httpgrpc.spring
+
+import java.util.concurrent.TimeUnit
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Requires
+import spock.lang.Specification
+
+/**
+ * Measures startup time, heap used by registrations and per-request routing overhead of
+ * {@link HttpGrpcMapper} against {@link SyntheticApi}s, only by task <code>scaleTest</code> as it
+ * depends on the heap and timing of the machine, the large one sized by system properties
+ * <code>http-grpc.scale.*</code>.
+ *
+ * @author zzhao
+ */
+@Requires({ Boolean.getBoolean('http-grpc.scale') })
+class ScaleSpec extends Specification {
+
+  static final int ROUTING_ITERATIONS = 2000
+
+  def 'map small api'() {
+    expect:
+    measure(new SyntheticApi(services: 5, methodsPerService: 10), 1000, 60_000)
+  }
+
+  def 'map large api'() {
+    given:
+    def api = new SyntheticApi(
+        services: Integer.getInteger('http-grpc.scale.services', 250),
+        methodsPerService: Integer.getInteger('http-grpc.scale.methods', 20),
+        fieldsPerMessage: Integer.getInteger('http-grpc.scale.fields', 16),
+        nestingDepth: Integer.getInteger('http-grpc.scale.depth', 3),
+        additionalBindings: Integer.getInteger('http-grpc.scale.bindings', 2),
+        pathVariables: Integer.getInteger('http-grpc.scale.variables', 2))
+
+    expect:
+    measure(api, Long.getLong('http-grpc.scale.max-map-ms', 60_000),
+        Long.getLong('http-grpc.scale.max-routing-us', 5_000))
+  }
+
+  private static boolean measure(SyntheticApi api, long maxMapMs, long maxRoutingMicros) {
+    def fileDescriptors = api.build()
+    def heapBefore = usedHeap()
+
+    def start = System.nanoTime()
+    def fixture = new MapperFixture(fileDescriptors)
+    def mapMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+    def heapBytes = usedHeap() - heapBefore
+
+    def requests = (0..<ROUTING_ITERATIONS).collect {
+      new MockHttpServletRequest('GET',
+          api.path(it % api.services, (it.intdiv(api.services)) % api.methodsPerService))
+    }
+    requests.each {
+      assert fixture.handlerOf('GET', it.requestURI) instanceof TranscoderController
+    }
+    start = System.nanoTime()
+    requests.each { fixture.mapping.getHandler(it) }
+    def routingMicros =
+        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) / ROUTING_ITERATIONS
+
+    println String.format('%d methods, %d routes: map %dms, heap %dKiB (%d bytes/route), '
+        + 'routing %.1fus/request', api.methodCount, api.routeCount, mapMs,
+        heapBytes.intdiv(1024), heapBytes.intdiv(api.routeCount), routingMicros)
+    fixture.close()
+
+    assert fixture.mapper.registrations.size() == api.routeCount
+    assert mapMs <= maxMapMs
+    assert routingMicros <= maxRoutingMicros
+    true
+  }
+
+  private static long usedHeap() {
+    def runtime = Runtime.getRuntime()
+    3.times {
+      System.gc()
+      Thread.sleep(50)
+    }
+    runtime.totalMemory() - runtime.freeMemory()
+  }
+}
@@ -0,0 +1,118 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.api.AnnotationsProto
+import com.google.api.HttpRule
+import com.google.protobuf.DescriptorProtos.DescriptorProto
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto
+import com.google.protobuf.DescriptorProtos.MethodOptions
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto
+import com.google.protobuf.Descriptors.FileDescriptor
+
+/**
+ * Generates synthetic gRPC APIs with HTTP bindings of configurable size and shape: one file per
+ * service, each with its own request message of string fields nested to the given depth, each
+ * method bound to GET with path variables and literal segments, plus additional POST bindings.
+ *
+ * @author zzhao
+ */
+class SyntheticApi {
+
+  int services = 10
+  int methodsPerService = 10
+  int fieldsPerMessage = 8
+  int nestingDepth = 2
+  int additionalBindings = 1
+  int literalSegments = 2
+  int pathVariables = 1
+
+  List<FileDescriptor> build() {
+    def annotations = AnnotationsProto.getDescriptor()
+    (0..<this.services).collect { s ->
+      FileDescriptor.buildFrom(fileProto(s), [annotations] as FileDescriptor[])
+    }
+  }
+
+  int getMethodCount() {
+    this.services * this.methodsPerService
+  }
+
+  int getRouteCount() {
+    getMethodCount() * (1 + this.additionalBindings)
+  }
+
+  /**
+   * Gets a concrete GET path of the given method.
+   */
+  String path(int service, int method) {
+    def path = "${prefix(service, method)}"
+    (0..<this.pathVariables).each { path += "/v$it" }
+    path
+  }
+
+  private String prefix(int service, int method) {
+    def path = "/v1/s$service"
+    (0..<this.literalSegments).each { path += "/l$it" }
+    "$path/m$method"
+  }
+
+  private FileDescriptorProto fileProto(int s) {
+    def file = FileDescriptorProto.newBuilder()
+        .setName("synthetic/s${s}.proto")
+        .setPackage("synthetic.s$s")
+        .setSyntax('proto3')
+        .addDependency('google/api/annotations.proto')
+    (0..this.nestingDepth).each { depth -> file.addMessageType(messageProto(s, depth)) }
+    file.addMessageType(DescriptorProto.newBuilder()
+        .setName('Resp')
+        .addField(field('message', 1, FieldDescriptorProto.Type.TYPE_STRING, null)))
+
+    def service = ServiceDescriptorProto.newBuilder().setName("Service$s")
+    (0..<this.methodsPerService).each { m ->
+      def rule = HttpRule.newBuilder().setGet(template(prefix(s, m)))
+      (0..<this.additionalBindings).each { b ->
+        rule.addAdditionalBindings(HttpRule.newBuilder()
+            .setPost(template("${prefix(s, m)}/b$b"))
+            .setBody('*'))
+      }
+      service.addMethod(MethodDescriptorProto.newBuilder()
+          .setName("Method$m")
+          .setInputType(".synthetic.s${s}.Level0")
+          .setOutputType(".synthetic.s${s}.Resp")
+          .setOptions(MethodOptions.newBuilder().setExtension(AnnotationsProto.http, rule.build())))
+    }
+    file.addService(service).build()
+  }
+
+  private String template(String prefix) {
+    def template = prefix
+    (0..<this.pathVariables).each { template += "/{f$it}" }
+    template
+  }
+
+  private DescriptorProto messageProto(int s, int depth) {
+    def message = DescriptorProto.newBuilder().setName("Level$depth")
+    (0..<this.fieldsPerMessage).each {
+      message.addField(field("f$it", it + 1, FieldDescriptorProto.Type.TYPE_STRING, null))
+    }
+    if (depth < this.nestingDepth) {
+      message.addField(field('child', this.fieldsPerMessage + 1,
+          FieldDescriptorProto.Type.TYPE_MESSAGE, ".synthetic.s${s}.Level${depth + 1}"))
+    }
+    message.build()
+  }
+
+  private static FieldDescriptorProto field(String name, int number,
+      FieldDescriptorProto.Type type, String typeName) {
+    def field = FieldDescriptorProto.newBuilder()
+        .setName(name)
+        .setNumber(number)
+        .setType(type)
+        .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+    if (typeName) {
+      field.setTypeName(typeName)
+    }
+    field.build()
+  }
+}
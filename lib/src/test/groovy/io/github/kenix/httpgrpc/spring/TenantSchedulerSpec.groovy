@@ -0,0 +1,126 @@
+package io.github.kenix.httpgrpc.spring
+
+import java.util.concurrent.CompletableFuture
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class TenantSchedulerSpec extends Specification {
+
+  def 'grants released slots in proportion to weights'() {
+    given:
+    def scheduler = new TenantScheduler(1, 100, [a: 2d])
+    def first = scheduler.acquire('x').join()
+    def queued = []
+    6.times {
+      queued << ['a', scheduler.acquire('a')]
+      queued << ['b', scheduler.acquire('b')]
+    }
+
+    when:
+    def order = []
+    def slot = first
+    6.times {
+      slot.release()
+      def granted = queued.find { it[1].done && !order.contains(it) }
+      order << granted
+      slot = granted[1].join()
+    }
+
+    then:
+    order.collect { it[0] } == ['a', 'a', 'b', 'a', 'a', 'b']
+  }
+
+  def 'sheds requests beyond the tenant queue bound'() {
+    given:
+    def scheduler = new TenantScheduler(1, 1, [:])
+    scheduler.acquire('a')
+
+    expect:
+    scheduler.acquire('a') != null
+    scheduler.acquire('a') == null
+    scheduler.acquire('b') != null
+    scheduler.getQueued() == 2
+  }
+
+  def 'passes slots of cancelled requests on'() {
+    given:
+    def scheduler = new TenantScheduler(1, 10, [:])
+    def slot = scheduler.acquire('a').join()
+    def cancelled = scheduler.acquire('a')
+    def next = scheduler.acquire('b')
+
+    when:
+    cancelled.cancel(false)
+    slot.release()
+
+    then:
+    next.done
+    scheduler.getActive() == 1
+
+    when:
+    next.join().release()
+
+    then:
+    scheduler.getActive() == 0
+    scheduler.getQueued() == 0
+  }
+
+  def 'makes calls once granted, releasing slots when done'() {
+    given:
+    def scheduler = new TenantScheduler(1, 1, [:])
+    def first = new CompletableFuture<String>()
+    def second = new CompletableFuture<String>()
+    def calls = [first, second].iterator()
+
+    when:
+    def called = scheduler.callAsync('a') { calls.next() }
+    def queued = scheduler.callAsync('a') { calls.next() }
+
+    then:
+    !called.done
+    calls.hasNext()
+    scheduler.getQueued() == 1
+
+    when:
+    scheduler.callAsync('a') { calls.next() }
+
+    then:
+    thrown(TranscoderException)
+
+    when:
+    first.complete('x')
+
+    then:
+    called.join() == 'x'
+    !calls.hasNext()
+    scheduler.getActive() == 1
+
+    when:
+    second.complete('y')
+
+    then:
+    queued.join() == 'y'
+    scheduler.getActive() == 0
+  }
+
+  def 'leaves the queue when the call is cancelled'() {
+    given:
+    def scheduler = new TenantScheduler(1, 1, [:])
+    def slot = scheduler.acquire('a').join()
+    def called = false
+    def queued = scheduler.callAsync('a') {
+      called = true
+      CompletableFuture.completedFuture('x')
+    }
+
+    when:
+    queued.cancel(false)
+    slot.release()
+
+    then:
+    !called
+    scheduler.getActive() == 0
+  }
+}
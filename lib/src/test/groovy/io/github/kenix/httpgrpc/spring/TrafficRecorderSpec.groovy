@@ -0,0 +1,111 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import java.nio.file.Files
+import java.nio.file.Path
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Specification
+
+/**
+ * Records written by {@link TrafficRecorder}, read the way the replayer of the client reads them.
+ *
+ * @author zzhao
+ */
+class TrafficRecorderSpec extends Specification {
+
+  Path dir = Files.createTempDirectory('capture')
+
+  def cleanup() {
+    dir.toFile().deleteDir()
+  }
+
+  def 'writes records read back by the replayer'() {
+    given:
+    def recorder = new TrafficRecorder(1, dir, 4096, 2, ['X-Api-Key', 'X-Absent'])
+    def message = FileDescriptorProto.newBuilder().setName('a.proto').build()
+    def post = request('POST', '/v1/files', 'x=1&y=2')
+    post.addHeader('X-Api-Key', 'k')
+
+    when:
+    recorder.record('POST /v1/files', post, message)
+    recorder.record('PUT /v1/raw', request('PUT', '/v1/raw', null), [1, 2, 3] as byte[])
+    recorder.record('GET /v1/files', request('GET', '/v1/files/a', null), (FileDescriptorProto) null)
+    recorder.close()
+    def records = files().collectMany { read(it) }
+
+    then:
+    files().size() == 1
+    records*.route == ['POST /v1/files', 'PUT /v1/raw', 'GET /v1/files']
+    records*.method == ['POST', 'PUT', 'GET']
+    records*.uri == ['/v1/files?x=1&y=2', '/v1/raw', '/v1/files/a']
+    records*.headers == [['X-Api-Key': 'k'], [:], [:]]
+    FileDescriptorProto.parseFrom(records[0].body as byte[]) == message
+    records[1].body == [1, 2, 3] as byte[]
+    records[2].body.length == 0
+    records*.micros == records*.micros.sort(false)
+  }
+
+  def 'rotates files, keeping at most the maximum number'() {
+    given:
+    def recorder = new TrafficRecorder(1, dir, 128, 2, [])
+
+    when: 'one record per file'
+    (0..4).each {
+      recorder.record('POST /v1/raw', request('POST', "/v1/raw/$it", null), new byte[40])
+    }
+    recorder.close()
+
+    then:
+    files().size() == 2
+    files().collectMany { read(it) }*.uri == ['/v1/raw/3', '/v1/raw/4']
+  }
+
+  def 'drops records larger than a file'() {
+    given:
+    def recorder = new TrafficRecorder(1, dir, 128, 2, [])
+
+    when:
+    recorder.record('POST /v1/raw', request('POST', '/v1/raw', null), new byte[200])
+    recorder.close()
+
+    then:
+    files().collectMany { read(it) }.isEmpty()
+  }
+
+  private List<Path> files() {
+    Files.list(dir).withCloseable { it.sorted().collect() }
+  }
+
+  private static MockHttpServletRequest request(String method, String uri, String query) {
+    def req = new MockHttpServletRequest(method, uri)
+    req.queryString = query
+    req
+  }
+
+  /**
+   * Reads records as <code>TrafficReplayer</code> does.
+   */
+  private static List<Map> read(Path file) {
+    def input = CodedInputStream.newInstance(Files.readAllBytes(file))
+    def records = []
+    while (!input.isAtEnd()) {
+      def length = input.readRawVarint32()
+      if (length == 0) {
+        break
+      }
+      def limit = input.pushLimit(length)
+      def record = [micros: input.readUInt64(), route: input.readString(),
+                    method: input.readString(), uri: input.readString(), headers: [:]]
+      def headerCount = input.readUInt32()
+      headerCount.times {
+        def name = input.readString()
+        record.headers[name] = input.readString()
+      }
+      record.body = input.readByteArray()
+      input.popLimit(limit)
+      records << record
+    }
+    records
+  }
+}
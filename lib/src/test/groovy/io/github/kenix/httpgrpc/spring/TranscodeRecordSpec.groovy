@@ -0,0 +1,66 @@
+package io.github.kenix.httpgrpc.spring
+
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class TranscodeRecordSpec extends Specification {
+
+  def 'splits the total duration into phases'() {
+    given:
+    def record = new TranscodeRecord('GET /v1/x', 'a.A.X', 'Direct')
+
+    when:
+    record.bound()
+    record.called()
+    record.written()
+
+    then:
+    record.getBindNanos() >= 0
+    record.getCallNanos() >= 0
+    record.getWriteNanos() >= 0
+    record.getBindNanos() + record.getCallNanos() + record.getWriteNanos() ==
+        record.getTotalNanos()
+  }
+
+  def 'ends the call of a failed request if bound'() {
+    given:
+    def record = new TranscodeRecord('GET /v1/x', 'a.A.X', 'Direct')
+
+    when:
+    record.bound()
+    record.failed()
+    record.written()
+
+    then:
+    record.getBindNanos() + record.getCallNanos() + record.getWriteNanos() ==
+        record.getTotalNanos()
+  }
+
+  def 'has no bind and call of a request failed before binding'() {
+    given:
+    def record = new TranscodeRecord('GET /v1/x', 'a.A.X', 'Direct')
+
+    when:
+    record.failed()
+    record.written()
+
+    then:
+    record.getBindNanos() == 0
+    record.getCallNanos() == 0
+    record.getWriteNanos() == record.getTotalNanos()
+  }
+
+  def 'ignores marks on the record of requests not recorded'() {
+    when:
+    TranscodeRecord.NONE.bound()
+    TranscodeRecord.NONE.called()
+    TranscodeRecord.NONE.failed()
+    TranscodeRecord.NONE.written()
+
+    then:
+    TranscodeRecord.NONE.getBindNanos() == 0
+    TranscodeRecord.NONE.getCallNanos() == 0
+  }
+}
@@ -1,9 +1,68 @@
 package io.github.kenix.httpgrpc.spring
 
+import com.google.protobuf.InvalidProtocolBufferException
+import io.grpc.Status
+import io.grpc.Status.Code
+import org.springframework.http.HttpStatus
 import spock.lang.Specification
+import spock.lang.Unroll
 
 /**
  * @author zzhao
  */
 class UtilSpec extends Specification {
+
+  @Unroll
+  def 'maps #code to #httpStatus'() {
+    expect:
+    Util.toHttpStatus(code) == httpStatus
+
+    where:
+    code                     | httpStatus
+    Code.OK                  | HttpStatus.INTERNAL_SERVER_ERROR
+    Code.CANCELLED           | HttpStatus.INTERNAL_SERVER_ERROR
+    Code.UNKNOWN             | HttpStatus.INTERNAL_SERVER_ERROR
+    Code.INVALID_ARGUMENT    | HttpStatus.BAD_REQUEST
+    Code.DEADLINE_EXCEEDED   | HttpStatus.GATEWAY_TIMEOUT
+    Code.NOT_FOUND           | HttpStatus.NOT_FOUND
+    Code.ALREADY_EXISTS      | HttpStatus.CONFLICT
+    Code.PERMISSION_DENIED   | HttpStatus.FORBIDDEN
+    Code.RESOURCE_EXHAUSTED  | HttpStatus.TOO_MANY_REQUESTS
+    Code.FAILED_PRECONDITION | HttpStatus.PRECONDITION_FAILED
+    Code.ABORTED             | HttpStatus.CONFLICT
+    Code.OUT_OF_RANGE        | HttpStatus.BAD_REQUEST
+    Code.UNIMPLEMENTED       | HttpStatus.NOT_IMPLEMENTED
+    Code.INTERNAL            | HttpStatus.INTERNAL_SERVER_ERROR
+    Code.UNAVAILABLE         | HttpStatus.SERVICE_UNAVAILABLE
+    Code.DATA_LOSS           | HttpStatus.INTERNAL_SERVER_ERROR
+    Code.UNAUTHENTICATED     | HttpStatus.FORBIDDEN
+  }
+
+  def 'maps every code'() {
+    expect:
+    Code.values().every { Util.toHttpStatus(it) != null }
+  }
+
+  def 'gets the status of exceptions'() {
+    expect:
+    Util.grpcStatus(t).code == code
+
+    where:
+    t                                                    | code
+    Status.NOT_FOUND.asRuntimeException()                | Code.NOT_FOUND
+    Status.ABORTED.asException()                         | Code.ABORTED
+    new InvalidProtocolBufferException('bad')            | Code.INVALID_ARGUMENT
+    TranscoderError.MALFORMED_BODY.toException()         | Code.INVALID_ARGUMENT
+    new IllegalStateException('bug')                     | Code.INTERNAL
+  }
+
+  def 'creates fixed errors without stack trace'() {
+    when:
+    def e = TranscoderError.MALFORMED_BODY.toException()
+
+    then:
+    e.stackTrace.length == 0
+    e.getError() == TranscoderError.MALFORMED_BODY
+    Util.toHttpStatus(e.status.code) == TranscoderError.MALFORMED_BODY.httpStatus
+  }
 }
@@ -0,0 +1,109 @@
+package io.github.kenix.httpgrpc.spring
+
+import com.google.protobuf.Descriptors
+import com.google.protobuf.Descriptors.FileDescriptor
+import com.google.protobuf.DynamicMessage
+import io.grpc.MethodDescriptor
+import io.grpc.Server
+import io.grpc.ServerBuilder
+import io.grpc.ServerMethodDefinition
+import io.grpc.ServerServiceDefinition
+import io.grpc.protobuf.ProtoUtils
+import io.grpc.stub.ServerCalls
+import io.grpc.stub.StreamObserver
+import java.util.concurrent.atomic.AtomicInteger
+import org.springframework.mock.web.MockHttpServletRequest
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class WarmUpSpec extends Specification {
+
+  def api = new SyntheticApi(services: 1, methodsPerService: 1)
+  def fileDescriptors = api.build()
+  def mapper = new HttpGrpcMapper()
+  def calls = new AtomicInteger()
+  def callsWhileMapped = new AtomicInteger()
+  MapperFixture fixture
+  Server server
+
+  def cleanup() {
+    fixture?.close()
+    server?.shutdownNow()
+  }
+
+  def 'warms up routes before mapping them'() {
+    when:
+    fixture = new MapperFixture(fileDescriptors,
+        new HttpGrpcSettings(warmUpIterations: 3, warmUpCalls: true), serverDescriptor(), mapper)
+
+    then: 'GET and POST route, 3 iterations each, none mapped yet'
+    calls.get() == api.routeCount * 3
+    callsWhileMapped.get() == 0
+    fixture.handlerOf('GET', api.path(0, 0)) instanceof TranscoderController
+  }
+
+  def 'never calls the service without warm-up calls'() {
+    when:
+    fixture = new MapperFixture(fileDescriptors,
+        new HttpGrpcSettings(warmUpIterations: 3, warmUpCalls: false), serverDescriptor(), mapper)
+
+    then:
+    calls.get() == 0
+    fixture.handlerOf('GET', api.path(0, 0)) instanceof TranscoderController
+  }
+
+  /**
+   * Describes a gRPC server of the synthetic API, answering default responses, transcoded
+   * descriptors only as no classes have been generated.
+   */
+  private GrpcServerDescriptor serverDescriptor() {
+    def builder = ServerBuilder.forPort(0)
+    fileDescriptors.collectMany { it.services }.each { serviceDesc ->
+      def service = ServerServiceDefinition.builder(serviceDesc.fullName)
+      serviceDesc.methods.each { service.addMethod(methodDefinition(it)) }
+      builder.addService(service.build())
+    }
+    server = builder.build().start()
+    def port = server.port
+    new GrpcServerDescriptor() {
+
+      List<FileDescriptor> getFileDescriptors() {
+        WarmUpSpec.this.fileDescriptors
+      }
+
+      boolean isDescriptorOnly() {
+        true
+      }
+
+      int getPort() {
+        port
+      }
+    }
+  }
+
+  private ServerMethodDefinition methodDefinition(Descriptors.MethodDescriptor methodDesc) {
+    def reqPrototype = DynamicMessage.getDefaultInstance(methodDesc.inputType)
+    def respPrototype = DynamicMessage.getDefaultInstance(methodDesc.outputType)
+    def callDesc = MethodDescriptor.newBuilder(ProtoUtils.marshaller(reqPrototype),
+        ProtoUtils.marshaller(respPrototype))
+        .setType(MethodDescriptor.MethodType.UNARY)
+        .setFullMethodName(MethodDescriptor.generateFullMethodName(
+            methodDesc.service.fullName, methodDesc.name))
+        .build()
+    ServerMethodDefinition.create(callDesc, ServerCalls.asyncUnaryCall(
+        { DynamicMessage req, StreamObserver<DynamicMessage> respOb ->
+          calls.incrementAndGet()
+          if (isMapped()) {
+            callsWhileMapped.incrementAndGet()
+          }
+          respOb.onNext(respPrototype)
+          respOb.onCompleted()
+        } as ServerCalls.UnaryMethod))
+  }
+
+  private boolean isMapped() {
+    mapper.@mapping.getHandler(new MockHttpServletRequest('GET', api.path(0, 0))) != null
+  }
+}
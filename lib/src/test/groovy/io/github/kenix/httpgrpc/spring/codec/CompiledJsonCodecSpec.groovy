@@ -0,0 +1,458 @@
+package io.github.kenix.httpgrpc.spring.codec
+
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Label.LABEL_REPEATED
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_BOOL
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_BYTES
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_DOUBLE
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_ENUM
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_FIXED64
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_FLOAT
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT64
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_SINT64
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_STRING
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_UINT32
+import static com.google.protobuf.DescriptorProtos.FieldDescriptorProto.Type.TYPE_UINT64
+
+import com.google.protobuf.AnyProto
+import com.google.protobuf.ByteString
+import com.google.protobuf.DescriptorProtos.DescriptorProto
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.DescriptorProtos.MessageOptions
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto
+import com.google.protobuf.Descriptors.Descriptor
+import com.google.protobuf.Descriptors.EnumDescriptor
+import com.google.protobuf.Descriptors.EnumValueDescriptor
+import com.google.protobuf.Descriptors.FileDescriptor
+import com.google.protobuf.Duration
+import com.google.protobuf.DurationProto
+import com.google.protobuf.DynamicMessage
+import com.google.protobuf.FieldMask
+import com.google.protobuf.FieldMaskProto
+import com.google.protobuf.Int64Value
+import com.google.protobuf.InvalidProtocolBufferException
+import com.google.protobuf.ListValue
+import com.google.protobuf.Message
+import com.google.protobuf.NullValue
+import com.google.protobuf.Struct
+import com.google.protobuf.StructProto
+import com.google.protobuf.Timestamp
+import com.google.protobuf.TimestampProto
+import com.google.protobuf.Value
+import com.google.protobuf.WrappersProto
+import com.google.rpc.RetryInfo
+import java.nio.charset.StandardCharsets
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * Golden tests of {@link CompiledJsonCodec} against {@link JsonFormatCodec}, i.e.
+ * {@link com.google.protobuf.util.JsonFormat}, on a proto3 message of all kinds of fields.
+ *
+ * @author zzhao
+ */
+class CompiledJsonCodecSpec extends Specification {
+
+  static final FileDescriptor[] DEPENDENCIES = [AnyProto.descriptor, DurationProto.descriptor,
+                                                FieldMaskProto.descriptor, StructProto.descriptor,
+                                                TimestampProto.descriptor, WrappersProto.descriptor]
+  static final FileDescriptor FILE = FileDescriptor.buildFrom(FileDescriptorProto.newBuilder()
+      .setName('golden.proto')
+      .setPackage('golden')
+      .setSyntax('proto3')
+      .addAllDependency(DEPENDENCIES*.name)
+      .addEnumType(EnumDescriptorProto.newBuilder()
+          .setName('Color')
+          .addValue(EnumValueDescriptorProto.newBuilder().setName('RED').setNumber(0))
+          .addValue(EnumValueDescriptorProto.newBuilder().setName('GREEN').setNumber(1)))
+      .addMessageType(allType())
+      .build(), DEPENDENCIES)
+  static final Descriptor ALL = FILE.findMessageTypeByName('All')
+  static final EnumDescriptor COLOR = FILE.findEnumTypeByName('Color')
+
+  static final List<Long> LONGS = [0L, 1L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 53,
+                                   (1L << 53) + 1]
+  // Groovy folds the literal -0.0d to 0.0
+  static final double NEGATIVE_ZERO = Math.copySign(0.0d, -1.0d)
+  static final List<Float> FLOATS = [(float) NEGATIVE_ZERO, Float.NaN, Float.POSITIVE_INFINITY,
+                                     Float.NEGATIVE_INFINITY, Float.MIN_VALUE, Float.MAX_VALUE,
+                                     1.0E10f, 1.0E-5f, 0.001f, 1234567.9f]
+  static final List<Double> DOUBLES = [NEGATIVE_ZERO, Double.NaN, Double.POSITIVE_INFINITY,
+                                       Double.NEGATIVE_INFINITY, Double.MIN_VALUE,
+                                       Double.MAX_VALUE, 1.0E21d, 1.0E-7d, 0.1d, 123456789012.5d]
+  static final String CHARS = 'aZ09 "\\/\b\f\n\r\t\u0000\u001f\u007f<>&=\'é\u2028\u2029中😀'
+
+  def compiled = new CompiledJsonCodec()
+  def reference = new JsonFormatCodec()
+
+  @Unroll
+  def 'prints #name as JsonFormat'() {
+    expect:
+    print(compiled, message) == print(reference, message)
+
+    and: 'reads it back'
+    canonical(parse(compiled, print(compiled, message))) == canonical(message)
+
+    where:
+    name                | message
+    'empty'             | msg([:])
+    'int64 and uint64'  | msg(i64: Long.MIN_VALUE, u64: -1L, s64: Long.MAX_VALUE, f64: -2L)
+    'uint32'            | msg(u32: -1, i32: Integer.MIN_VALUE)
+    'float'             | msg(flt: 1.0E10f, dbl: 1.0E-300d)
+    'float NaN'         | msg(flt: Float.NaN, dbl: Double.NaN)
+    'float Infinity'    | msg(flt: Float.NEGATIVE_INFINITY, dbl: Double.POSITIVE_INFINITY)
+    'float exponent'    | msg(flt: 1.0E-5f, dbl: 123456789012.5d, doubles: [1.0E7d, 1.0E-3d])
+    'string escaping'   | msg(str: CHARS)
+    'bytes'             | msg(data: ByteString.copyFrom([0, -1, 62, 63, -5] as byte[]))
+    'enum'              | msg(color: COLOR.findValueByNumber(1), colors: [COLOR.values[0]])
+    'unknown enum'      | msg(color: unknownColor(7), colors: [unknownColor(-1)])
+    'repeated int64'    | msg(int64s: LONGS)
+    'int64 map keys'    | msg(by_long: entries('by_long', [(Long.MIN_VALUE): 'x', (1L): '']))
+    'bool map keys'     | msg(by_bool: entries('by_bool', [(true): 1, (false): -1]))
+    'uint32 map keys'   | msg(by_uint: entries('by_uint', [(-1): Double.NaN, (1): 0.5d]))
+    'message map'       | msg(by_name: entries('by_name', [a: msg(str: 'x'), b: msg([:])]))
+    'timestamp'         | msg(ts: Timestamp.newBuilder().setSeconds(63115220).setNanos(21000000)
+        .build())
+    'duration'          | msg(dur: Duration.newBuilder().setSeconds(-1).setNanos(-500000000)
+        .build())
+    'struct'            | msg(st: struct())
+    'value'             | msg(val: Value.newBuilder().setListValue(ListValue.newBuilder()
+        .addValues(Value.newBuilder().setNullValue(NullValue.NULL_VALUE))).build())
+    'any'               | msg(any: com.google.protobuf.Any.pack(RetryInfo.newBuilder()
+        .setRetryDelay(Duration.newBuilder().setSeconds(2)).build()))
+    'field mask'        | msg(mask: FieldMask.newBuilder().addPaths('a.b').addPaths('c_d')
+        .build())
+    'wrapper'           | msg(wrapped: Int64Value.newBuilder().setValue(5).build())
+    'null values'       | msg(nothing: NullValue.NULL_VALUE.valueDescriptor,
+        nuls: [NullValue.NULL_VALUE.valueDescriptor])
+    'oneof string'      | msg(text: '')
+    'oneof message'     | msg(child: msg(child: msg(text: 'x')))
+    'nested'            | msg(children: [msg(i64: 1L), msg([:])], user_id: 3L)
+  }
+
+  @Unroll
+  def 'parses #name as JsonFormat'() {
+    expect:
+    canonical(parse(compiled, json)) == canonical(parse(reference, json))
+
+    where:
+    name                | json
+    'empty'             | '{}'
+    'whitespaces'       | ' {\n\t"i32" : 1 ,\r\n "str":"x" } '
+    'int64 as numbers'  | '{"i64":-9223372036854775808,"u64":18446744073709551615,"s64":"1e3"}'
+    'int64 as strings'  | '{"i64":"9223372036854775807","u64":"1","f64":"18446744073709551615"}'
+    'int32 exponent'    | '{"i32":1e2,"u32":4294967295}'
+    'float'             | '{"flt":"1.5e3","dbl":-1.0E-300,"doubles":[1,"2.5",0]}'
+    'float special'     | '{"flt":"NaN","dbl":"-Infinity","doubles":["Infinity"]}'
+    'bool'              | '{"flag":true}'
+    'quoted bool'       | '{"flag":"true"}'
+    'string escaping'   | '{"str":"a\\u00e9\\n\\"<\\/\\\\\\ud83d\\ude00中"}'
+    'bytes'             | '{"data":"AP8+P/s="}'
+    'url safe bytes'    | '{"data":"-_8="}'
+    'enum names'        | '{"color":"GREEN","colors":["RED","GREEN"]}'
+    'enum numbers'      | '{"color":1,"colors":[0,"1"]}'
+    'unknown enum'      | '{"color":7,"colors":[9,-1]}'
+    'map keys'          | '{"byLong":{"-1":"x","9007199254740993":"y"},"byBool":{"true":1,' +
+        '"false":2},"byUint":{"4294967295":1.5},"byName":{"a":{"i32":1}}}'
+    'well-known types'  | '{"ts":"1972-01-01T10:00:20.021Z","dur":"-1.5s","st":{"a":[1,"b",null,' +
+        'true,{}]},"val":{"x":null},"any":{"@type":"type.googleapis.com/google.rpc.RetryInfo",' +
+        '"retryDelay":"2s"},"mask":"a.b,cD","wrapped":"5"}'
+    'null fields'       | '{"i32":null,"str":null,"child":null,"children":null,"byLong":null}'
+    'null value'        | '{"val":null,"nul":null,"nuls":[null]}'
+    'oneof'             | '{"child":{"text":"x"}}'
+    'oneof with null'   | '{"text":null,"nothing":null}'
+    'proto name'        | '{"user_id":"1"}'
+    'json name'         | '{"userId":"1"}'
+  }
+
+  def 'keeps the sign of zero'() {
+    when: 'JsonFormat parses numbers by BigDecimal, losing it'
+    def message = parse(compiled, '{"flt":-0.0,"dbl":"-0","doubles":[-0e3]}')
+
+    then:
+    canonical(message) == '{"flt":-0.0,"dbl":-0.0,"doubles":[-0.0]}'
+  }
+
+  def 'sets NullValue fields to NULL_VALUE'() {
+    when:
+    def message = parse(compiled, '{"nothing":null,"nuls":[null,0]}')
+
+    then:
+    message.hasField(ALL.findFieldByName('nothing'))
+    message.getField(ALL.findFieldByName('nothing')) == NullValue.NULL_VALUE.valueDescriptor
+    message.getRepeatedFieldCount(ALL.findFieldByName('nuls')) == 2
+  }
+
+  @Unroll
+  def 'rejects #name as JsonFormat'() {
+    when:
+    parse(reference, json)
+
+    then:
+    thrown(InvalidProtocolBufferException)
+
+    when:
+    parse(compiled, json)
+
+    then:
+    thrown(InvalidProtocolBufferException)
+
+    where:
+    name                     | json
+    'proto and json name'    | '{"user_id":"1","userId":"2"}'
+    'two oneof fields'       | '{"text":"a","child":{}}'
+    'oneof message first'    | '{"child":{},"nothing":null}'
+    'unknown field'          | '{"x":1}'
+    'int32 out of range'     | '{"i32":2147483648}'
+    'uint32 negative'        | '{"u32":-1}'
+    'uint64 out of range'    | '{"u64":"18446744073709551616"}'
+    'int64 fraction'         | '{"i64":"1.5"}'
+    'float out of range'     | '{"flt":1e39}'
+    'invalid enum'           | '{"color":"BLUE"}'
+    'invalid bool'           | '{"flag":1}'
+    'null repeated element'  | '{"int64s":[null]}'
+    'null map value'         | '{"byName":{"a":null}}'
+    'invalid bytes'          | '{"data":"!"}'
+    'malformed'              | '{"i32":1'
+  }
+
+  def 'rejects a field given twice under the same name'() {
+    when:
+    parse(compiled, '{"str":"a","str":"b"}')
+
+    then:
+    thrown(InvalidProtocolBufferException)
+  }
+
+  def 'prints and parses random messages as JsonFormat'() {
+    given:
+    def rnd = new Random(42)
+
+    expect:
+    (0..<500).each {
+      def message = random(rnd, 2)
+      def json = print(reference, message)
+      assert print(compiled, message) == json
+      assert canonical(parse(compiled, json)) == canonical(message)
+    }
+  }
+
+  private static String print(JsonCodec codec, Message message) {
+    def out = new ByteArrayOutputStream()
+    codec.write(message, out)
+    new String(out.toByteArray(), StandardCharsets.UTF_8)
+  }
+
+  private static Message parse(JsonCodec codec, String json) {
+    def builder = DynamicMessage.newBuilder(ALL)
+    def bytes = json.getBytes(StandardCharsets.UTF_8)
+    codec.merge(bytes, 0, bytes.length, builder)
+    builder.build()
+  }
+
+  /**
+   * Compares messages as printed by JsonFormat, since unknown enum values equal by identity only,
+   * and one created by {@link EnumDescriptor#findValueByNumberCreatingIfUnknown} may be collected
+   * and created anew.
+   */
+  private String canonical(Message message) {
+    print(reference, message)
+  }
+
+  private static Message msg(Map<String, Object> fields) {
+    def builder = DynamicMessage.newBuilder(ALL)
+    fields.each { name, value ->
+      def field = ALL.findFieldByName(name)
+      if (field.repeated) {
+        value.each { builder.addRepeatedField(field, it) }
+      } else {
+        builder.setField(field, value)
+      }
+    }
+    builder.build()
+  }
+
+  private static List<Message> entries(String name, Map<Object, Object> map) {
+    def type = ALL.findFieldByName(name).messageType
+    map.collect { key, value ->
+      DynamicMessage.newBuilder(type)
+          .setField(type.findFieldByName('key'), key)
+          .setField(type.findFieldByName('value'), value)
+          .build()
+    }
+  }
+
+  private static EnumValueDescriptor unknownColor(int number) {
+    COLOR.findValueByNumberCreatingIfUnknown(number)
+  }
+
+  private static Struct struct() {
+    Struct.newBuilder()
+        .putFields('n', Value.newBuilder().setNumberValue(1.0E-7d).build())
+        .putFields('s', Value.newBuilder().setStringValue('< >').build())
+        .putFields('b', Value.newBuilder().setBoolValue(true).build())
+        .putFields('z', Value.newBuilder().setNullValue(NullValue.NULL_VALUE).build())
+        .putFields('l', Value.newBuilder().setListValue(ListValue.newBuilder()
+            .addValues(Value.newBuilder().setNumberValue(2))).build())
+        .build()
+  }
+
+  private static Message random(Random rnd, int depth) {
+    def builder = DynamicMessage.newBuilder(ALL)
+    def maybe = { String name, Closure<?> value ->
+      if (rnd.nextInt(3) == 0) {
+        def field = ALL.findFieldByName(name)
+        if (field.repeated) {
+          value().each { builder.addRepeatedField(field, it) }
+        } else {
+          builder.setField(field, value())
+        }
+      }
+    }
+    def aLong = { rnd.nextBoolean() ? LONGS[rnd.nextInt(LONGS.size())] : rnd.nextLong() }
+    def aFloat = {
+      rnd.nextBoolean() ? FLOATS[rnd.nextInt(FLOATS.size())] : Float.intBitsToFloat(rnd.nextInt())
+    }
+    def aDouble = {
+      rnd.nextBoolean()
+          ? DOUBLES[rnd.nextInt(DOUBLES.size())]
+          : Double.longBitsToDouble(rnd.nextLong())
+    }
+    def aString = {
+      def sb = new StringBuilder()
+      rnd.nextInt(8).times {
+        def i = rnd.nextInt(CHARS.length())
+        sb.append(Character.isSurrogate(CHARS.charAt(i)) ? '😀' : CHARS.charAt(i))
+      }
+      sb.toString()
+    }
+    def many = { Closure<?> value -> (0..<rnd.nextInt(4)).collect { value() } }
+
+    maybe('i32') { rnd.nextInt() }
+    maybe('i64', aLong)
+    maybe('u32') { rnd.nextInt() }
+    maybe('u64', aLong)
+    maybe('s64', aLong)
+    maybe('f64', aLong)
+    maybe('flt', aFloat)
+    maybe('dbl', aDouble)
+    maybe('flag') { rnd.nextBoolean() }
+    maybe('str', aString)
+    maybe('data') {
+      def bytes = new byte[rnd.nextInt(8)]
+      rnd.nextBytes(bytes)
+      ByteString.copyFrom(bytes)
+    }
+    maybe('color') { unknownColor(rnd.nextInt(4)) }
+    maybe('int64s') { many(aLong) }
+    maybe('doubles') { many(aDouble) }
+    maybe('colors') { many { unknownColor(rnd.nextInt(3)) } }
+    maybe('by_long') { entries('by_long', many(aLong).toSet().collectEntries { [it, aString()] }) }
+    maybe('by_bool') { entries('by_bool', [(rnd.nextBoolean()): rnd.nextInt()]) }
+    maybe('by_uint') {
+      entries('by_uint', many { rnd.nextInt() }.toSet().collectEntries { [it, aDouble()] })
+    }
+    maybe('ts') {
+      Timestamp.newBuilder()
+          .setSeconds((long) (rnd.nextDouble() * 253402300799L))
+          .setNanos([0, 1000000, 1000, 1].get(rnd.nextInt(4)) * rnd.nextInt(1000))
+          .build()
+    }
+    maybe('dur') { Duration.newBuilder().setSeconds(rnd.nextInt()).setNanos(0).build() }
+    maybe('st') { struct() }
+    maybe('wrapped') { Int64Value.newBuilder().setValue(aLong()).build() }
+    maybe('nuls') { many { NullValue.NULL_VALUE.valueDescriptor } }
+    maybe('user_id', aLong)
+    if (depth > 0) {
+      maybe('by_name') {
+        entries('by_name', many(aString).toSet().collectEntries { [it, random(rnd, depth - 1)] })
+      }
+      maybe('children') { many { random(rnd, depth - 1) } }
+    }
+    switch (rnd.nextInt(4)) {
+      case 0:
+        maybe('text', aString)
+        break
+      case 1:
+        maybe('nothing') { NullValue.NULL_VALUE.valueDescriptor }
+        break
+      case 2:
+        if (depth > 0) {
+          maybe('child') { random(rnd, depth - 1) }
+        }
+        break
+    }
+    builder.build()
+  }
+
+  private static DescriptorProto allType() {
+    def all = DescriptorProto.newBuilder()
+        .setName('All')
+        .addOneofDecl(OneofDescriptorProto.newBuilder().setName('choice'))
+        .addNestedType(mapEntry('ByLongEntry', TYPE_INT64, field('value', 2, TYPE_STRING)))
+        .addNestedType(mapEntry('ByBoolEntry', TYPE_BOOL, field('value', 2, TYPE_INT32)))
+        .addNestedType(mapEntry('ByUintEntry', TYPE_UINT32, field('value', 2, TYPE_DOUBLE)))
+        .addNestedType(mapEntry('ByNameEntry', TYPE_STRING,
+            field('value', 2, TYPE_MESSAGE, '.golden.All')))
+    [
+        field('i32', 1, TYPE_INT32),
+        field('i64', 2, TYPE_INT64),
+        field('u32', 3, TYPE_UINT32),
+        field('u64', 4, TYPE_UINT64),
+        field('s64', 5, TYPE_SINT64),
+        field('f64', 6, TYPE_FIXED64),
+        field('flt', 7, TYPE_FLOAT),
+        field('dbl', 8, TYPE_DOUBLE),
+        field('flag', 9, TYPE_BOOL),
+        field('str', 10, TYPE_STRING),
+        field('data', 11, TYPE_BYTES),
+        field('color', 12, TYPE_ENUM, '.golden.Color'),
+        field('int64s', 13, TYPE_INT64).setLabel(LABEL_REPEATED),
+        field('doubles', 14, TYPE_DOUBLE).setLabel(LABEL_REPEATED),
+        field('colors', 15, TYPE_ENUM, '.golden.Color').setLabel(LABEL_REPEATED),
+        field('by_long', 16, TYPE_MESSAGE, '.golden.All.ByLongEntry').setLabel(LABEL_REPEATED),
+        field('by_bool', 17, TYPE_MESSAGE, '.golden.All.ByBoolEntry').setLabel(LABEL_REPEATED),
+        field('by_uint', 18, TYPE_MESSAGE, '.golden.All.ByUintEntry').setLabel(LABEL_REPEATED),
+        field('by_name', 19, TYPE_MESSAGE, '.golden.All.ByNameEntry').setLabel(LABEL_REPEATED),
+        field('ts', 20, TYPE_MESSAGE, '.google.protobuf.Timestamp'),
+        field('dur', 21, TYPE_MESSAGE, '.google.protobuf.Duration'),
+        field('st', 22, TYPE_MESSAGE, '.google.protobuf.Struct'),
+        field('val', 23, TYPE_MESSAGE, '.google.protobuf.Value'),
+        field('any', 24, TYPE_MESSAGE, '.google.protobuf.Any'),
+        field('mask', 25, TYPE_MESSAGE, '.google.protobuf.FieldMask'),
+        field('wrapped', 26, TYPE_MESSAGE, '.google.protobuf.Int64Value'),
+        field('nul', 27, TYPE_ENUM, '.google.protobuf.NullValue'),
+        field('text', 28, TYPE_STRING).setOneofIndex(0),
+        field('child', 29, TYPE_MESSAGE, '.golden.All').setOneofIndex(0),
+        field('nothing', 30, TYPE_ENUM, '.google.protobuf.NullValue').setOneofIndex(0),
+        field('children', 31, TYPE_MESSAGE, '.golden.All').setLabel(LABEL_REPEATED),
+        field('nuls', 32, TYPE_ENUM, '.google.protobuf.NullValue').setLabel(LABEL_REPEATED),
+        field('user_id', 33, TYPE_UINT64),
+    ].each { all.addField(it) }
+    all.build()
+  }
+
+  private static DescriptorProto mapEntry(String name, FieldDescriptorProto.Type keyType,
+      FieldDescriptorProto.Builder value) {
+    DescriptorProto.newBuilder()
+        .setName(name)
+        .setOptions(MessageOptions.newBuilder().setMapEntry(true))
+        .addField(field('key', 1, keyType))
+        .addField(value)
+        .build()
+  }
+
+  private static FieldDescriptorProto.Builder field(String name, int number,
+      FieldDescriptorProto.Type type, String typeName = null) {
+    def field = FieldDescriptorProto.newBuilder()
+        .setName(name)
+        .setNumber(number)
+        .setType(type)
+        .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+    typeName ? field.setTypeName(typeName) : field
+  }
+}
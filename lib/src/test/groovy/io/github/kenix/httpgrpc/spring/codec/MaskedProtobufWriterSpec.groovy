@@ -0,0 +1,95 @@
+package io.github.kenix.httpgrpc.spring.codec
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.google.protobuf.DescriptorProtos.DescriptorProto
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileOptions
+import java.nio.charset.StandardCharsets
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * @author zzhao
+ */
+class MaskedProtobufWriterSpec extends Specification {
+
+  static final FileDescriptorProto MESSAGE = FileDescriptorProto.newBuilder()
+      .setName('a.proto')
+      .setPackage('a')
+      .setOptions(FileOptions.newBuilder().setJavaPackage('x.a').setJavaMultipleFiles(true))
+      .addMessageType(DescriptorProto.newBuilder()
+          .setName('Outer')
+          .addField(FieldDescriptorProto.newBuilder().setName('f1').setNumber(1).setJsonName('f'))
+          .addField(FieldDescriptorProto.newBuilder().setName('f2').setNumber(2))
+          .addNestedType(DescriptorProto.newBuilder()
+              .setName('Inner')
+              .addField(FieldDescriptorProto.newBuilder().setName('g').setNumber(3))))
+      .addMessageType(DescriptorProto.newBuilder().setName('Empty'))
+      .addDependency('b.proto')
+      .build()
+
+  @Unroll
+  def 'writes only #paths'() {
+    given:
+    def mask = CompiledFieldMask.compile(FileDescriptorProto.descriptor, paths)
+    def out = new ByteArrayOutputStream()
+
+    when:
+    MaskedProtobufWriter.write(MESSAGE, mask, out)
+    def written = FileDescriptorProto.parseFrom(out.toByteArray())
+
+    then:
+    written == expected
+    written == mask.trim(MESSAGE)
+    MaskedProtobufWriter.size(MESSAGE, mask) == out.size()
+
+    where:
+    paths                               | expected
+    'name'                              | FileDescriptorProto.newBuilder().setName('a.proto').build()
+    'options,dependency'                | FileDescriptorProto.newBuilder()
+        .setOptions(MESSAGE.options).addDependency('b.proto').build()
+    'messageType.name'                  | FileDescriptorProto.newBuilder()
+        .addMessageType(DescriptorProto.newBuilder().setName('Outer'))
+        .addMessageType(DescriptorProto.newBuilder().setName('Empty')).build()
+    'message_type.field.number,package' | FileDescriptorProto.newBuilder()
+        .setPackage('a')
+        .addMessageType(DescriptorProto.newBuilder()
+            .addField(FieldDescriptorProto.newBuilder().setNumber(1))
+            .addField(FieldDescriptorProto.newBuilder().setNumber(2)))
+        .addMessageType(DescriptorProto.newBuilder()).build()
+    'message_type.nested_type.field'    | FileDescriptorProto.newBuilder()
+        .addMessageType(DescriptorProto.newBuilder()
+            .addNestedType(DescriptorProto.newBuilder()
+                .addField(MESSAGE.getMessageType(0).getNestedType(0).getField(0))))
+        .addMessageType(DescriptorProto.newBuilder()).build()
+  }
+
+  @Unroll
+  def 'writes JSON of only #paths'() {
+    given:
+    def mask = CompiledFieldMask.compile(FileDescriptorProto.descriptor, paths)
+
+    when:
+    def json = write(new CompiledJsonCodec(), mask)
+    def tree = new ObjectMapper().readTree(json)
+
+    then:
+    json == write(new JsonFormatCodec(), mask)
+    tree.fieldNames().toList() == names
+    tree.path('messageType').every { it.fieldNames().toList() == ['name'] }
+
+    where:
+    paths                      | names
+    'name'                     | ['name']
+    'options,dependency'       | ['dependency', 'options']
+    'messageType.name'         | ['messageType']
+    'message_type.name,syntax' | ['messageType']
+  }
+
+  private static String write(JsonCodec codec, CompiledFieldMask mask) {
+    def out = new ByteArrayOutputStream()
+    codec.write(MESSAGE, mask, out)
+    new String(out.toByteArray(), StandardCharsets.UTF_8)
+  }
+}
@@ -0,0 +1,94 @@
+package io.github.kenix.httpgrpc.spring.jfr
+
+import io.github.kenix.httpgrpc.spring.TranscodeRecord
+import java.nio.file.Files
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordingFile
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class JfrTranscodeListenerSpec extends Specification {
+
+  static final String TRANSCODE = 'io.github.kenix.httpgrpc.Transcode'
+  static final String SLOW_TRANSCODE = 'io.github.kenix.httpgrpc.SlowTranscode'
+
+  def listener = new JfrTranscodeListener(TimeUnit.MILLISECONDS.toNanos(20))
+  def file = Files.createTempFile('transcode', '.jfr')
+
+  def cleanup() {
+    Files.deleteIfExists(file)
+  }
+
+  def 'is enabled only while a recording enables its events'() {
+    given:
+    def recording = new Recording()
+    recording.enable(SLOW_TRANSCODE)
+
+    expect:
+    !listener.enabled
+
+    when:
+    recording.start()
+
+    then:
+    listener.enabled
+
+    cleanup:
+    recording.close()
+  }
+
+  def 'emits transcode events, slow ones in addition above the threshold'() {
+    given:
+    def recording = new Recording()
+    recording.enable(TRANSCODE).withThreshold(Duration.ZERO)
+    recording.enable(SLOW_TRANSCODE).withThreshold(Duration.ZERO)
+    recording.start()
+
+    when:
+    listener.onTranscoded(record('GET /v1/fast', 0))
+    listener.onTranscoded(record('GET /v1/slow', 30))
+    recording.stop()
+    recording.dump(file)
+    def events = RecordingFile.readAllEvents(file)
+
+    then:
+    events.findAll { it.eventType.name == TRANSCODE }*.getString('route') ==
+        ['GET /v1/fast', 'GET /v1/slow']
+    events.findAll { it.eventType.name == SLOW_TRANSCODE }*.getString('route') ==
+        ['GET /v1/slow']
+
+    and:
+    def event = events.find { it.eventType.name == TRANSCODE }
+    event.getString('method') == 'a.A.X'
+    event.getString('strategy') == 'Direct'
+    event.getString('requestContentType') == 'application/json'
+    event.getLong('requestBytes') == 12
+    event.getLong('responseBytes') == 34
+    event.getInt('status') == 200
+    event.getDuration('totalDuration') == event.getDuration('bindDuration') +
+        event.getDuration('callDuration') + event.getDuration('writeDuration')
+
+    cleanup:
+    recording.close()
+  }
+
+  private static TranscodeRecord record(String route, long callMillis) {
+    def record = new TranscodeRecord(route, 'a.A.X', 'Direct')
+    record.setRequestContentType('application/json')
+    record.setResponseContentType('application/json')
+    record.setRequestBytes(12)
+    record.bound()
+    if (callMillis > 0) {
+      Thread.sleep(callMillis)
+    }
+    record.called()
+    record.written()
+    record.setStatus(200)
+    record.setResponseBytes(34)
+    record
+  }
+}
@@ -0,0 +1,88 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class BackendRingSpec extends Specification {
+
+  static final List<String> TARGETS = (0..4).collect { "greeter-${it}.greeter:9898".toString() }
+  static final List<Long> KEYS = new Random(42).with { r -> (1..1000).collect { r.nextLong() } }
+
+  List<BackendRing> rings = []
+
+  def cleanup() {
+    this.rings*.shutdown()
+  }
+
+  def 'maps keys to the same backend'() {
+    given:
+    def ring = newRing(TARGETS, 1.25)
+    def again = newRing(TARGETS.reverse(), 1.25)
+
+    when:
+    def first = KEYS.collect { target(ring, it) }
+
+    then:
+    KEYS.collect { target(ring, it) } == first
+    KEYS.collect { target(again, it) } == first
+
+    and: 'spread over all backends'
+    first.toSet() == TARGETS.toSet()
+  }
+
+  def 'moves only the keys of a removed backend'() {
+    given:
+    def removed = TARGETS[2]
+    def before = KEYS.collect { target(newRing(TARGETS, 1.25), it) }
+
+    when:
+    def after = KEYS.collect { target(newRing(TARGETS - removed, 1.25), it) }
+
+    then:
+    [before, after].transpose().every { b, a -> b == removed ? a != removed : a == b }
+    before.count(removed) > 0
+  }
+
+  def 'spills over to the next backend beyond the load factor'() {
+    given:
+    def ring = newRing(TARGETS[0..1], 1)
+    def key = KEYS[0]
+
+    when: 'calls of one key in flight'
+    def backends = (1..4).collect { ring.acquire(key) }
+
+    then: 'capacity is the load factor times the average in-flight calls'
+    backends[0].target != backends[1].target
+    backends[2].target == backends[0].target
+    backends[3].target == backends[1].target
+
+    when:
+    backends.each { ring.release(it) }
+
+    then:
+    target(ring, key) == backends[0].target
+  }
+
+  def 'routes calls without key to the least loaded backend'() {
+    given:
+    def ring = newRing(TARGETS[0..1], 1.25)
+    def busy = ring.acquire(KEYS[0])
+
+    expect:
+    ring.acquire(null).target != busy.target
+  }
+
+  private BackendRing newRing(List<String> targets, double loadFactor) {
+    def ring = new BackendRing(targets, loadFactor)
+    this.rings << ring
+    ring
+  }
+
+  private static String target(BackendRing ring, Long key) {
+    def backend = ring.acquire(key)
+    ring.release(backend)
+    backend.target
+  }
+}
@@ -0,0 +1,378 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import io.grpc.CallOptions
+import io.grpc.ClientCall
+import io.grpc.Context
+import io.grpc.Metadata
+import io.grpc.MethodDescriptor
+import io.grpc.MethodDescriptor.MethodType
+import io.grpc.ServerCall
+import io.grpc.ServerCallHandler
+import io.grpc.ServerServiceDefinition
+import io.grpc.Status
+import io.grpc.stub.ServerCalls
+import io.grpc.stub.StreamObserver
+import java.nio.charset.StandardCharsets
+import spock.lang.Specification
+
+/**
+ * Direct calls through a {@link DirectChannel} of a real {@link ServerServiceDefinition}.
+ *
+ * @author zzhao
+ */
+class DirectServerCallSpec extends Specification {
+
+  static final MethodDescriptor.Marshaller<String> STRING = [
+      stream: { String value -> new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8)) },
+      parse : { InputStream stream -> new String(stream.bytes, StandardCharsets.UTF_8) }
+  ] as MethodDescriptor.Marshaller
+  static final Metadata.Key<String> HEADER = Metadata.Key.of('h', Metadata.ASCII_STRING_MARSHALLER)
+  static final Metadata.Key<String> TRAILER = Metadata.Key.of('t', Metadata.ASCII_STRING_MARSHALLER)
+  static final int THRESHOLD = DirectServerCall.READY_THRESHOLD
+
+  ServerCall<String, String> serverCall
+  Context serverContext
+  ServerRecorder server = new ServerRecorder()
+  ClientRecorder client = new ClientRecorder()
+  DirectChannel channel
+
+  def setup() {
+    def service = ServerServiceDefinition.builder('test.Test')
+        .addMethod(method('Unary', MethodType.UNARY), ServerCalls.asyncUnaryCall(
+            { String req, StreamObserver<String> observer ->
+              if (req == 'fail') {
+                throw new IllegalStateException('boom')
+              }
+              observer.onNext(req.toUpperCase())
+              observer.onCompleted()
+            } as ServerCalls.UnaryMethod))
+        .addMethod(method('Collect', MethodType.CLIENT_STREAMING),
+            ServerCalls.asyncClientStreamingCall({ StreamObserver<String> observer ->
+              def collected = new StringBuilder()
+              [onNext     : { String req -> collected.append(req) },
+               onError    : { Throwable t -> },
+               onCompleted: { observer.onNext(collected.toString()); observer.onCompleted() }
+              ] as StreamObserver
+            } as ServerCalls.ClientStreamingMethod))
+        .addMethod(method('Split', MethodType.SERVER_STREAMING),
+            ServerCalls.asyncServerStreamingCall({ String req, StreamObserver<String> observer ->
+              req.each { observer.onNext(it) }
+              observer.onCompleted()
+            } as ServerCalls.ServerStreamingMethod))
+        .addMethod(method('Echo', MethodType.BIDI_STREAMING), ServerCalls.asyncBidiStreamingCall(
+            { StreamObserver<String> observer ->
+              [onNext     : { String req -> observer.onNext(req.toUpperCase()) },
+               onError    : { Throwable t -> },
+               onCompleted: { observer.onCompleted() }
+              ] as StreamObserver
+            } as ServerCalls.BidiStreamingMethod))
+        .addMethod(method('Raw', MethodType.BIDI_STREAMING),
+            { ServerCall<String, String> call, Metadata headers ->
+              serverCall = call
+              serverContext = Context.current()
+              server
+            } as ServerCallHandler)
+        .build()
+    channel = new DirectChannel(service.methods)
+  }
+
+  def 'makes unary calls'() {
+    when:
+    def call = start('Unary', MethodType.UNARY)
+    call.request(1)
+    call.sendMessage('hi')
+    call.halfClose()
+
+    then:
+    client.messages == ['HI']
+    client.status.isOk()
+  }
+
+  def 'makes client streaming calls'() {
+    when:
+    def call = start('Collect', MethodType.CLIENT_STREAMING)
+    call.request(1)
+    ['a', 'b', 'c'].each { call.sendMessage(it) }
+
+    then:
+    client.messages.isEmpty()
+
+    when:
+    call.halfClose()
+
+    then:
+    client.messages == ['abc']
+    client.status.isOk()
+  }
+
+  def 'delivers server streamed messages as requested'() {
+    given:
+    def call = start('Split', MethodType.SERVER_STREAMING)
+
+    when:
+    call.request(1)
+    call.sendMessage('abc')
+    call.halfClose()
+
+    then: 'closed after the remaining messages'
+    client.messages == ['a']
+    client.status == null
+
+    when:
+    call.request(5)
+
+    then:
+    client.messages == ['a', 'b', 'c']
+    client.status.isOk()
+  }
+
+  def 'makes bidi streaming calls'() {
+    given:
+    def call = start('Echo', MethodType.BIDI_STREAMING)
+    call.request(10)
+
+    when:
+    call.sendMessage('a')
+
+    then:
+    client.messages == ['A']
+
+    when:
+    call.sendMessage('b')
+    call.halfClose()
+
+    then:
+    client.messages == ['A', 'B']
+    client.status.isOk()
+  }
+
+  def 'delivers messages to the server as it requests them'() {
+    given:
+    def call = start('Raw', MethodType.BIDI_STREAMING)
+
+    when:
+    call.sendMessage('a')
+    call.sendMessage('b')
+    call.halfClose()
+
+    then:
+    server.messages.isEmpty()
+    !server.halfClosed
+
+    when:
+    serverCall.request(1)
+
+    then:
+    server.messages == ['a']
+    !server.halfClosed
+
+    when:
+    serverCall.request(1)
+
+    then:
+    server.messages == ['a', 'b']
+    server.halfClosed
+  }
+
+  def 'gets the server not ready while its messages are buffered'() {
+    given:
+    start('Raw', MethodType.BIDI_STREAMING)
+
+    when:
+    (1..<THRESHOLD).each { serverCall.sendMessage("m$it".toString()) }
+
+    then:
+    server.ready == 1
+    serverCall.isReady()
+
+    when:
+    serverCall.sendMessage('last')
+
+    then:
+    !serverCall.isReady()
+
+    when:
+    client.call.request(THRESHOLD)
+
+    then:
+    client.messages.size() == THRESHOLD
+    serverCall.isReady()
+    server.ready == 2
+  }
+
+  def 'gets the client not ready while its messages are buffered'() {
+    given:
+    def call = start('Raw', MethodType.BIDI_STREAMING)
+
+    when:
+    (1..<THRESHOLD).each { call.sendMessage("m$it".toString()) }
+
+    then:
+    client.ready == 1
+    call.isReady()
+
+    when:
+    call.sendMessage('last')
+
+    then:
+    !call.isReady()
+
+    when:
+    serverCall.request(THRESHOLD)
+
+    then:
+    server.messages.size() == THRESHOLD
+    call.isReady()
+    client.ready == 2
+  }
+
+  def 'delivers headers and trailers to the client'() {
+    given:
+    def call = start('Raw', MethodType.BIDI_STREAMING)
+    call.request(1)
+
+    when:
+    serverCall.sendHeaders(metadata(HEADER, '1'))
+    serverCall.sendMessage('x')
+    serverCall.close(Status.OK, metadata(TRAILER, '2'))
+
+    then:
+    client.headers.get(HEADER) == '1'
+    client.messages == ['x']
+    client.status.isOk()
+    client.trailers.get(TRAILER) == '2'
+
+    and:
+    server.completed
+    serverContext.isCancelled() // done
+  }
+
+  def 'cancels the server call and its context'() {
+    given:
+    def call = start('Raw', MethodType.BIDI_STREAMING)
+
+    when:
+    call.cancel('bye', null)
+
+    then:
+    server.cancelled
+    serverCall.isCancelled()
+    serverContext.isCancelled()
+    client.status.code == Status.Code.CANCELLED
+
+    when: 'the server closes afterwards'
+    serverCall.close(Status.OK, new Metadata())
+
+    then:
+    noExceptionThrown()
+    client.closeCount == 1
+  }
+
+  def 'closes with UNKNOWN when the server fails'() {
+    when:
+    def call = start('Unary', MethodType.UNARY)
+    call.request(1)
+    call.sendMessage('fail')
+    call.halfClose()
+
+    then:
+    client.messages.isEmpty()
+    client.status.code == Status.Code.UNKNOWN
+    client.status.cause instanceof IllegalStateException
+  }
+
+  def 'closes calls of unknown methods with UNIMPLEMENTED'() {
+    when:
+    start('Nope', MethodType.UNARY)
+
+    then:
+    client.status.code == Status.Code.UNIMPLEMENTED
+  }
+
+  private ClientCall<String, String> start(String name, MethodType type) {
+    def call = channel.newCall(method(name, type), CallOptions.DEFAULT)
+    client.call = call
+    call.start(client, new Metadata())
+    call
+  }
+
+  private static MethodDescriptor<String, String> method(String name, MethodType type) {
+    MethodDescriptor.newBuilder(STRING, STRING)
+        .setType(type)
+        .setFullMethodName(MethodDescriptor.generateFullMethodName('test.Test', name))
+        .build()
+  }
+
+  private static Metadata metadata(Metadata.Key<String> key, String value) {
+    def metadata = new Metadata()
+    metadata.put(key, value)
+    metadata
+  }
+
+  static class ClientRecorder extends ClientCall.Listener<String> {
+
+    ClientCall<String, String> call
+    Metadata headers
+    List<String> messages = []
+    Status status
+    Metadata trailers
+    int closeCount
+    int ready
+
+    @Override
+    void onHeaders(Metadata headers) {
+      this.headers = headers
+    }
+
+    @Override
+    void onMessage(String message) {
+      messages << message
+    }
+
+    @Override
+    void onClose(Status status, Metadata trailers) {
+      this.status = status
+      this.trailers = trailers
+      closeCount++
+    }
+
+    @Override
+    void onReady() {
+      ready++
+    }
+  }
+
+  static class ServerRecorder extends ServerCall.Listener<String> {
+
+    List<String> messages = []
+    boolean halfClosed
+    boolean cancelled
+    boolean completed
+    int ready
+
+    @Override
+    void onMessage(String message) {
+      messages << message
+    }
+
+    @Override
+    void onHalfClose() {
+      halfClosed = true
+    }
+
+    @Override
+    void onCancel() {
+      cancelled = true
+    }
+
+    @Override
+    void onComplete() {
+      completed = true
+    }
+
+    @Override
+    void onReady() {
+      ready++
+    }
+  }
+}
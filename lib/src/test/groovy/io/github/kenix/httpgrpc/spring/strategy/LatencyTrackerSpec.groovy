@@ -0,0 +1,38 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class LatencyTrackerSpec extends Specification {
+
+  def 'has no percentile before 64 samples'() {
+    given:
+    def tracker = new LatencyTracker(95)
+
+    when:
+    (1..63).each { tracker.record(it) }
+
+    then:
+    tracker.getPercentileNanos() == -1
+
+    when:
+    tracker.record(64)
+
+    then:
+    tracker.getPercentileNanos() == 61
+  }
+
+  def 'tracks recent samples only'() {
+    given:
+    def tracker = new LatencyTracker(50)
+
+    when:
+    512.times { tracker.record(1000) }
+    512.times { tracker.record(10) }
+
+    then:
+    tracker.getPercentileNanos() == 10
+  }
+}
@@ -0,0 +1,55 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class RetryBudgetSpec extends Specification {
+
+  def 'starts full and runs dry'() {
+    given:
+    def budget = new RetryBudget(2, 0.5)
+
+    expect:
+    budget.tryAcquire()
+    budget.tryAcquire()
+    !budget.tryAcquire()
+  }
+
+  def 'refills a fraction per success'() {
+    given:
+    def budget = new RetryBudget(1, 0.5)
+    budget.tryAcquire()
+
+    when:
+    budget.onSuccess()
+
+    then:
+    !budget.tryAcquire()
+
+    when:
+    budget.onSuccess()
+
+    then:
+    budget.tryAcquire()
+    !budget.tryAcquire()
+  }
+
+  def 'caps at the maximum'() {
+    given:
+    def budget = new RetryBudget(1, 1)
+
+    when:
+    10.times { budget.onSuccess() }
+
+    then:
+    budget.tryAcquire()
+    !budget.tryAcquire()
+  }
+
+  def 'allows nothing without tokens'() {
+    expect:
+    !new RetryBudget(0, 0.1).tryAcquire()
+  }
+}
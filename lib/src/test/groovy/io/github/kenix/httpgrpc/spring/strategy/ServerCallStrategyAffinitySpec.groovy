@@ -0,0 +1,60 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto
+import com.google.protobuf.DescriptorProtos.FileOptions
+import spock.lang.Specification
+import spock.lang.Unroll
+
+/**
+ * @author zzhao
+ */
+class ServerCallStrategyAffinitySpec extends Specification {
+
+  @Unroll
+  def 'resolves key path #path'() {
+    expect:
+    ServerCallStrategyAffinity.resolveKeyPath(FileDescriptorProto.descriptor, path)*.name == names
+
+    where:
+    path                        | names
+    null                        | []
+    'name'                      | ['name']
+    'options.java_package'      | ['options', 'java_package']
+    'options.optimize_for'      | ['options', 'optimize_for']
+  }
+
+  @Unroll
+  def 'rejects key path #path'() {
+    when:
+    ServerCallStrategyAffinity.resolveKeyPath(FileDescriptorProto.descriptor, path)
+
+    then:
+    thrown(IllegalArgumentException)
+
+    where:
+    path << ['nope', 'dependency', 'options', 'name.x']
+  }
+
+  def 'hashes scalar keys deterministically'() {
+    given:
+    def strategy = affinity('options.java_package')
+    def message = {
+      FileDescriptorProto.newBuilder()
+          .setName(it)
+          .setOptions(FileOptions.newBuilder().setJavaPackage('x.a'))
+          .build()
+    }
+
+    expect:
+    strategy.keyHash(message('a.proto')) != null
+    strategy.keyHash(message('a.proto')) == strategy.keyHash(message('b.proto'))
+    affinity('name').keyHash(message('a.proto')) != affinity('name').keyHash(message('b.proto'))
+    strategy.keyHash(FileDescriptorProto.getDefaultInstance()) == null
+    affinity(null).keyHash(message('a.proto')) == null
+  }
+
+  private static ServerCallStrategyAffinity affinity(String path) {
+    new ServerCallStrategyAffinity(null, null,
+        ServerCallStrategyAffinity.resolveKeyPath(FileDescriptorProto.descriptor, path))
+  }
+}
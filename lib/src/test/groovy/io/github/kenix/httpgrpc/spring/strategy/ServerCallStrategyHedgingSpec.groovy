@@ -0,0 +1,77 @@
+package io.github.kenix.httpgrpc.spring.strategy
+
+import com.google.protobuf.Empty
+import com.google.protobuf.Message
+import io.grpc.Context
+import io.grpc.Status
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import spock.lang.Specification
+
+/**
+ * @author zzhao
+ */
+class ServerCallStrategyHedgingSpec extends Specification {
+
+  def scheduler = Executors.newSingleThreadScheduledExecutor()
+  def policy = new CallPolicy(hedgeDelayPercentile: 0, maxAttempts: 3)
+
+  def cleanup() {
+    scheduler.shutdownNow()
+  }
+
+  def 'shares one deadline among the attempts of a call'() {
+    given:
+    def deadlines = []
+    def delegate = Stub(ServerCallStrategy) {
+      callAsync(_ as Message) >> {
+        deadlines << Context.current().deadline
+        deadlines.size() < 3
+            ? failed(Status.UNAVAILABLE.asRuntimeException())
+            : CompletableFuture.completedFuture(Empty.getDefaultInstance())
+      }
+    }
+
+    when:
+    def resp = hedging(delegate).callAsync(Empty.getDefaultInstance()).get(5, TimeUnit.SECONDS)
+
+    then:
+    resp == Empty.getDefaultInstance()
+    deadlines.size() == 3
+    deadlines.every { it.is(deadlines[0]) }
+    deadlines[0].timeRemaining(TimeUnit.SECONDS) < ServerCallStrategyLocalRouting.DEADLINE_SECONDS
+  }
+
+  def 'fails the call when a retried attempt throws'() {
+    given:
+    def attempts = 0
+    def delegate = Stub(ServerCallStrategy) {
+      callAsync(_ as Message) >> {
+        if (attempts++ == 0) {
+          return failed(Status.UNAVAILABLE.asRuntimeException())
+        }
+        throw new IllegalStateException('attempt')
+      }
+    }
+
+    when:
+    hedging(delegate).callAsync(Empty.getDefaultInstance()).get(5, TimeUnit.SECONDS)
+
+    then:
+    def e = thrown(ExecutionException)
+    e.cause instanceof IllegalStateException
+    attempts == 2
+  }
+
+  private ServerCallStrategyHedging hedging(ServerCallStrategy delegate) {
+    new ServerCallStrategyHedging(delegate, policy, new RetryBudget(10, 0.1), scheduler)
+  }
+
+  private static CompletableFuture<Message> failed(Throwable t) {
+    def future = new CompletableFuture<Message>()
+    future.completeExceptionally(t)
+    future
+  }
+}